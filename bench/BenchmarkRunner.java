@@ -0,0 +1,157 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+public class BenchmarkRunner {
+    // Minimal, dependency-free harness in the spirit of JMH: timed warmup and
+    // measurement iterations on the calling thread, a sink that keeps results
+    // alive, and per-operation allocation measured through the HotSpot
+    // thread allocation counter (the same source as JMH's gc profiler).
+    public interface Operation {
+        Object run(int invocation);
+    }
+    
+    public static class Result {
+        String name;
+        long operations;
+        long elapsedNanos;
+        long allocatedBytes;
+        long gcCount;
+        long gcMillis;
+        
+        public double throughput() {
+            return operations * 1e9 / elapsedNanos;
+        }
+        
+        public double averageMicros() {
+            return elapsedNanos / 1e3 / operations;
+        }
+        
+        public double bytesPerOperation() {
+            return allocatedBytes < 0 ? Double.NaN : (double) allocatedBytes / operations;
+        }
+        
+        public double allocationRateMb() {
+            return allocatedBytes < 0 ? Double.NaN : allocatedBytes * 1e9 / elapsedNanos / (1024 * 1024);
+        }
+    }
+    
+    private static volatile int sink;
+    
+    private int warmupIterations;
+    private int measurementIterations;
+    private long iterationMillis;
+    private List<Result> results = new ArrayList<>();
+    
+    public BenchmarkRunner(int warmupIterations, int measurementIterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationMillis = iterationMillis;
+    }
+    
+    public Result run(String name, Operation operation) {
+        for (int i = 0; i < warmupIterations; i++) {
+            iterate(operation, iterationMillis * 1_000_000L, null);
+        }
+        
+        Result result = new Result();
+        result.name = name;
+        long allocatedBefore = allocatedBytes();
+        long[] gcBefore = gcTotals();
+        for (int i = 0; i < measurementIterations; i++) {
+            iterate(operation, iterationMillis * 1_000_000L, result);
+        }
+        long allocatedAfter = allocatedBytes();
+        long[] gcAfter = gcTotals();
+        result.allocatedBytes = allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore;
+        result.gcCount = gcAfter[0] - gcBefore[0];
+        result.gcMillis = gcAfter[1] - gcBefore[1];
+        
+        results.add(result);
+        print(result);
+        return result;
+    }
+    
+    public Result runOnce(String name, int repetitions, Operation operation) {
+        // For expensive operations such as loading: a fixed number of calls
+        // after one warmup call, instead of timed iterations
+        sink += Objects.hashCode(operation.run(-1));
+        Result result = new Result();
+        result.name = name;
+        long allocatedBefore = allocatedBytes();
+        long[] gcBefore = gcTotals();
+        long start = System.nanoTime();
+        for (int i = 0; i < repetitions; i++) {
+            sink += Objects.hashCode(operation.run(i));
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        result.operations = repetitions;
+        long allocatedAfter = allocatedBytes();
+        long[] gcAfter = gcTotals();
+        result.allocatedBytes = allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore;
+        result.gcCount = gcAfter[0] - gcBefore[0];
+        result.gcMillis = gcAfter[1] - gcBefore[1];
+        
+        results.add(result);
+        print(result);
+        return result;
+    }
+    
+    public List<Result> getResults() {
+        return results;
+    }
+    
+    public static void printHeader() {
+        System.out.printf("%-44s %14s %12s %12s %12s %6s %8s%n",
+                          "Benchmark", "ops/s", "avg us/op", "B/op", "MB/s alloc", "GCs", "GC ms");
+    }
+    
+    private void iterate(Operation operation, long durationNanos, Result result) {
+        // Check the clock every 64 calls so timing stays out of the hot loop
+        long start = System.nanoTime();
+        long deadline = start + durationNanos;
+        long operations = 0;
+        long now;
+        int hash = 0;
+        do {
+            for (int i = 0; i < 64; i++) {
+                hash += Objects.hashCode(operation.run((int) operations++));
+            }
+            now = System.nanoTime();
+        } while (now < deadline);
+        sink += hash;
+        
+        if (result != null) {
+            result.operations += operations;
+            result.elapsedNanos += now - start;
+        }
+    }
+    
+    private static void print(Result result) {
+        System.out.printf("%-44s %14.1f %12.3f %12.1f %12.1f %6d %8d%n",
+                          result.name, result.throughput(), result.averageMicros(),
+                          result.bytesPerOperation(), result.allocationRateMb(),
+                          result.gcCount, result.gcMillis);
+    }
+    
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+            if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+                return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+    
+    private static long[] gcTotals() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[] {count, millis};
+    }
+}
\ No newline at end of file
@@ -0,0 +1,167 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+public class ChatLoadGenerator {
+    // Closed-loop load generator for ChatServer: each connection sends a
+    // message, waits for the reply line, records the round trip and sends the
+    // next one. All connections are driven from one Selector, so tens of
+    // thousands of sessions need no more than one client thread.
+    //
+    //   java -cp out ChatLoadGenerator [connections] [seconds] [host:port]
+    //
+    // Without host:port an embedded server is started on a synthetic corpus.
+    // Large connection counts need a matching `ulimit -n` on both ends.
+    private InetSocketAddress address;
+    private int connectionCount;
+    private byte[][] messages;
+    private LatencyHistogram latencies = new LatencyHistogram();
+    private long errors;
+    
+    public ChatLoadGenerator(InetSocketAddress address, int connectionCount, List<String> messages) {
+        this.address = address;
+        this.connectionCount = connectionCount;
+        this.messages = new byte[messages.size()][];
+        for (int i = 0; i < messages.size(); i++) {
+            this.messages[i] = (messages.get(i) + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+    
+    private class Client {
+        private SocketChannel channel;
+        private ByteBuffer output;
+        private long sentAt;
+        private int next;
+        
+        Client(SocketChannel channel, int first) {
+            this.channel = channel;
+            this.next = first;
+        }
+        
+        void send(SelectionKey key) throws IOException {
+            output = ByteBuffer.wrap(messages[next++ % messages.length]);
+            sentAt = System.nanoTime();
+            write(key);
+        }
+        
+        void write(SelectionKey key) throws IOException {
+            channel.write(output);
+            key.interestOps(output.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+    
+    public void run(long durationMillis) throws IOException {
+        Selector selector = Selector.open();
+        ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        int connected = 0;
+        
+        // Open every connection up front; replies only count once all are up
+        long connectStart = System.nanoTime();
+        for (int i = 0; i < connectionCount; i++) {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.connect(address);
+            channel.register(selector, SelectionKey.OP_CONNECT, new Client(channel, i));
+        }
+        
+        long measureStart = 0;
+        long measureEnd = Long.MAX_VALUE;
+        long completed = 0;
+        while (System.nanoTime() < measureEnd) {
+            selector.select(100);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Client client = (Client) key.attachment();
+                try {
+                    if (key.isConnectable()) {
+                        client.channel.finishConnect();
+                        client.send(key);
+                        if (++connected == connectionCount) {
+                            System.out.printf("Connected %d sessions in %.1f ms%n", connected,
+                                              (System.nanoTime() - connectStart) / 1e6);
+                            latencies.reset();
+                            measureStart = System.nanoTime();
+                            measureEnd = measureStart + durationMillis * 1_000_000L;
+                        }
+                    } else if (key.isWritable()) {
+                        client.write(key);
+                    } else if (key.isReadable()) {
+                        readBuffer.clear();
+                        if (client.channel.read(readBuffer) < 0) {
+                            throw new IOException("Connection closed by server");
+                        }
+                        // One request is in flight per client, so a newline ends the reply
+                        readBuffer.flip();
+                        while (readBuffer.hasRemaining()) {
+                            if (readBuffer.get() == '\n') {
+                                latencies.record(System.nanoTime() - client.sentAt);
+                                completed += measureStart == 0 ? 0 : 1;
+                                client.send(key);
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    errors++;
+                    key.cancel();
+                    client.channel.close();
+                    if (measureStart == 0 && ++connected == connectionCount) {
+                        measureStart = System.nanoTime();
+                        measureEnd = measureStart + durationMillis * 1_000_000L;
+                    }
+                }
+            }
+        }
+        
+        long elapsed = System.nanoTime() - measureStart;
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+        
+        System.out.printf("%d sessions, %d errors, %.0f replies/s%n", connectionCount, errors, completed * 1e9 / elapsed);
+        System.out.printf("latency p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us%n",
+                          latencies.getPercentileNanos(50) / 1e3, latencies.getPercentileNanos(99) / 1e3,
+                          latencies.getPercentileNanos(99.9) / 1e3, latencies.getMaxNanos() / 1e3);
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        
+        Path directory = null;
+        Chatbot chatbot = null;
+        ChatServer server = null;
+        InetSocketAddress address;
+        if (args.length > 2) {
+            String[] hostPort = args[2].split(":");
+            address = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+        } else {
+            directory = new SyntheticCorpus(42).writeTrainingDirectory(10_000);
+            chatbot = new Chatbot(directory);
+            chatbot.awaitLoaded();
+            server = new ChatServer(chatbot, new InetSocketAddress("127.0.0.1", 0),
+                                    Runtime.getRuntime().availableProcessors());
+            server.start();
+            address = new InetSocketAddress("127.0.0.1", server.getPort());
+        }
+        
+        try {
+            List<String> messages = new SyntheticCorpus(7).messageMix(4096, new SyntheticCorpus(42).entries(10_000));
+            new ChatLoadGenerator(address, connections, messages).run(seconds * 1000L);
+        } finally {
+            if (server != null) {
+                server.close();
+                chatbot.close();
+                SyntheticCorpus.deleteDirectory(directory);
+            }
+        }
+    }
+}
\ No newline at end of file
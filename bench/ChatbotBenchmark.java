@@ -0,0 +1,115 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class ChatbotBenchmark {
+    // Benchmarks each stage of the response pipeline and the end-to-end turn
+    // across synthetic knowledge bases of increasing size.
+    //
+    //   javac -encoding UTF-8 -d out src/*.java bench/*.java
+    //   java -Xmx6g -cp out ChatbotBenchmark [sizes] [iteration ms]
+    //
+    // sizes defaults to 1000,100000,1000000 and iteration ms to 1000.
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {1_000, 100_000, 1_000_000};
+        if (args.length > 0) {
+            String[] parts = args[0].split(",");
+            sizes = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                sizes[i] = Integer.parseInt(parts[i].trim());
+            }
+        }
+        long iterationMillis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        
+        BenchmarkRunner.printHeader();
+        for (int size : sizes) {
+            runForSize(size, new BenchmarkRunner(3, 5, iterationMillis));
+        }
+    }
+    
+    private static void runForSize(int size, BenchmarkRunner runner) throws Exception {
+        SyntheticCorpus corpus = new SyntheticCorpus(42);
+        Path directory = corpus.writeTrainingDirectory(size);
+        try {
+            // Construction until the training files are loaded and indexed
+            int loads = size >= 1_000_000 ? 1 : 3;
+            runner.runOnce("load [" + size + "]", loads, i -> {
+                Chatbot loaded = new Chatbot(directory);
+                loaded.awaitLoaded();
+                loaded.close();
+                return loaded;
+            });
+            
+            // The same corpus through the bulk import pipeline into an empty data directory
+            runner.runOnce("import [" + size + "]", loads, i -> {
+                try {
+                    Path target = Files.createTempDirectory("chatbot-import");
+                    Chatbot importing = new Chatbot(target);
+                    try {
+                        return importing.importTrainingData(directory.resolve("training_data.txt"));
+                    } finally {
+                        importing.close();
+                        SyntheticCorpus.deleteDirectory(target);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            
+            Chatbot chatbot = new Chatbot(directory);
+            chatbot.awaitLoaded();
+            Map<String, String> trained = new SyntheticCorpus(42).entries(Math.min(size, 10_000));
+            List<String> messages = new SyntheticCorpus(7).messageMix(4096, trained);
+            int mask = messages.size() - 1;
+            
+            // Inputs for the later stages, prepared once
+            Tokenizer tokenizer = new Tokenizer(chatbot.getKnowledgeBase().getStopWords());
+            String[] processed = new String[messages.size()];
+            List<List<String>> keywords = new ArrayList<>();
+            for (int i = 0; i < messages.size(); i++) {
+                tokenizer.tokenize(messages.get(i));
+                processed[i] = tokenizer.normalized();
+                keywords.add(tokenizer.keywords());
+            }
+            
+            runner.run("tokenize [" + size + "]", i -> {
+                tokenizer.tokenize(messages.get(i & mask));
+                return tokenizer.length() + tokenizer.keywordCount();
+            });
+            runner.run("preprocessInput+extractKeywords [" + size + "]", i -> {
+                tokenizer.tokenize(messages.get(i & mask));
+                return tokenizer.normalized().length() + tokenizer.keywords().size();
+            });
+            runner.run("exactMatch [" + size + "]", i -> chatbot.getKnowledgeBase().get(processed[i & mask]));
+            
+            // Keywords of trained questions with one typo each, for the spelling index
+            SyntheticCorpus typos = new SyntheticCorpus(11);
+            List<List<String>> misspelled = new ArrayList<>();
+            for (List<String> words : keywords) {
+                List<String> changed = new ArrayList<>();
+                for (String word : words) {
+                    changed.add(word.length() >= 4 && !Character.isDigit(word.charAt(0)) ? typos.misspell(word) : word);
+                }
+                misspelled.add(changed);
+            }
+            int vocabulary = chatbot.getKnowledgeBase().vocabularySize();
+            runner.run("spellCorrect [" + size + ", " + vocabulary + " words]",
+                       i -> chatbot.getKnowledgeBase().correctSpelling(misspelled.get(i & mask)));
+            runner.run("rankedMatch [" + size + "]",
+                       i -> chatbot.getKnowledgeBase().findBestRankedKey(keywords.get(i & mask)));
+            
+            ChatSession session = chatbot.newSession();
+            runner.run("addMessage+history [" + size + "]", i -> {
+                session.addMessage(messages.get(i & mask));
+                List<String> history = session.getConversationHistory();
+                return history.get(history.size() - 1).length();
+            });
+            runner.run("findBestResponse [" + size + "]",
+                       i -> chatbot.findBestResponse(session, processed[i & mask], keywords.get(i & mask)));
+            runner.run("getResponse [" + size + "]", i -> chatbot.getResponse(session, messages.get(i & mask)));
+            chatbot.close();
+        } finally {
+            SyntheticCorpus.deleteDirectory(directory);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,40 @@
+import java.nio.file.Path;
+
+public class ColdStart {
+    // Time from constructing a Chatbot to its first answer, and to the end of
+    // the background load, in a fresh JVM so class loading is included.
+    //
+    //   java -cp out ColdStart [entries]
+    //
+    // entries defaults to 1000000. The corpus is written before the clock
+    // starts; run once per measurement, since a second run would be warm.
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path directory = new SyntheticCorpus(42).writeTrainingDirectory(size);
+        System.gc();
+        try {
+            long start = System.nanoTime();
+            Chatbot chatbot = new Chatbot(directory);
+            long constructed = System.nanoTime();
+            String reply = chatbot.getResponse("hello");
+            long answered = System.nanoTime();
+            System.out.printf("%d entries: constructed in %.1f ms, first answer after %.1f ms (%s)%n", size,
+                              (constructed - start) / 1e6, (answered - start) / 1e6, reply);
+            
+            double reported = -1;
+            while (!chatbot.isLoaded()) {
+                double progress = chatbot.getLoadProgress();
+                if (progress - reported >= 0.1) {
+                    System.out.printf("  %3.0f%% after %.0f ms%n", progress * 100, (System.nanoTime() - start) / 1e6);
+                    reported = progress;
+                }
+                Thread.sleep(10);
+            }
+            System.out.printf("Fully loaded after %.0f ms: %d entries%n", (System.nanoTime() - start) / 1e6,
+                              chatbot.getKnowledgeBase().size());
+            chatbot.close();
+        } finally {
+            SyntheticCorpus.deleteDirectory(directory);
+        }
+    }
+}
\ No newline at end of file
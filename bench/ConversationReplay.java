@@ -0,0 +1,502 @@
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.io.*;
+import java.lang.management.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.LockSupport;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+public class ConversationReplay {
+    // Headless load driver: replays conversations against an embedded
+    // Chatbot through getResponse and processTrainingCommand, and reports
+    // throughput, latency percentiles and heap/GC behavior. Exits with
+    // status 1 when a latency budget is exceeded or a run regresses
+    // against a saved baseline, so it can gate changes to the matcher.
+    //
+    //   java -Xmx2g -Dreplay.sessions=256 -cp out ConversationReplay [conversations.tsv]
+    //
+    // The file holds one "session<TAB>message" line per turn, in order;
+    // lines starting with # are skipped. Each session's messages are
+    // replayed in order, and "train: question | answer" lines become the
+    // pool of training commands. Without a file, deterministic synthetic
+    // conversations are generated.
+    //
+    // Settings (system properties):
+    //   replay.sessions=64        concurrent sessions, spread over the threads
+    //   replay.threads=<cores>    driver threads
+    //   replay.seconds=30         measured duration, after replay.warmupSeconds=5
+    //   replay.trainRatio=R       share of turns that train; defaults to the
+    //                             file's own share, or 0.01
+    //   replay.rate=0             target turns/s; 0 runs closed loop. With a
+    //                             rate, latency counts from the scheduled start,
+    //                             so queueing behind a slow turn is included
+    //   replay.corpus=10000       synthetic training entries to load, or
+    //   replay.data=DIR           a data directory whose training files are copied
+    //   replay.budget=read.p99=5ms,train.p99=50ms,throughput=10000
+    //   replay.saveBaseline=FILE  write this run's results
+    //   replay.baseline=FILE      compare with them, failing beyond
+    //   replay.tolerance=0.2      20% lower throughput or higher latency
+    //
+    // A baseline is only meaningful against a run with the same settings,
+    // conversations and heap size.
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    
+    private Chatbot chatbot;
+    private List<List<String>> conversations;
+    private List<String> trainingCommands;
+    private double trainRatio;
+    private volatile boolean measuring;
+    private volatile boolean stopped;
+    private LatencyHistogram readLatencies = new LatencyHistogram();
+    private LatencyHistogram trainLatencies = new LatencyHistogram();
+    private LongAccumulator maxGcPauseMillis = new LongAccumulator(Long::max, 0);
+    
+    public ConversationReplay(Chatbot chatbot, List<List<String>> conversations, List<String> trainingCommands,
+                              double trainRatio) {
+        this.chatbot = chatbot;
+        this.conversations = conversations;
+        this.trainingCommands = trainingCommands;
+        this.trainRatio = trainRatio;
+    }
+    
+    private class Session {
+        // One simulated user working through conversations one turn at a time
+        private ChatSession chatSession = chatbot.newSession();
+        private int conversation;
+        private int turn;
+        
+        Session(int first) {
+            conversation = first % conversations.size();
+        }
+        
+        String nextMessage() {
+            List<String> messages = conversations.get(conversation);
+            if (turn == messages.size()) {
+                // Conversation over: the same user starts another one
+                conversation = (conversation + 1) % conversations.size();
+                messages = conversations.get(conversation);
+                chatSession.reset();
+                turn = 0;
+            }
+            return messages.get(turn++);
+        }
+    }
+    
+    private class Driver implements Runnable {
+        private Session[] sessions;
+        private long intervalNanos;
+        private Random random;
+        private int driverId;
+        private int trained;
+        
+        Driver(int driverId, Session[] sessions, long intervalNanos) {
+            this.driverId = driverId;
+            this.sessions = sessions;
+            this.intervalNanos = intervalNanos;
+            this.random = new Random(driverId);
+        }
+        
+        @Override
+        public void run() {
+            SyntheticCorpus corpus = new SyntheticCorpus(1000 + driverId);
+            long scheduled = System.nanoTime();
+            int next = 0;
+            while (!stopped) {
+                Session session = sessions[next];
+                next = next + 1 == sessions.length ? 0 : next + 1;
+                
+                long start;
+                if (intervalNanos > 0) {
+                    scheduled += intervalNanos;
+                    long wait;
+                    while ((wait = scheduled - System.nanoTime()) > 0 && !stopped) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    start = scheduled;
+                } else {
+                    start = System.nanoTime();
+                }
+                
+                if (random.nextDouble() < trainRatio) {
+                    String command;
+                    if (trainingCommands.isEmpty()) {
+                        int index = 10_000_000 * (driverId + 1) + trained++;
+                        command = "train: " + corpus.question(index) + " | " + corpus.answer(index);
+                    } else {
+                        command = trainingCommands.get(random.nextInt(trainingCommands.size()));
+                    }
+                    chatbot.processTrainingCommand(command);
+                    if (measuring) {
+                        trainLatencies.record(System.nanoTime() - start);
+                    }
+                } else {
+                    chatbot.getResponse(session.chatSession, session.nextMessage());
+                    if (measuring) {
+                        readLatencies.record(System.nanoTime() - start);
+                    }
+                }
+            }
+        }
+    }
+    
+    public Map<String, Double> run(int sessionCount, int threadCount, double rate, long warmupMillis,
+                                   long measureMillis, PrintStream out) throws InterruptedException {
+        // Sessions are dealt out to the threads, which take turns round-robin
+        threadCount = Math.max(1, Math.min(threadCount, sessionCount));
+        List<List<Session>> assigned = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            assigned.add(new ArrayList<>());
+        }
+        for (int i = 0; i < sessionCount; i++) {
+            assigned.get(i % threadCount).add(new Session(i));
+        }
+        long intervalNanos = rate > 0 ? (long) (1e9 * threadCount / rate) : 0;
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            Session[] sessions = assigned.get(i).toArray(new Session[0]);
+            threads[i] = new Thread(new Driver(i, sessions, intervalNanos), "replay-driver-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        Thread.sleep(warmupMillis);
+        
+        List<NotificationEmitter> emitters = new ArrayList<>();
+        NotificationListener gcListener = (notification, handback) -> {
+            if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                maxGcPauseMillis.accumulate(info.getGcInfo().getDuration());
+            }
+        };
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                ((NotificationEmitter) gc).addNotificationListener(gcListener, null, null);
+                emitters.add((NotificationEmitter) gc);
+            }
+        }
+        
+        Map<String, long[]> gcBefore = gcTotals();
+        long allocatedBefore = allocatedBytes(threads);
+        long start = System.nanoTime();
+        measuring = true;
+        
+        // Sample the heap while the drivers run
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long maxHeapUsed = 0;
+        long deadline = start + measureMillis * 1_000_000L;
+        while (System.nanoTime() < deadline) {
+            maxHeapUsed = Math.max(maxHeapUsed, memory.getHeapMemoryUsage().getUsed());
+            Thread.sleep(Math.max(1, Math.min(100, (deadline - System.nanoTime()) / 1_000_000L)));
+        }
+        
+        measuring = false;
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes(threads) - allocatedBefore;
+        Map<String, long[]> gcAfter = gcTotals();
+        stopped = true;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(gcListener);
+            } catch (javax.management.ListenerNotFoundException e) {
+                // Nothing to remove
+            }
+        }
+        
+        // Report
+        long reads = readLatencies.getCount();
+        long trains = trainLatencies.getCount();
+        double seconds = elapsed / 1e9;
+        Map<String, Double> results = new LinkedHashMap<>();
+        results.put("throughput", (reads + trains) / seconds);
+        out.printf("Replayed %d sessions on %d threads for %.1f s (%s), train ratio %.2f%%%n", sessionCount,
+                   threadCount, seconds, rate > 0 ? String.format("open loop at %.0f turns/s", rate) : "closed loop",
+                   trainRatio * 100);
+        out.printf("turns: %d (%.1f/s), reads %d, trains %d%n", reads + trains, (reads + trains) / seconds,
+                   reads, trains);
+        report("read", readLatencies, results, out);
+        report("train", trainLatencies, results, out);
+        
+        // What the run left reachable: knowledge base, trained pairs, sessions
+        System.gc();
+        long live = memory.getHeapMemoryUsage().getUsed();
+        out.printf("heap: max used %.1f MB, live after the run %.1f MB, allocated %s%n", maxHeapUsed / 1048576.0,
+                   live / 1048576.0,
+                   allocated < 0 ? "n/a" : String.format("%.1f MB (%.1f KB/turn)", allocated / 1048576.0,
+                                                          allocated / 1024.0 / Math.max(1, reads + trains)));
+        long gcMillis = 0;
+        for (Map.Entry<String, long[]> gc : gcAfter.entrySet()) {
+            long[] before = gcBefore.getOrDefault(gc.getKey(), new long[2]);
+            long count = gc.getValue()[0] - before[0];
+            long millis = gc.getValue()[1] - before[1];
+            gcMillis += millis;
+            out.printf("gc: %s %d collections, %d ms%n", gc.getKey(), count, millis);
+        }
+        out.printf("gc: %.1f%% of wall time, longest pause %d ms%n", gcMillis * 100.0 / (elapsed / 1e6),
+                   maxGcPauseMillis.get());
+        results.put("heap.maxUsedMb", maxHeapUsed / 1048576.0);
+        results.put("heap.liveMb", live / 1048576.0);
+        results.put("gc.maxPauseMs", (double) maxGcPauseMillis.get());
+        return results;
+    }
+    
+    private static void report(String name, LatencyHistogram histogram, Map<String, Double> results, PrintStream out) {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        StringBuilder line = new StringBuilder(String.format("%-5s latency", name));
+        for (double percentile : PERCENTILES) {
+            long nanos = histogram.getPercentileNanos(percentile);
+            results.put(name + ".p" + format(percentile), (double) nanos);
+            line.append(String.format(" p%s %s,", format(percentile), duration(nanos)));
+        }
+        results.put(name + ".max", (double) histogram.getMaxNanos());
+        line.append(" max ").append(duration(histogram.getMaxNanos()));
+        out.println(line);
+    }
+    
+    private static String format(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+    
+    private static String duration(double nanos) {
+        if (nanos >= 1e9) {
+            return String.format("%.2f s", nanos / 1e9);
+        }
+        if (nanos >= 1e6) {
+            return String.format("%.2f ms", nanos / 1e6);
+        }
+        return String.format("%.1f us", nanos / 1e3);
+    }
+    
+    static List<String> checkBudget(String budget, Map<String, Double> results) {
+        // e.g. "read.p99=5ms,throughput=10000"; throughput is a floor, everything else a ceiling
+        List<String> failures = new ArrayList<>();
+        for (String part : budget.split(",")) {
+            if (part.trim().isEmpty()) {
+                continue;
+            }
+            String[] keyValue = part.split("=", 2);
+            String key = keyValue[0].trim();
+            Double actual = results.get(key);
+            if (actual == null || keyValue.length < 2) {
+                failures.add("unknown budget " + part.trim());
+                continue;
+            }
+            if (key.equals("throughput")) {
+                double floor = Double.parseDouble(keyValue[1].trim());
+                if (actual < floor) {
+                    failures.add(String.format("throughput %.1f/s below budget %.1f/s", actual, floor));
+                }
+            } else {
+                // Latencies take a unit; heap.*Mb and gc.maxPauseMs are plain numbers
+                boolean latency = key.startsWith("read.") || key.startsWith("train.");
+                double ceiling = latency ? parseNanos(keyValue[1].trim()) : Double.parseDouble(keyValue[1].trim());
+                if (actual > ceiling) {
+                    failures.add(String.format("%s %s over budget %s", key,
+                                               latency ? duration(actual) : String.format("%.1f", actual),
+                                               keyValue[1].trim()));
+                }
+            }
+        }
+        return failures;
+    }
+    
+    static List<String> checkBaseline(Properties baseline, Map<String, Double> results, double tolerance) {
+        // Throughput may not drop, and read/train percentiles may not grow, by more than the tolerance
+        List<String> failures = new ArrayList<>();
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            String key = result.getKey();
+            String saved = baseline.getProperty(key);
+            if (saved == null || !(key.equals("throughput") || key.contains(".p"))) {
+                continue;
+            }
+            double before = Double.parseDouble(saved);
+            double now = result.getValue();
+            if (key.equals("throughput") ? now < before * (1 - tolerance) : now > before * (1 + tolerance)) {
+                failures.add(String.format("%s regressed: %s against baseline %s", key,
+                                           key.equals("throughput") ? String.format("%.1f/s", now) : duration(now),
+                                           key.equals("throughput") ? String.format("%.1f/s", before) : duration(before)));
+            }
+        }
+        return failures;
+    }
+    
+    static double parseNanos(String text) {
+        String lower = text.toLowerCase();
+        String[][] units = {{"ns", "1"}, {"us", "1e3"}, {"ms", "1e6"}, {"s", "1e9"}};
+        for (String[] unit : units) {
+            if (lower.endsWith(unit[0])) {
+                return Double.parseDouble(lower.substring(0, lower.length() - unit[0].length()).trim()) *
+                       Double.parseDouble(unit[1]);
+            }
+        }
+        return Double.parseDouble(lower);
+    }
+    
+    private static Map<String, long[]> gcTotals() {
+        Map<String, long[]> totals = new LinkedHashMap<>();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals.put(gc.getName(), new long[] {Math.max(0, gc.getCollectionCount()), Math.max(0, gc.getCollectionTime())});
+        }
+        return totals;
+    }
+    
+    private static long allocatedBytes(Thread[] threads) {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threadBean;
+        if (!hotspot.isThreadAllocatedMemorySupported() || !hotspot.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for (Thread thread : threads) {
+            total += Math.max(0, hotspot.getThreadAllocatedBytes(thread.getId()));
+        }
+        return total;
+    }
+    
+    static List<List<String>> readConversations(Path file, List<String> trainingCommands) throws IOException {
+        // Turns grouped by session, sessions in order of first appearance
+        Map<String, List<String>> sessions = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int tab = line.indexOf('\t');
+                String session = tab < 0 ? "" : line.substring(0, tab);
+                String message = line.substring(tab + 1);
+                if (message.toLowerCase().startsWith("train:")) {
+                    trainingCommands.add(message);
+                } else {
+                    sessions.computeIfAbsent(session, id -> new ArrayList<>()).add(message);
+                }
+            }
+        }
+        return new ArrayList<>(sessions.values());
+    }
+    
+    static List<List<String>> syntheticConversations(int count, Map<String, String> trained) {
+        // Conversations of 3 to 12 turns from the benchmark message mix
+        Random random = new Random(7);
+        List<String> messages = new SyntheticCorpus(7).messageMix(count * 8, trained);
+        List<List<String>> conversations = new ArrayList<>();
+        int position = 0;
+        while (position < messages.size()) {
+            int length = Math.min(3 + random.nextInt(10), messages.size() - position);
+            conversations.add(new ArrayList<>(messages.subList(position, position + length)));
+            position += length;
+        }
+        return conversations;
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int sessions = Integer.getInteger("replay.sessions", 64);
+        int threads = Integer.getInteger("replay.threads", Runtime.getRuntime().availableProcessors());
+        long seconds = Long.getLong("replay.seconds", 30L);
+        long warmupSeconds = Long.getLong("replay.warmupSeconds", 5L);
+        double rate = Double.parseDouble(System.getProperty("replay.rate", "0"));
+        int corpusSize = Integer.getInteger("replay.corpus", 10_000);
+        double tolerance = Double.parseDouble(System.getProperty("replay.tolerance", "0.2"));
+        
+        // A private copy of the data, since training writes to it
+        Path directory;
+        if (System.getProperty("replay.data") != null) {
+            directory = Files.createTempDirectory("chatbot-replay-");
+            for (String name : new String[] {"training_data.txt", "training_data.kb"}) {
+                Path source = Paths.get(System.getProperty("replay.data")).resolve(name);
+                if (Files.exists(source)) {
+                    Files.copy(source, directory.resolve(name));
+                }
+            }
+        } else {
+            directory = new SyntheticCorpus(42).writeTrainingDirectory(corpusSize);
+        }
+        
+        List<String> trainingCommands = new ArrayList<>();
+        List<List<String>> conversations;
+        double fileTrainShare = 0;
+        if (args.length > 0) {
+            conversations = readConversations(Paths.get(args[0]), trainingCommands);
+            int turns = trainingCommands.size();
+            for (List<String> conversation : conversations) {
+                turns += conversation.size();
+            }
+            fileTrainShare = turns == 0 ? 0 : (double) trainingCommands.size() / turns;
+            if (conversations.isEmpty()) {
+                System.err.println("No conversations in " + args[0]);
+                System.exit(2);
+            }
+        } else {
+            conversations = syntheticConversations(Math.max(1024, sessions * 4),
+                                                    new SyntheticCorpus(42).entries(Math.min(corpusSize, 10_000)));
+        }
+        double trainRatio = System.getProperty("replay.trainRatio") != null
+                            ? Double.parseDouble(System.getProperty("replay.trainRatio"))
+                            : args.length > 0 ? fileTrainShare : 0.01;
+        
+        // Training prints a line per command; keep the report readable
+        PrintStream out = System.out;
+        Chatbot chatbot = new Chatbot(directory);
+        List<String> failures = new ArrayList<>();
+        try {
+            chatbot.awaitLoaded();
+            out.printf("Loaded %d entries, %d conversations%n", chatbot.getKnowledgeBase().size(), conversations.size());
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+                
+                @Override
+                public void write(byte[] bytes, int offset, int length) {
+                }
+            }));
+            Map<String, Double> results = new ConversationReplay(chatbot, conversations, trainingCommands, trainRatio)
+                .run(sessions, threads, rate, warmupSeconds * 1000, seconds * 1000, out);
+            
+            String budget = System.getProperty("replay.budget");
+            if (budget != null) {
+                failures.addAll(checkBudget(budget, results));
+            }
+            String baselineFile = System.getProperty("replay.baseline");
+            if (baselineFile != null) {
+                Properties baseline = new Properties();
+                try (Reader reader = Files.newBufferedReader(Paths.get(baselineFile), StandardCharsets.UTF_8)) {
+                    baseline.load(reader);
+                }
+                failures.addAll(checkBaseline(baseline, results, tolerance));
+            }
+            String saveBaseline = System.getProperty("replay.saveBaseline");
+            if (saveBaseline != null) {
+                Properties saved = new Properties();
+                for (Map.Entry<String, Double> result : results.entrySet()) {
+                    saved.setProperty(result.getKey(), String.valueOf(result.getValue()));
+                }
+                try (Writer writer = Files.newBufferedWriter(Paths.get(saveBaseline), StandardCharsets.UTF_8)) {
+                    saved.store(writer, "ConversationReplay results");
+                }
+                out.println("Saved baseline to " + saveBaseline);
+            }
+        } finally {
+            System.setOut(out);
+            chatbot.close();
+            SyntheticCorpus.deleteDirectory(directory);
+        }
+        
+        for (String failure : failures) {
+            out.println("FAIL: " + failure);
+        }
+        out.println(failures.isEmpty() ? "PASS" : "FAILED");
+        System.exit(failures.isEmpty() ? 0 : 1);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,127 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+public class IndexBuildBenchmark {
+    // How startup and reload scale with the index pool: for each pool size
+    // a fresh JVM loads a synthetic training file (parse plus the keyword,
+    // ranked and spelling indexes), then reloads it, and the times are
+    // compared with one thread. A last JVM builds the same indexes with the
+    // old one-key-at-a-time addAll, as the baseline the chunked build has
+    // to beat.
+    //
+    //   java -cp out IndexBuildBenchmark [entries] [max threads]
+    //
+    // Defaults: 1000000 entries, threads up to the number of cores, doubling
+    // from one. Each JVM gets -Xmx of -Dbench.heap (3g).
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("--load")) {
+            load(Paths.get(args[1]));
+            return;
+        }
+        if (args.length == 2 && args[0].equals("--sequential")) {
+            buildSequentially(Paths.get(args[1]));
+            return;
+        }
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        
+        Path directory = new SyntheticCorpus(42).writeTrainingDirectory(size);
+        try {
+            long sequential = parse(run(directory, 1, "--sequential"))[0];
+            System.out.printf("%d entries, %d cores; one key at a time: %d ms%n", size,
+                              Runtime.getRuntime().availableProcessors(), sequential);
+            System.out.printf("%-8s %8s %11s %16s %10s %11s%n", "threads", "load ms", "vs 1 thread", "vs key at a time",
+                              "reload ms", "vs 1 thread");
+            long[] single = null;
+            for (int threads = 1; threads <= Math.max(1, maxThreads); threads *= 2) {
+                long[] times = parse(run(directory, threads, "--load"));
+                if (single == null) {
+                    single = times;
+                }
+                System.out.printf("%-8d %8d %10.2fx %15.2fx %10d %10.2fx%n", threads, times[0],
+                                  (double) single[0] / times[0], (double) sequential / times[0], times[1],
+                                  (double) single[1] / times[1]);
+            }
+        } finally {
+            SyntheticCorpus.deleteDirectory(directory);
+        }
+    }
+    
+    private static String run(Path directory, int threads, String mode) throws IOException, InterruptedException {
+        // The child's last line of output is its result
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process child = new ProcessBuilder(java, "-Xmx" + System.getProperty("bench.heap", "3g"),
+                                           "-Dchatbot.reload.watch=false", "-Dchatbot.index.threads=" + threads,
+                                           "-cp", System.getProperty("java.class.path"),
+                                           "IndexBuildBenchmark", mode, directory.toString())
+            .redirectErrorStream(true)
+            .start();
+        String last = null;
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(child.getInputStream(),
+                                                                              StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                last = line;
+            }
+        }
+        if (child.waitFor() != 0) {
+            throw new IOException("Benchmark JVM failed: " + last);
+        }
+        return last;
+    }
+    
+    private static long[] parse(String result) {
+        String[] fields = result.trim().split(" ");
+        long[] times = new long[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            times[i] = Long.parseLong(fields[i]);
+        }
+        return times;
+    }
+    
+    private static void load(Path directory) throws IOException {
+        // Prints "<load ms> <reload ms>"
+        long start = System.nanoTime();
+        Chatbot chatbot = new Chatbot(directory);
+        chatbot.awaitLoaded();
+        long loaded = System.nanoTime() - start;
+        start = System.nanoTime();
+        chatbot.reloadTrainingData();
+        long reloaded = System.nanoTime() - start;
+        chatbot.close();
+        System.out.println(loaded / 1_000_000 + " " + reloaded / 1_000_000);
+    }
+    
+    private static void buildSequentially(Path directory) throws IOException {
+        // Prints "<build ms>" for reading, parsing and the three indexes on one thread
+        Path emptyDirectory = Files.createTempDirectory("index-bench-");
+        Chatbot empty = new Chatbot(emptyDirectory);
+        empty.awaitLoaded();
+        StopWords stopWords = empty.getKnowledgeBase().getStopWords();
+        empty.close();
+        SyntheticCorpus.deleteDirectory(emptyDirectory);
+        
+        long start = System.nanoTime();
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(directory.resolve("training_data.txt"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\\|");
+                if (parts.length == 2) {
+                    entries.put(parts[0].toLowerCase().trim(), parts[1].trim());
+                }
+            }
+        }
+        new KeywordIndex().addAll(entries.keySet());
+        RankedIndex rankedIndex = new RankedIndex(stopWords);
+        rankedIndex.addAll(entries.keySet());
+        new SpellingIndex(stopWords).addAll(entries.keySet());
+        System.out.println((System.nanoTime() - start) / 1_000_000);
+    }
+}
\ No newline at end of file
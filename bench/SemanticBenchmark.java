@@ -0,0 +1,148 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class SemanticBenchmark {
+    // Builds a SemanticIndex over synthetic questions and measures it against
+    // brute force: build rate, search latency and recall@10 for several ef
+    // values, save and load time, and how often a reworded question (new
+    // opening, topics swapped, a typo in the rare word) finds its original.
+    //
+    //   java -XX:MaxDirectMemorySize=2g -cp out SemanticBenchmark [entries] [queries]
+    //
+    // Defaults: 100000 entries, 1000 queries. Vectors are 256 floats unless
+    // -Dchatbot.semantic.dimensions says otherwise.
+    private static final int K = 10;
+    private static final String[] OPENINGS = {
+        "please explain", "i want to know about", "could you tell me about", "help me understand"
+    };
+    
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        int dimensions = Integer.getInteger("chatbot.semantic.dimensions", 256);
+        
+        System.setProperty("chatbot.reload.watch", "false");
+        Chatbot chatbot = new Chatbot(Files.createTempDirectory("semantic-bench-"));
+        chatbot.awaitLoaded();
+        StopWords stopWords = chatbot.getKnowledgeBase().getStopWords();
+        chatbot.close();
+        
+        SyntheticCorpus corpus = new SyntheticCorpus(42);
+        List<String> keys = new ArrayList<>(corpus.entries(size).keySet());
+        SemanticIndex index = new SemanticIndex(stopWords, dimensions, 16, 100, 64);
+        long start = System.nanoTime();
+        for (String key : keys) {
+            index.add(key);
+        }
+        long built = System.nanoTime() - start;
+        System.out.printf("Indexed %d keys in %.1f s (%.0f us/key), %d MB off heap%n", index.size(), built / 1e9,
+                          built / 1e3 / index.size(), index.offHeapBytes() >> 20);
+        
+        Random random = new Random(7);
+        Tokenizer tokenizer = new Tokenizer(stopWords);
+        List<List<String>> queries = new ArrayList<>();
+        List<String> originals = new ArrayList<>();
+        for (int i = 0; i < queryCount; i++) {
+            String key = keys.get(random.nextInt(keys.size()));
+            tokenizer.tokenize(reword(key, corpus, random));
+            queries.add(new ArrayList<>(tokenizer.keywords()));
+            originals.add(key);
+        }
+        
+        List<List<SemanticIndex.Neighbor>> exact = new ArrayList<>();
+        long exactNanos = 0;
+        for (List<String> query : queries) {
+            long begin = System.nanoTime();
+            exact.add(index.searchExact(query, K));
+            exactNanos += System.nanoTime() - begin;
+        }
+        System.out.printf("brute force      %8.1f us/query  original first in %.1f%%%n", exactNanos / 1e3 / queryCount,
+                          100.0 * foundOriginal(exact, originals) / queryCount);
+        
+        for (int ef : new int[] {16, 32, 64, 128, 256}) {
+            SemanticIndex tuned = withEf(index, stopWords, dimensions, ef);
+            report("hnsw ef=" + ef, tuned, queries, exact, originals);
+        }
+        
+        Path file = Files.createTempFile("semantic-", ".idx");
+        try {
+            start = System.nanoTime();
+            index.save(file);
+            long saved = System.nanoTime() - start;
+            SemanticIndex loaded = new SemanticIndex(stopWords, dimensions, 16, 100, 64);
+            start = System.nanoTime();
+            loaded.load(file);
+            long read = System.nanoTime() - start;
+            System.out.printf("Saved %d MB in %.0f ms, loaded in %.0f ms%n", Files.size(file) >> 20, saved / 1e6,
+                              read / 1e6);
+            report("after load", loaded, queries, exact, originals);
+        } finally {
+            Files.delete(file);
+        }
+    }
+    
+    private static String reword(String key, SyntheticCorpus corpus, Random random) {
+        // Synthetic keys are "<opening> <topic> <topic> <word> <number>"
+        String[] words = key.split(" ");
+        int n = words.length;
+        String rare = words[n - 2];
+        return OPENINGS[random.nextInt(OPENINGS.length)] + " " + words[n - 3] + " and " + words[n - 4] + " " +
+               corpus.misspell(rare) + " " + words[n - 1];
+    }
+    
+    private static SemanticIndex withEf(SemanticIndex index, StopWords stopWords, int dimensions, int ef)
+            throws Exception {
+        // The same graph with a different search width, by way of a saved copy
+        Path file = Files.createTempFile("semantic-", ".idx");
+        try {
+            index.save(file);
+            SemanticIndex copy = new SemanticIndex(stopWords, dimensions, 16, 100, ef);
+            copy.load(file);
+            return copy;
+        } finally {
+            Files.delete(file);
+        }
+    }
+    
+    private static void report(String name, SemanticIndex index, List<List<String>> queries,
+                               List<List<SemanticIndex.Neighbor>> exact, List<String> originals) {
+        List<List<SemanticIndex.Neighbor>> approximate = new ArrayList<>();
+        long[] latencies = new long[queries.size()];
+        for (int round = 0; round < 2; round++) {
+            approximate.clear();
+            for (int i = 0; i < queries.size(); i++) {
+                long begin = System.nanoTime();
+                approximate.add(index.search(queries.get(i), K));
+                latencies[i] = System.nanoTime() - begin;
+            }
+        }
+        long total = 0;
+        int relevant = 0;
+        int retrieved = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            total += latencies[i];
+            Set<String> truth = new HashSet<>();
+            for (SemanticIndex.Neighbor neighbor : exact.get(i)) {
+                truth.add(neighbor.getKey());
+            }
+            relevant += truth.size();
+            for (SemanticIndex.Neighbor neighbor : approximate.get(i)) {
+                retrieved += truth.contains(neighbor.getKey()) ? 1 : 0;
+            }
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-16s %8.1f us/query  p99 %7.1f us  recall@%d %.3f  original first in %.1f%%%n", name,
+                          total / 1e3 / queries.size(), latencies[latencies.length * 99 / 100] / 1e3, K,
+                          (double) retrieved / relevant, 100.0 * foundOriginal(approximate, originals) / queries.size());
+    }
+    
+    private static int foundOriginal(List<List<SemanticIndex.Neighbor>> results, List<String> originals) {
+        int found = 0;
+        for (int i = 0; i < results.size(); i++) {
+            List<SemanticIndex.Neighbor> result = results.get(i);
+            found += !result.isEmpty() && result.get(0).getKey().equals(originals.get(i)) ? 1 : 0;
+        }
+        return found;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+public class ShardedCluster {
+    // Runs a sharded knowledge base on this machine: the corpus is split,
+    // each shard is served by its own ShardServer JVM on loopback, and a
+    // router Chatbot answers the usual message mix through them. Answers
+    // are compared with a single bot holding the whole corpus, then a pair
+    // is trained through the router, and finally one shard is killed to
+    // show answers continuing from the rest.
+    //
+    //   java -cp out ShardedCluster [entries] [shards] [messages]
+    //
+    // Defaults: 100000 entries, 3 shards, 20000 messages. Every shard JVM is
+    // started with this JVM's classpath and -Xmx of -Dshard.heap (512m).
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int shardCount = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int messageCount = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+        System.setProperty("chatbot.reload.watch", "false");
+        
+        SyntheticCorpus corpus = new SyntheticCorpus(42);
+        Path single = corpus.writeTrainingDirectory(size);
+        Path cluster = single.resolveSibling(single.getFileName() + "-shards");
+        List<Process> servers = new ArrayList<>();
+        try {
+            Map<Integer, Integer> sizes = ShardServer.split(single.resolve("training_data.txt"), shardCount, cluster);
+            System.out.println("Split " + size + " entries: " + sizes);
+            
+            StringBuilder addresses = new StringBuilder();
+            for (int i = 0; i < shardCount; i++) {
+                int port = freePort();
+                servers.add(startShard(cluster.resolve("shard-" + i), port));
+                addresses.append(i == 0 ? "" : ",").append("127.0.0.1:").append(port);
+            }
+            for (int i = 0; i < shardCount; i++) {
+                awaitReady(servers.get(i), cluster.resolve("shard-" + i).resolve("server.log"));
+            }
+            
+            Chatbot reference = new Chatbot(single);
+            reference.awaitLoaded();
+            System.setProperty("chatbot.shards", addresses.toString());
+            Path routerDirectory = cluster.resolve("router");
+            Files.createDirectories(routerDirectory);
+            Chatbot router = new Chatbot(routerDirectory);
+            router.awaitLoaded();
+            System.clearProperty("chatbot.shards");
+            
+            List<String> messages = corpus.messageMix(messageCount, corpus.entries(size));
+            compare(reference, router, messages);
+            for (int round = 0; round < 2; round++) {
+                measure("single", reference, messages);
+                measure("sharded", router, messages);
+            }
+            
+            String question = "what is the airspeed of an unladen swallow";
+            router.trainBot(question, "African or European?");
+            System.out.println("Trained through the router: " + router.getResponse(question));
+            
+            servers.get(0).destroyForcibly().waitFor();
+            long failed = 0;
+            for (String message : messages.subList(0, Math.min(1000, messages.size()))) {
+                if (router.getResponse(message) == null) {
+                    failed++;
+                }
+            }
+            System.out.println("With shard-0 down: " + failed + " of 1000 messages unanswered");
+            
+            router.close();
+            reference.close();
+        } finally {
+            for (Process server : servers) {
+                server.destroyForcibly().waitFor();
+            }
+            SyntheticCorpus.deleteDirectory(single);
+            if (cluster.toFile().exists()) {
+                SyntheticCorpus.deleteDirectory(cluster);
+            }
+        }
+    }
+    
+    private static Process startShard(Path directory, int port) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> command = new ArrayList<>(Arrays.asList(java, "-Xmx" + System.getProperty("shard.heap", "512m"),
+                                                             "-Dchatbot.reload.watch=false",
+                                                             "-cp", System.getProperty("java.class.path"),
+                                                             "ShardServer", directory.toString(), String.valueOf(port)));
+        return new ProcessBuilder(command)
+            .redirectErrorStream(true)
+            .redirectOutput(directory.resolve("server.log").toFile())
+            .start();
+    }
+    
+    private static void awaitReady(Process server, Path log) throws Exception {
+        // ShardServer prints its "serving" line once loaded and listening
+        long deadline = System.currentTimeMillis() + 120_000;
+        while (System.currentTimeMillis() < deadline) {
+            if (!server.isAlive()) {
+                throw new IOException("Shard server exited with " + server.exitValue());
+            }
+            if (Files.exists(log) && new String(Files.readAllBytes(log), StandardCharsets.UTF_8).contains(" serving ")) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        throw new IOException("Shard server did not start");
+    }
+    
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+    
+    private static void compare(Chatbot reference, Chatbot router, List<String> messages) {
+        // Contextual fallbacks depend on each bot's session, so compare
+        // fresh single-message sessions
+        int same = 0;
+        List<String> differing = new ArrayList<>();
+        for (String message : messages) {
+            String expected = reference.getResponse(new ChatSession(), message);
+            String actual = router.getResponse(new ChatSession(), message);
+            if (Objects.equals(expected, actual)) {
+                same++;
+            } else if (differing.size() < 3) {
+                differing.add(message + " => " + expected + " / " + actual);
+            }
+        }
+        System.out.printf("Same answer as a single bot: %d of %d (%.2f%%)%n", same, messages.size(),
+                          100.0 * same / messages.size());
+        for (String message : differing) {
+            System.out.println("  differs: " + message);
+        }
+    }
+    
+    private static void measure(String name, Chatbot chatbot, List<String> messages) {
+        long[] latencies = new long[messages.size()];
+        long start = System.nanoTime();
+        for (int i = 0; i < messages.size(); i++) {
+            long begin = System.nanoTime();
+            chatbot.getResponse(new ChatSession(), messages.get(i));
+            latencies[i] = System.nanoTime() - begin;
+        }
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        System.out.printf("%-8s %8.0f msg/s  p50 %6.1f us  p99 %7.1f us%n", name, messages.size() / (elapsed / 1e9),
+                          latencies[latencies.length / 2] / 1e3, latencies[latencies.length * 99 / 100] / 1e3);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,135 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+public class SyntheticCorpus {
+    // Deterministic synthetic training data and message mixes for benchmarks.
+    // Questions are built from a fixed topic vocabulary plus generated words,
+    // so larger corpora keep a realistic mix of shared and rare tokens.
+    private static final String[] TOPICS = {
+        "java", "python", "javascript", "algorithm", "database", "machine", "learning",
+        "network", "compiler", "memory", "thread", "server", "cloud", "docker", "linux",
+        "security", "encryption", "testing", "deployment", "framework", "library", "api",
+        "function", "variable", "recursion", "sorting", "hashing", "graph", "cache", "index"
+    };
+    private static final String[] STARTS = {
+        "what is", "how do i use", "explain", "tell me about", "why does", "when should i use",
+        "can you describe", "what are the benefits of", "how does", "where can i learn"
+    };
+    private static final String[] SYLLABLES = {
+        "ka", "lo", "mi", "ne", "ru", "sa", "te", "vi", "zo", "pe", "dra", "qui", "bel", "tor"
+    };
+    
+    private Random random;
+    
+    public SyntheticCorpus(long seed) {
+        random = new Random(seed);
+    }
+    
+    public String question(int index) {
+        // e.g. "how does the cache work with zokabel 1234"
+        String start = STARTS[random.nextInt(STARTS.length)];
+        String topic = TOPICS[random.nextInt(TOPICS.length)];
+        String other = TOPICS[random.nextInt(TOPICS.length)];
+        return start + " " + topic + " " + other + " " + word() + " " + index;
+    }
+    
+    public String answer(int index) {
+        return "Synthetic answer number " + index + " about " + TOPICS[index % TOPICS.length] + ".";
+    }
+    
+    public String word() {
+        StringBuilder word = new StringBuilder();
+        int syllables = 2 + random.nextInt(3);
+        for (int i = 0; i < syllables; i++) {
+            word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return word.toString();
+    }
+    
+    public String misspell(String word) {
+        // One random typo: a dropped, doubled, swapped or replaced letter
+        int position = random.nextInt(word.length());
+        char letter = (char) ('a' + random.nextInt(26));
+        switch (random.nextInt(4)) {
+            case 0:
+                return word.substring(0, position) + word.substring(position + 1);
+            case 1:
+                return word.substring(0, position) + word.charAt(position) + word.substring(position);
+            case 2:
+                if (position + 1 < word.length()) {
+                    return word.substring(0, position) + word.charAt(position + 1) + word.charAt(position) +
+                           word.substring(position + 2);
+                }
+                return word.substring(0, position) + letter;
+            default:
+                return word.substring(0, position) + letter + word.substring(position + 1);
+        }
+    }
+    
+    public Map<String, String> entries(int count) {
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            entries.put(question(i), answer(i));
+        }
+        return entries;
+    }
+    
+    public Path writeTrainingDirectory(int count) throws IOException {
+        // A fresh data directory holding a pipe-delimited training_data.txt
+        Path directory = Files.createTempDirectory("chatbot-bench-" + count + "-");
+        try (BufferedWriter writer = Files.newBufferedWriter(directory.resolve("training_data.txt"),
+                                                             StandardCharsets.UTF_8)) {
+            for (int i = 0; i < count; i++) {
+                writer.write(question(i));
+                writer.write('|');
+                writer.write(answer(i));
+                writer.write('\n');
+            }
+        }
+        return directory;
+    }
+    
+    public List<String> messageMix(int count, Map<String, String> trained) {
+        // Roughly what users send: greetings and small talk, trained questions
+        // verbatim, questions about known topics, typos and unknown words,
+        // and the occasional long or punctuation-heavy message
+        List<String> questions = new ArrayList<>(trained.keySet());
+        List<String> messages = new ArrayList<>(count);
+        String[] smallTalk = {"hello", "Hi there!", "how are you?", "thanks", "bye", "help", "What's your name?"};
+        for (int i = 0; i < count; i++) {
+            int kind = random.nextInt(100);
+            if (kind < 25) {
+                messages.add(smallTalk[random.nextInt(smallTalk.length)]);
+            } else if (kind < 45 && !questions.isEmpty()) {
+                messages.add(questions.get(random.nextInt(questions.size())));
+            } else if (kind < 75) {
+                messages.add("Can you tell me about " + TOPICS[random.nextInt(TOPICS.length)] + "?");
+            } else if (kind < 90) {
+                messages.add("I have a question about " + word() + " and " + word());
+            } else {
+                StringBuilder text = new StringBuilder("Well... ");
+                for (int w = 0; w < 30; w++) {
+                    text.append(random.nextBoolean() ? TOPICS[random.nextInt(TOPICS.length)] : word());
+                    text.append(random.nextInt(8) == 0 ? ", " : " ");
+                }
+                messages.add(text.append("?!").toString());
+            }
+        }
+        return messages;
+    }
+    
+    public static void deleteDirectory(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (Files.isDirectory(file)) {
+                    deleteDirectory(file);
+                } else {
+                    Files.delete(file);
+                }
+            }
+        }
+        Files.delete(directory);
+    }
+}
\ No newline at end of file
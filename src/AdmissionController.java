@@ -0,0 +1,135 @@
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class AdmissionController {
+    // Decides whether a turn is worth running before the Chatbot spends
+    // anything on it, in two steps:
+    //
+    //   1. Rate limits. Each session has a token bucket per command type
+    //      (messages, train: commands), and train: commands also draw on one
+    //      bucket shared by all sessions, which bounds appends to the
+    //      training journal. A session over its limit gets a canned reply.
+    //   2. Admission. At most maxConcurrent turns run at once; up to
+    //      maxQueued more wait for a slot, each for at most maxWait. A turn
+    //      whose expected wait (turns ahead of it times the recent service
+    //      time) already exceeds maxWait is shed at once instead of waiting
+    //      to time out, so an overloaded bot answers "busy" quickly rather
+    //      than everything slowly.
+    //
+    // Every limit is off unless configured:
+    //   -Dchatbot.limit.messagesPerSecond=N      per session (burst: messageBurst, default 2N)
+    //   -Dchatbot.limit.trainingPerMinute=N      per session (burst: trainingBurst, default 5)
+    //   -Dchatbot.limit.trainingWritesPerSecond=N  all sessions together
+    //   -Dchatbot.admission.maxConcurrent=N      (maxQueued default 4N, maxWaitMillis default 100)
+    //
+    // Buckets and counters are atomics; only a turn that has to queue for a
+    // slot blocks, and then only itself.
+    public enum Command {
+        MESSAGE, TRAINING
+    }
+    
+    private double[] ratesPerSecond;
+    private int[] bursts;
+    private TokenBucket trainingWrites;
+    private Semaphore slots;
+    private int maxConcurrent;
+    private int maxQueued;
+    private long maxWaitNanos;
+    private AtomicInteger queued = new AtomicInteger();
+    private AtomicLong serviceNanos = new AtomicLong();
+    
+    public AdmissionController(double messagesPerSecond, int messageBurst, double trainingPerSecond,
+                               int trainingBurst, double trainingWritesPerSecond, int maxConcurrent, int maxQueued,
+                               long maxWaitMillis) {
+        // A rate of zero or less turns that limit off, as does maxConcurrent <= 0
+        ratesPerSecond = new double[] {messagesPerSecond, trainingPerSecond};
+        bursts = new int[] {Math.max(1, messageBurst), Math.max(1, trainingBurst)};
+        if (trainingWritesPerSecond > 0) {
+            int capacity = (int) Math.max(1, Math.ceil(trainingWritesPerSecond));
+            trainingWrites = new TokenBucket(trainingWritesPerSecond, capacity);
+        }
+        if (maxConcurrent > 0) {
+            this.maxConcurrent = maxConcurrent;
+            slots = new Semaphore(maxConcurrent);
+        }
+        this.maxQueued = Math.max(0, maxQueued);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+    }
+    
+    public static AdmissionController fromSystemProperties() {
+        double messages = Double.parseDouble(System.getProperty("chatbot.limit.messagesPerSecond", "0"));
+        int messageBurst = Integer.getInteger("chatbot.limit.messageBurst", (int) Math.max(1, Math.ceil(messages * 2)));
+        double training = Double.parseDouble(System.getProperty("chatbot.limit.trainingPerMinute", "0")) / 60;
+        int trainingBurst = Integer.getInteger("chatbot.limit.trainingBurst", 5);
+        double writes = Double.parseDouble(System.getProperty("chatbot.limit.trainingWritesPerSecond", "0"));
+        int concurrent = Integer.getInteger("chatbot.admission.maxConcurrent", 0);
+        int queue = Integer.getInteger("chatbot.admission.maxQueued", concurrent * 4);
+        long waitMillis = Long.getLong("chatbot.admission.maxWaitMillis", 100L);
+        return new AdmissionController(messages, messageBurst, training, trainingBurst, writes, concurrent, queue,
+                                       waitMillis);
+    }
+    
+    public boolean tryAcquire(ChatSession session, Command command) {
+        // One token from the session's bucket for the command, and for
+        // training one from the shared bucket too. A token taken from the
+        // session's bucket is not returned when the shared one is empty.
+        int index = command.ordinal();
+        if (ratesPerSecond[index] > 0 && !bucket(session, index).tryAcquire()) {
+            return false;
+        }
+        return command != Command.TRAINING || trainingWrites == null || trainingWrites.tryAcquire();
+    }
+    
+    private TokenBucket bucket(ChatSession session, int index) {
+        AtomicReferenceArray<TokenBucket> buckets = session.getRateLimits();
+        TokenBucket bucket = buckets.get(index);
+        if (bucket == null) {
+            // Two first turns racing both build one; only one is kept
+            buckets.compareAndSet(index, null, new TokenBucket(ratesPerSecond[index], bursts[index]));
+            bucket = buckets.get(index);
+        }
+        return bucket;
+    }
+    
+    public boolean enter() {
+        // True once the turn holds a slot; every true must be paired with exit()
+        if (slots == null || slots.tryAcquire()) {
+            return true;
+        }
+        int ahead = queued.incrementAndGet();
+        try {
+            if (ahead > maxQueued || (long) ahead * serviceNanos.get() / maxConcurrent > maxWaitNanos) {
+                return false;
+            }
+            return slots.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+    
+    public void exit(long elapsedNanos) {
+        // Releases the slot and folds the turn's time into the service time
+        // estimate, an exponential moving average over about eight turns
+        // that starts from the first turn's time
+        if (slots == null) {
+            return;
+        }
+        serviceNanos.accumulateAndGet(elapsedNanos,
+                                      (average, sample) -> average == 0 ? sample : average + (sample - average) / 8);
+        slots.release();
+    }
+    
+    public int getQueuedCount() {
+        return queued.get();
+    }
+    
+    public int getActiveCount() {
+        return slots == null ? 0 : maxConcurrent - slots.availablePermits();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,216 @@
+import java.util.*;
+
+public class AhoCorasickMatcher {
+    // Compiled, immutable Aho-Corasick automaton over a list of keys. A key's
+    // id is its position in that list. Edges are stored flat and sorted per
+    // node so a transition is a binary search over a small char range.
+    private int keyCount;
+    private int[] edgeStart;
+    private char[] edgeChars;
+    private int[] edgeTargets;
+    private int[] failLinks;
+    private int[] terminalIds;
+    private int[] outputLinks;
+    private int[] longestIds;
+    private int[] longestLengths;
+    
+    private AhoCorasickMatcher() {
+    }
+    
+    public static AhoCorasickMatcher compile(List<String> keys) {
+        // Build the trie in flat arrays: each node keeps its parent, the char
+        // on the edge from that parent and a sibling chain of its children.
+        int capacity = 1024;
+        int[] parents = new int[capacity];
+        char[] chars = new char[capacity];
+        int[] firstChild = new int[capacity];
+        int[] nextSibling = new int[capacity];
+        int[] terminals = new int[capacity];
+        int[] depths = new int[capacity];
+        int nodeCount = 1;
+        firstChild[0] = -1;
+        terminals[0] = -1;
+        
+        for (int id = 0; id < keys.size(); id++) {
+            String key = keys.get(id);
+            if (key.isEmpty()) {
+                continue;
+            }
+            int node = 0;
+            for (int i = 0; i < key.length(); i++) {
+                char c = key.charAt(i);
+                int next = firstChild[node];
+                while (next != -1 && chars[next] != c) {
+                    next = nextSibling[next];
+                }
+                if (next == -1) {
+                    if (nodeCount == capacity) {
+                        capacity *= 2;
+                        parents = Arrays.copyOf(parents, capacity);
+                        chars = Arrays.copyOf(chars, capacity);
+                        firstChild = Arrays.copyOf(firstChild, capacity);
+                        nextSibling = Arrays.copyOf(nextSibling, capacity);
+                        terminals = Arrays.copyOf(terminals, capacity);
+                        depths = Arrays.copyOf(depths, capacity);
+                    }
+                    next = nodeCount++;
+                    parents[next] = node;
+                    chars[next] = c;
+                    firstChild[next] = -1;
+                    nextSibling[next] = firstChild[node];
+                    firstChild[node] = next;
+                    terminals[next] = -1;
+                    depths[next] = i + 1;
+                }
+                node = next;
+            }
+            if (terminals[node] == -1) {
+                terminals[node] = id;
+            }
+        }
+        
+        // Flatten the edges, grouped by parent and sorted by char
+        AhoCorasickMatcher matcher = new AhoCorasickMatcher();
+        matcher.keyCount = keys.size();
+        matcher.edgeStart = new int[nodeCount + 1];
+        for (int node = 1; node < nodeCount; node++) {
+            matcher.edgeStart[parents[node] + 1]++;
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            matcher.edgeStart[node + 1] += matcher.edgeStart[node];
+        }
+        matcher.edgeChars = new char[nodeCount - 1];
+        matcher.edgeTargets = new int[nodeCount - 1];
+        for (int node = 0; node < nodeCount; node++) {
+            int low = matcher.edgeStart[node];
+            int e = low;
+            for (int child = firstChild[node]; child != -1; child = nextSibling[child]) {
+                // Insertion sort; nodes rarely have more than a few dozen children
+                int j = e++;
+                while (j > low && matcher.edgeChars[j - 1] > chars[child]) {
+                    matcher.edgeChars[j] = matcher.edgeChars[j - 1];
+                    matcher.edgeTargets[j] = matcher.edgeTargets[j - 1];
+                    j--;
+                }
+                matcher.edgeChars[j] = chars[child];
+                matcher.edgeTargets[j] = child;
+            }
+        }
+        
+        // Breadth-first pass for failure, output and longest-match links
+        matcher.failLinks = new int[nodeCount];
+        matcher.terminalIds = new int[nodeCount];
+        matcher.outputLinks = new int[nodeCount];
+        matcher.longestIds = new int[nodeCount];
+        matcher.longestLengths = new int[nodeCount];
+        System.arraycopy(terminals, 0, matcher.terminalIds, 0, nodeCount);
+        matcher.outputLinks[0] = -1;
+        matcher.longestIds[0] = -1;
+        
+        int[] queue = new int[nodeCount];
+        int head = 0;
+        int tail = 1;
+        while (head < tail) {
+            int node = queue[head++];
+            for (int e = matcher.edgeStart[node]; e < matcher.edgeStart[node + 1]; e++) {
+                int child = matcher.edgeTargets[e];
+                int fail = 0;
+                if (node != 0) {
+                    int state = matcher.failLinks[node];
+                    while (true) {
+                        int next = matcher.transition(state, matcher.edgeChars[e]);
+                        if (next != -1) {
+                            fail = next;
+                            break;
+                        }
+                        if (state == 0) {
+                            break;
+                        }
+                        state = matcher.failLinks[state];
+                    }
+                }
+                matcher.failLinks[child] = fail;
+                matcher.outputLinks[child] = matcher.terminalIds[fail] != -1 ? fail : matcher.outputLinks[fail];
+                if (matcher.terminalIds[child] != -1) {
+                    matcher.longestIds[child] = matcher.terminalIds[child];
+                    matcher.longestLengths[child] = depths[child];
+                } else {
+                    matcher.longestIds[child] = matcher.longestIds[fail];
+                    matcher.longestLengths[child] = matcher.longestLengths[fail];
+                }
+                queue[tail++] = child;
+            }
+        }
+        
+        return matcher;
+    }
+    
+    public int size() {
+        return keyCount;
+    }
+    
+    public int findLongest(String text) {
+        // Single pass: the longest key ending at each position is precomputed,
+        // ties on length go to the lowest id.
+        int best = -1;
+        int bestLength = 0;
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = step(state, text.charAt(i));
+            int id = longestIds[state];
+            if (id != -1) {
+                int length = longestLengths[state];
+                if (length > bestLength || (length == bestLength && id < best)) {
+                    best = id;
+                    bestLength = length;
+                }
+            }
+        }
+        return best;
+    }
+    
+    public int findLowestId(String text) {
+        // Single pass that walks the output links to see every key occurrence
+        int best = Integer.MAX_VALUE;
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = step(state, text.charAt(i));
+            int node = terminalIds[state] != -1 ? state : outputLinks[state];
+            while (node > 0) {
+                best = Math.min(best, terminalIds[node]);
+                node = outputLinks[node];
+            }
+        }
+        return best == Integer.MAX_VALUE ? -1 : best;
+    }
+    
+    private int step(int state, char c) {
+        while (true) {
+            int next = transition(state, c);
+            if (next != -1) {
+                return next;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = failLinks[state];
+        }
+    }
+    
+    private int transition(int node, char c) {
+        int low = edgeStart[node];
+        int high = edgeStart[node + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = edgeChars[mid];
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return -1;
+    }
+}
\ No newline at end of file
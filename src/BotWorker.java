@@ -0,0 +1,82 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+
+public class BotWorker {
+    // Runs bot work on one daemon thread, off the Event Dispatch Thread, and
+    // hands each result back through replyExecutor (SwingUtilities::invokeLater
+    // in the GUI). A single thread keeps replies in the order the requests
+    // were submitted.
+    //
+    // submit(), cancelPending() and hasPending() are called on the reply
+    // thread, the same one results are delivered on, so the pending list is
+    // confined to it and needs no lock.
+    private ExecutorService executor;
+    private Executor replyExecutor;
+    private Runnable onPendingChanged;
+    private List<FutureTask<String>> pendingRequests = new ArrayList<>();
+    private int requestGeneration = 0;
+    
+    public BotWorker(String threadName, Executor replyExecutor, Runnable onPendingChanged) {
+        this.replyExecutor = replyExecutor;
+        this.onPendingChanged = onPendingChanged;
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    public void execute(Runnable work) {
+        // Work with no reply, queued behind the requests already submitted
+        executor.execute(work);
+    }
+    
+    public void submit(Callable<String> request, Consumer<String> onReply, Consumer<Throwable> onFailure) {
+        // Replies to requests cancelled in the meantime are dropped
+        int generation = requestGeneration;
+        FutureTask<String> task = new FutureTask<String>(request) {
+            @Override
+            protected void done() {
+                replyExecutor.execute(() -> deliverReply(this, generation, onReply, onFailure));
+            }
+        };
+        pendingRequests.add(task);
+        executor.execute(task);
+        onPendingChanged.run();
+    }
+    
+    private void deliverReply(FutureTask<String> task, int generation, Consumer<String> onReply,
+                              Consumer<Throwable> onFailure) {
+        pendingRequests.remove(task);
+        if (!task.isCancelled() && generation == requestGeneration) {
+            try {
+                onReply.accept(task.get());
+            } catch (InterruptedException | ExecutionException e) {
+                onFailure.accept(e.getCause());
+            }
+        }
+        onPendingChanged.run();
+    }
+    
+    public void cancelPending() {
+        // Requests not started yet never run; a running one finishes but its
+        // reply is discarded
+        requestGeneration++;
+        for (FutureTask<String> task : new ArrayList<>(pendingRequests)) {
+            task.cancel(false);
+        }
+        pendingRequests.clear();
+        onPendingChanged.run();
+    }
+    
+    public boolean hasPending() {
+        return !pendingRequests.isEmpty();
+    }
+}
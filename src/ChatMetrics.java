@@ -0,0 +1,354 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class ChatMetrics implements ChatMetricsMBean {
+    // Per-stage latency histograms and per-path counters for getResponse.
+    // Recording is lock-free (striped adders and atomic bucket counters), so
+    // it can stay on in production. Exposed through JMX and as plain text in
+    // the Prometheus exposition format.
+    //
+    // Resolutions and rejections are also counted per second for the last
+    // hour, for rolling windows such as the statistics dialog's.
+    public enum Stage {
+        TOKENIZE("tokenize"),
+        EXACT_MATCH("exact_match"),
+        CACHE_LOOKUP("cache_lookup"),
+        SPELL_CORRECTION("spell_correction"),
+        SEMANTIC_MATCH("semantic_match"),
+        SCATTER_GATHER("scatter_gather"),
+        RANKED_MATCH("ranked_match"),
+        KEYWORD_MATCH("keyword_match"),
+        PARTIAL_MATCH("partial_match"),
+        CONTEXT_RESPONSE("context_response"),
+        SMART_RESPONSE("smart_response"),
+        GET_RESPONSE("get_response"),
+        TRAINING_WRITE("training_write");
+        
+        private final String label;
+        
+        Stage(String label) {
+            this.label = label;
+        }
+        
+        public String getLabel() {
+            return label;
+        }
+    }
+    
+    public enum Resolution {
+        EXACT("exact"),
+        CACHE("cache"),
+        SEMANTIC("semantic"),
+        RANKED("ranked"),
+        KEYWORD("keyword"),
+        PARTIAL("partial"),
+        CONTEXT("context"),
+        FALLBACK("fallback");
+        
+        private final String label;
+        
+        Resolution(String label) {
+            this.label = label;
+        }
+        
+        public String getLabel() {
+            return label;
+        }
+    }
+    
+    public enum Rejection {
+        MESSAGE_RATE("message_rate"),
+        TRAINING_RATE("training_rate"),
+        OVERLOAD("overload");
+        
+        private final String label;
+        
+        Rejection(String label) {
+            this.label = label;
+        }
+        
+        public String getLabel() {
+            return label;
+        }
+    }
+    
+    private LatencyHistogram[] stages;
+    private LongAdder[] resolutions;
+    private LongAdder[] rejections;
+    private RollingCounters recent;
+    private ObjectName registeredName;
+    private HttpServer httpServer;
+    private boolean closed;
+    private volatile ResponseCache responseCache;
+    private volatile AdmissionController admission;
+    
+    public ChatMetrics() {
+        stages = new LatencyHistogram[Stage.values().length];
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+        resolutions = new LongAdder[Resolution.values().length];
+        for (int i = 0; i < resolutions.length; i++) {
+            resolutions[i] = new LongAdder();
+        }
+        rejections = new LongAdder[Rejection.values().length];
+        for (int i = 0; i < rejections.length; i++) {
+            rejections[i] = new LongAdder();
+        }
+        recent = new RollingCounters(resolutions.length + rejections.length, 3600);
+    }
+    
+    public void recordStage(Stage stage, long nanos) {
+        stages[stage.ordinal()].record(nanos);
+    }
+    
+    public void recordResolution(Resolution resolution) {
+        resolutions[resolution.ordinal()].increment();
+        recent.increment(resolution.ordinal());
+    }
+    
+    public void recordRejection(Rejection rejection) {
+        rejections[rejection.ordinal()].increment();
+        recent.increment(resolutions.length + rejection.ordinal());
+    }
+    
+    public LatencyHistogram getHistogram(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+    
+    public long getResolutionCount(Resolution resolution) {
+        return resolutions[resolution.ordinal()].sum();
+    }
+    
+    public long getRejectionCount(Rejection rejection) {
+        return rejections[rejection.ordinal()].sum();
+    }
+    
+    public long[][] getRecentCounts(int... windowSeconds) {
+        // Per window of up to an hour: counts by Resolution ordinal, then by
+        // Rejection ordinal
+        return recent.sums(windowSeconds);
+    }
+    
+    public void attachCache(ResponseCache cache) {
+        responseCache = cache;
+    }
+    
+    public void attachAdmission(AdmissionController controller) {
+        admission = controller;
+    }
+    
+    public String renderText() {
+        // Pull-style text endpoint: one line per counter and quantile
+        StringBuilder text = new StringBuilder();
+        text.append("# TYPE chatbot_resolutions_total counter\n");
+        for (Resolution resolution : Resolution.values()) {
+            text.append("chatbot_resolutions_total{path=\"").append(resolution.getLabel()).append("\"} ")
+                .append(getResolutionCount(resolution)).append('\n');
+        }
+        text.append("# TYPE chatbot_rejections_total counter\n");
+        for (Rejection rejection : Rejection.values()) {
+            text.append("chatbot_rejections_total{reason=\"").append(rejection.getLabel()).append("\"} ")
+                .append(getRejectionCount(rejection)).append('\n');
+        }
+        AdmissionController controller = admission;
+        if (controller != null) {
+            text.append("# TYPE chatbot_admission_active gauge\n");
+            text.append("chatbot_admission_active ").append(controller.getActiveCount()).append('\n');
+            text.append("# TYPE chatbot_admission_queued gauge\n");
+            text.append("chatbot_admission_queued ").append(controller.getQueuedCount()).append('\n');
+        }
+        ResponseCache cache = responseCache;
+        if (cache != null) {
+            text.append("# TYPE chatbot_cache_requests_total counter\n");
+            text.append("chatbot_cache_requests_total{result=\"hit\"} ").append(cache.getHitCount()).append('\n');
+            text.append("chatbot_cache_requests_total{result=\"miss\"} ").append(cache.getMissCount()).append('\n');
+            text.append("# TYPE chatbot_cache_evictions_total counter\n");
+            text.append("chatbot_cache_evictions_total ").append(cache.getEvictionCount()).append('\n');
+            text.append("# TYPE chatbot_cache_size gauge\n");
+            text.append("chatbot_cache_size ").append(cache.size()).append('\n');
+        }
+        text.append("# TYPE chatbot_stage_latency_seconds summary\n");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getHistogram(stage);
+            String labels = "stage=\"" + stage.getLabel() + "\"";
+            for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+                text.append("chatbot_stage_latency_seconds{").append(labels)
+                    .append(",quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(histogram.getPercentileNanos(quantile * 100))).append('\n');
+            }
+            text.append("chatbot_stage_latency_seconds_count{").append(labels).append("} ")
+                .append(histogram.getCount()).append('\n');
+            text.append("chatbot_stage_latency_seconds_max{").append(labels).append("} ")
+                .append(seconds(histogram.getMaxNanos())).append('\n');
+        }
+        return text.toString();
+    }
+    
+    public synchronized void registerMBean(String name) {
+        // Registration may happen after close() on a background thread
+        if (closed) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("CodeAlphaChatbot:type=ChatMetrics,name=" + ObjectName.quote(name));
+            server.registerMBean(this, objectName);
+            registeredName = objectName;
+        } catch (JMException e) {
+            System.err.println("Could not register chat metrics MBean: " + e.getMessage());
+        }
+    }
+    
+    public synchronized void startHttpEndpoint(int port) {
+        // Serves renderText() at http://localhost:<port>/metrics
+        if (closed) {
+            return;
+        }
+        try {
+            httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+            httpServer.createContext("/metrics", exchange -> {
+                byte[] body = renderText().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            httpServer.start();
+        } catch (IOException e) {
+            System.err.println("Could not start metrics endpoint on port " + port + ": " + e.getMessage());
+        }
+    }
+    
+    public synchronized void close() {
+        closed = true;
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException e) {
+                // Already gone
+            }
+        }
+    }
+    
+    @Override
+    public long getMessageCount() {
+        return getHistogram(Stage.GET_RESPONSE).getCount();
+    }
+    
+    @Override
+    public long getExactMatchCount() {
+        return getResolutionCount(Resolution.EXACT);
+    }
+    
+    @Override
+    public long getRankedMatchCount() {
+        return getResolutionCount(Resolution.RANKED);
+    }
+    
+    @Override
+    public long getKeywordMatchCount() {
+        return getResolutionCount(Resolution.KEYWORD);
+    }
+    
+    @Override
+    public long getPartialMatchCount() {
+        return getResolutionCount(Resolution.PARTIAL);
+    }
+    
+    @Override
+    public long getContextResponseCount() {
+        return getResolutionCount(Resolution.CONTEXT);
+    }
+    
+    @Override
+    public long getFallbackCount() {
+        return getResolutionCount(Resolution.FALLBACK);
+    }
+    
+    @Override
+    public long getRateLimitedCount() {
+        return getRejectionCount(Rejection.MESSAGE_RATE) + getRejectionCount(Rejection.TRAINING_RATE);
+    }
+    
+    @Override
+    public long getShedCount() {
+        return getRejectionCount(Rejection.OVERLOAD);
+    }
+    
+    @Override
+    public long getCacheHitCount() {
+        ResponseCache cache = responseCache;
+        return cache == null ? 0 : cache.getHitCount();
+    }
+    
+    @Override
+    public long getCacheMissCount() {
+        ResponseCache cache = responseCache;
+        return cache == null ? 0 : cache.getMissCount();
+    }
+    
+    @Override
+    public double getResponseP50Micros() {
+        return micros(getHistogram(Stage.GET_RESPONSE).getPercentileNanos(50));
+    }
+    
+    @Override
+    public double getResponseP99Micros() {
+        return micros(getHistogram(Stage.GET_RESPONSE).getPercentileNanos(99));
+    }
+    
+    @Override
+    public double getResponseMaxMicros() {
+        return micros(getHistogram(Stage.GET_RESPONSE).getMaxNanos());
+    }
+    
+    @Override
+    public double getTrainingWriteP50Micros() {
+        return micros(getHistogram(Stage.TRAINING_WRITE).getPercentileNanos(50));
+    }
+    
+    @Override
+    public double getTrainingWriteP99Micros() {
+        return micros(getHistogram(Stage.TRAINING_WRITE).getPercentileNanos(99));
+    }
+    
+    @Override
+    public String getMetricsText() {
+        return renderText();
+    }
+    
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : stages) {
+            histogram.reset();
+        }
+        for (LongAdder counter : resolutions) {
+            counter.reset();
+        }
+        for (LongAdder counter : rejections) {
+            counter.reset();
+        }
+        recent.clear();
+    }
+    
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+    
+    private static String seconds(long nanos) {
+        return String.valueOf(nanos / 1e9);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,38 @@
+public interface ChatMetricsMBean {
+    // JMX view of ChatMetrics; latencies are reported in microseconds
+    long getMessageCount();
+    
+    long getExactMatchCount();
+    
+    long getRankedMatchCount();
+    
+    long getKeywordMatchCount();
+    
+    long getPartialMatchCount();
+    
+    long getContextResponseCount();
+    
+    long getFallbackCount();
+    
+    long getRateLimitedCount();
+    
+    long getShedCount();
+    
+    long getCacheHitCount();
+    
+    long getCacheMissCount();
+    
+    double getResponseP50Micros();
+    
+    double getResponseP99Micros();
+    
+    double getResponseMaxMicros();
+    
+    double getTrainingWriteP50Micros();
+    
+    double getTrainingWriteP99Micros();
+    
+    String getMetricsText();
+    
+    void reset();
+}
\ No newline at end of file
@@ -0,0 +1,425 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ChatServer {
+    // Headless front end: one acceptor thread hands connections round-robin
+    // to a fixed set of reactor threads, each driving its own Selector. Every
+    // connection gets its own ChatSession over the one shared Chatbot.
+    //
+    // Protocol: UTF-8, one message per line, one reply line per message.
+    //   train: question | answer   teaches the bot
+    //   /reset                     clears this connection's context
+    //   /quit                      closes the connection
+    //
+    // Reactors only move bytes. A turn can block, on a shard scatter or
+    // while waiting for an admission slot, so replies are computed on a
+    // pool of worker threads and handed back to the connection's reactor,
+    // which writes them out. Each connection has at most one turn on the
+    // workers at a time, so its replies come back in order and its session
+    // is only ever used by one thread at a time; further lines wait in the
+    // connection until the turn ahead of them is answered.
+    private static final int MAX_LINE_BYTES = 8192;
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+    private static final int MAX_PENDING_WRITES = 64;
+    private static final int MAX_QUEUED_LINES = 64;
+    
+    private Chatbot chatbot;
+    private ServerSocketChannel serverChannel;
+    private Selector acceptSelector;
+    private Reactor[] reactors;
+    private ExecutorService workers;
+    private Thread acceptThread;
+    private AtomicInteger connectionCount = new AtomicInteger();
+    private volatile boolean running;
+    
+    public ChatServer(Chatbot chatbot, InetSocketAddress address, int reactorCount) throws IOException {
+        this(chatbot, address, reactorCount,
+             Integer.getInteger("chatbot.server.workers", 2 * Runtime.getRuntime().availableProcessors()));
+    }
+    
+    public ChatServer(Chatbot chatbot, InetSocketAddress address, int reactorCount, int workerCount)
+            throws IOException {
+        this.chatbot = chatbot;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address, 1024);
+        serverChannel.configureBlocking(false);
+        acceptSelector = Selector.open();
+        serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+        
+        reactors = new Reactor[reactorCount];
+        for (int i = 0; i < reactorCount; i++) {
+            reactors[i] = new Reactor(i);
+        }
+        workers = Executors.newFixedThreadPool(Math.max(1, workerCount), runnable -> {
+            Thread thread = new Thread(runnable, "chat-server-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    public void start() {
+        running = true;
+        for (Reactor reactor : reactors) {
+            reactor.thread.start();
+        }
+        acceptThread = new Thread(this::acceptLoop, "chat-server-acceptor");
+        acceptThread.start();
+    }
+    
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+    
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+    
+    public void close() {
+        running = false;
+        acceptSelector.wakeup();
+        for (Reactor reactor : reactors) {
+            reactor.selector.wakeup();
+        }
+        try {
+            if (acceptThread != null) {
+                acceptThread.join(2000);
+            }
+            for (Reactor reactor : reactors) {
+                reactor.thread.join(2000);
+            }
+            
+            // Turns still running finish, but nobody is left to send them
+            workers.shutdown();
+            workers.awaitTermination(2000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeQuietly(serverChannel);
+        closeQuietly(acceptSelector);
+    }
+    
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            try {
+                acceptSelector.select();
+                acceptSelector.selectedKeys().clear();
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    reactors[next].register(channel);
+                    next = (next + 1) % reactors.length;
+                }
+            } catch (IOException e) {
+                // Typically out of file descriptors; back off instead of spinning
+                if (running) {
+                    System.err.println("Accept failed: " + e.getMessage());
+                    sleepQuietly(50);
+                }
+            }
+        }
+    }
+    
+    private class Reactor {
+        private Selector selector;
+        private Thread thread;
+        private Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+        private Queue<Connection> answered = new ConcurrentLinkedQueue<>();
+        private ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+        
+        Reactor(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this::run, "chat-server-reactor-" + index);
+        }
+        
+        void register(SocketChannel channel) {
+            registrations.add(channel);
+            selector.wakeup();
+        }
+        
+        void answer(Connection connection, String reply) {
+            // Called by a worker; the reactor writes the reply out
+            connection.answer = reply;
+            answered.add(connection);
+            selector.wakeup();
+        }
+        
+        private void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    SocketChannel channel;
+                    while ((channel = registrations.poll()) != null) {
+                        Connection connection = new Connection(channel, chatbot.newSession());
+                        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                        connectionCount.incrementAndGet();
+                    }
+                    
+                    Connection connection;
+                    while ((connection = answered.poll()) != null) {
+                        finishTurn(connection);
+                    }
+                    
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Reactor failed: " + e.getMessage());
+                }
+            }
+            
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+        }
+        
+        private void handle(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    read(key, connection);
+                }
+                if (key.isValid()) {
+                    updateInterest(key, connection);
+                }
+            } catch (IOException e) {
+                close(key);
+            }
+        }
+        
+        private void read(SelectionKey key, Connection connection) throws IOException {
+            readBuffer.clear();
+            int count = connection.channel.read(readBuffer);
+            if (count < 0) {
+                close(key);
+                return;
+            }
+            
+            readBuffer.flip();
+            while (readBuffer.hasRemaining() && !connection.closing && !connection.overflowed) {
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    connection.lines.add(connection.takeLine());
+                } else if (!connection.appendToLine(b)) {
+                    // Answered once the lines before it are
+                    connection.overflowed = true;
+                }
+            }
+            dispatch(connection);
+            connection.flush();
+            if (connection.closing && connection.pending == null) {
+                close(key);
+            }
+        }
+        
+        private void dispatch(Connection connection) {
+            // Answers the connection's queued lines in order until one needs
+            // a turn on the workers; the rest wait until it is answered
+            while (!connection.busy && !connection.closing) {
+                String message = connection.lines.poll();
+                if (message == null) {
+                    if (connection.overflowed) {
+                        connection.closing = true;
+                        connection.reply("Message too long; closing connection.");
+                    }
+                    return;
+                }
+                if (message.isEmpty()) {
+                    connection.reply("");
+                } else if (message.equalsIgnoreCase("/quit")) {
+                    connection.closing = true;
+                    connection.lines.clear();
+                    connection.reply("Goodbye! Have a great day.");
+                } else if (message.equalsIgnoreCase("/reset")) {
+                    connection.session.reset();
+                    connection.reply("Context reset.");
+                } else {
+                    connection.busy = true;
+                    workers.execute(() -> answer(connection, respond(connection.session, message)));
+                }
+            }
+        }
+        
+        private void finishTurn(Connection connection) {
+            // A connection closed while its turn ran just drops the reply
+            SelectionKey key = connection.key;
+            if (!key.isValid()) {
+                return;
+            }
+            connection.busy = false;
+            connection.reply(connection.answer);
+            connection.answer = null;
+            dispatch(connection);
+            try {
+                connection.flush();
+                if (connection.closing && connection.pending == null) {
+                    close(key);
+                } else {
+                    updateInterest(key, connection);
+                }
+            } catch (IOException e) {
+                close(key);
+            }
+        }
+        
+        private void updateInterest(SelectionKey key, Connection connection) {
+            // Stop reading from a client that is not reading its replies, or
+            // that is sending lines faster than they are answered
+            int interest = 0;
+            if (connection.pending != null) {
+                interest |= SelectionKey.OP_WRITE;
+            }
+            if (!connection.closing && !connection.overflowed && connection.lines.size() < MAX_QUEUED_LINES
+                    && (connection.pending == null || connection.pending.size() < MAX_PENDING_WRITES)) {
+                interest |= SelectionKey.OP_READ;
+            }
+            if (interest == 0 && connection.pending == null && !connection.busy && connection.lines.isEmpty()) {
+                close(key);
+            } else {
+                key.interestOps(interest);
+            }
+        }
+        
+        private void close(SelectionKey key) {
+            key.cancel();
+            closeQuietly(key.channel());
+            connectionCount.decrementAndGet();
+        }
+    }
+    
+    private String respond(ChatSession session, String message) {
+        // Runs on a worker. A turn that fails still gets a reply, or the
+        // connection would wait for it forever.
+        try {
+            if (message.toLowerCase().startsWith("train:")) {
+                return chatbot.processTrainingCommand(session, message);
+            }
+            return chatbot.getResponse(session, message);
+        } catch (RuntimeException e) {
+            System.err.println("Turn failed: " + e);
+            return "Sorry, something went wrong answering that.";
+        }
+    }
+    
+    private static class Connection {
+        // Owned by its reactor thread, except session, which the one turn
+        // on the workers uses, and answer, which hands its reply back
+        // through the reactor's queue
+        private SocketChannel channel;
+        private SelectionKey key;
+        private ChatSession session;
+        private byte[] line = new byte[128];
+        private int lineLength;
+        private ArrayDeque<String> lines = new ArrayDeque<>();
+        private ArrayDeque<ByteBuffer> pending;
+        private boolean busy;
+        private boolean overflowed;
+        private boolean closing;
+        private volatile String answer;
+        
+        Connection(SocketChannel channel, ChatSession session) {
+            this.channel = channel;
+            this.session = session;
+        }
+        
+        boolean appendToLine(byte b) {
+            if (lineLength == line.length) {
+                if (line.length >= MAX_LINE_BYTES) {
+                    return false;
+                }
+                line = Arrays.copyOf(line, Math.min(line.length * 2, MAX_LINE_BYTES));
+            }
+            line[lineLength++] = b;
+            return true;
+        }
+        
+        String takeLine() {
+            int length = lineLength;
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            String message = new String(line, 0, length, StandardCharsets.UTF_8).trim();
+            lineLength = 0;
+            return message;
+        }
+        
+        void reply(String text) {
+            // Replies are single lines; embedded newlines would break framing
+            String framed = text.replace('\r', ' ').replace('\n', ' ') + "\n";
+            if (pending == null) {
+                pending = new ArrayDeque<>();
+            }
+            pending.add(ByteBuffer.wrap(framed.getBytes(StandardCharsets.UTF_8)));
+        }
+        
+        void flush() throws IOException {
+            while (pending != null) {
+                ByteBuffer head = pending.peek();
+                channel.write(head);
+                if (head.hasRemaining()) {
+                    return;
+                }
+                pending.poll();
+                if (pending.isEmpty()) {
+                    pending = null;
+                }
+            }
+        }
+    }
+    
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing left to do
+        }
+    }
+    
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        // java ChatServer [port]; reactor threads default to one per core,
+        // workers (-Dchatbot.server.workers) to two per core
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 5050;
+        int reactorCount = Integer.getInteger("chatbot.server.threads", Runtime.getRuntime().availableProcessors());
+        
+        Chatbot chatbot = new Chatbot(Paths.get(""));
+        ChatServer server = new ChatServer(chatbot, new InetSocketAddress(port), reactorCount);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close, "chat-server-shutdown"));
+        System.out.println("Chat server listening on port " + server.getPort() + " with " + reactorCount + " reactor threads");
+        
+        // Built-in answers are served while the training data loads
+        chatbot.awaitLoaded();
+        System.out.println("Knowledge base loaded: " + chatbot.getKnowledgeBase().size() + " entries");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,86 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class ChatSession {
+    // Per-conversation state. Each user gets their own session, so the shared
+    // KnowledgeBase never has to coordinate history or context between users.
+    //
+    // A session with an id and a SessionLog is persistent: its messages are
+    // logged as they arrive and restored when a session with the same id is
+    // created again.
+    private static final int MAX_HISTORY = Math.max(2, Integer.getInteger("chatbot.history.size", 10));
+
+    private ConversationHistory conversationHistory;
+    private volatile String userContext;
+    private String id;
+    private SessionLog log;
+    // Token buckets per AdmissionController.Command, created on first use;
+    // a reset keeps them, so it cannot be used to dodge a limit
+    private AtomicReferenceArray<TokenBucket> rateLimits =
+        new AtomicReferenceArray<>(AdmissionController.Command.values().length);
+
+    public ChatSession() {
+        this(null, null);
+    }
+
+    public ChatSession(String id, SessionLog log) {
+        this.id = id;
+        this.log = id == null ? null : log;
+        conversationHistory = new ConversationHistory(MAX_HISTORY);
+        userContext = "";
+        if (this.log != null) {
+            for (String message : this.log.getRecoveredMessages(id)) {
+                conversationHistory.add(message);
+            }
+        }
+    }
+
+    public static int getHistoryCapacity() {
+        return MAX_HISTORY;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    AtomicReferenceArray<TokenBucket> getRateLimits() {
+        return rateLimits;
+    }
+
+    public void addMessage(String message) {
+        conversationHistory.add(message);
+        if (log != null) {
+            log.append(id, message);
+        }
+    }
+
+    public List<String> getConversationHistory() {
+        // A read-only copy of the recent messages, at most the history size
+        return conversationHistory.snapshot();
+    }
+
+    public int getMessageCount() {
+        return conversationHistory.size();
+    }
+
+    public String getPreviousMessage() {
+        // The message before the one currently being answered, if any
+        return conversationHistory.latest(1);
+    }
+
+    public String getUserContext() {
+        return userContext;
+    }
+
+    public void setUserContext(String userContext) {
+        this.userContext = userContext;
+    }
+
+    public synchronized void reset() {
+        userContext = "";
+        conversationHistory.clear();
+        if (log != null) {
+            log.appendReset(id);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+public class ChatStatistics {
+    // Read-only snapshots of what the statistics dialog shows: message and
+    // answer-path counts since start and over the last minute, five minutes
+    // and hour, the top keywords, latency percentiles and cache counters.
+    //
+    // Nothing here is recomputed from raw data. Every figure is already
+    // kept up to date as messages arrive: counters and rolling windows in
+    // ChatMetrics, top keywords and distinct count in KeywordCounter. So a
+    // snapshot costs the same whatever the vocabulary or traffic, and
+    // snapshots taken within SNAPSHOT_MILLIS of each other are shared.
+    //
+    // Subscribers get a fresh snapshot at their chosen period on one daemon
+    // thread, which only exists while somebody is subscribed.
+    public static final int[] WINDOW_SECONDS = {60, 300, 3600};
+    private static final long SNAPSHOT_MILLIS = 250;
+    private static final int TOP_KEYWORDS = 10;
+    
+    private ChatMetrics metrics;
+    private KeywordCounter keywordCounter;
+    private ResponseCache responseCache;
+    private volatile Snapshot latest;
+    private List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService scheduler;
+    
+    public ChatStatistics(ChatMetrics metrics, KeywordCounter keywordCounter, ResponseCache responseCache) {
+        this.metrics = metrics;
+        this.keywordCounter = keywordCounter;
+        this.responseCache = responseCache;
+    }
+    
+    public static class Window {
+        private int seconds;
+        private long[] resolutions;
+        private long[] rejections;
+        private long messages;
+        
+        Window(int seconds, long[] counts) {
+            this.seconds = seconds;
+            int resolutionCount = ChatMetrics.Resolution.values().length;
+            resolutions = Arrays.copyOf(counts, resolutionCount);
+            rejections = Arrays.copyOfRange(counts, resolutionCount, counts.length);
+            for (long count : resolutions) {
+                messages += count;
+            }
+        }
+        
+        public int getSeconds() {
+            return seconds;
+        }
+        
+        public long getMessageCount() {
+            // Answered messages; rejected ones are counted separately
+            return messages;
+        }
+        
+        public double getMessagesPerMinute() {
+            // Not defined for the totals
+            return seconds == 0 ? 0 : messages * 60.0 / seconds;
+        }
+        
+        public long getResolutionCount(ChatMetrics.Resolution resolution) {
+            return resolutions[resolution.ordinal()];
+        }
+        
+        public long getRejectionCount(ChatMetrics.Rejection rejection) {
+            return rejections[rejection.ordinal()];
+        }
+    }
+    
+    public static class Snapshot {
+        private long takenAtMillis;
+        private long messages;
+        private long uniqueKeywords;
+        private List<Map.Entry<String, Integer>> topKeywords;
+        private Window total;
+        private List<Window> windows;
+        private long[] stageCounts;
+        private long[] stageP50Nanos;
+        private long[] stageP99Nanos;
+        private int cacheSize;
+        private long cacheHits;
+        private long cacheMisses;
+        private double cacheHitRate;
+        
+        public long getTakenAtMillis() {
+            return takenAtMillis;
+        }
+        
+        public long getMessageCount() {
+            return messages;
+        }
+        
+        public long getUniqueKeywordCount() {
+            return uniqueKeywords;
+        }
+        
+        public List<Map.Entry<String, Integer>> getTopKeywords() {
+            return topKeywords;
+        }
+        
+        public Window getTotal() {
+            // Counts since start, as a window with no fixed length
+            return total;
+        }
+        
+        public List<Window> getWindows() {
+            // One per WINDOW_SECONDS entry, shortest first
+            return windows;
+        }
+        
+        public long getStageCount(ChatMetrics.Stage stage) {
+            return stageCounts[stage.ordinal()];
+        }
+        
+        public long getStageP50Nanos(ChatMetrics.Stage stage) {
+            return stageP50Nanos[stage.ordinal()];
+        }
+        
+        public long getStageP99Nanos(ChatMetrics.Stage stage) {
+            return stageP99Nanos[stage.ordinal()];
+        }
+        
+        public int getCacheSize() {
+            return cacheSize;
+        }
+        
+        public long getCacheHitCount() {
+            return cacheHits;
+        }
+        
+        public long getCacheMissCount() {
+            return cacheMisses;
+        }
+        
+        public double getCacheHitRate() {
+            return cacheHitRate;
+        }
+    }
+    
+    public Snapshot snapshot() {
+        Snapshot current = latest;
+        if (current != null && System.currentTimeMillis() - current.takenAtMillis < SNAPSHOT_MILLIS) {
+            return current;
+        }
+        current = takeSnapshot();
+        latest = current;
+        return current;
+    }
+    
+    private Snapshot takeSnapshot() {
+        Snapshot snapshot = new Snapshot();
+        snapshot.takenAtMillis = System.currentTimeMillis();
+        snapshot.uniqueKeywords = keywordCounter.estimateDistinct();
+        snapshot.topKeywords = Collections.unmodifiableList(new ArrayList<>(keywordCounter.topKeywords(TOP_KEYWORDS)));
+        
+        ChatMetrics.Resolution[] resolutions = ChatMetrics.Resolution.values();
+        ChatMetrics.Rejection[] rejections = ChatMetrics.Rejection.values();
+        long[] totals = new long[resolutions.length + rejections.length];
+        for (ChatMetrics.Resolution resolution : resolutions) {
+            totals[resolution.ordinal()] = metrics.getResolutionCount(resolution);
+        }
+        for (ChatMetrics.Rejection rejection : rejections) {
+            totals[resolutions.length + rejection.ordinal()] = metrics.getRejectionCount(rejection);
+        }
+        snapshot.total = new Window(0, totals);
+        snapshot.messages = snapshot.total.getMessageCount();
+        
+        long[][] recent = metrics.getRecentCounts(WINDOW_SECONDS);
+        List<Window> windows = new ArrayList<>(WINDOW_SECONDS.length);
+        for (int i = 0; i < WINDOW_SECONDS.length; i++) {
+            windows.add(new Window(WINDOW_SECONDS[i], recent[i]));
+        }
+        snapshot.windows = Collections.unmodifiableList(windows);
+        
+        ChatMetrics.Stage[] stages = ChatMetrics.Stage.values();
+        snapshot.stageCounts = new long[stages.length];
+        snapshot.stageP50Nanos = new long[stages.length];
+        snapshot.stageP99Nanos = new long[stages.length];
+        for (ChatMetrics.Stage stage : stages) {
+            LatencyHistogram histogram = metrics.getHistogram(stage);
+            snapshot.stageCounts[stage.ordinal()] = histogram.getCount();
+            snapshot.stageP50Nanos[stage.ordinal()] = histogram.getPercentileNanos(50);
+            snapshot.stageP99Nanos[stage.ordinal()] = histogram.getPercentileNanos(99);
+        }
+        
+        snapshot.cacheSize = responseCache.size();
+        snapshot.cacheHits = responseCache.getHitCount();
+        snapshot.cacheMisses = responseCache.getMissCount();
+        snapshot.cacheHitRate = responseCache.getHitRate();
+        return snapshot;
+    }
+    
+    public class Subscription implements AutoCloseable {
+        private ScheduledFuture<?> task;
+        
+        @Override
+        public void close() {
+            unsubscribe(this);
+        }
+    }
+    
+    public synchronized Subscription subscribe(long periodMillis, Consumer<Snapshot> listener) {
+        // The first snapshot is delivered at once, then one per period
+        // until the subscription is closed. A listener that throws is
+        // unsubscribed.
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "chat-statistics");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        Subscription subscription = new Subscription();
+        subscription.task = scheduler.scheduleAtFixedRate(() -> {
+            try {
+                listener.accept(snapshot());
+            } catch (RuntimeException e) {
+                System.err.println("Statistics subscriber failed: " + e);
+                unsubscribe(subscription);
+            }
+        }, 0, Math.max(SNAPSHOT_MILLIS, periodMillis), TimeUnit.MILLISECONDS);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+    
+    private synchronized void unsubscribe(Subscription subscription) {
+        if (!subscriptions.remove(subscription)) {
+            return;
+        }
+        subscription.task.cancel(false);
+        if (subscriptions.isEmpty()) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+    
+    public synchronized void close() {
+        for (Subscription subscription : subscriptions) {
+            subscription.task.cancel(false);
+        }
+        subscriptions.clear();
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+}
\ No newline at end of file
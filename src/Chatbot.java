@@ -1,46 +1,138 @@
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Chatbot {
-    private Map<String, String> responses;
-    private Map<String, Integer> keywordFrequency;
-    private List<String> conversationHistory;
-    private Map<String, List<String>> contextResponses;
-    private Set<String> stopWords;
-    private Random random;
+    // Shared across all sessions: the knowledge base and keyword statistics.
+    // Per-user history and context live in ChatSession.
+    //
+    // A bulk import or a reload of the training files builds a replacement
+    // knowledge base off to the side and publishes it with one volatile
+    // write, so a turn never sees a half-loaded one. Pairs trained meanwhile
+    // are recorded under trainingLock and replayed onto the replacement.
+    private volatile KnowledgeBase knowledgeBase;
+    private final Object trainingLock = new Object();
+    private final Object rebuildLock = new Object();
+    private Map<String, String> trainedDuringRebuild;
+    private Map<String, String> trainedEntries = new ConcurrentHashMap<>();
+    private volatile String loadedFingerprint;
+    private TrainingDataWatcher watcher;
+    private CompletableFuture<Void> loaded = new CompletableFuture<>();
+    private volatile double loadProgress;
+    private volatile boolean closed;
+    private KeywordCounter keywordCounter;
+    private ThreadLocal<Tokenizer> tokenizers;
+    private TrainingJournal journal;
+    private Thread shutdownHook;
+    private Path dataDirectory;
+    private ChatSession defaultSession;
+    private SessionLog sessionLog;
+    private ShardClient shards;
+    private SemanticIndex semanticIndex;
+    private double semanticThreshold;
+    private ChatMetrics metrics;
+    private ResponseCache responseCache;
+    private AdmissionController admission;
+    private ChatStatistics statistics;
     private String botName = "CodeAlpha Bot";
-    private String userContext = "";
+    
+    private static final AtomicInteger instanceCount = new AtomicInteger();
+    private static final int PARSE_BATCH_LINES = 4096;
+    private static final String TRAINED_REPLY = "Training: I've learned something new!";
+    private static final String RATE_LIMITED_REPLY = "You're sending messages faster than I can keep up with. Please slow down a little.";
+    private static final String TRAINING_LIMITED_REPLY = "I'm learning a lot right now. Please wait a moment before teaching me more.";
+    private static final String OVERLOADED_REPLY = "I'm answering a lot of people right now. Please try again in a moment.";
     
     public Chatbot() {
-        responses = new HashMap<>();
-        keywordFrequency = new HashMap<>();
-        conversationHistory = new ArrayList<>();
-        contextResponses = new HashMap<>();
-        stopWords = new HashSet<>();
-        random = new Random();
+        this(Paths.get(""));
+    }
+    
+    public Chatbot(Path dataDirectory) {
+        // Training files are read from and written to the data directory
+        this.dataDirectory = dataDirectory;
+        keywordCounter = new KeywordCounter();
+        if (Boolean.getBoolean("chatbot.history.persist")) {
+            openSessionLog();
+        }
+        defaultSession = newSession("default");
+        
+        // Bounded by entry count and age; see ResponseCache for the policy
+        int cacheSize = Integer.getInteger("chatbot.cache.size", 10_000);
+        long cacheTtlSeconds = Long.getLong("chatbot.cache.ttlSeconds", 600L);
+        responseCache = new ResponseCache(cacheSize, cacheTtlSeconds * 1000);
+        
+        metrics = new ChatMetrics();
+        metrics.attachCache(responseCache);
+        statistics = new ChatStatistics(metrics, keywordCounter, responseCache);
+        
+        // Per-session rate limits and a bound on concurrent turns, all off
+        // unless configured; see AdmissionController
+        admission = AdmissionController.fromSystemProperties();
+        metrics.attachAdmission(admission);
+        
+        Set<String> stopWords = new HashSet<>();
+        Map<String, List<String>> contextResponses = new HashMap<>();
+        initializeStopWords(stopWords);
+        initializeContextResponses(contextResponses);
+        knowledgeBase = new KnowledgeBase(stopWords, contextResponses);
+        tokenizers = ThreadLocal.withInitial(() -> new Tokenizer(knowledgeBase.getStopWords()));
+        
+        // With -Dchatbot.shards=host:port,... this bot is a router: the keys
+        // live in ShardServer processes, and only the built-in answers here
+        String shardList = System.getProperty("chatbot.shards");
+        if (shardList != null) {
+            int timeoutMillis = Integer.getInteger("chatbot.shards.timeoutMillis", 2000);
+            shards = new ShardClient(ShardClient.parseAddresses(shardList), timeoutMillis, 1000);
+        }
+        
+        // Built-in answers and trained pairs are served at once; the training
+        // files, which may hold millions of entries, load in the background
+        // and are swapped in once indexed
+        initializeResponses(knowledgeBase);
+        if (shards == null) {
+            openJournal();
+        }
+        
+        // -Dchatbot.semantic=true adds nearest-neighbor matching of reworded
+        // questions; see SemanticIndex
+        if (Boolean.getBoolean("chatbot.semantic") && shards == null) {
+            int dimensions = Integer.getInteger("chatbot.semantic.dimensions", 256);
+            int efSearch = Integer.getInteger("chatbot.semantic.ef", 64);
+            semanticIndex = new SemanticIndex(knowledgeBase.getStopWords(), dimensions, 16, 100, efSearch);
+            semanticThreshold = Double.parseDouble(System.getProperty("chatbot.semantic.minSimilarity", "0.65"));
+        }
+        knowledgeBase.compileIndex();
+        Thread loader = new Thread(this::loadInBackground, "training-data-loader");
+        loader.setDaemon(true);
+        loader.start();
         
-        initializeStopWords();
-        initializeResponses();
-        initializeContextResponses();
-        loadTrainingData();
+        // Edits to the training files are picked up without a restart
+        if (Boolean.parseBoolean(System.getProperty("chatbot.reload.watch", "true")) && shards == null) {
+            startWatcher();
+        }
     }
     
-    private void initializeStopWords() {
+    private void initializeStopWords(Set<String> stopWords) {
         // Common English stop words for NLP processing
-        String[] words = {"a", "an", "and", "are", "as", "at", "be", "by", "for", "from", 
-                         "has", "he", "in", "is", "it", "its", "of", "on", "that", "the", 
-                         "to", "was", "will", "with", "the", "this", "but", "they", "have", 
-                         "had", "what", "said", "each", "which", "she", "do", "how", "their", 
-                         "if", "up", "out", "many", "then", "them", "these", "so", "some", 
-                         "her", "would", "make", "like", "into", "him", "time", "two", "more", 
-                         "go", "no", "way", "could", "my", "than", "first", "been", "call", 
-                         "who", "its", "now", "find", "long", "down", "day", "did", "get", 
+        String[] words = {"a", "an", "and", "are", "as", "at", "be", "by", "for", "from",
+                         "has", "he", "in", "is", "it", "its", "of", "on", "that", "the",
+                         "to", "was", "will", "with", "the", "this", "but", "they", "have",
+                         "had", "what", "said", "each", "which", "she", "do", "how", "their",
+                         "if", "up", "out", "many", "then", "them", "these", "so", "some",
+                         "her", "would", "make", "like", "into", "him", "time", "two", "more",
+                         "go", "no", "way", "could", "my", "than", "first", "been", "call",
+                         "who", "its", "now", "find", "long", "down", "day", "did", "get",
                          "come", "made", "may", "part"};
         stopWords.addAll(Arrays.asList(words));
     }
     
-    private void initializeResponses() {
+    private void initializeResponses(KnowledgeBase responses) {
         // Pre-populate the map with keywords and their corresponding responses
         responses.put("hello", "Hello there! How can I assist you today?");
         responses.put("hi", "Hi! Nice to meet you. How can I help?");
@@ -82,7 +174,7 @@ public class Chatbot {
         responses.put("data science", "Data science combines statistics, programming, and domain knowledge to extract insights from data.");
     }
     
-    private void initializeContextResponses() {
+    private void initializeContextResponses(Map<String, List<String>> contextResponses) {
         // Context-aware responses based on conversation history
         contextResponses.put("greeting", Arrays.asList(
             "Hello! How can I help you today?",
@@ -103,151 +195,758 @@ public class Chatbot {
         ));
     }
     
-    private void loadTrainingData() {
-        // Load additional training data from file if available
+    private void loadInBackground() {
+        // Metrics are visible over JMX, and over HTTP when a port is
+        // configured. Starting the platform MBean server alone takes longer
+        // than the rest of startup, so it happens here too.
+        metrics.registerMBean("chatbot-" + instanceCount.incrementAndGet());
+        Integer metricsPort = Integer.getInteger("chatbot.metrics.port");
+        if (metricsPort != null) {
+            metrics.startHttpEndpoint(metricsPort);
+        }
+        
+        try {
+            if (shards != null) {
+                loadShardVocabulary();
+            } else {
+                loadSemanticIndex();
+                rebuildFromFiles();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not load training data: " + e.getMessage());
+        } finally {
+            loadProgress = 1;
+            loaded.complete(null);
+        }
+    }
+    
+    private void loadShardVocabulary() throws IOException {
+        // Spelling is corrected before the scatter, against every shard's words.
+        // Cached answers came from the shards as they were, so they are all
+        // dropped once any shard is trained, by any router, or reloads.
+        knowledgeBase.addVocabulary(shards.vocabulary());
+        shards.watch(Long.getLong("chatbot.shards.pollMillis", 1000L), responseCache::clear);
+        System.out.println("Routing to " + shards.getShardCount() + " shards holding " + shards.size() + " entries");
+    }
+    
+    private void loadSemanticIndex() {
+        Path file = dataDirectory.resolve("semantic.idx");
+        if (semanticIndex == null || !Files.exists(file)) {
+            return;
+        }
+        try {
+            if (!semanticIndex.load(file)) {
+                System.out.println("Semantic index settings changed; rebuilding " + file);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not load semantic index, rebuilding it: " + e.getMessage());
+        }
+    }
+    
+    private void indexSemantically(KnowledgeBase knowledgeBase) {
+        // Embeds the keys not indexed yet, one at a time so training is
+        // never held up for long, and saves the index if anything changed
+        if (semanticIndex == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        int added = 0;
+        for (String key : knowledgeBase.keys()) {
+            if (closed) {
+                return;
+            }
+            if (semanticIndex.add(key)) {
+                added++;
+            }
+        }
+        if (added > 0) {
+            // Answers cached since the knowledge base was published did not
+            // see these keys
+            responseCache.clear();
+            System.out.println("Indexed " + added + " keys semantically in " +
+                               (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+        saveSemanticIndex();
+    }
+    
+    private void saveSemanticIndex() {
+        if (semanticIndex == null || !semanticIndex.isDirty()) {
+            return;
+        }
+        try {
+            semanticIndex.save(dataDirectory.resolve("semantic.idx"));
+        } catch (IOException e) {
+            System.err.println("Could not save semantic index: " + e.getMessage());
+        }
+    }
+    
+    public SemanticIndex getSemanticIndex() {
+        return semanticIndex;
+    }
+    
+    public boolean isLoaded() {
+        return loaded.isDone();
+    }
+    
+    public double getLoadProgress() {
+        // Fraction of the first load done, by bytes read, then indexing
+        return loadProgress;
+    }
+    
+    public void awaitLoaded() {
+        loaded.join();
+    }
+    
+    private void reportProgress(double progress) {
+        // Reloads after the first load do not move the bar back
+        if (!loaded.isDone()) {
+            loadProgress = progress;
+        }
+    }
+    
+    private void loadTrainingData(KnowledgeBase knowledgeBase) {
+        // Reading accounts for the first 80% of the progress, by file size
+        Path snapshotFile = dataDirectory.resolve("training_data.kb");
+        Path trainingFile = dataDirectory.resolve("training_data.txt");
+        long snapshotBytes = Files.exists(snapshotFile) ? sizeOf(snapshotFile) : 0;
+        long totalBytes = Math.max(1, snapshotBytes + (Files.exists(trainingFile) ? sizeOf(trainingFile) : 0));
+        
+        // Load the binary snapshot first; it is mapped, not read into memory
+        if (Files.exists(snapshotFile)) {
+            try {
+                knowledgeBase.attachSnapshot(KnowledgeBaseFile.open(snapshotFile));
+            } catch (IOException e) {
+                System.err.println("Could not open training snapshot: " + e.getMessage());
+            }
+            reportProgress(0.8 * snapshotBytes / totalBytes);
+        }
+        
+        // Load additional training data from file if available. Lines are
+        // parsed in batches on the index pool while reading continues, and
+        // the batches are merged in file order so later lines still win.
         try {
-            Path trainingFile = Paths.get("training_data.txt");
             if (Files.exists(trainingFile)) {
-                List<String> lines = Files.readAllLines(trainingFile);
-                for (String line : lines) {
-                    String[] parts = line.split("\\|");
-                    if (parts.length == 2) {
-                        responses.put(parts[0].toLowerCase().trim(), parts[1].trim());
+                ForkJoinPool pool = ChunkedBuild.defaultPool();
+                List<ForkJoinTask<String[]>> batches = new ArrayList<>();
+                List<String> lines = new ArrayList<>(PARSE_BATCH_LINES);
+                long bytesRead = snapshotBytes;
+                int lineCount = 0;
+                try (BufferedReader reader = Files.newBufferedReader(trainingFile)) {
+                    String line;
+                    while ((line = reader.readLine()) != null && !closed) {
+                        lines.add(line);
+                        if (lines.size() == PARSE_BATCH_LINES) {
+                            List<String> batch = lines;
+                            batches.add(pool.submit(() -> parseTrainingLines(batch)));
+                            lines = new ArrayList<>(PARSE_BATCH_LINES);
+                        }
+                        bytesRead += line.length() + 1;
+                        if ((++lineCount & 0xFFFF) == 0) {
+                            reportProgress(0.8 * Math.min(bytesRead, totalBytes) / totalBytes);
+                        }
+                    }
+                }
+                List<String> rest = lines;
+                batches.add(pool.submit(() -> parseTrainingLines(rest)));
+                Map<String, String> entries = new LinkedHashMap<>();
+                for (ForkJoinTask<String[]> batch : batches) {
+                    String[] pairs = batch.join();
+                    for (int i = 0; i < pairs.length; i += 2) {
+                        if (pairs[i] != null) {
+                            entries.put(pairs[i], pairs[i + 1]);
+                        }
                     }
                 }
+                reportProgress(0.8);
+                knowledgeBase.putAll(entries);
             }
         } catch (IOException e) {
             // Training file not found, continue with default responses
         }
+        reportProgress(0.9);
+    }
+    
+    private static String[] parseTrainingLines(List<String> lines) {
+        // Key and response pairs, both null for a line that is not "key|response"
+        String[] pairs = new String[lines.size() * 2];
+        for (int i = 0; i < lines.size(); i++) {
+            String[] parts = lines.get(i).split("\\|");
+            if (parts.length == 2) {
+                pairs[2 * i] = parts[0].toLowerCase().trim();
+                pairs[2 * i + 1] = parts[1].trim();
+            }
+        }
+        return pairs;
+    }
+    
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+    
+    private void openJournal() {
+        // Trained pairs are persisted to an append-only journal. Sync policy:
+        // force to disk every N entries or every T milliseconds.
+        int syncEvery = Integer.getInteger("chatbot.journal.syncEvery", 64);
+        long syncMillis = Long.getLong("chatbot.journal.syncMillis", 200L);
+        try {
+            journal = new TrainingJournal(dataDirectory.resolve("training_data.journal"), syncEvery, syncMillis);
+            trainedEntries.putAll(journal.getRecoveredEntries());
+            knowledgeBase.putAll(journal.getRecoveredEntries());
+            shutdownHook = new Thread(this::close, "training-journal-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        } catch (IOException e) {
+            System.err.println("Could not open training journal: " + e.getMessage());
+        }
+    }
+    
+    private void openSessionLog() {
+        // Conversation history of named sessions survives restarts; see
+        // SessionLog for segments and compaction
+        long segmentBytes = Long.getLong("chatbot.history.segmentBytes", 4L << 20);
+        int maxSegments = Integer.getInteger("chatbot.history.maxSegments", 8);
+        try {
+            sessionLog = new SessionLog(dataDirectory.resolve("history"), ChatSession.getHistoryCapacity(),
+                                        segmentBytes, maxSegments);
+        } catch (IOException e) {
+            System.err.println("Could not open session log: " + e.getMessage());
+        }
+    }
+    
+    private void startWatcher() {
+        Set<String> fileNames = new HashSet<>(Arrays.asList("training_data.txt", "training_data.kb"));
+        try {
+            watcher = new TrainingDataWatcher(dataDirectory, fileNames, 500, () -> {
+                try {
+                    reloadIfChanged();
+                } catch (IOException e) {
+                    System.err.println("Could not reload training data: " + e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Could not watch training data: " + e.getMessage());
+        }
+    }
+    
+    private String fingerprintTrainingFiles() {
+        // Modification time and size of each file, enough to skip reloads
+        // for events caused by our own writes
+        StringBuilder fingerprint = new StringBuilder();
+        for (String name : new String[] {"training_data.txt", "training_data.kb"}) {
+            Path file = dataDirectory.resolve(name);
+            try {
+                fingerprint.append(Files.getLastModifiedTime(file).toMillis()).append(':')
+                           .append(Files.size(file)).append(';');
+            } catch (IOException e) {
+                fingerprint.append("-;");
+            }
+        }
+        return fingerprint.toString();
+    }
+    
+    public boolean reloadIfChanged() throws IOException {
+        synchronized (rebuildLock) {
+            if (shards != null || fingerprintTrainingFiles().equals(loadedFingerprint)) {
+                return false;
+            }
+            reloadTrainingData();
+            return true;
+        }
+    }
+    
+    public int reloadTrainingData() throws IOException {
+        // A router holds no training files; each shard reloads its own
+        if (shards != null) {
+            loadShardVocabulary();
+            responseCache.clear();
+            return shards.size();
+        }
+        long start = System.nanoTime();
+        int size = rebuildFromFiles();
+        System.out.println("Reloaded training data: " + size + " entries in " +
+                           (System.nanoTime() - start) / 1_000_000 + " ms");
+        return size;
+    }
+    
+    private int rebuildFromFiles() throws IOException {
+        // Builds everything the constructor and the training files provide,
+        // then layers the trained pairs on top; responses are served from
+        // the current knowledge base until the replacement is published
+        synchronized (rebuildLock) {
+            synchronized (trainingLock) {
+                trainedDuringRebuild = new HashMap<>();
+            }
+            try {
+                String fingerprint = fingerprintTrainingFiles();
+                KnowledgeBase current = knowledgeBase;
+                KnowledgeBase replacement = current.emptyCopy();
+                initializeResponses(replacement);
+                loadTrainingData(replacement);
+                if (closed) {
+                    return current.size();
+                }
+                replacement.putAll(trainedEntries);
+                replacement.compileIndex();
+                publish(replacement, current);
+                loadedFingerprint = fingerprint;
+                indexSemantically(replacement);
+                return replacement.size();
+            } finally {
+                synchronized (trainingLock) {
+                    trainedDuringRebuild = null;
+                }
+            }
+        }
+    }
+    
+    private void publish(KnowledgeBase replacement, KnowledgeBase current) throws IOException {
+        synchronized (trainingLock) {
+            for (Map.Entry<String, String> entry : trainedDuringRebuild.entrySet()) {
+                replacement.put(entry.getKey(), entry.getValue());
+            }
+            knowledgeBase = replacement;
+        }
+        responseCache.clear();
+        current.close();
     }
     
     public void trainBot(String question, String answer) {
         // Add new training data
-        responses.put(question.toLowerCase().trim(), answer.trim());
+        String key = question.toLowerCase().trim();
+        if (shards != null) {
+            trainShard(key, answer.trim());
+            return;
+        }
+        synchronized (trainingLock) {
+            knowledgeBase.put(key, answer.trim());
+            trainedEntries.put(key, answer.trim());
+            if (trainedDuringRebuild != null) {
+                trainedDuringRebuild.put(key, answer.trim());
+            }
+        }
+        if (semanticIndex != null) {
+            // The new key may now be the nearest neighbour of any cached
+            // input, sharing no word with it, so every cached answer goes
+            semanticIndex.add(key);
+            responseCache.clear();
+        } else {
+            responseCache.invalidate(key);
+        }
         
-        // Save to training file
+        // Save to the training journal in the background
+        if (journal != null) {
+            long start = System.nanoTime();
+            journal.append(key, answer.trim()).whenComplete((ignored, error) -> {
+                metrics.recordStage(ChatMetrics.Stage.TRAINING_WRITE, System.nanoTime() - start);
+                if (error != null) {
+                    System.err.println("Could not save training data: " + error.getMessage());
+                }
+            });
+        }
+    }
+    
+    private void trainShard(String key, String answer) {
+        // The owning shard stores and journals the pair; here its words
+        // become known to spelling correction
         try {
-            Files.write(Paths.get("training_data.txt"), 
-                       (question.toLowerCase().trim() + "|" + answer.trim() + "\n").getBytes(),
-                       StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            shards.train(key, answer);
+            knowledgeBase.addVocabulary(Collections.singletonMap(key, 0));
+            responseCache.invalidate(key);
         } catch (IOException e) {
             System.err.println("Could not save training data: " + e.getMessage());
         }
     }
     
+    public TrainingImporter.Result importTrainingData(Path corpus) throws IOException {
+        // Imported entries are added to the snapshot file, which is rewritten
+        // and atomically renamed over the old one; the running bot switches
+        // to it in one swap once the replacement is fully indexed. The first
+        // load has to finish, or the old snapshot's entries would be lost.
+        if (shards != null) {
+            throw new IOException("A router has no training data; split the corpus with ShardServer instead");
+        }
+        awaitLoaded();
+        synchronized (rebuildLock) {
+            synchronized (trainingLock) {
+                trainedDuringRebuild = new HashMap<>();
+            }
+            try {
+                int threads = Integer.getInteger("chatbot.import.threads", Runtime.getRuntime().availableProcessors());
+                TrainingImporter.Result result = new TrainingImporter(threads).read(corpus);
+                Map<String, String> imported = result.getEntries();
+                KnowledgeBase current = knowledgeBase;
+                
+                Path snapshotFile = dataDirectory.resolve("training_data.kb");
+                Path temporaryFile = dataDirectory.resolve("training_data.kb.tmp");
+                Map<String, String> merged = new LinkedHashMap<>();
+                KnowledgeBaseFile previous = current.getSnapshot();
+                if (previous != null) {
+                    for (int i = 0; i < previous.size(); i++) {
+                        merged.put(previous.keyAt(i), previous.responseAt(i));
+                    }
+                }
+                merged.putAll(imported);
+                KnowledgeBaseFile.write(temporaryFile, merged);
+                merged = null;
+                Files.move(temporaryFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+                loadedFingerprint = fingerprintTrainingFiles();
+                
+                KnowledgeBase replacement = current.emptyCopy();
+                replacement.attachSnapshot(KnowledgeBaseFile.open(snapshotFile));
+                synchronized (trainingLock) {
+                    // Direct entries shadow the snapshot, here and after a restart.
+                    // Where an import overrides one, the journal records the
+                    // imported answer, unless it was trained during the import.
+                    Map<String, String> direct = new HashMap<>();
+                    for (Map.Entry<String, String> entry : current.getDirectEntries().entrySet()) {
+                        String importedAnswer = imported.get(entry.getKey());
+                        if (importedAnswer == null || trainedDuringRebuild.containsKey(entry.getKey())) {
+                            direct.put(entry.getKey(), entry.getValue());
+                        } else {
+                            trainedEntries.put(entry.getKey(), importedAnswer);
+                            if (journal != null) {
+                                journal.append(entry.getKey(), importedAnswer);
+                            }
+                        }
+                    }
+                    replacement.putAll(direct);
+                    trainedDuringRebuild.clear();
+                }
+                replacement.compileIndex();
+                publish(replacement, current);
+                indexSemantically(replacement);
+                return result;
+            } finally {
+                synchronized (trainingLock) {
+                    trainedDuringRebuild = null;
+                }
+            }
+        }
+    }
+    
+    public void close() {
+        // Flush pending training data to disk
+        closed = true;
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                // The watcher thread ends either way
+            }
+        }
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // Already shutting down; the hook is running or about to
+            }
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Could not flush training data: " + e.getMessage());
+            }
+        }
+        if (shards != null) {
+            shards.close();
+        }
+        saveSemanticIndex();
+        if (sessionLog != null) {
+            try {
+                sessionLog.close();
+            } catch (IOException e) {
+                System.err.println("Could not flush session log: " + e.getMessage());
+            }
+        }
+        statistics.close();
+        metrics.close();
+    }
+    
+    public ChatMetrics getMetrics() {
+        return metrics;
+    }
+    
+    public ChatStatistics getStatistics() {
+        return statistics;
+    }
+    
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+    
+    public KnowledgeBase getKnowledgeBase() {
+        return knowledgeBase;
+    }
+    
+    public ChatSession newSession() {
+        return new ChatSession();
+    }
+    
+    public ChatSession newSession(String id) {
+        // Restores and keeps logging the session's history when
+        // -Dchatbot.history.persist=true; otherwise the same as newSession()
+        return new ChatSession(id, sessionLog);
+    }
+    
     public String getResponse(String userInput) {
+        return getResponse(defaultSession, userInput);
+    }
+    
+    public String getResponse(ChatSession session, String userInput) {
         if (userInput == null || userInput.trim().isEmpty()) {
             return "Please say something! I'm here to chat with you.";
         }
         
-        // Add to conversation history
-        conversationHistory.add(userInput);
-        if (conversationHistory.size() > 10) {
-            conversationHistory.remove(0);
+        // Limits are checked before any work is done on the turn, so a
+        // rejected one costs a few atomic operations
+        if (!admission.tryAcquire(session, AdmissionController.Command.MESSAGE)) {
+            metrics.recordRejection(ChatMetrics.Rejection.MESSAGE_RATE);
+            return RATE_LIMITED_REPLY;
         }
+        if (!admission.enter()) {
+            metrics.recordRejection(ChatMetrics.Rejection.OVERLOAD);
+            return OVERLOADED_REPLY;
+        }
+        long admitted = System.nanoTime();
+        try {
+            return respond(session, userInput);
+        } finally {
+            admission.exit(System.nanoTime() - admitted);
+        }
+    }
+    
+    private String respond(ChatSession session, String userInput) {
+        // Add to conversation history
+        long start = System.nanoTime();
+        session.addMessage(userInput);
         
-        // NLP Processing
-        String processedInput = preprocessInput(userInput);
+        // NLP Processing: normalize and extract keywords in one pass
+        Tokenizer tokenizer = tokenizers.get();
+        tokenizer.tokenize(userInput);
+        String processedInput = tokenizer.normalized();
         
         // Extract keywords and update frequency
-        List<String> keywords = extractKeywords(processedInput);
+        List<String> keywords = tokenizer.keywords();
         for (String keyword : keywords) {
-            keywordFrequency.put(keyword, keywordFrequency.getOrDefault(keyword, 0) + 1);
+            keywordCounter.increment(keyword);
         }
+        long mark = record(ChatMetrics.Stage.TOKENIZE, start);
         
         // Check for exact matches first
-        String exactMatch = responses.get(processedInput);
+        String exactMatch = knowledgeBase.get(processedInput);
+        if (exactMatch == null && shards != null) {
+            exactMatch = getFromShard(processedInput);
+        }
+        record(ChatMetrics.Stage.EXACT_MATCH, mark);
         if (exactMatch != null) {
+            metrics.recordResolution(ChatMetrics.Resolution.EXACT);
+            record(ChatMetrics.Stage.GET_RESPONSE, start);
             return exactMatch;
         }
         
-        // Check for keyword matches with context awareness
-        String response = findBestResponse(processedInput, keywords);
+        // Keyword and partial matches do not depend on the session, so they
+        // are cached by normalized input
+        long cacheVersion = responseCache.getVersion();
+        String response = responseCache.get(processedInput);
+        mark = record(ChatMetrics.Stage.CACHE_LOOKUP, mark);
+        if (response != null) {
+            metrics.recordResolution(ChatMetrics.Resolution.CACHE);
+        } else {
+            List<String> matchKeywords = correctSpelling(keywords);
+            String key;
+            if (shards != null) {
+                ShardClient.Candidate match = findShardMatch(processedInput, matchKeywords);
+                key = match == null ? null : match.getKey();
+                response = match == null ? null : match.getResponse();
+            } else {
+                key = findMatchingKey(processedInput, matchKeywords);
+                response = key == null ? null : knowledgeBase.get(key);
+            }
+            if (key != null) {
+                // Corrections depend on the whole vocabulary, which the cache's
+                // invalidation does not track; typos rarely repeat anyway
+                if (matchKeywords == keywords) {
+                    responseCache.put(processedInput, keywords.toArray(new String[0]), key, response, cacheVersion);
+                }
+            } else {
+                response = findContextualResponse(session, keywords);
+            }
+        }
         
         // Update user context
-        updateContext(processedInput, keywords);
+        updateContext(session, processedInput, keywords);
         
+        record(ChatMetrics.Stage.GET_RESPONSE, start);
         return response;
     }
     
-    private String preprocessInput(String input) {
-        // NLP preprocessing: lowercase, remove punctuation, normalize whitespace
-        String processed = input.toLowerCase().trim();
-        processed = processed.replaceAll("[^a-zA-Z0-9\\s]", " ");
-        processed = processed.replaceAll("\\s+", " ");
-        return processed;
+    String findBestResponse(ChatSession session, String input, List<String> keywords) {
+        if (shards != null) {
+            ShardClient.Candidate match = findShardMatch(input, correctSpelling(keywords));
+            return match != null ? match.getResponse() : findContextualResponse(session, keywords);
+        }
+        String key = findMatchingKey(input, correctSpelling(keywords));
+        if (key != null) {
+            return knowledgeBase.get(key);
+        }
+        return findContextualResponse(session, keywords);
     }
     
-    private List<String> extractKeywords(String input) {
-        List<String> keywords = new ArrayList<>();
-        String[] words = input.split("\\s+");
-        
-        for (String word : words) {
-            if (!stopWords.contains(word) && word.length() > 2) {
-                keywords.add(word);
+    private String getFromShard(String key) {
+        try {
+            return shards.get(key);
+        } catch (IOException e) {
+            // Reported by the client; try matching on the other shards
+            return null;
+        }
+    }
+    
+    private ShardClient.Candidate findShardMatch(String input, List<String> keywords) {
+        // One scatter-gather runs the whole cascade on every shard; the
+        // earliest stage any shard reached decides the answer path
+        long start = System.nanoTime();
+        ShardClient.Candidate match = shards.match(input, keywords);
+        record(ChatMetrics.Stage.SCATTER_GATHER, start);
+        if (match != null) {
+            switch (match.getStage()) {
+                case ShardClient.RANKED:
+                    metrics.recordResolution(ChatMetrics.Resolution.RANKED);
+                    break;
+                case ShardClient.RELATED:
+                    metrics.recordResolution(ChatMetrics.Resolution.KEYWORD);
+                    break;
+                default:
+                    metrics.recordResolution(ChatMetrics.Resolution.PARTIAL);
+                    break;
             }
         }
-        
-        return keywords;
+        return match;
+    }
+    
+    private List<String> correctSpelling(List<String> keywords) {
+        // Misspelled keywords are matched as the closest known word
+        long start = System.nanoTime();
+        List<String> corrected = knowledgeBase.correctSpelling(keywords);
+        record(ChatMetrics.Stage.SPELL_CORRECTION, start);
+        return corrected;
     }
     
-    private String findBestResponse(String input, List<String> keywords) {
-        // Check for keyword matches
+    private String findMatchingKey(String input, List<String> keywords) {
+        // Each pass records its latency and, when it answers, its path
+        long mark = System.nanoTime();
+        
+        // A close rewording of a trained question beats a keyword match
+        if (semanticIndex != null) {
+            String semanticKey = findSemanticKey(keywords);
+            mark = record(ChatMetrics.Stage.SEMANTIC_MATCH, mark);
+            if (semanticKey != null) {
+                metrics.recordResolution(ChatMetrics.Resolution.SEMANTIC);
+                return semanticKey;
+            }
+        }
+        
+        // Rank keys sharing the message's keywords by BM25
+        String rankedKey = knowledgeBase.findBestRankedKey(keywords);
+        mark = record(ChatMetrics.Stage.RANKED_MATCH, mark);
+        if (rankedKey != null) {
+            metrics.recordResolution(ChatMetrics.Resolution.RANKED);
+            return rankedKey;
+        }
+        
+        // Fall back to keys containing, or contained in, a keyword
         for (String keyword : keywords) {
-            for (Map.Entry<String, String> entry : responses.entrySet()) {
-                if (entry.getKey().contains(keyword) || keyword.contains(entry.getKey())) {
-                    return entry.getValue();
-                }
+            String key = knowledgeBase.findKeyRelatedTo(keyword);
+            if (key != null) {
+                record(ChatMetrics.Stage.KEYWORD_MATCH, mark);
+                metrics.recordResolution(ChatMetrics.Resolution.KEYWORD);
+                return key;
             }
         }
+        mark = record(ChatMetrics.Stage.KEYWORD_MATCH, mark);
         
         // Check for partial matches
-        for (Map.Entry<String, String> entry : responses.entrySet()) {
-            if (input.contains(entry.getKey()) || entry.getKey().contains(input)) {
-                return entry.getValue();
+        String partialKey = knowledgeBase.findKeyOverlapping(input);
+        record(ChatMetrics.Stage.PARTIAL_MATCH, mark);
+        if (partialKey != null) {
+            metrics.recordResolution(ChatMetrics.Resolution.PARTIAL);
+        }
+        return partialKey;
+    }
+    
+    private String findSemanticKey(List<String> keywords) {
+        // The index keeps keys a reload has since dropped, so skip those
+        for (SemanticIndex.Neighbor neighbor : semanticIndex.search(keywords, 4)) {
+            if (neighbor.getSimilarity() < semanticThreshold) {
+                break;
+            }
+            if (knowledgeBase.get(neighbor.getKey()) != null) {
+                return neighbor.getKey();
             }
         }
+        return null;
+    }
+    
+    private String findContextualResponse(ChatSession session, List<String> keywords) {
+        long mark = System.nanoTime();
         
         // Use context-aware responses
-        String contextResponse = getContextResponse();
+        String contextResponse = getContextResponse(session);
+        mark = record(ChatMetrics.Stage.CONTEXT_RESPONSE, mark);
         if (contextResponse != null) {
+            metrics.recordResolution(ChatMetrics.Resolution.CONTEXT);
             return contextResponse;
         }
         
         // Machine learning inspired response based on frequency
-        return generateSmartResponse(keywords);
+        String smartResponse = generateSmartResponse(session, keywords);
+        record(ChatMetrics.Stage.SMART_RESPONSE, mark);
+        metrics.recordResolution(ChatMetrics.Resolution.FALLBACK);
+        return smartResponse;
+    }
+    
+    private long record(ChatMetrics.Stage stage, long since) {
+        // Records the time since the given mark and returns the new mark
+        long now = System.nanoTime();
+        metrics.recordStage(stage, now - since);
+        return now;
     }
     
-    private String getContextResponse() {
+    private String getContextResponse(ChatSession session) {
+        String userContext = session.getUserContext();
         if (userContext.isEmpty()) {
             return null;
         }
         
-        List<String> contextList = contextResponses.get(userContext);
+        List<String> contextList = knowledgeBase.getContextResponses(userContext);
         if (contextList != null && !contextList.isEmpty()) {
-            return contextList.get(random.nextInt(contextList.size()));
+            return contextList.get(ThreadLocalRandom.current().nextInt(contextList.size()));
         }
         
         return null;
     }
     
-    private void updateContext(String input, List<String> keywords) {
+    private void updateContext(ChatSession session, String input, List<String> keywords) {
         // Update context based on keywords and conversation history
-        if (keywords.contains("programming") || keywords.contains("code") || 
+        if (keywords.contains("programming") || keywords.contains("code") ||
             keywords.contains("java") || keywords.contains("python")) {
-            userContext = "programming_help";
-        } else if (keywords.contains("learn") || keywords.contains("study") || 
+            session.setUserContext("programming_help");
+        } else if (keywords.contains("learn") || keywords.contains("study") ||
                    keywords.contains("education")) {
-            userContext = "learning";
-        } else if (keywords.contains("hello") || keywords.contains("hi") || 
+            session.setUserContext("learning");
+        } else if (keywords.contains("hello") || keywords.contains("hi") ||
                    keywords.contains("hey")) {
-            userContext = "greeting";
+            session.setUserContext("greeting");
         } else {
-            userContext = "";
+            session.setUserContext("");
         }
     }
     
-    private String generateSmartResponse(List<String> keywords) {
+    private String generateSmartResponse(ChatSession session, List<String> keywords) {
         // Machine learning inspired response generation
         if (keywords.isEmpty()) {
             return "I'm sorry, I don't understand that. Please try asking in a different way or type 'help' to see what I can do!";
@@ -258,7 +957,7 @@ public class Chatbot {
         int maxFreq = 0;
         
         for (String keyword : keywords) {
-            int freq = keywordFrequency.getOrDefault(keyword, 0);
+            int freq = keywordCounter.estimate(keyword);
             if (freq > maxFreq) {
                 maxFreq = freq;
                 mostFrequentKeyword = keyword;
@@ -271,8 +970,8 @@ public class Chatbot {
         }
         
         // Generate contextual response based on conversation history
-        if (conversationHistory.size() > 1) {
-            String lastMessage = conversationHistory.get(conversationHistory.size() - 2);
+        String lastMessage = session.getPreviousMessage();
+        if (lastMessage != null) {
             if (lastMessage.toLowerCase().contains("name")) {
                 return "I'm " + botName + ". What would you like to know about me?";
             }
@@ -283,28 +982,51 @@ public class Chatbot {
                "or type 'help' to see what I can do!";
     }
     
-    public void processTrainingCommand(String input) {
-        // Handle training commands in format: "train: question | answer"
+    public String processTrainingCommand(String input) {
+        return processTrainingCommand(defaultSession, input);
+    }
+    
+    public String processTrainingCommand(ChatSession session, String input) {
+        // Handle training commands in format: "train: question | answer".
+        // Returns the reply to show, which says when the command was
+        // refused by a rate limit or for overload.
         if (input.toLowerCase().startsWith("train:")) {
-            String trainingData = input.substring(6).trim();
-            String[] parts = trainingData.split("\\|");
-            if (parts.length == 2) {
-                trainBot(parts[0].trim(), parts[1].trim());
-                System.out.println("Training successful! I've learned: " + parts[0].trim());
+            if (!admission.tryAcquire(session, AdmissionController.Command.TRAINING)) {
+                metrics.recordRejection(ChatMetrics.Rejection.TRAINING_RATE);
+                return TRAINING_LIMITED_REPLY;
+            }
+            if (!admission.enter()) {
+                metrics.recordRejection(ChatMetrics.Rejection.OVERLOAD);
+                return OVERLOADED_REPLY;
+            }
+            long admitted = System.nanoTime();
+            try {
+                String trainingData = input.substring(6).trim();
+                String[] parts = trainingData.split("\\|");
+                if (parts.length == 2) {
+                    trainBot(parts[0].trim(), parts[1].trim());
+                    System.out.println("Training successful! I've learned: " + parts[0].trim());
+                }
+            } finally {
+                admission.exit(System.nanoTime() - admitted);
             }
         }
+        return TRAINED_REPLY;
+    }
+    
+    public List<Map.Entry<String, Integer>> getTopKeywords(int limit) {
+        return keywordCounter.topKeywords(limit);
     }
     
-    public Map<String, Integer> getKeywordFrequency() {
-        return new HashMap<>(keywordFrequency);
+    public long getUniqueKeywordCount() {
+        return keywordCounter.estimateDistinct();
     }
     
     public List<String> getConversationHistory() {
-        return new ArrayList<>(conversationHistory);
+        return defaultSession.getConversationHistory();
     }
     
     public void resetContext() {
-        userContext = "";
-        conversationHistory.clear();
+        defaultSession.reset();
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
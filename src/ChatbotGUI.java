@@ -4,26 +4,45 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class ChatbotGUI extends JFrame {
-    private JTextArea chatArea;
+    private JList<String> chatList;
+    private TranscriptModel transcript;
     private JTextField inputField;
     private JButton sendButton;
     private JButton trainButton;
     private JButton statsButton;
     private JButton clearButton;
-    private Chatbot chatbot;
+    private volatile Chatbot chatbot;
     private JScrollPane scrollPane;
     private JPanel controlPanel;
     private JLabel statusLabel;
     private JDialog trainingDialog;
     private JDialog statsDialog;
+    private ChatStatistics.Subscription statsSubscription;
+    
+    // All bot work runs on one worker thread, off the Event Dispatch Thread.
+    // A single thread keeps replies in the order the messages were sent.
+    private BotWorker botWorker;
     
     public ChatbotGUI() {
-        // Initialize the chatbot
-        chatbot = new Chatbot();
+        // Initialize the chatbot in the background. Built-in answers are
+        // available almost at once; the training data keeps loading behind
+        // them while the status bar shows its progress.
+        botWorker = new BotWorker("chatbot-worker", SwingUtilities::invokeLater, this::updateTypingIndicator);
+        botWorker.execute(() -> {
+            Chatbot loading = new Chatbot();
+            chatbot = loading;
+            SwingUtilities.invokeLater(() -> showLoadProgress(loading));
+        });
         
         // Set up the frame
         setTitle("Advanced AI Chatbot - CodeAlpha Bot");
@@ -49,17 +68,32 @@ public class ChatbotGUI extends JFrame {
     }
     
     private void createComponents() {
-        // Create chat area with enhanced styling
-        chatArea = new JTextArea();
-        chatArea.setEditable(false);
-        chatArea.setLineWrap(true);
-        chatArea.setWrapStyleWord(true);
-        chatArea.setFont(new Font("Segoe UI", Font.PLAIN, 14));
-        chatArea.setBackground(new Color(248, 249, 250));
-        chatArea.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        // Create the chat transcript: a bounded model rendered by a list, so
+        // only the visible messages are painted however long the chat gets
+        int retention = Integer.getInteger("chatbot.transcript.retention", 500);
+        transcript = new TranscriptModel(retention, Paths.get("chat_transcript.log"));
+        chatList = new JList<String>(transcript) {
+            @Override
+            public boolean getScrollableTracksViewportWidth() {
+                // Wrap messages to the viewport instead of scrolling sideways
+                return true;
+            }
+        };
+        chatList.setCellRenderer(new MessageRenderer());
+        chatList.setFocusable(false);
+        chatList.setBackground(new Color(248, 249, 250));
+        chatList.setBorder(BorderFactory.createEmptyBorder(6, 0, 6, 0));
+        chatList.addComponentListener(new java.awt.event.ComponentAdapter() {
+            @Override
+            public void componentResized(java.awt.event.ComponentEvent e) {
+                // Row heights depend on the width; make the list measure again
+                chatList.setFixedCellHeight(10);
+                chatList.setFixedCellHeight(-1);
+            }
+        });
         
         // Create scroll pane for chat area
-        scrollPane = new JScrollPane(chatArea);
+        scrollPane = new JScrollPane(chatList);
         scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
         scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
         scrollPane.setBorder(BorderFactory.createTitledBorder("Chat History"));
@@ -84,7 +118,7 @@ public class ChatbotGUI extends JFrame {
         controlPanel.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
         
         // Create status label
-        statusLabel = new JLabel("Ready to chat! Type 'help' for assistance.");
+        statusLabel = new JLabel("Loading knowledge base...");
         statusLabel.setFont(new Font("Segoe UI", Font.ITALIC, 12));
         statusLabel.setForeground(new Color(100, 100, 100));
     }
@@ -179,20 +213,49 @@ public class ChatbotGUI extends JFrame {
             public void keyPressed(KeyEvent e) {
                 if (e.getKeyCode() == KeyEvent.VK_ENTER) {
                     sendMessage();
+                } else if (e.getKeyCode() == KeyEvent.VK_ESCAPE && botWorker.hasPending()) {
+                    botWorker.cancelPending();
+                    appendMessage("⏹ Cancelled pending replies.");
+                    updateStatus("Cancelled!");
                 }
             }
             
             @Override
             public void keyReleased(KeyEvent e) {}
         });
+        
+        // Window listener: finish writing the transcript log before exiting
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                transcript.close();
+            }
+            
+            @Override
+            public void windowClosed(WindowEvent e) {
+                transcript.close();
+            }
+        });
     }
     
     private void displayWelcomeMessage() {
-        chatArea.append("🤖 " + chatbot.getClass().getSimpleName() + ": Welcome! I'm your advanced AI assistant.\n");
-        chatArea.append("💡 I can help you with programming, answer questions, and learn from our conversations.\n");
-        chatArea.append("🎯 Try asking me about: Java, Python, Machine Learning, or just say hello!\n");
-        chatArea.append("📚 You can also train me with new responses using the 'Train Bot' button.\n\n");
-        chatArea.append("Type 'help' to see what I can do!\n\n");
+        appendMessage("🤖 " + Chatbot.class.getSimpleName() + ": Welcome! I'm your advanced AI assistant.\n" +
+                      "💡 I can help you with programming, answer questions, and learn from our conversations.\n" +
+                      "🎯 Try asking me about: Java, Python, Machine Learning, or just say hello!\n" +
+                      "📚 You can also train me with new responses using the 'Train Bot' button.");
+        appendMessage("Type 'help' to see what I can do!");
+    }
+    
+    private void appendMessage(String message) {
+        transcript.add(message);
+        
+        // Scroll to bottom to show latest message
+        chatList.ensureIndexIsVisible(transcript.getSize() - 1);
+        
+        if (transcript.getSpilledCount() > 0) {
+            scrollPane.setBorder(BorderFactory.createTitledBorder("Chat History (" + transcript.getSpilledCount() +
+                " older messages saved to " + transcript.getSpillFile() + ")"));
+        }
     }
     
     private void sendMessage() {
@@ -207,29 +270,40 @@ public class ChatbotGUI extends JFrame {
             }
             
             // Append user message to chat area
-            chatArea.append("👤 You: " + userMessage + "\n");
-            
-            // Get bot response
-            String botResponse = chatbot.getResponse(userMessage);
-            
-            // Append bot response to chat area
-            chatArea.append("🤖 Bot: " + botResponse + "\n\n");
+            appendMessage("👤 You: " + userMessage);
             
             // Clear input field
             inputField.setText("");
             
-            // Scroll to bottom to show latest message
-            chatArea.setCaretPosition(chatArea.getDocument().getLength());
-            
-            // Update status
-            updateStatus("Message sent successfully!");
+            // Get bot response on the worker and append it when it arrives
+            submitRequest(bot -> bot.getResponse(userMessage), botResponse -> {
+                appendMessage("🤖 Bot: " + botResponse);
+                
+                // Update status
+                updateStatus("Message sent successfully!");
+            });
         }
     }
     
     private void handleTrainingCommand(String message) {
-        chatbot.processTrainingCommand(message);
-        chatArea.append("🎓 Training: I've learned something new!\n\n");
-        updateStatus("Training completed!");
+        submitRequest(bot -> bot.processTrainingCommand(message), reply -> {
+            appendMessage("🎓 " + reply);
+            updateStatus("Training completed!");
+        });
+    }
+    
+    private void submitRequest(Function<Chatbot, String> request, Consumer<String> onReply) {
+        // Runs the request on the bot worker and hands the result back on the EDT
+        botWorker.submit(() -> request.apply(chatbot), onReply, failure -> appendMessage("⚠ Bot error: " + failure));
+    }
+    
+    private void updateTypingIndicator() {
+        if (botWorker.hasPending()) {
+            statusLabel.setText(chatbot == null ? "Loading knowledge base... (Esc to cancel)"
+                                                : "🤖 Bot is typing... (Esc to cancel)");
+        } else if (chatbot == null) {
+            statusLabel.setText("Loading knowledge base...");
+        }
     }
     
     private void createTrainingDialog() {
@@ -271,9 +345,13 @@ public class ChatbotGUI extends JFrame {
             String question = questionField.getText().trim();
             String answer = answerArea.getText().trim();
             if (!question.isEmpty() && !answer.isEmpty()) {
-                chatbot.trainBot(question, answer);
-                chatArea.append("🎓 Training: I've learned: '" + question + "'\n\n");
-                updateStatus("Training completed!");
+                submitRequest(bot -> {
+                    bot.trainBot(question, answer);
+                    return null;
+                }, ignored -> {
+                    appendMessage("🎓 Training: I've learned: '" + question + "'");
+                    updateStatus("Training completed!");
+                });
                 trainingDialog.dispose();
             } else {
                 JOptionPane.showMessageDialog(trainingDialog, "Please enter both question and answer!");
@@ -292,7 +370,7 @@ public class ChatbotGUI extends JFrame {
     private void createStatsDialog() {
         statsDialog = new JDialog(this, "Chat Statistics", true);
         statsDialog.setLayout(new BorderLayout());
-        statsDialog.setSize(400, 300);
+        statsDialog.setSize(460, 520);
         statsDialog.setLocationRelativeTo(this);
         
         JTextArea statsArea = new JTextArea();
@@ -309,30 +387,98 @@ public class ChatbotGUI extends JFrame {
         buttonPanel.add(closeButton);
         statsDialog.add(buttonPanel, BorderLayout.SOUTH);
         
-        // Store reference to update stats
+        // While the dialog is open the bot pushes a snapshot every second;
+        // nothing is recomputed here
         statsDialog.addComponentListener(new java.awt.event.ComponentAdapter() {
             @Override
             public void componentShown(java.awt.event.ComponentEvent e) {
-                updateStatsDisplay(statsArea);
+                subscribeToStats(statsArea);
+            }
+            
+            @Override
+            public void componentHidden(java.awt.event.ComponentEvent e) {
+                if (statsSubscription != null) {
+                    statsSubscription.close();
+                    statsSubscription = null;
+                }
             }
         });
     }
     
-    private void updateStatsDisplay(JTextArea statsArea) {
-        Map<String, Integer> keywordFreq = chatbot.getKeywordFrequency();
-        List<String> history = chatbot.getConversationHistory();
-        
+    private void subscribeToStats(JTextArea statsArea) {
+        Chatbot chatbot = this.chatbot;
+        if (chatbot == null) {
+            // The bot is still being constructed; try again shortly
+            statsArea.setText("=== CHAT STATISTICS ===\n\nThe knowledge base is still loading...\n");
+            Timer retry = new Timer(200, e -> {
+                if (statsDialog.isVisible() && statsSubscription == null) {
+                    subscribeToStats(statsArea);
+                }
+            });
+            retry.setRepeats(false);
+            retry.start();
+            return;
+        }
+        statsSubscription = chatbot.getStatistics().subscribe(1000, snapshot -> SwingUtilities.invokeLater(() -> {
+            if (statsDialog.isVisible()) {
+                updateStatsDisplay(statsArea, chatbot, snapshot);
+            }
+        }));
+    }
+    
+    private void updateStatsDisplay(JTextArea statsArea, Chatbot chatbot, ChatStatistics.Snapshot snapshot) {
         StringBuilder stats = new StringBuilder();
         stats.append("=== CHAT STATISTICS ===\n\n");
-        stats.append("Total Messages: ").append(history.size()).append("\n");
-        stats.append("Unique Keywords: ").append(keywordFreq.size()).append("\n\n");
+        stats.append("Total Messages: ").append(snapshot.getMessageCount()).append("\n");
+        stats.append("Unique Keywords: ").append(snapshot.getUniqueKeywordCount()).append("\n\n");
         
         stats.append("=== TOP KEYWORDS ===\n");
-        keywordFreq.entrySet().stream()
-            .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
-            .limit(10)
-            .forEach(entry -> stats.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n"));
+        for (Map.Entry<String, Integer> entry : snapshot.getTopKeywords()) {
+            stats.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+        }
+        
+        stats.append("\n=== RESPONSE LATENCY (p50 / p99) ===\n");
+        for (ChatMetrics.Stage stage : ChatMetrics.Stage.values()) {
+            if (snapshot.getStageCount(stage) > 0) {
+                stats.append(String.format("%-17s %9.1f us / %9.1f us%n", stage.getLabel() + ":",
+                                           snapshot.getStageP50Nanos(stage) / 1000.0,
+                                           snapshot.getStageP99Nanos(stage) / 1000.0));
+            }
+        }
+        
+        // Rolling windows side by side with the totals
+        List<ChatStatistics.Window> windows = new ArrayList<>(snapshot.getWindows());
+        windows.add(snapshot.getTotal());
+        stats.append(String.format("%n=== ANSWERED BY ===%n%-12s", ""));
+        for (ChatStatistics.Window window : windows) {
+            stats.append(String.format("%8s", window.getSeconds() == 0 ? "total"
+                                              : window.getSeconds() >= 3600 ? window.getSeconds() / 3600 + "h"
+                                              : window.getSeconds() / 60 + "m"));
+        }
+        stats.append(String.format("%n%-12s", "messages"));
+        for (ChatStatistics.Window window : windows) {
+            stats.append(String.format("%8d", window.getMessageCount()));
+        }
+        for (ChatMetrics.Resolution resolution : ChatMetrics.Resolution.values()) {
+            stats.append(String.format("%n%-12s", resolution.getLabel()));
+            for (ChatStatistics.Window window : windows) {
+                stats.append(String.format("%8d", window.getResolutionCount(resolution)));
+            }
+        }
+        for (ChatMetrics.Rejection rejection : ChatMetrics.Rejection.values()) {
+            stats.append(String.format("%n%-12s", rejection.getLabel()));
+            for (ChatStatistics.Window window : windows) {
+                stats.append(String.format("%8d", window.getRejectionCount(rejection)));
+            }
+        }
+        stats.append("\n");
         
+        stats.append("\n=== RESPONSE CACHE ===\n");
+        stats.append(String.format("Entries: %d, hits: %d, misses: %d (%.1f%% hit rate)%n", snapshot.getCacheSize(),
+                                   snapshot.getCacheHitCount(), snapshot.getCacheMissCount(),
+                                   snapshot.getCacheHitRate() * 100));
+        
+        List<String> history = chatbot.getConversationHistory();
         stats.append("\n=== RECENT CONVERSATION ===\n");
         int start = Math.max(0, history.size() - 5);
         for (int i = start; i < history.size(); i++) {
@@ -356,20 +502,61 @@ public class ChatbotGUI extends JFrame {
             "Clear Chat", JOptionPane.YES_NO_OPTION);
         
         if (choice == JOptionPane.YES_OPTION) {
-            chatArea.setText("");
-            chatbot.resetContext();
+            botWorker.cancelPending();
+            transcript.clear();
+            scrollPane.setBorder(BorderFactory.createTitledBorder("Chat History"));
+            botWorker.execute(() -> chatbot.resetContext());
             displayWelcomeMessage();
             updateStatus("Chat cleared!");
         }
     }
     
+    private void showLoadProgress(Chatbot loading) {
+        Timer progressTimer = new Timer(200, null);
+        progressTimer.addActionListener(e -> {
+            if (loading.isLoaded()) {
+                progressTimer.stop();
+                updateStatus("Knowledge base loaded!");
+            } else {
+                statusLabel.setText(String.format("Loading knowledge base... %d%%", (int) (loading.getLoadProgress() * 100)));
+            }
+        });
+        progressTimer.start();
+    }
+    
     private void updateStatus(String message) {
         statusLabel.setText(message);
-        Timer timer = new Timer(3000, e -> statusLabel.setText("Ready to chat! Type 'help' for assistance."));
+        Timer timer = new Timer(3000, e -> {
+            statusLabel.setText("Ready to chat! Type 'help' for assistance.");
+            updateTypingIndicator();
+        });
         timer.setRepeats(false);
         timer.start();
     }
     
+    private static class MessageRenderer extends JTextArea implements ListCellRenderer<String> {
+        // Renders one message as wrapped text sized to the list's width
+        private static final long serialVersionUID = 1L;
+        
+        MessageRenderer() {
+            setLineWrap(true);
+            setWrapStyleWord(true);
+            setFont(new Font("Segoe UI", Font.PLAIN, 14));
+            setBorder(BorderFactory.createEmptyBorder(4, 10, 8, 10));
+        }
+        
+        @Override
+        public Component getListCellRendererComponent(JList<? extends String> list, String value, int index,
+                                                      boolean isSelected, boolean cellHasFocus) {
+            setText(value);
+            setBackground(list.getBackground());
+            if (list.getWidth() > 0) {
+                setSize(list.getWidth(), Short.MAX_VALUE);
+            }
+            return this;
+        }
+    }
+    
     public static void main(String[] args) {
         // Set look and feel to system default
         try {
@@ -0,0 +1,148 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.IntConsumer;
+
+public class ChunkedBuild {
+    // Fork-join support for bulk index builds. A range of work (keys, words,
+    // suffixes) is split in halves down to fixed-size chunks; each chunk
+    // builds a partial result on its own, and partials are merged pairwise
+    // on the way back up, left before right, so the result is the same as a
+    // sequential pass in order. Merges of different subtrees run in parallel.
+    //
+    // Partials that would be costly to merge, such as postings by term, can
+    // instead be split by key hash into PARTITIONS groups and collected as
+    // a list of chunks in order; one task per group then installs that
+    // group from every chunk, so no two tasks touch the same key.
+    //
+    // The shared pool has one worker per core (-Dchatbot.index.threads=N).
+    // Its workers are daemon threads, so an idle pool never holds up exit.
+    static final int PARTITIONS = 64;
+    
+    private static ForkJoinPool defaultPool;
+    
+    public interface Chunk<P> {
+        P build(int from, int to);
+    }
+    
+    public static synchronized ForkJoinPool defaultPool() {
+        if (defaultPool == null) {
+            int threads = Integer.getInteger("chatbot.index.threads", Runtime.getRuntime().availableProcessors());
+            defaultPool = new ForkJoinPool(Math.max(1, threads));
+        }
+        return defaultPool;
+    }
+    
+    public static <P> P mapReduce(ForkJoinPool pool, int size, int chunkSize, Chunk<P> chunk, BinaryOperator<P> merge) {
+        // The merge may reuse and return its left argument
+        if (size <= chunkSize) {
+            return chunk.build(0, size);
+        }
+        return pool.invoke(new Task<>(0, size, chunkSize, chunk, merge));
+    }
+    
+    public static <P> List<P> collect(ForkJoinPool pool, int size, int chunkSize, Chunk<P> chunk) {
+        // Every chunk's partial, in order
+        return mapReduce(pool, size, chunkSize, (from, to) -> {
+            List<P> partials = new ArrayList<>();
+            partials.add(chunk.build(from, to));
+            return partials;
+        }, (left, right) -> {
+            left.addAll(right);
+            return left;
+        });
+    }
+    
+    public static void forEachPartition(ForkJoinPool pool, IntConsumer install) {
+        mapReduce(pool, PARTITIONS, 1, (from, to) -> {
+            install.accept(from);
+            return null;
+        }, (left, right) -> null);
+    }
+    
+    static int partition(String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % PARTITIONS;
+    }
+    
+    static <V> List<Map<String, V>> newPartitions() {
+        List<Map<String, V>> partitions = new ArrayList<>(PARTITIONS);
+        for (int i = 0; i < PARTITIONS; i++) {
+            partitions.add(new HashMap<>());
+        }
+        return partitions;
+    }
+    
+    private static class Task<P> extends RecursiveTask<P> {
+        private static final long serialVersionUID = 1L;
+        
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+        private final Chunk<P> chunk;
+        private final BinaryOperator<P> merge;
+        
+        Task(int from, int to, int chunkSize, Chunk<P> chunk, BinaryOperator<P> merge) {
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+            this.chunk = chunk;
+            this.merge = merge;
+        }
+        
+        @Override
+        protected P compute() {
+            if (to - from <= chunkSize) {
+                return chunk.build(from, to);
+            }
+            int middle = (from + to) >>> 1;
+            Task<P> right = new Task<>(middle, to, chunkSize, chunk, merge);
+            right.fork();
+            P left = new Task<>(from, middle, chunkSize, chunk, merge).compute();
+            return merge.apply(left, right.join());
+        }
+    }
+    
+    static class IntList {
+        // A growable int array for partial postings and id lists
+        private int[] values;
+        private int size;
+        
+        IntList() {
+            values = new int[4];
+        }
+        
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+        
+        void addAll(IntList other, int offset) {
+            if (size + other.size > values.length) {
+                values = Arrays.copyOf(values, Math.max(size + other.size, size * 2));
+            }
+            for (int i = 0; i < other.size; i++) {
+                values[size + i] = other.values[i] + offset;
+            }
+            size += other.size;
+        }
+        
+        int get(int index) {
+            return values[index];
+        }
+        
+        int size() {
+            return size;
+        }
+        
+        int[] toArray(int capacity) {
+            return Arrays.copyOf(values, Math.max(capacity, size));
+        }
+    }
+}
\ No newline at end of file
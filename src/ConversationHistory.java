@@ -0,0 +1,95 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class ConversationHistory {
+    // The last messages of one conversation in a fixed ring of slots. Adding
+    // a message writes one slot and moves the end forward; nothing is ever
+    // shifted or copied, and the oldest message is simply overwritten.
+    //
+    // Writers are serialized; readers never lock. A reader checks after
+    // each read that the slot was not overwritten in the meantime. The ring
+    // has twice as many slots as the window, so a message is overwritten
+    // only after capacity more have been added since it left the window,
+    // and a reader copying the window is practically never lapped.
+    private static final int SNAPSHOT_ATTEMPTS = 3;
+    
+    private AtomicReferenceArray<String> slots;
+    private int capacity;
+    private volatile long start;
+    private volatile long end;
+    
+    public ConversationHistory(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.slots = new AtomicReferenceArray<>(2 * this.capacity);
+    }
+    
+    public synchronized void add(String message) {
+        long position = end;
+        slots.set((int) (position % slots.length()), message);
+        end = position + 1;
+    }
+    
+    public synchronized void clear() {
+        start = end;
+    }
+    
+    public int capacity() {
+        return capacity;
+    }
+    
+    public int size() {
+        long last = end;
+        return (int) (last - firstPosition(last));
+    }
+    
+    public long totalAdded() {
+        // Messages added since the history was created, including those
+        // already overwritten or cleared
+        return end;
+    }
+    
+    public String latest(int back) {
+        // The message back places before the newest (0 is the newest), or null
+        long last = end;
+        long position = last - 1 - back;
+        if (back < 0 || position < firstPosition(last)) {
+            return null;
+        }
+        return read(position);
+    }
+    
+    public List<String> snapshot() {
+        // The current window as an unmodifiable copy, oldest first, at most
+        // capacity messages. A copy lapped by writers is taken again; after
+        // a few tries it keeps the messages that were not overwritten, so
+        // readers never fail and never see a message out of place.
+        for (int attempt = 1; ; attempt++) {
+            long last = end;
+            long first = firstPosition(last);
+            String[] copy = new String[(int) (last - first)];
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = slots.get((int) ((first + i) % slots.length()));
+            }
+            long overwritten = end - slots.length();
+            if (first > overwritten) {
+                return Collections.unmodifiableList(Arrays.asList(copy));
+            }
+            if (attempt == SNAPSHOT_ATTEMPTS) {
+                int from = (int) Math.min(copy.length, overwritten - first + 1);
+                return Collections.unmodifiableList(Arrays.asList(copy).subList(from, copy.length));
+            }
+        }
+    }
+    
+    private long firstPosition(long last) {
+        return Math.min(last, Math.max(start, last - capacity));
+    }
+    
+    private String read(long position) {
+        String message = slots.get((int) (position % slots.length()));
+        if (end - position >= slots.length()) {
+            return null;
+        }
+        return message;
+    }
+}
@@ -0,0 +1,182 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class KeywordCounter {
+    // Fixed-size keyword statistics: however many distinct words users type,
+    // memory stays at the sizes chosen here.
+    //
+    // Counts come from a count-min sketch with conservative update: each
+    // keyword raises only the smallest of its four counters, so estimates
+    // never undercount and rarely overcount. The most frequent keywords are
+    // tracked in a small heavy-hitter table in the spirit of Space-Saving: a
+    // keyword displaces the weakest member once its estimate exceeds that
+    // member's. Distinct keywords are estimated by linear counting over a
+    // bitmap.
+    //
+    // Increments are lock-free. Only a keyword that is about to enter the
+    // heavy-hitter table takes its lock, which is rare once counts settle.
+    private static final int DEPTH = 4;
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+                                         0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    
+    private AtomicIntegerArray counters;
+    private int widthMask;
+    private AtomicLongArray distinctBits;
+    private int distinctBitMask;
+    
+    private Set<String> heavyHitters = ConcurrentHashMap.newKeySet();
+    private String[] members;
+    private int[] memberCounts;
+    private int memberCount;
+    private volatile int admissionFloor;
+    
+    public KeywordCounter() {
+        this(1 << 14, 1 << 20, 64);
+    }
+    
+    public KeywordCounter(int width, int distinctBits, int heavyHitterCapacity) {
+        // width counters per row and distinctBits bitmap bits, both rounded up to a power of two
+        int rowWidth = Integer.highestOneBit(Math.max(width, 16) - 1) << 1;
+        int bitmapBits = Integer.highestOneBit(Math.max(distinctBits, 64) - 1) << 1;
+        this.counters = new AtomicIntegerArray(rowWidth * DEPTH);
+        this.widthMask = rowWidth - 1;
+        this.distinctBits = new AtomicLongArray(bitmapBits / 64);
+        this.distinctBitMask = bitmapBits - 1;
+        this.members = new String[heavyHitterCapacity];
+        this.memberCounts = new int[heavyHitterCapacity];
+    }
+    
+    public void increment(String keyword) {
+        long hash = hash(keyword);
+        markDistinct(hash);
+        
+        // Conservative update: only counters at the current minimum move,
+        // each from exactly that minimum to one more. If another increment
+        // moved one of them first, the two read the same minimum, and both
+        // raising the counters to the same value would lose one increment,
+        // so the loser reads the counters again and retries. Counters it
+        // already raised stay raised, which can only overcount.
+        int[] seen = new int[DEPTH];
+        int target;
+        boolean raised;
+        do {
+            int minimum = Integer.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                seen[row] = counters.get(index(hash, row));
+                minimum = Math.min(minimum, seen[row]);
+            }
+            if (minimum == Integer.MAX_VALUE) {
+                return;
+            }
+            target = minimum + 1;
+            raised = true;
+            for (int row = 0; row < DEPTH && raised; row++) {
+                raised = seen[row] != minimum || counters.compareAndSet(index(hash, row), minimum, target);
+            }
+        } while (!raised);
+        
+        if (target > admissionFloor && !heavyHitters.contains(keyword)) {
+            offer(keyword, target);
+        }
+    }
+    
+    public int estimate(String keyword) {
+        long hash = hash(keyword);
+        int minimum = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            minimum = Math.min(minimum, counters.get(index(hash, row)));
+        }
+        return minimum;
+    }
+    
+    public long estimateDistinct() {
+        // Linear counting: n ~= -m * ln(fraction of bits still zero)
+        long zeros = 0;
+        for (int i = 0; i < distinctBits.length(); i++) {
+            zeros += Long.bitCount(~distinctBits.get(i));
+        }
+        long bits = distinctBitMask + 1L;
+        if (zeros == 0) {
+            return bits;
+        }
+        return Math.round(-bits * Math.log((double) zeros / bits));
+    }
+    
+    public List<Map.Entry<String, Integer>> topKeywords(int limit) {
+        // Members are re-estimated here, so the order reflects current counts
+        String[] candidates;
+        synchronized (this) {
+            candidates = Arrays.copyOf(members, memberCount);
+        }
+        List<Map.Entry<String, Integer>> top = new ArrayList<>(candidates.length);
+        for (String candidate : candidates) {
+            top.add(new AbstractMap.SimpleImmutableEntry<>(candidate, estimate(candidate)));
+        }
+        top.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        return top.size() > limit ? top.subList(0, limit) : top;
+    }
+    
+    private synchronized void offer(String keyword, int count) {
+        if (heavyHitters.contains(keyword)) {
+            return;
+        }
+        if (memberCount < members.length) {
+            members[memberCount] = keyword;
+            memberCounts[memberCount++] = count;
+            heavyHitters.add(keyword);
+            if (memberCount == members.length) {
+                admissionFloor = refreshMinimum();
+            }
+            return;
+        }
+        
+        // Members' recorded counts lag behind the sketch; refresh before choosing a victim
+        int weakest = 0;
+        for (int i = 0; i < memberCount; i++) {
+            memberCounts[i] = estimate(members[i]);
+            if (memberCounts[i] < memberCounts[weakest]) {
+                weakest = i;
+            }
+        }
+        if (count > memberCounts[weakest]) {
+            heavyHitters.remove(members[weakest]);
+            members[weakest] = keyword;
+            memberCounts[weakest] = count;
+            heavyHitters.add(keyword);
+        }
+        admissionFloor = refreshMinimum();
+    }
+    
+    private int refreshMinimum() {
+        int minimum = Integer.MAX_VALUE;
+        for (int i = 0; i < memberCount; i++) {
+            minimum = Math.min(minimum, memberCounts[i]);
+        }
+        return minimum;
+    }
+    
+    private void markDistinct(long hash) {
+        int bit = (int) (hash >>> 20) & distinctBitMask;
+        int word = bit >>> 6;
+        long mask = 1L << bit;
+        long current;
+        while (((current = distinctBits.get(word)) & mask) == 0 && !distinctBits.compareAndSet(word, current, current | mask)) {
+            // Another keyword set a bit in the same word; retry
+        }
+    }
+    
+    private int index(long hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        return row * (widthMask + 1) + ((int) (h >>> 32) & widthMask);
+    }
+    
+    private static long hash(String keyword) {
+        // Widen String.hashCode, which is cached, with a 64-bit finalizer
+        long h = keyword.hashCode() * 0x9e3779b97f4a7c15L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        return h ^ (h >>> 33);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,348 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+public class KeywordIndex {
+    // Inverted index over the response keys. Every key gets a stable id in
+    // insertion order, and every alphanumeric segment of a key is indexed by
+    // all of its suffixes, so "key contains fragment" becomes a prefix range
+    // lookup instead of a scan over all entries.
+    //
+    // Writers are serialized on the index; readers never lock. Every structure
+    // is published through a volatile write after the data it points to, so a
+    // reader sees either the state before or after an add, never a torn one.
+    private Map<String, Integer> keyIds;
+    private volatile String[] keys;
+    private volatile int keyCount;
+    private ConcurrentSkipListMap<String, IdList> suffixIndex;
+    private Map<String, IdList> suffixLists;
+    
+    // Keys occurring inside a text are found by a compiled Aho-Corasick
+    // automaton. Keys added after the last compile are checked directly;
+    // once enough of them pile up, the automaton is recompiled in the
+    // background and published when done, so add() never pays for it.
+    private static final int MAX_PENDING_KEYS = 256;
+    private static final ExecutorService COMPILER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "keyword-index-compiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile AhoCorasickMatcher matcher;
+    private boolean compiling;
+    
+    public KeywordIndex() {
+        keyIds = new ConcurrentHashMap<>();
+        keys = new String[16];
+        keyCount = 0;
+        suffixIndex = new ConcurrentSkipListMap<>();
+        suffixLists = new ConcurrentHashMap<>();
+        matcher = AhoCorasickMatcher.compile(Collections.<String>emptyList());
+    }
+    
+    public synchronized void add(String key) {
+        addKey(key);
+        if (!compiling && keyCount - matcher.size() > MAX_PENDING_KEYS) {
+            compiling = true;
+            COMPILER.execute(this::compileInBackground);
+        }
+    }
+    
+    private void compileInBackground() {
+        // Keys below keyCount never change and the array holding them is
+        // published first, so they can be read without the lock
+        int count = keyCount;
+        AhoCorasickMatcher compiled = AhoCorasickMatcher.compile(Arrays.asList(Arrays.copyOf(keys, count)));
+        synchronized (this) {
+            compiling = false;
+            // A bulk load may have published a newer automaton meanwhile
+            if (compiled.size() > matcher.size()) {
+                matcher = compiled;
+            }
+            if (keyCount - matcher.size() > MAX_PENDING_KEYS) {
+                compiling = true;
+                COMPILER.execute(this::compileInBackground);
+            }
+        }
+    }
+    
+    public synchronized void addAll(Iterable<String> newKeys) {
+        // Bulk loads compile the automaton once at the end
+        for (String key : newKeys) {
+            addKey(key);
+        }
+        compile();
+    }
+    
+    public synchronized void addAll(List<String> newKeys, ForkJoinPool pool) {
+        // Bulk loads in parallel: ids are assigned in order, each chunk of
+        // keys collects its suffixes into a partial map, partial maps are
+        // merged in id order, and the merged lists are filed in parallel,
+        // each suffix by one task. The automaton is compiled once at the end.
+        int base = keyCount;
+        String[] grown = keys.length >= base + newKeys.size() ? keys : Arrays.copyOf(keys, base + newKeys.size());
+        keys = grown;
+        int count = base;
+        for (String key : newKeys) {
+            if (!key.isEmpty() && !keyIds.containsKey(key)) {
+                grown[count] = key;
+                keyIds.put(key, count++);
+            }
+        }
+        keyCount = count;
+        
+        String[] added = grown;
+        Map<String, ChunkedBuild.IntList> suffixes = ChunkedBuild.mapReduce(pool, count - base, 2048, (from, to) -> {
+            Map<String, ChunkedBuild.IntList> partial = new HashMap<>();
+            Set<String> seen = new HashSet<>();
+            for (int id = base + from; id < base + to; id++) {
+                seen.clear();
+                collectSuffixes(added[id], seen);
+                for (String suffix : seen) {
+                    partial.computeIfAbsent(suffix, ignored -> new ChunkedBuild.IntList()).add(id);
+                }
+            }
+            return partial;
+        }, KeywordIndex::mergeSuffixes);
+        
+        List<Map.Entry<String, ChunkedBuild.IntList>> entries = new ArrayList<>(suffixes.entrySet());
+        ChunkedBuild.mapReduce(pool, entries.size(), 8192, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                Map.Entry<String, ChunkedBuild.IntList> entry = entries.get(i);
+                ChunkedBuild.IntList ids = entry.getValue();
+                IdList list = suffixLists.get(entry.getKey());
+                if (list == null) {
+                    list = new IdList(ids.toArray(ids.size() + 1), ids.size());
+                    suffixLists.put(entry.getKey(), list);
+                    suffixIndex.put(entry.getKey(), list);
+                } else {
+                    for (int j = 0; j < ids.size(); j++) {
+                        list.add(ids.get(j));
+                    }
+                }
+            }
+            return null;
+        }, (left, right) -> null);
+        compile();
+    }
+    
+    private static Map<String, ChunkedBuild.IntList> mergeSuffixes(Map<String, ChunkedBuild.IntList> left,
+                                                                   Map<String, ChunkedBuild.IntList> right) {
+        // Left holds the lower ids; ids are global, so lists just concatenate
+        for (Map.Entry<String, ChunkedBuild.IntList> entry : right.entrySet()) {
+            ChunkedBuild.IntList ids = left.putIfAbsent(entry.getKey(), entry.getValue());
+            if (ids != null) {
+                ids.addAll(entry.getValue(), 0);
+            }
+        }
+        return left;
+    }
+    
+    private void addKey(String key) {
+        if (key.isEmpty() || keyIds.containsKey(key)) {
+            return;
+        }
+        
+        int id = keyCount;
+        if (id == keys.length) {
+            keys = Arrays.copyOf(keys, id * 2);
+        }
+        keys[id] = key;
+        keyCount = id + 1;
+        keyIds.put(key, id);
+        
+        Set<String> suffixes = new HashSet<>();
+        collectSuffixes(key, suffixes);
+        for (String suffix : suffixes) {
+            // Existing suffixes are found by hash; only new ones pay for an
+            // insertion into the sorted map readers scan
+            IdList ids = suffixLists.get(suffix);
+            if (ids == null) {
+                ids = new IdList(id);
+                suffixLists.put(suffix, ids);
+                suffixIndex.put(suffix, ids);
+            } else {
+                ids.add(id);
+            }
+        }
+    }
+    
+    private static void collectSuffixes(String key, Set<String> suffixes) {
+        // Every suffix of every alphanumeric run of the key
+        int i = 0;
+        while (i < key.length()) {
+            if (!isTokenChar(key.charAt(i))) {
+                i++;
+                continue;
+            }
+            int end = i;
+            while (end < key.length() && isTokenChar(key.charAt(end))) {
+                end++;
+            }
+            for (int start = i; start < end; start++) {
+                suffixes.add(key.substring(start, end));
+            }
+            i = end;
+        }
+    }
+    
+    public int size() {
+        return keyCount;
+    }
+    
+    public List<String> keys() {
+        // The keys added so far, in id order; later adds do not show up
+        int count = keyCount;
+        return Collections.unmodifiableList(Arrays.asList(keys).subList(0, count));
+    }
+    
+    public String findKeyRelatedTo(String keyword) {
+        // A key matches when it contains the keyword or the keyword contains it
+        int best = Math.min(findIdContaining(keyword), findLowestIdContainedIn(keyword));
+        return best == Integer.MAX_VALUE ? null : keys[best];
+    }
+    
+    public String findKeyOverlapping(String input) {
+        // Prefer the longest key occurring in the input, then keys containing it
+        int best = findLongestIdContainedIn(input);
+        if (best == -1) {
+            best = findIdContainingPhrase(input);
+        }
+        return best == -1 || best == Integer.MAX_VALUE ? null : keys[best];
+    }
+    
+    public String findLongestKeyContainedIn(String input) {
+        int best = findLongestIdContainedIn(input);
+        return best == -1 ? null : keys[best];
+    }
+    
+    public String findKeyContainingPhrase(String input) {
+        int best = findIdContainingPhrase(input);
+        return best == -1 || best == Integer.MAX_VALUE ? null : keys[best];
+    }
+    
+    public synchronized void compile() {
+        // Fold pending keys into the automaton, e.g. after a bulk load
+        if (keyCount != matcher.size()) {
+            matcher = AhoCorasickMatcher.compile(snapshotKeys());
+        }
+    }
+    
+    private List<String> snapshotKeys() {
+        return Arrays.asList(Arrays.copyOf(keys, keyCount));
+    }
+    
+    private int findIdContaining(String fragment) {
+        // Keys containing the fragment are those with a suffix starting with it.
+        // Id lists are appended in increasing order, so the head is the minimum.
+        int best = Integer.MAX_VALUE;
+        if (fragment.isEmpty()) {
+            return best;
+        }
+        for (IdList ids : prefixRange(fragment).values()) {
+            best = Math.min(best, ids.first());
+        }
+        return best;
+    }
+    
+    private int findLowestIdContainedIn(String text) {
+        AhoCorasickMatcher current = matcher;
+        int count = keyCount;
+        String[] keySnapshot = keys;
+        int best = current.findLowestId(text);
+        if (best == -1) {
+            best = Integer.MAX_VALUE;
+        }
+        for (int id = current.size(); id < count && id < best; id++) {
+            if (text.contains(keySnapshot[id])) {
+                best = id;
+            }
+        }
+        return best;
+    }
+    
+    private int findLongestIdContainedIn(String text) {
+        AhoCorasickMatcher current = matcher;
+        int count = keyCount;
+        String[] keySnapshot = keys;
+        int best = current.findLongest(text);
+        int bestLength = best == -1 ? 0 : keySnapshot[best].length();
+        for (int id = current.size(); id < count; id++) {
+            String key = keySnapshot[id];
+            if (key.length() > bestLength && text.contains(key)) {
+                best = id;
+                bestLength = key.length();
+            }
+        }
+        return best;
+    }
+    
+    private int findIdContainingPhrase(String phrase) {
+        // Every key containing the phrase contains its longest token, so only
+        // the keys indexed under that token have to be verified.
+        String longest = "";
+        for (String token : phrase.split(" ")) {
+            if (token.length() > longest.length()) {
+                longest = token;
+            }
+        }
+        if (longest.isEmpty()) {
+            return Integer.MAX_VALUE;
+        }
+        if (longest.length() == phrase.length()) {
+            return findIdContaining(longest);
+        }
+        
+        int best = Integer.MAX_VALUE;
+        for (IdList ids : prefixRange(longest).values()) {
+            int size = ids.size;
+            int[] snapshot = ids.ids;
+            for (int i = 0; i < size && snapshot[i] < best; i++) {
+                if (keys[snapshot[i]].contains(phrase)) {
+                    best = snapshot[i];
+                }
+            }
+        }
+        return best;
+    }
+    
+    private SortedMap<String, IdList> prefixRange(String prefix) {
+        return suffixIndex.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+    
+    private static boolean isTokenChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9');
+    }
+    
+    private static class IdList {
+        // Append-only id list. The size is written after the element and read
+        // before the array, so readers only ever see fully written ids.
+        private volatile int[] ids;
+        private volatile int size;
+        
+        IdList(int id) {
+            // Lists are only published once they hold their first id
+            ids = new int[] {id, 0};
+            size = 1;
+        }
+        
+        IdList(int[] ids, int size) {
+            this.ids = ids;
+            this.size = size;
+        }
+        
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size] = id;
+            size = size + 1;
+        }
+        
+        int first() {
+            return ids[0];
+        }
+    }
+}
\ No newline at end of file
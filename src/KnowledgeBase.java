@@ -0,0 +1,209 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class KnowledgeBase {
+    // Shared, read-mostly knowledge: responses, their keyword, ranked and
+    // spelling indexes, stop words and context responses. Lookups never take
+    // a lock, so one instance can serve every session at once; adds are
+    // serialized inside the indexes.
+    //
+    // Responses can also come from a memory-mapped snapshot file. Entries put
+    // directly into the knowledge base take precedence over the snapshot.
+    private Map<String, String> responses;
+    private volatile KnowledgeBaseFile snapshot;
+    private KeywordIndex keywordIndex;
+    private RankedIndex rankedIndex;
+    private SpellingIndex spellingIndex;
+    private Map<String, List<String>> contextResponses;
+    private StopWords stopWords;
+    
+    public KnowledgeBase(Set<String> stopWords, Map<String, List<String>> contextResponses) {
+        this(new StopWords(stopWords), freeze(contextResponses));
+    }
+    
+    private KnowledgeBase(StopWords stopWords, Map<String, List<String>> contextResponses) {
+        this.responses = new ConcurrentHashMap<>();
+        this.keywordIndex = new KeywordIndex();
+        this.stopWords = stopWords;
+        this.rankedIndex = new RankedIndex(stopWords);
+        this.spellingIndex = new SpellingIndex(stopWords);
+        this.contextResponses = contextResponses;
+    }
+    
+    private static Map<String, List<String>> freeze(Map<String, List<String>> contextResponses) {
+        Map<String, List<String>> contexts = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : contextResponses.entrySet()) {
+            contexts.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+        }
+        return Collections.unmodifiableMap(contexts);
+    }
+    
+    public KnowledgeBase emptyCopy() {
+        // Same stop words and context responses, no entries; used to build a
+        // replacement off to the side while this one keeps serving
+        return new KnowledgeBase(stopWords, contextResponses);
+    }
+    
+    public void put(String key, String response) {
+        // Publish the response before the key becomes reachable through the index
+        responses.put(key, response);
+        keywordIndex.add(key);
+        rankedIndex.add(key);
+        spellingIndex.add(key);
+    }
+    
+    public void putAll(Map<String, String> entries) {
+        responses.putAll(entries);
+        indexAll(new ArrayList<>(entries.keySet()));
+    }
+    
+    public void attachSnapshot(KnowledgeBaseFile file) {
+        // Only the keys are indexed; responses stay in the mapped file
+        List<String> keys = new ArrayList<>(file.size());
+        for (int i = 0; i < file.size(); i++) {
+            keys.add(file.keyAt(i));
+        }
+        indexAll(keys);
+        snapshot = file;
+    }
+    
+    private void indexAll(List<String> keys) {
+        // Each index is built in parallel chunks on the shared pool, and the
+        // keyword index, whose automaton compiles on one thread, alongside
+        // the other two. With a single worker the partials and merges are
+        // pure overhead, so the indexes add one key at a time instead.
+        ForkJoinPool pool = ChunkedBuild.defaultPool();
+        if (pool.getParallelism() == 1) {
+            keywordIndex.addAll(keys);
+            rankedIndex.addAll(keys);
+            spellingIndex.addAll(keys);
+            return;
+        }
+        ForkJoinTask<?> keywords = pool.submit(() -> keywordIndex.addAll(keys, pool));
+        rankedIndex.addAll(keys, pool);
+        spellingIndex.addAll(keys, pool);
+        keywords.join();
+    }
+    
+    public KnowledgeBaseFile getSnapshot() {
+        return snapshot;
+    }
+    
+    public Map<String, String> getDirectEntries() {
+        // Entries put directly, which shadow the snapshot's
+        return Collections.unmodifiableMap(responses);
+    }
+    
+    public String get(String key) {
+        String response = responses.get(key);
+        if (response == null) {
+            KnowledgeBaseFile file = snapshot;
+            if (file != null) {
+                response = file.lookup(key);
+            }
+        }
+        return response;
+    }
+    
+    public int size() {
+        return keywordIndex.size();
+    }
+    
+    public List<String> keys() {
+        return keywordIndex.keys();
+    }
+    
+    public int vocabularySize() {
+        return spellingIndex.size();
+    }
+    
+    public void compileIndex() {
+        keywordIndex.compile();
+        rankedIndex.refreshStatistics();
+    }
+    
+    public String findBestRankedKey(List<String> keywords) {
+        return rankedIndex.findBestKey(keywords);
+    }
+    
+    public RankedIndex.Match findBestRankedMatch(List<String> keywords) {
+        return rankedIndex.findBestMatch(keywords);
+    }
+    
+    public RankedIndex.Match findBestRankedMatch(List<String> keywords, int collectionKeyCount,
+                                                 Map<String, Integer> documentFrequencies) {
+        return rankedIndex.findBestMatch(keywords, collectionKeyCount, documentFrequencies);
+    }
+    
+    public int rankedKeyCount() {
+        return rankedIndex.size();
+    }
+    
+    public int documentFrequency(String keyword) {
+        return rankedIndex.documentFrequency(keyword);
+    }
+    
+    public List<String> correctSpelling(List<String> keywords) {
+        // Unknown keywords replaced by the closest known word, if any; the
+        // same list when nothing needed correcting
+        List<String> corrected = keywords;
+        for (int i = 0; i < keywords.size(); i++) {
+            String correction = spellingIndex.correct(keywords.get(i));
+            if (correction != null) {
+                if (corrected == keywords) {
+                    corrected = new ArrayList<>(keywords);
+                }
+                corrected.set(i, correction);
+            }
+        }
+        return corrected;
+    }
+    
+    public String findKeyRelatedTo(String keyword) {
+        return keywordIndex.findKeyRelatedTo(keyword);
+    }
+    
+    public String findKeyOverlapping(String input) {
+        return keywordIndex.findKeyOverlapping(input);
+    }
+    
+    public String findLongestKeyContainedIn(String input) {
+        return keywordIndex.findLongestKeyContainedIn(input);
+    }
+    
+    public String findKeyContainingPhrase(String input) {
+        return keywordIndex.findKeyContainingPhrase(input);
+    }
+    
+    public Map<String, Integer> getVocabulary() {
+        // Words known to spelling correction, with the number of keys using each
+        return spellingIndex.vocabulary();
+    }
+    
+    public void addVocabulary(Map<String, Integer> counts) {
+        // Words for spelling correction only, without keys or responses
+        spellingIndex.addWords(counts);
+    }
+    
+    public boolean isStopWord(String word) {
+        return stopWords.contains(word);
+    }
+    
+    public StopWords getStopWords() {
+        return stopWords;
+    }
+    
+    public List<String> getContextResponses(String context) {
+        return contextResponses.get(context);
+    }
+    
+    public void close() throws IOException {
+        KnowledgeBaseFile file = snapshot;
+        if (file != null) {
+            file.close();
+        }
+    }
+}
\ No newline at end of file
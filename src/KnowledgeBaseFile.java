@@ -0,0 +1,232 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+public class KnowledgeBaseFile implements Closeable {
+    // Read-only, memory-mapped snapshot of question/answer pairs. Opening a
+    // snapshot only maps the file; keys and responses are decoded on demand,
+    // so startup cost and heap use do not grow with the number of entries.
+    //
+    // Layout (big-endian, all offsets from the start of the file):
+    //
+    //   header   magic, version, entry count, hash table size,
+    //            entry table offset, hash table offset       (6 x int)
+    //   strings  UTF-8 bytes of every key and response
+    //   entries  key offset, key length,
+    //            response offset, response length            (4 x int each)
+    //   hash     open-addressing slots of key hash and
+    //            entry index + 1, 0 marking a free slot       (2 x int each)
+    //
+    // A single mapping is limited to 2 GB, which is also the file size limit.
+    private static final int MAGIC = 0x43414B42; // "CAKB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int ENTRY_SIZE = 16;
+    private static final int SLOT_SIZE = 8;
+    
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int entryCount;
+    private int tableMask;
+    private int entriesOffset;
+    private int hashOffset;
+    
+    private KnowledgeBaseFile(FileChannel channel, MappedByteBuffer buffer) throws IOException {
+        this.channel = channel;
+        this.buffer = buffer;
+        
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a knowledge base snapshot");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported knowledge base snapshot version " + buffer.getInt(4));
+        }
+        entryCount = buffer.getInt(8);
+        tableMask = buffer.getInt(12) - 1;
+        entriesOffset = buffer.getInt(16);
+        hashOffset = buffer.getInt(20);
+    }
+    
+    public static KnowledgeBaseFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Knowledge base snapshot is larger than 2 GB: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new KnowledgeBaseFile(channel, buffer);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    public int size() {
+        return entryCount;
+    }
+    
+    public String lookup(String key) {
+        // Probe the hash table, comparing stored hashes before key bytes
+        int hash = key.hashCode();
+        byte[] keyBytes = null;
+        int slot = spread(hash) & tableMask;
+        while (true) {
+            int position = hashOffset + slot * SLOT_SIZE;
+            int entry = buffer.getInt(position + 4);
+            if (entry == 0) {
+                return null;
+            }
+            if (buffer.getInt(position) == hash) {
+                if (keyBytes == null) {
+                    keyBytes = key.getBytes(StandardCharsets.UTF_8);
+                }
+                int entryPosition = entriesOffset + (entry - 1) * ENTRY_SIZE;
+                if (bytesEqual(buffer.getInt(entryPosition), buffer.getInt(entryPosition + 4), keyBytes)) {
+                    return responseAt(entry - 1);
+                }
+            }
+            slot = (slot + 1) & tableMask;
+        }
+    }
+    
+    public String keyAt(int index) {
+        int position = entriesOffset + index * ENTRY_SIZE;
+        return decode(buffer.getInt(position), buffer.getInt(position + 4));
+    }
+    
+    public String responseAt(int index) {
+        int position = entriesOffset + index * ENTRY_SIZE;
+        return decode(buffer.getInt(position + 8), buffer.getInt(position + 12));
+    }
+    
+    @Override
+    public void close() throws IOException {
+        // The mapping itself is released once the buffer is garbage collected
+        channel.close();
+    }
+    
+    public static void write(Path path, Map<String, String> entries) throws IOException {
+        int count = entries.size();
+        int tableSize = Integer.highestOneBit(Math.max(2, count * 2) - 1) << 1;
+        int[] entryTable = new int[count * 4];
+        int[] hashes = new int[count];
+        
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(channel.position(HEADER_SIZE)), 1 << 16));
+            
+            // Strings first, remembering where each one landed
+            long offset = HEADER_SIZE;
+            int index = 0;
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                byte[] response = entry.getValue().getBytes(StandardCharsets.UTF_8);
+                if (offset + key.length + response.length > Integer.MAX_VALUE) {
+                    throw new IOException("Knowledge base snapshot would exceed 2 GB");
+                }
+                hashes[index] = entry.getKey().hashCode();
+                entryTable[index * 4] = (int) offset;
+                entryTable[index * 4 + 1] = key.length;
+                entryTable[index * 4 + 2] = (int) (offset + key.length);
+                entryTable[index * 4 + 3] = response.length;
+                out.write(key);
+                out.write(response);
+                offset += key.length + response.length;
+                index++;
+            }
+            
+            long entriesOffset = offset;
+            long hashOffset = entriesOffset + (long) count * ENTRY_SIZE;
+            if (hashOffset + (long) tableSize * SLOT_SIZE > Integer.MAX_VALUE) {
+                throw new IOException("Knowledge base snapshot would exceed 2 GB");
+            }
+            for (int value : entryTable) {
+                out.writeInt(value);
+            }
+            
+            // Hash slots: linear probing on the spread String hash
+            int[] slots = new int[tableSize * 2];
+            for (int i = 0; i < count; i++) {
+                int slot = spread(hashes[i]) & (tableSize - 1);
+                while (slots[slot * 2 + 1] != 0) {
+                    slot = (slot + 1) & (tableSize - 1);
+                }
+                slots[slot * 2] = hashes[i];
+                slots[slot * 2 + 1] = i + 1;
+            }
+            for (int value : slots) {
+                out.writeInt(value);
+            }
+            out.flush();
+            
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(tableSize)
+                  .putInt((int) entriesOffset).putInt((int) hashOffset);
+            header.flip();
+            channel.write(header, 0);
+        }
+    }
+    
+    public static int convert(Path textFile, Path snapshotFile) throws IOException {
+        // Same parsing rules as Chatbot.loadTrainingData; later lines win
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(textFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\\|");
+                if (parts.length == 2) {
+                    entries.put(parts[0].toLowerCase().trim(), parts[1].trim());
+                }
+            }
+        }
+        write(snapshotFile, entries);
+        return entries.size();
+    }
+    
+    private boolean bytesEqual(int offset, int length, byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private String decode(int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+    
+    public static void main(String[] args) {
+        // Converts a pipe-delimited training file into a binary snapshot:
+        //   java -cp src KnowledgeBaseFile [training_data.txt] [training_data.kb]
+        Path textFile = Paths.get(args.length > 0 ? args[0] : "training_data.txt");
+        Path snapshotFile = Paths.get(args.length > 1 ? args[1] : "training_data.kb");
+        try {
+            long start = System.nanoTime();
+            int count = convert(textFile, snapshotFile);
+            System.out.println("Wrote " + count + " entries to " + snapshotFile + " in " +
+                               (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            System.err.println("Could not convert training data: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
\ No newline at end of file
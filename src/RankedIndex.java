@@ -0,0 +1,646 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+public class RankedIndex {
+    // BM25 ranking of response keys against the keywords of a message. Keys
+    // are tokenized like messages, so a key's terms are its keywords. Each
+    // term maps to a posting list of (key id, term frequency) in two int
+    // arrays, appended in id order.
+    //
+    // Top-k retrieval is term-at-a-time MaxScore. Every list knows the best
+    // score any of its keys can contribute. Lists are scored in descending
+    // order of that bound into a per-thread accumulator array; once the k-th
+    // best partial score exceeds what the remaining lists could add together,
+    // no unseen key can make the top k, so the remaining lists are no longer
+    // scanned but only probed for the few keys still in the running.
+    //
+    // Collection statistics (key count and average length) are frozen at the
+    // last refresh, so a key added later only changes the scores of messages
+    // sharing one of its terms. Like KeywordIndex, writers are serialized and
+    // readers never lock.
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    
+    // Terms in more than 1% of the keys (and at least 4096 of them) are
+    // common, as with Lucene's CommonTermsQuery: they refine the scores of
+    // keys that share a rarer term with the message, but do not bring in
+    // keys of their own. Without this, a long message full of everyday words
+    // would have to score a large share of the knowledge base.
+    private static final double COMMON_TERM_RATIO = 0.01;
+    private static final int MIN_COMMON_FREQUENCY = 4096;
+    
+    private Map<String, Postings> postings;
+    private Set<String> indexedKeys;
+    private StopWords stopWords;
+    private Tokenizer tokenizer;
+    private volatile String[] keys;
+    private volatile int[] keyLengths;
+    private volatile int keyCount;
+    private long totalLength;
+    private volatile Statistics statistics;
+    private ThreadLocal<Accumulators> accumulators = ThreadLocal.withInitial(Accumulators::new);
+    
+    public RankedIndex(StopWords stopWords) {
+        postings = new ConcurrentHashMap<>();
+        indexedKeys = new HashSet<>();
+        this.stopWords = stopWords;
+        tokenizer = new Tokenizer(stopWords);
+        keys = new String[16];
+        keyLengths = new int[16];
+        statistics = new Statistics(0, 1);
+    }
+    
+    private static class Statistics {
+        private final int keyCount;
+        private final double averageLength;
+        
+        Statistics(int keyCount, double averageLength) {
+            this.keyCount = keyCount;
+            this.averageLength = averageLength;
+        }
+        
+        double idf(int documentFrequency) {
+            return RankedIndex.idf(keyCount, documentFrequency);
+        }
+        
+        double termScore(int frequency, int length) {
+            return frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * length / averageLength));
+        }
+    }
+    
+    private static double idf(int keyCount, int documentFrequency) {
+        // Never below zero, even after adds push a frequency past the frozen count
+        int count = Math.max(keyCount, documentFrequency);
+        return Math.log(1 + (count - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+    
+    public synchronized void add(String key) {
+        addKey(key);
+    }
+    
+    public synchronized void addAll(Iterable<String> newKeys) {
+        // Bulk loads refresh the statistics once at the end
+        for (String key : newKeys) {
+            addKey(key);
+        }
+        refreshStatistics();
+    }
+    
+    public synchronized void refreshStatistics() {
+        // Rescoring every list's best key is linear in the postings; only
+        // done after bulk loads
+        int count = keyCount;
+        Statistics current = new Statistics(count, count == 0 ? 1 : (double) totalLength / count);
+        int[] lengths = keyLengths;
+        for (Postings list : postings.values()) {
+            list.rescore(current, lengths);
+        }
+        statistics = current;
+    }
+    
+    public synchronized void addAll(List<String> newKeys, ForkJoinPool pool) {
+        // Bulk loads in parallel: chunks of keys are tokenized into partial
+        // postings with chunk-local ids, split by term hash into partitions.
+        // Each partition is then appended to the index by its own task,
+        // chunk after chunk so ids stay in key order, and the lists are
+        // scored by a parallel statistics refresh.
+        List<String> added = new ArrayList<>(newKeys.size());
+        for (String key : newKeys) {
+            if (indexedKeys.add(key)) {
+                added.add(key);
+            }
+        }
+        List<Partial> partials = ChunkedBuild.collect(pool, added.size(), 2048, (from, to) -> {
+            Partial partial = new Partial();
+            Tokenizer chunkTokenizer = new Tokenizer(stopWords);
+            Map<String, Integer> frequencies = new HashMap<>();
+            for (int i = from; i < to; i++) {
+                chunkTokenizer.tokenize(added.get(i));
+                int length = chunkTokenizer.keywordCount();
+                if (length == 0) {
+                    continue;
+                }
+                frequencies.clear();
+                for (int j = 0; j < length; j++) {
+                    frequencies.merge(chunkTokenizer.keyword(j), 1, Integer::sum);
+                }
+                int id = partial.keys.size();
+                partial.keys.add(added.get(i));
+                partial.lengths.add(length);
+                for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                    ChunkedBuild.IntList list = partial.partitions.get(ChunkedBuild.partition(entry.getKey()))
+                                                                  .computeIfAbsent(entry.getKey(), ignored -> new ChunkedBuild.IntList());
+                    list.add(id);
+                    list.add(entry.getValue());
+                }
+            }
+            return partial;
+        });
+        
+        int count = keyCount;
+        for (Partial partial : partials) {
+            partial.firstId = count;
+            count += partial.keys.size();
+        }
+        if (count > keys.length) {
+            keys = Arrays.copyOf(keys, count);
+            keyLengths = Arrays.copyOf(keyLengths, count);
+        }
+        for (Partial partial : partials) {
+            for (int i = 0; i < partial.keys.size(); i++) {
+                keys[partial.firstId + i] = partial.keys.get(i);
+                keyLengths[partial.firstId + i] = partial.lengths.get(i);
+                totalLength += partial.lengths.get(i);
+            }
+        }
+        keyCount = count;
+        
+        ChunkedBuild.forEachPartition(pool, group -> {
+            for (Partial partial : partials) {
+                for (Map.Entry<String, ChunkedBuild.IntList> entry : partial.partitions.get(group).entrySet()) {
+                    ChunkedBuild.IntList chunkList = entry.getValue();
+                    Postings list = postings.get(entry.getKey());
+                    if (list == null) {
+                        postings.put(entry.getKey(), new Postings(chunkList, partial.firstId));
+                    } else {
+                        for (int j = 0; j < chunkList.size(); j += 2) {
+                            list.add(partial.firstId + chunkList.get(j), chunkList.get(j + 1), 0);
+                        }
+                    }
+                }
+            }
+        });
+        
+        Statistics current = new Statistics(count, count == 0 ? 1 : (double) totalLength / count);
+        int[] lengths = keyLengths;
+        List<Postings> lists = new ArrayList<>(postings.values());
+        ChunkedBuild.mapReduce(pool, lists.size(), 4096, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                lists.get(i).rescore(current, lengths);
+            }
+            return null;
+        }, (left, right) -> null);
+        statistics = current;
+    }
+    
+    private static class Partial {
+        // A chunk's ranked keys in order, and their postings by term hash
+        // partition as (id, frequency) pairs, ids counted from the chunk's
+        // first key
+        private List<String> keys = new ArrayList<>();
+        private ChunkedBuild.IntList lengths = new ChunkedBuild.IntList();
+        private List<Map<String, ChunkedBuild.IntList>> partitions = ChunkedBuild.newPartitions();
+        private int firstId;
+    }
+    
+    private void addKey(String key) {
+        if (!indexedKeys.add(key)) {
+            return;
+        }
+        
+        // Count the key's terms; keys without keywords cannot be ranked
+        tokenizer.tokenize(key);
+        int length = tokenizer.keywordCount();
+        if (length == 0) {
+            return;
+        }
+        Map<String, Integer> frequencies = new LinkedHashMap<>();
+        for (int i = 0; i < length; i++) {
+            frequencies.merge(tokenizer.keyword(i), 1, Integer::sum);
+        }
+        
+        int id = keyCount;
+        if (id == keys.length) {
+            keys = Arrays.copyOf(keys, id * 2);
+            keyLengths = Arrays.copyOf(keyLengths, id * 2);
+        }
+        keys[id] = key;
+        keyLengths[id] = length;
+        totalLength += length;
+        keyCount = id + 1;
+        
+        Statistics current = statistics;
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            float impact = (float) current.termScore(entry.getValue(), length);
+            Postings list = postings.get(entry.getKey());
+            if (list == null) {
+                postings.put(entry.getKey(), new Postings(id, entry.getValue(), impact));
+            } else {
+                list.add(id, entry.getValue(), impact);
+            }
+        }
+    }
+    
+    public int size() {
+        return keyCount;
+    }
+    
+    public int documentFrequency(String term) {
+        // How many keys contain the term
+        Postings list = postings.get(term);
+        return list == null ? 0 : list.size;
+    }
+    
+    public static class Match {
+        private final String key;
+        private final double score;
+        
+        Match(String key, double score) {
+            this.key = key;
+            this.score = score;
+        }
+        
+        public String getKey() {
+            return key;
+        }
+        
+        public double getScore() {
+            return score;
+        }
+    }
+    
+    public String findBestKey(List<String> terms) {
+        Match best = findBestMatch(terms);
+        return best == null ? null : best.getKey();
+    }
+    
+    public Match findBestMatch(List<String> terms) {
+        List<Match> best = searchScored(terms, 1);
+        return best.isEmpty() ? null : best.get(0);
+    }
+    
+    public List<String> search(List<String> terms, int k) {
+        List<Match> matches = searchScored(terms, k);
+        List<String> keys = new ArrayList<>(matches.size());
+        for (Match match : matches) {
+            keys.add(match.getKey());
+        }
+        return keys;
+    }
+    
+    public Match findBestMatch(List<String> terms, int collectionKeyCount, Map<String, Integer> documentFrequencies) {
+        // As findBestMatch(terms), but with idf from the key count and
+        // document frequencies of a whole collection this index holds part
+        // of, so that scores from the parts can be compared. Terms missing
+        // from the map count with this index's own frequency.
+        List<Match> best = searchScored(terms, 1, collectionKeyCount, documentFrequencies);
+        return best.isEmpty() ? null : best.get(0);
+    }
+    
+    public List<Match> searchScored(List<String> terms, int k) {
+        return searchScored(terms, k, 0, null);
+    }
+    
+    private List<Match> searchScored(List<String> terms, int k, int collectionKeyCount,
+                                     Map<String, Integer> documentFrequencies) {
+        // Keys in descending score order; exact ties go to the lower id
+        Statistics current = statistics;
+        
+        // One list per distinct term, highest possible contribution first
+        Set<String> distinct = new LinkedHashSet<>(terms);
+        Term[] query = new Term[distinct.size()];
+        int termCount = 0;
+        for (String term : distinct) {
+            Postings list = postings.get(term);
+            if (list == null) {
+                continue;
+            }
+            double idf;
+            if (documentFrequencies == null) {
+                idf = current.idf(list.size);
+            } else {
+                idf = idf(collectionKeyCount, documentFrequencies.getOrDefault(term, list.size));
+            }
+            query[termCount++] = new Term(list, idf);
+        }
+        if (termCount == 0 || k <= 0) {
+            return Collections.emptyList();
+        }
+        query = Arrays.copyOf(query, termCount);
+        
+        // Common terms only add to keys found through rarer ones, unless the
+        // message has nothing but common terms
+        int commonLimit = Math.max(MIN_COMMON_FREQUENCY, (int) (current.keyCount * COMMON_TERM_RATIO));
+        int scanLimit = 0;
+        for (Term term : query) {
+            term.common = term.size > commonLimit;
+            scanLimit += term.common ? 0 : 1;
+        }
+        if (scanLimit == 0) {
+            scanLimit = termCount;
+        }
+        Arrays.sort(query, (a, b) -> a.common != b.common ? (a.common ? 1 : -1) : Double.compare(b.maxScore, a.maxScore));
+        double[] remaining = new double[termCount + 1];
+        for (int i = termCount - 1; i >= 0; i--) {
+            // With a little slack for the rounding of float accumulation
+            remaining[i] = remaining[i + 1] + query[i].maxScore * (1 + 1e-6);
+        }
+        
+        // Read after the lists, so every id they hold is covered here
+        String[] keySnapshot = keys;
+        Accumulators accumulators = this.accumulators.get();
+        accumulators.ensureCapacity(keySnapshot.length);
+        float[] scores = accumulators.scores;
+        try {
+            // Scan whole lists while a key matching none of them so far
+            // could still reach the top k
+            int next = 0;
+            double threshold = 0;
+            for (; next < scanLimit; next++) {
+                if (remaining[next] < accumulators.max) {
+                    threshold = threshold(accumulators, k);
+                    if (remaining[next] < threshold) {
+                        break;
+                    }
+                }
+                Term term = query[next];
+                for (int i = 0; i < term.size; i++) {
+                    int id = term.ids[i];
+                    if (scores[id] == 0) {
+                        accumulators.touch(id);
+                    }
+                    float score = scores[id] + term.score(i);
+                    scores[id] = score;
+                    if (score > accumulators.max) {
+                        accumulators.max = score;
+                    }
+                }
+            }
+            
+            // The rest only add to keys that can still make the top k, found
+            // by binary search instead of a scan
+            int[] candidates = accumulators.touched;
+            int candidateCount = accumulators.touchedCount;
+            if (next < termCount) {
+                threshold = threshold(accumulators, k);
+                candidates = Arrays.copyOf(candidates, candidateCount);
+                candidateCount = retain(candidates, candidateCount, scores, remaining[next], threshold);
+                Arrays.sort(candidates, 0, candidateCount);
+                for (; next < termCount; next++) {
+                    Term term = query[next];
+                    int position = 0;
+                    for (int c = 0; c < candidateCount && position < term.size; c++) {
+                        int id = candidates[c];
+                        position = term.advanceTo(position, id);
+                        if (position < term.size && term.ids[position] == id) {
+                            scores[id] += term.score(position);
+                        }
+                    }
+                    threshold = kthLargest(scores, candidates, candidateCount, k);
+                    candidateCount = retain(candidates, candidateCount, scores, remaining[next + 1], threshold);
+                }
+            }
+            
+            TopK top = new TopK(k);
+            for (int c = 0; c < candidateCount; c++) {
+                top.offer(candidates[c], scores[candidates[c]]);
+            }
+            int[] ids = top.sortedIds();
+            List<Match> result = new ArrayList<>(ids.length);
+            for (int id : ids) {
+                result.add(new Match(keySnapshot[id], scores[id]));
+            }
+            return result;
+        } finally {
+            accumulators.clear();
+        }
+    }
+    
+    private static int retain(int[] ids, int count, float[] scores, double remaining, double threshold) {
+        // Keeps the keys whose score could still reach the threshold
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (scores[ids[i]] + remaining >= threshold) {
+                ids[kept++] = ids[i];
+            }
+        }
+        return kept;
+    }
+    
+    private static double threshold(Accumulators accumulators, int k) {
+        if (k == 1) {
+            return accumulators.max;
+        }
+        return kthLargest(accumulators.scores, accumulators.touched, accumulators.touchedCount, k);
+    }
+    
+    private static double kthLargest(float[] scores, int[] ids, int count, int k) {
+        if (count < k) {
+            return 0;
+        }
+        TopK top = new TopK(k);
+        for (int i = 0; i < count; i++) {
+            top.offer(ids[i], scores[ids[i]]);
+        }
+        return top.threshold();
+    }
+    
+    private static class Postings {
+        // Append-only, like KeywordIndex.IdList: the arrays are written
+        // before the size, and readers read the size first. Each posting
+        // carries its precomputed term score (impact), so ranking needs no
+        // lengths or divisions; frequencies are kept to recompute impacts.
+        private volatile int[] ids;
+        private volatile float[] impacts;
+        private int[] frequencies;
+        private volatile int size;
+        private volatile double maxImpact;
+        
+        Postings(int id, int frequency, float impact) {
+            ids = new int[] {id, 0};
+            impacts = new float[] {impact, 0};
+            frequencies = new int[] {frequency, 0};
+            maxImpact = impact;
+            size = 1;
+        }
+        
+        Postings(ChunkedBuild.IntList pairs, int firstId) {
+            // From (id, frequency) pairs; unscored until the next rescore
+            int count = pairs.size() / 2;
+            int[] chunkIds = new int[count + 1];
+            int[] chunkFrequencies = new int[count + 1];
+            for (int i = 0; i < count; i++) {
+                chunkIds[i] = firstId + pairs.get(2 * i);
+                chunkFrequencies[i] = pairs.get(2 * i + 1);
+            }
+            ids = chunkIds;
+            impacts = new float[count + 1];
+            frequencies = chunkFrequencies;
+            size = count;
+        }
+        
+        void add(int id, int frequency, float impact) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                impacts = Arrays.copyOf(impacts, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            ids[size] = id;
+            impacts[size] = impact;
+            frequencies[size] = frequency;
+            if (impact > maxImpact) {
+                maxImpact = impact;
+            }
+            size = size + 1;
+        }
+        
+        void rescore(Statistics statistics, int[] lengths) {
+            int count = size;
+            float[] rescored = new float[impacts.length];
+            double max = 0;
+            for (int i = 0; i < count; i++) {
+                rescored[i] = (float) statistics.termScore(frequencies[i], lengths[ids[i]]);
+                max = Math.max(max, rescored[i]);
+            }
+            impacts = rescored;
+            maxImpact = max;
+        }
+    }
+    
+    private static class Term {
+        // A query term's list as of the start of the search
+        private int[] ids;
+        private float[] impacts;
+        private int size;
+        private float idf;
+        private double maxScore;
+        private boolean common;
+        
+        Term(Postings list, double idf) {
+            // The size is read first; the arrays and bound are at least as new
+            this.size = list.size;
+            this.ids = list.ids;
+            this.impacts = list.impacts;
+            this.idf = (float) idf;
+            this.maxScore = this.idf * (float) list.maxImpact;
+        }
+        
+        float score(int position) {
+            return idf * impacts[position];
+        }
+        
+        int advanceTo(int from, int id) {
+            // Gallop forward, then binary search the bracketed range
+            int step = 1;
+            int low = from;
+            while (low + step < size && ids[low + step] < id) {
+                low += step;
+                step <<= 1;
+            }
+            int index = Arrays.binarySearch(ids, low, Math.min(low + step + 1, size), id);
+            return index >= 0 ? index : -index - 1;
+        }
+    }
+    
+    private static class Accumulators {
+        // Per-thread score array indexed by key id; only touched slots are
+        // cleared after a search
+        private float[] scores = new float[16];
+        private int[] touched = new int[16];
+        private int touchedCount;
+        private float max;
+        
+        void ensureCapacity(int capacity) {
+            if (scores.length < capacity) {
+                scores = new float[capacity];
+            }
+        }
+        
+        void touch(int id) {
+            if (touchedCount == touched.length) {
+                touched = Arrays.copyOf(touched, touchedCount * 2);
+            }
+            touched[touchedCount++] = id;
+        }
+        
+        void clear() {
+            for (int i = 0; i < touchedCount; i++) {
+                scores[touched[i]] = 0;
+            }
+            touchedCount = 0;
+            max = 0;
+        }
+    }
+    
+    private static class TopK {
+        // Bounded min-heap on (score, then later id first)
+        private int[] ids;
+        private double[] scores;
+        private int size;
+        
+        TopK(int k) {
+            ids = new int[k];
+            scores = new double[k];
+        }
+        
+        double threshold() {
+            return size < ids.length ? -1 : scores[0];
+        }
+        
+        void offer(int id, double score) {
+            if (size < ids.length) {
+                ids[size] = id;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (ranksAbove(id, score, 0)) {
+                ids[0] = id;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+        
+        int[] sortedIds() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> a.equals(b) ? 0 : ranksAbove(ids[a], scores[a], b) ? -1 : 1);
+            int[] sorted = new int[size];
+            for (int i = 0; i < size; i++) {
+                sorted[i] = ids[order[i]];
+            }
+            return sorted;
+        }
+        
+        private boolean ranksAbove(int id, double score, int slot) {
+            return score > scores[slot] || (score == scores[slot] && id < ids[slot]);
+        }
+        
+        private void siftUp(int slot) {
+            while (slot > 0) {
+                int parent = (slot - 1) / 2;
+                if (!ranksAbove(ids[parent], scores[parent], slot)) {
+                    break;
+                }
+                swap(slot, parent);
+                slot = parent;
+            }
+        }
+        
+        private void siftDown(int slot) {
+            while (true) {
+                int smallest = slot;
+                for (int child = 2 * slot + 1; child <= 2 * slot + 2 && child < size; child++) {
+                    if (ranksAbove(ids[smallest], scores[smallest], child)) {
+                        smallest = child;
+                    }
+                }
+                if (smallest == slot) {
+                    return;
+                }
+                swap(slot, smallest);
+                slot = smallest;
+            }
+        }
+        
+        private void swap(int a, int b) {
+            int id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+            double score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+    }
+}
\ No newline at end of file
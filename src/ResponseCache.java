@@ -0,0 +1,306 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class ResponseCache {
+    // Bounded cache of context-independent answers keyed by normalized input.
+    //
+    // Admission and eviction follow W-TinyLFU: new entries enter a small LRU
+    // window; when the window overflows, its oldest entry only displaces the
+    // oldest entry of the main segment if it has been asked for more often,
+    // as estimated by a 4-bit count-min sketch that is halved periodically so
+    // that old popularity fades. The main segment is a segmented LRU: entries
+    // hit again while on probation are promoted to the protected part.
+    //
+    // Reads never block. They update recency only when the policy lock is
+    // free; a skipped update costs a little accuracy, not correctness.
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int REMOVED = 3;
+    
+    private ConcurrentHashMap<String, Node> data;
+    private ReentrantLock policyLock = new ReentrantLock();
+    private Node[] queues = {new Node(), new Node(), new Node()};
+    private int[] queueSizes = new int[3];
+    private FrequencySketch sketch;
+    private int maximumSize;
+    private int windowMaximum;
+    private int protectedMaximum;
+    private long expireAfterNanos;
+    private volatile long version;
+    private LongAdder hits = new LongAdder();
+    private LongAdder misses = new LongAdder();
+    private LongAdder evictions = new LongAdder();
+    
+    public ResponseCache(int maximumSize, long expireAfterMillis) {
+        this.maximumSize = Math.max(maximumSize, 2);
+        this.windowMaximum = Math.max(1, this.maximumSize / 100);
+        this.protectedMaximum = (this.maximumSize - windowMaximum) * 4 / 5;
+        this.expireAfterNanos = expireAfterMillis * 1_000_000L;
+        this.data = new ConcurrentHashMap<>();
+        this.sketch = new FrequencySketch(this.maximumSize);
+        for (Node sentinel : queues) {
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+        }
+    }
+    
+    private static class Node {
+        private String input;
+        private String[] keywords;
+        private String resolvedKey;
+        private String response;
+        private long writeNanos;
+        private int queue;
+        private Node prev;
+        private Node next;
+    }
+    
+    public long getVersion() {
+        // Read before computing an answer and pass to put(); an invalidation
+        // in between makes put() drop the possibly stale answer
+        return version;
+    }
+    
+    public String get(String input) {
+        Node node = data.get(input);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        if (System.nanoTime() - node.writeNanos > expireAfterNanos) {
+            misses.increment();
+            policyLock.lock();
+            try {
+                if (node.queue != REMOVED) {
+                    remove(node);
+                }
+            } finally {
+                policyLock.unlock();
+            }
+            return null;
+        }
+        
+        hits.increment();
+        if (policyLock.tryLock()) {
+            try {
+                sketch.increment(input);
+                if (node.queue != REMOVED) {
+                    onAccess(node);
+                }
+            } finally {
+                policyLock.unlock();
+            }
+        }
+        return node.response;
+    }
+    
+    public void put(String input, String[] keywords, String resolvedKey, String response, long expectedVersion) {
+        policyLock.lock();
+        try {
+            if (expectedVersion != version) {
+                return;
+            }
+            sketch.increment(input);
+            
+            Node existing = data.get(input);
+            if (existing != null) {
+                remove(existing);
+            }
+            Node node = new Node();
+            node.input = input;
+            node.keywords = keywords;
+            node.resolvedKey = resolvedKey;
+            node.response = response;
+            node.writeNanos = System.nanoTime();
+            data.put(input, node);
+            append(WINDOW, node);
+            evict();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+    
+    public void invalidate(String key) {
+        // Drop exactly the answers a new or changed key could alter: those
+        // resolved to it, and those whose input or keywords it overlaps.
+        // Training is rare next to lookups, so a scan of the bounded cache
+        // is cheaper than maintaining a reverse index on every put.
+        policyLock.lock();
+        try {
+            version++;
+            for (Node node : data.values()) {
+                if (isAffectedBy(node, key)) {
+                    remove(node);
+                }
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+    
+    public void clear() {
+        policyLock.lock();
+        try {
+            version++;
+            for (Node node : data.values()) {
+                remove(node);
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+    
+    public int size() {
+        return data.size();
+    }
+    
+    public long getHitCount() {
+        return hits.sum();
+    }
+    
+    public long getMissCount() {
+        return misses.sum();
+    }
+    
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+    
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+    
+    private static boolean isAffectedBy(Node node, String key) {
+        if (key.equals(node.resolvedKey) || node.input.contains(key) || key.contains(node.input)) {
+            return true;
+        }
+        for (String keyword : node.keywords) {
+            if (key.contains(keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void onAccess(Node node) {
+        if (node.queue == PROBATION) {
+            // A second hit promotes; the protected segment spills back to probation
+            unlink(node);
+            append(PROTECTED, node);
+            if (queueSizes[PROTECTED] > protectedMaximum) {
+                Node demoted = queues[PROTECTED].next;
+                unlink(demoted);
+                append(PROBATION, demoted);
+            }
+        } else {
+            unlink(node);
+            append(node.queue, node);
+        }
+    }
+    
+    private void evict() {
+        while (queueSizes[WINDOW] > windowMaximum) {
+            Node candidate = queues[WINDOW].next;
+            unlink(candidate);
+            append(PROBATION, candidate);
+            
+            if (data.size() <= maximumSize) {
+                continue;
+            }
+            Node victim = queueSizes[PROBATION] > 1 ? queues[PROBATION].next : queues[PROTECTED].next;
+            if (sketch.frequency(candidate.input) > sketch.frequency(victim.input)) {
+                remove(victim);
+            } else {
+                remove(candidate);
+            }
+            evictions.increment();
+        }
+    }
+    
+    private void append(int queue, Node node) {
+        Node sentinel = queues[queue];
+        node.queue = queue;
+        node.prev = sentinel.prev;
+        node.next = sentinel;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+        queueSizes[queue]++;
+    }
+    
+    private void unlink(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        queueSizes[node.queue]--;
+    }
+    
+    private void remove(Node node) {
+        data.remove(node.input, node);
+        unlink(node);
+        node.queue = REMOVED;
+    }
+    
+    private static class FrequencySketch {
+        // Count-min sketch of 4-bit counters, sixteen to a long. Each key
+        // maps to one counter in each of four rows; its estimate is the
+        // minimum. Every 10 * capacity increments all counters are halved.
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+                                             0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+        
+        private long[] table;
+        private int tableMask;
+        private int sampleSize;
+        private int additions;
+        
+        FrequencySketch(int capacity) {
+            int length = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+            table = new long[length];
+            tableMask = length - 1;
+            sampleSize = 10 * capacity;
+        }
+        
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int frequency = 15;
+            for (int row = 0; row < 4; row++) {
+                long h = (hash + SEEDS[row]) * SEEDS[row];
+                int index = (int) (h >>> 32) & tableMask;
+                int shift = (((int) h >>> 8) & 3 | row << 2) << 2;
+                frequency = Math.min(frequency, (int) ((table[index] >>> shift) & 15));
+            }
+            return frequency;
+        }
+        
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                long h = (hash + SEEDS[row]) * SEEDS[row];
+                int index = (int) (h >>> 32) & tableMask;
+                int shift = (((int) h >>> 8) & 3 | row << 2) << 2;
+                if (((table[index] >>> shift) & 15) != 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+        
+        private static int spread(int hash) {
+            hash ^= hash >>> 16;
+            hash *= 0x45d9f3b;
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,77 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class RollingCounters {
+    // Counts per column over the last few seconds, minutes or up to an hour,
+    // kept as a ring of one-second slots. Each slot remembers which second
+    // it holds; the first increment in a new second claims the slot and
+    // clears what was left from a lap ago. Reading a window adds up the
+    // slots that still hold one of its seconds, so there is no background
+    // thread rolling the windows forward.
+    //
+    // Increments are lock-free. An increment racing with the clearing of
+    // its slot can be lost, once per slot and second at most, which is
+    // fine for display; totals that must be exact belong in a LongAdder.
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    
+    private int columns;
+    private int slots;
+    private AtomicLongArray counts;
+    private AtomicLongArray seconds;
+    private long origin;
+    
+    public RollingCounters(int columns, int maxSeconds) {
+        this.columns = columns;
+        this.slots = maxSeconds;
+        counts = new AtomicLongArray(columns * maxSeconds);
+        seconds = new AtomicLongArray(maxSeconds);
+        origin = System.nanoTime();
+        
+        // No slot holds a second yet
+        for (int i = 0; i < maxSeconds; i++) {
+            seconds.set(i, -1);
+        }
+    }
+    
+    public void increment(int column) {
+        long second = (System.nanoTime() - origin) / NANOS_PER_SECOND;
+        int slot = (int) (second % slots);
+        long held = seconds.get(slot);
+        if (held < second && seconds.compareAndSet(slot, held, second)) {
+            for (int i = 0; i < columns; i++) {
+                counts.set(slot * columns + i, 0);
+            }
+        }
+        counts.incrementAndGet(slot * columns + column);
+    }
+    
+    public long[][] sums(int... windows) {
+        // For each window, in seconds up to maxSeconds, the count per column
+        // over that many seconds up to and including the current one
+        long[][] sums = new long[windows.length][columns];
+        long now = (System.nanoTime() - origin) / NANOS_PER_SECOND;
+        int longest = 0;
+        for (int window : windows) {
+            longest = Math.max(longest, Math.min(window, slots));
+        }
+        for (int age = 0; age < longest && age <= now; age++) {
+            int slot = (int) ((now - age) % slots);
+            if (seconds.get(slot) != now - age) {
+                continue;
+            }
+            for (int w = 0; w < windows.length; w++) {
+                if (age < windows[w]) {
+                    for (int i = 0; i < columns; i++) {
+                        sums[w][i] += counts.get(slot * columns + i);
+                    }
+                }
+            }
+        }
+        return sums;
+    }
+    
+    public void clear() {
+        for (int i = 0; i < slots; i++) {
+            seconds.set(i, -1);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,599 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class SemanticIndex {
+    // Approximate nearest-neighbor search over sentence vectors of the
+    // response keys, for messages that reword a trained question rather than
+    // repeat its keywords. Vectors come from SentenceVectorizer and live off
+    // heap in a VectorStore; similarity is their dot product (cosine, as
+    // they are unit length).
+    //
+    // The index is an HNSW graph (Malkov and Yashunin): every key is a node
+    // on level 0 and, with geometrically falling probability, on the levels
+    // above, linked to up to 16 near neighbors per level (32 on level 0). A
+    // search descends greedily from the top level's entry point, then
+    // explores level 0 best-first keeping the ef closest nodes seen, so it
+    // visits a few hundred nodes instead of every key.
+    //
+    // Keys are added one at a time, under the index's lock, and never
+    // removed; callers skip keys that have since left the knowledge base.
+    // Readers never lock: neighbor lists are replaced, never changed in
+    // place, and a node is published before any list points to it.
+    private static final int MAGIC = 0x43425349;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 28;
+    private static final int MAX_LEVEL = 16;
+    private static final int[] NO_LINKS = new int[0];
+    
+    private int dimensions;
+    private int maxLinks;
+    private int efConstruction;
+    private int efSearch;
+    private double levelFactor;
+    private SentenceVectorizer vectorizer;
+    private Tokenizer tokenizer;
+    private VectorStore vectors;
+    private Map<String, Integer> ids = new HashMap<>();
+    private Random random = new Random(42);
+    private Probe inserted;
+    private Probe base;
+    private Probe[] chosenProbes;
+    private volatile Node[] nodes = new Node[16];
+    private volatile int size;
+    private volatile int entryPoint = -1;
+    private boolean dirty;
+    private ThreadLocal<Search> searches;
+    
+    private static class Node {
+        private final String key;
+        private final AtomicReferenceArray<int[]> links;
+        
+        Node(String key, int level) {
+            this.key = key;
+            this.links = new AtomicReferenceArray<>(level + 1);
+            for (int i = 0; i <= level; i++) {
+                links.set(i, NO_LINKS);
+            }
+        }
+        
+        int level() {
+            return links.length() - 1;
+        }
+    }
+    
+    private static class Probe {
+        // A vector with the positions of its nonzero entries, to compute
+        // dot products with stored vectors sparsely
+        private float[] values;
+        private int[] nonzero;
+        private int count;
+        
+        Probe(int dimensions) {
+            values = new float[dimensions];
+            nonzero = new int[dimensions];
+        }
+        
+        void indexNonzero() {
+            count = 0;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != 0) {
+                    nonzero[count++] = i;
+                }
+            }
+        }
+        
+        float dot(Probe other) {
+            float sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += values[nonzero[i]] * other.values[nonzero[i]];
+            }
+            return sum;
+        }
+    }
+    
+    public static class Neighbor {
+        private final String key;
+        private final float similarity;
+        
+        Neighbor(String key, float similarity) {
+            this.key = key;
+            this.similarity = similarity;
+        }
+        
+        public String getKey() {
+            return key;
+        }
+        
+        public float getSimilarity() {
+            return similarity;
+        }
+    }
+    
+    public SemanticIndex(StopWords stopWords, int dimensions, int maxLinks, int efConstruction, int efSearch) {
+        this.dimensions = dimensions;
+        this.maxLinks = maxLinks;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.levelFactor = 1 / Math.log(maxLinks);
+        this.vectorizer = new SentenceVectorizer(dimensions);
+        this.tokenizer = new Tokenizer(stopWords);
+        this.vectors = new VectorStore(dimensions);
+        this.inserted = new Probe(dimensions);
+        this.base = new Probe(dimensions);
+        this.chosenProbes = new Probe[maxLinks * 2];
+        for (int i = 0; i < chosenProbes.length; i++) {
+            chosenProbes[i] = new Probe(dimensions);
+        }
+        this.searches = ThreadLocal.withInitial(Search::new);
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public int getDimensions() {
+        return dimensions;
+    }
+    
+    public long offHeapBytes() {
+        return vectors.offHeapBytes();
+    }
+    
+    public synchronized boolean isDirty() {
+        return dirty;
+    }
+    
+    public synchronized boolean add(String key) {
+        // False when the key is already indexed or has no keywords to embed
+        if (ids.containsKey(key)) {
+            return false;
+        }
+        tokenizer.tokenize(key);
+        if (!vectorizer.vectorize(tokenizer.keywords(), inserted.values)) {
+            return false;
+        }
+        inserted.indexNonzero();
+        int id = size;
+        int level = Math.min(MAX_LEVEL, (int) (-Math.log(1 - random.nextDouble()) * levelFactor));
+        vectors.set(id, inserted.values);
+        Node node = new Node(key, level);
+        Node[] current = nodes;
+        if (id == current.length) {
+            current = Arrays.copyOf(current, id * 2);
+        }
+        current[id] = node;
+        nodes = current;
+        ids.put(key, id);
+        dirty = true;
+        
+        int entry = entryPoint;
+        if (entry < 0) {
+            size = id + 1;
+            entryPoint = id;
+            return true;
+        }
+        
+        // Descend to the new node's top level, then pick its neighbors on
+        // each level from an ef-wide search starting where the last one ended
+        Search search = searches.get();
+        int top = current[entry].level();
+        int closest = entry;
+        for (int l = top; l > level; l--) {
+            closest = search.greedy(inserted, closest, l, current);
+        }
+        int[] entries = {closest};
+        for (int l = Math.min(level, top); l >= 0; l--) {
+            long[] found = search.searchLayer(inserted, entries, efConstruction, l, current);
+            node.links.set(l, selectNeighbors(found, l == 0 ? maxLinks * 2 : maxLinks));
+            entries = new int[found.length];
+            for (int i = 0; i < found.length; i++) {
+                entries[i] = idOf(found[i]);
+            }
+        }
+        
+        // Reachable only now, through the back links
+        size = id + 1;
+        for (int l = Math.min(level, top); l >= 0; l--) {
+            for (int neighbor : node.links.get(l)) {
+                link(neighbor, id, l);
+            }
+        }
+        if (level > top) {
+            entryPoint = id;
+        }
+        return true;
+    }
+    
+    private void link(int from, int to, int level) {
+        Node node = nodes[from];
+        int[] links = node.links.get(level);
+        int limit = level == 0 ? maxLinks * 2 : maxLinks;
+        if (links.length < limit) {
+            int[] grown = Arrays.copyOf(links, links.length + 1);
+            grown[links.length] = to;
+            node.links.set(level, grown);
+            return;
+        }
+        // Full: keep the most useful of the old links and the new one
+        vectors.get(from, base.values);
+        base.indexNonzero();
+        long[] candidates = new long[links.length + 1];
+        for (int i = 0; i < links.length; i++) {
+            candidates[i] = encode(similarity(links[i], base), links[i]);
+        }
+        candidates[links.length] = encode(similarity(to, base), to);
+        Arrays.sort(candidates);
+        if (idOf(candidates[0]) == to) {
+            // Farther than every current link: the new node would be the
+            // first one dropped, so the list stays as it is
+            return;
+        }
+        reverse(candidates);
+        node.links.set(level, selectNeighbors(candidates, limit));
+    }
+    
+    private int[] selectNeighbors(long[] candidates, int limit) {
+        // The HNSW heuristic: take candidates nearest first, skipping one
+        // that is closer to an already chosen neighbor than to the base, so
+        // links spread out in different directions instead of clustering;
+        // then fill up with the skipped ones
+        //
+        // Chosen vectors are copied to the heap once, so the many pairwise
+        // comparisons stay in cache
+        int[] chosen = new int[Math.min(limit, candidates.length)];
+        boolean[] taken = new boolean[candidates.length];
+        int count = 0;
+        for (int i = 0; i < candidates.length && count < chosen.length; i++) {
+            int id = idOf(candidates[i]);
+            float similarity = similarityOf(candidates[i]);
+            Probe probe = chosenProbes[count];
+            vectors.get(id, probe.values);
+            probe.indexNonzero();
+            boolean diverse = true;
+            for (int j = 0; j < count && diverse; j++) {
+                diverse = chosenProbes[j].dot(probe) <= similarity;
+            }
+            if (diverse) {
+                chosen[count++] = id;
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < candidates.length && count < chosen.length; i++) {
+            if (!taken[i]) {
+                chosen[count++] = idOf(candidates[i]);
+            }
+        }
+        return chosen;
+    }
+    
+    private float similarity(int id, Probe probe) {
+        return vectors.dot(id, probe.values, probe.nonzero, probe.count);
+    }
+    
+    public List<Neighbor> search(List<String> keywords, int k) {
+        // Up to k approximate nearest keys, most similar first
+        Search search = searches.get();
+        if (k <= 0 || !vectorizer.vectorize(keywords, search.query.values)) {
+            return Collections.emptyList();
+        }
+        search.query.indexNonzero();
+        int entry = entryPoint;
+        if (entry < 0) {
+            return Collections.emptyList();
+        }
+        Node[] current = nodes;
+        int closest = entry;
+        for (int l = current[entry].level(); l > 0; l--) {
+            closest = search.greedy(search.query, closest, l, current);
+        }
+        long[] found = search.searchLayer(search.query, new int[] {closest}, Math.max(efSearch, k), 0, current);
+        List<Neighbor> neighbors = new ArrayList<>(Math.min(k, found.length));
+        for (int i = 0; i < found.length && i < k; i++) {
+            neighbors.add(new Neighbor(current[idOf(found[i])].key, similarityOf(found[i])));
+        }
+        return neighbors;
+    }
+    
+    public List<Neighbor> searchExact(List<String> keywords, int k) {
+        // The same answer by comparing with every key, for measuring recall
+        Search search = searches.get();
+        if (k <= 0 || !vectorizer.vectorize(keywords, search.query.values)) {
+            return Collections.emptyList();
+        }
+        search.query.indexNonzero();
+        Node[] current = nodes;
+        int count = size;
+        LongHeap best = new LongHeap();
+        for (int id = 0; id < count; id++) {
+            long candidate = encode(similarity(id, search.query), id);
+            if (best.size() < k) {
+                best.push(candidate);
+            } else if (candidate > best.peek()) {
+                best.pop();
+                best.push(candidate);
+            }
+        }
+        long[] found = best.drainDescending();
+        List<Neighbor> neighbors = new ArrayList<>(found.length);
+        for (long candidate : found) {
+            neighbors.add(new Neighbor(current[idOf(candidate)].key, similarityOf(candidate)));
+        }
+        return neighbors;
+    }
+    
+    private class Search {
+        // Per-thread search state: the query vector, the two heaps and a
+        // visited mark per node, reset by bumping the generation
+        private Probe query = new Probe(dimensions);
+        private int[] visited = new int[0];
+        private int generation;
+        private LongHeap candidates = new LongHeap();
+        private LongHeap results = new LongHeap();
+        
+        int greedy(Probe target, int start, int level, Node[] current) {
+            // Move to a closer neighbor until there is none
+            int closest = start;
+            float best = similarity(closest, target);
+            boolean moved = true;
+            while (moved) {
+                moved = false;
+                for (int neighbor : current[closest].links.get(level)) {
+                    if (neighbor >= current.length || current[neighbor] == null) {
+                        continue;
+                    }
+                    float similarity = similarity(neighbor, target);
+                    if (similarity > best) {
+                        best = similarity;
+                        closest = neighbor;
+                        moved = true;
+                    }
+                }
+            }
+            return closest;
+        }
+        
+        long[] searchLayer(Probe target, int[] entries, int ef, int level, Node[] current) {
+            // Best-first search on one level; the ef most similar nodes
+            // found, most similar first
+            if (visited.length < current.length) {
+                visited = new int[current.length];
+                generation = 0;
+            }
+            if (++generation == 0) {
+                Arrays.fill(visited, 0);
+                generation = 1;
+            }
+            candidates.clear();
+            results.clear();
+            for (int entry : entries) {
+                visited[entry] = generation;
+                long encoded = encode(similarity(entry, target), entry);
+                candidates.push(-encoded);
+                results.push(encoded);
+            }
+            while (results.size() > ef) {
+                results.pop();
+            }
+            
+            while (candidates.size() > 0) {
+                long nearest = -candidates.pop();
+                if (results.size() >= ef && nearest < results.peek()) {
+                    break;
+                }
+                Node node = current[idOf(nearest)];
+                if (node.level() < level) {
+                    continue;
+                }
+                for (int neighbor : node.links.get(level)) {
+                    // Nodes added after this search started are not in its snapshot
+                    if (neighbor >= current.length || current[neighbor] == null || visited[neighbor] == generation) {
+                        continue;
+                    }
+                    visited[neighbor] = generation;
+                    long encoded = encode(similarity(neighbor, target), neighbor);
+                    if (results.size() < ef || encoded > results.peek()) {
+                        candidates.push(-encoded);
+                        results.push(encoded);
+                        if (results.size() > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+            return results.drainDescending();
+        }
+    }
+    
+    private static long encode(float similarity, int id) {
+        // Similarity in the high half, made to order like a signed int, so
+        // encoded candidates compare as longs; ties go to the lower id
+        int bits = Float.floatToIntBits(similarity);
+        bits ^= (bits >> 31) & Integer.MAX_VALUE;
+        return ((long) bits << 32) | (Integer.MAX_VALUE - id);
+    }
+    
+    private static int idOf(long encoded) {
+        return Integer.MAX_VALUE - (int) encoded;
+    }
+    
+    private static float similarityOf(long encoded) {
+        int bits = (int) (encoded >> 32);
+        bits ^= (bits >> 31) & Integer.MAX_VALUE;
+        return Float.intBitsToFloat(bits);
+    }
+    
+    private static void reverse(long[] values) {
+        for (int i = 0, j = values.length - 1; i < j; i++, j--) {
+            long swap = values[i];
+            values[i] = values[j];
+            values[j] = swap;
+        }
+    }
+    
+    private static class LongHeap {
+        // A binary min-heap of primitive longs
+        private long[] heap = new long[64];
+        private int count;
+        
+        int size() {
+            return count;
+        }
+        
+        void clear() {
+            count = 0;
+        }
+        
+        long peek() {
+            return heap[0];
+        }
+        
+        void push(long value) {
+            if (count == heap.length) {
+                heap = Arrays.copyOf(heap, count * 2);
+            }
+            int i = count++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= value) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = value;
+        }
+        
+        long pop() {
+            long top = heap[0];
+            long last = heap[--count];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= count) {
+                    break;
+                }
+                if (child + 1 < count && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (heap[child] >= last) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return top;
+        }
+        
+        long[] drainDescending() {
+            long[] values = new long[count];
+            for (int i = values.length - 1; i >= 0; i--) {
+                values[i] = pop();
+            }
+            return values;
+        }
+    }
+    
+    public synchronized void save(Path path) throws IOException {
+        // Header, raw vectors, then keys and links; written next to the
+        // target and moved over it, so a crash leaves the old file whole
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        int count = size;
+        Node[] current = nodes;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(dimensions).putInt(maxLinks).putInt(count)
+                  .putInt(entryPoint).putInt(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            vectors.writeTo(channel, count);
+            
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            for (int id = 0; id < count; id++) {
+                Node node = current[id];
+                byte[] key = node.key.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeByte(node.level());
+                for (int l = 0; l <= node.level(); l++) {
+                    int[] links = node.links.get(l);
+                    out.writeShort(links.length);
+                    for (int link : links) {
+                        out.writeInt(link);
+                    }
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+    
+    public synchronized boolean load(Path path) throws IOException {
+        // Replaces an empty index with a saved one; false if the file does
+        // not fit this index's settings and has to be rebuilt
+        if (size > 0) {
+            throw new IllegalStateException("Only an empty index can be loaded");
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("Semantic index header is truncated");
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(path + " is not a semantic index");
+            }
+            int savedDimensions = header.getInt();
+            int savedLinks = header.getInt();
+            int count = header.getInt();
+            int savedEntry = header.getInt();
+            boolean littleEndian = header.getInt() == 1;
+            if (savedDimensions != dimensions || savedLinks != maxLinks
+                    || littleEndian != (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN)) {
+                return false;
+            }
+            vectors.readFrom(channel, count);
+            
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            Node[] loaded = new Node[Math.max(16, count)];
+            Map<String, Integer> loadedIds = new HashMap<>(count * 2);
+            for (int id = 0; id < count; id++) {
+                byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+                Node node = new Node(new String(key, StandardCharsets.UTF_8), in.readUnsignedByte());
+                for (int l = 0; l <= node.level(); l++) {
+                    int[] links = new int[in.readUnsignedShort()];
+                    for (int i = 0; i < links.length; i++) {
+                        links[i] = in.readInt();
+                        if (links[i] < 0 || links[i] >= count) {
+                            throw new IOException("Semantic index links out of range");
+                        }
+                    }
+                    node.links.set(l, links);
+                }
+                loaded[id] = node;
+                loadedIds.put(node.key, id);
+            }
+            ids = loadedIds;
+            nodes = loaded;
+            size = count;
+            entryPoint = count == 0 ? -1 : savedEntry;
+            dirty = false;
+            return true;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,86 @@
+import java.util.Arrays;
+import java.util.List;
+
+public class SentenceVectorizer {
+    // Turns a sentence's keywords into a fixed-size unit vector without any
+    // model: each keyword and each character trigram of it (with word
+    // boundaries, "<so", "sor", ..., "ng>") is hashed to one dimension with
+    // a hashed sign, and the sum is normalized. Trigrams outnumber words, so
+    // sentences sharing word stems ("sort lists" and "sorting a list") end
+    // up close in cosine similarity, whatever their word order.
+    //
+    // Nothing is kept between calls, so one instance can be shared.
+    private static final int WORD_SEED = 0x9e3779b9;
+    private static final int TRIGRAM_SEED = 0x7f4a7c15;
+    
+    private int dimensions;
+    
+    public SentenceVectorizer(int dimensions) {
+        if (dimensions <= 0) {
+            throw new IllegalArgumentException("dimensions must be positive");
+        }
+        this.dimensions = dimensions;
+    }
+    
+    public int getDimensions() {
+        return dimensions;
+    }
+    
+    public boolean vectorize(List<String> keywords, float[] vector) {
+        // Fills vector and returns true, or false if there are no keywords
+        Arrays.fill(vector, 0, dimensions, 0f);
+        if (keywords.isEmpty()) {
+            return false;
+        }
+        for (String keyword : keywords) {
+            add(vector, hash(WORD_SEED, keyword, 0, keyword.length()));
+            
+            // Trigrams of "<keyword>", hashed without building the string
+            int length = keyword.length() + 2;
+            for (int start = 0; start + 3 <= length; start++) {
+                int h = TRIGRAM_SEED;
+                for (int i = start; i < start + 3; i++) {
+                    h = h * 31 + (i == 0 ? '<' : i == length - 1 ? '>' : keyword.charAt(i - 1));
+                }
+                add(vector, mix(h));
+            }
+        }
+        
+        double norm = 0;
+        for (int i = 0; i < dimensions; i++) {
+            norm += vector[i] * vector[i];
+        }
+        if (norm == 0) {
+            return false;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] *= scale;
+        }
+        return true;
+    }
+    
+    private void add(float[] vector, int hash) {
+        // The low bits pick the dimension, the top bit the sign, so
+        // colliding features cancel out on average instead of piling up
+        vector[(hash & Integer.MAX_VALUE) % dimensions] += hash < 0 ? -1 : 1;
+    }
+    
+    private static int hash(int seed, String text, int from, int to) {
+        int h = seed;
+        for (int i = from; i < to; i++) {
+            h = h * 31 + text.charAt(i);
+        }
+        return mix(h);
+    }
+    
+    private static int mix(int h) {
+        // MurmurHash3's finalizer, so nearby inputs spread over all bits
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,443 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+public class SessionLog implements Closeable {
+    // Append-only log of the messages of named sessions, so a conversation
+    // can pick up where it left off after a restart. Callers only enqueue; a
+    // background writer appends whatever has queued up in one write.
+    //
+    // The log is split into numbered segment files. Once a segment reaches
+    // its size limit it is sealed and a new one started; once too many are
+    // sealed, they are compacted into one holding only what a session could
+    // still restore: its last messages since its last reset.
+    //
+    // Record layout as in TrainingJournal: payload length, CRC32 of the
+    // payload, then the payload (type, session id length, session id bytes,
+    // message length, message bytes). A torn tail is cut off on open. A
+    // compacted segment starts with a record naming the first segment it
+    // replaces, so segments a crash left behind can be recognized.
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final byte MESSAGE = 1;
+    private static final byte RESET = 2;
+    private static final byte COMPACTED = 3;
+    private static final String SEGMENT_PREFIX = "history-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    
+    private Path directory;
+    private int messagesPerSession;
+    private long segmentBytes;
+    private int maxSealedSegments;
+    private BlockingQueue<PendingRecord> queue;
+    private Thread writer;
+    private volatile boolean closed;
+    private Map<String, ArrayDeque<String>> recovered;
+    
+    // Only touched by the writer thread after construction
+    private List<Long> sealedSegments;
+    private long activeSegment;
+    private FileChannel channel;
+    
+    public SessionLog(Path directory, int messagesPerSession, long segmentBytes, int maxSealedSegments) throws IOException {
+        this.directory = directory;
+        this.messagesPerSession = Math.max(1, messagesPerSession);
+        this.segmentBytes = Math.max(4096, segmentBytes);
+        this.maxSealedSegments = Math.max(1, maxSealedSegments);
+        this.queue = new LinkedBlockingQueue<>();
+        this.recovered = new HashMap<>();
+        this.sealedSegments = new ArrayList<>();
+        
+        Files.createDirectories(directory);
+        recover();
+        
+        writer = new Thread(this::runWriter, "session-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    public synchronized List<String> getRecoveredMessages(String sessionId) {
+        // The session's messages found on disk when the log was opened, oldest first
+        ArrayDeque<String> messages = recovered.get(sessionId);
+        return messages == null ? Collections.<String>emptyList() : new ArrayList<>(messages);
+    }
+    
+    public void append(String sessionId, String message) {
+        enqueue(new PendingRecord(MESSAGE, sessionId, message));
+    }
+    
+    public void appendReset(String sessionId) {
+        // Messages before a reset are not restored
+        enqueue(new PendingRecord(RESET, sessionId, ""));
+    }
+    
+    public void flush() throws IOException {
+        // Waits until everything queued so far is written and forced to disk
+        PendingRecord marker = PendingRecord.syncMarker();
+        if (!enqueue(marker)) {
+            return;
+        }
+        try {
+            marker.written.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing session log");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not flush session log", e.getCause());
+        }
+    }
+    
+    public int getSegmentCount() {
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            int count = 0;
+            for (Path ignored : segments) {
+                count++;
+            }
+            return count;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        flush();
+        synchronized (this) {
+            // The marker wakes a writer blocked in take(); interrupting it
+            // instead would close the channel under a half-written batch
+            closed = true;
+            queue.add(PendingRecord.syncMarker());
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+    
+    private synchronized boolean enqueue(PendingRecord record) {
+        // History is best effort: records arriving after close() are dropped.
+        // Checked under the lock close() sets the flag with, so nothing lands
+        // in the queue after the writer's last drain
+        if (closed) {
+            return false;
+        }
+        queue.add(record);
+        return true;
+    }
+    
+    private void recover() throws IOException {
+        List<Long> segments = listSegments();
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            long firstReplaced = compactedFrom(segments.get(i));
+            for (int j = i - 1; firstReplaced > 0 && j >= 0 && segments.get(j) >= firstReplaced; j--) {
+                Files.deleteIfExists(segmentPath(segments.remove(j)));
+                i--;
+            }
+        }
+        
+        for (int i = 0; i < segments.size(); i++) {
+            boolean last = i == segments.size() - 1;
+            Path path = segmentPath(segments.get(i));
+            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long valid = replay(in, recovered);
+                if (valid < in.size()) {
+                    System.err.println("Session log: dropped " + (in.size() - valid) +
+                                       " bytes of incomplete data at the end of " + path);
+                    if (last) {
+                        in.truncate(valid);
+                        in.force(true);
+                    }
+                }
+            }
+            if (!last) {
+                sealedSegments.add(segments.get(i));
+            }
+        }
+        
+        // Append to the newest segment, or start the first one
+        activeSegment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1);
+        channel = FileChannel.open(segmentPath(activeSegment), StandardOpenOption.CREATE,
+                                   StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+    }
+    
+    private long replay(FileChannel in, Map<String, ArrayDeque<String>> sessions) throws IOException {
+        // Applies valid records in order and returns where they end
+        long size = in.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            readFully(in, header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length < 9 || position + RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+            
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(in, payload, position + RECORD_HEADER_SIZE);
+            if (checksum(payload.array(), 0, length) != checksum) {
+                break;
+            }
+            payload.flip();
+            if (!apply(payload, sessions)) {
+                break;
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return position;
+    }
+    
+    private boolean apply(ByteBuffer payload, Map<String, ArrayDeque<String>> sessions) {
+        byte type = payload.get();
+        String sessionId = readString(payload);
+        String message = readString(payload);
+        if (sessionId == null || message == null || payload.hasRemaining()) {
+            return false;
+        }
+        if (type == COMPACTED) {
+            return true;
+        } else if (type == RESET) {
+            sessions.remove(sessionId);
+        } else if (type == MESSAGE) {
+            ArrayDeque<String> messages = sessions.computeIfAbsent(sessionId, id -> new ArrayDeque<>());
+            if (messages.size() == messagesPerSession) {
+                messages.removeFirst();
+            }
+            messages.addLast(message);
+        } else {
+            return false;
+        }
+        return true;
+    }
+    
+    private void runWriter() {
+        List<PendingRecord> batch = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                PendingRecord first = queue.take();
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                writeBatch(batch);
+                if (channel.position() >= segmentBytes) {
+                    roll();
+                }
+                if (sealedSegments.size() > maxSealedSegments) {
+                    compact();
+                }
+            } catch (InterruptedException e) {
+                if (closed) {
+                    break;
+                }
+            } catch (IOException e) {
+                System.err.println("Session log: " + e.getMessage());
+                for (PendingRecord record : batch) {
+                    record.written.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+    }
+    
+    private void writeBatch(List<PendingRecord> batch) throws IOException {
+        List<ByteBuffer> records = new ArrayList<>();
+        boolean syncRequested = false;
+        for (PendingRecord record : batch) {
+            if (record.sessionId == null) {
+                syncRequested = true;
+            } else {
+                records.add(encodeRecord(record.type, record.sessionId, record.message));
+            }
+        }
+        writeFully(channel, records.toArray(new ByteBuffer[0]));
+        if (syncRequested) {
+            channel.force(false);
+        }
+        for (PendingRecord record : batch) {
+            record.written.complete(null);
+        }
+    }
+    
+    private void roll() throws IOException {
+        channel.force(false);
+        channel.close();
+        sealedSegments.add(activeSegment);
+        activeSegment++;
+        channel = FileChannel.open(segmentPath(activeSegment), StandardOpenOption.CREATE,
+                                   StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+    
+    private void compact() throws IOException {
+        // Rewrites the sealed segments as one, under the newest sealed
+        // segment's number so it still sorts before the active one
+        Map<String, ArrayDeque<String>> sessions = new LinkedHashMap<>();
+        for (long segment : sealedSegments) {
+            try (FileChannel in = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+                replay(in, sessions);
+            }
+        }
+        
+        long firstReplaced = sealedSegments.get(0);
+        long target = sealedSegments.get(sealedSegments.size() - 1);
+        Path compacted = segmentPath(target).resolveSibling(segmentPath(target).getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<ByteBuffer> records = new ArrayList<>();
+            records.add(encodeRecord(COMPACTED, "", Long.toString(firstReplaced)));
+            for (Map.Entry<String, ArrayDeque<String>> session : sessions.entrySet()) {
+                for (String message : session.getValue()) {
+                    records.add(encodeRecord(MESSAGE, session.getKey(), message));
+                }
+                if (records.size() >= MAX_BATCH_SIZE) {
+                    writeFully(out, records.toArray(new ByteBuffer[0]));
+                    records.clear();
+                }
+            }
+            writeFully(out, records.toArray(new ByteBuffer[0]));
+            out.force(true);
+        }
+        
+        Files.move(compacted, segmentPath(target), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (long segment : sealedSegments) {
+            if (segment != target) {
+                Files.deleteIfExists(segmentPath(segment));
+            }
+        }
+        sealedSegments.clear();
+        sealedSegments.add(target);
+    }
+    
+    private long compactedFrom(long segment) throws IOException {
+        // The first segment a compacted segment replaces, or 0 for an ordinary one
+        try (FileChannel in = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            if (in.size() < RECORD_HEADER_SIZE) {
+                return 0;
+            }
+            readFully(in, header, 0);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length < 9 || RECORD_HEADER_SIZE + length > in.size()) {
+                return 0;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(in, payload, RECORD_HEADER_SIZE);
+            if (checksum(payload.array(), 0, length) != checksum || payload.get(0) != COMPACTED) {
+                return 0;
+            }
+            payload.position(1);
+            readString(payload);
+            String firstReplaced = readString(payload);
+            try {
+                return firstReplaced == null ? 0 : Long.parseLong(firstReplaced);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+    
+    private List<Long> listSegments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+    
+    private Path segmentPath(long segment) {
+        return directory.resolve(SEGMENT_PREFIX + String.format("%08d", segment) + SEGMENT_SUFFIX);
+    }
+    
+    private static void writeFully(FileChannel out, ByteBuffer[] buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= out.write(buffers);
+        }
+    }
+    
+    private static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of session log");
+            }
+        }
+    }
+    
+    private static ByteBuffer encodeRecord(byte type, String sessionId, String message) {
+        byte[] idBytes = sessionId.getBytes(StandardCharsets.UTF_8);
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        int length = 9 + idBytes.length + messageBytes.length;
+        
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+        record.putInt(length);
+        record.putInt(0);
+        record.put(type);
+        record.putInt(idBytes.length).put(idBytes);
+        record.putInt(messageBytes.length).put(messageBytes);
+        record.putInt(4, checksum(record.array(), RECORD_HEADER_SIZE, length));
+        record.flip();
+        return record;
+    }
+    
+    private static String readString(ByteBuffer payload) {
+        if (payload.remaining() < 4) {
+            return null;
+        }
+        int length = payload.getInt();
+        if (length < 0 || length > payload.remaining()) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+    
+    private static class PendingRecord {
+        // A null session id marks a flush request rather than a record
+        final byte type;
+        final String sessionId;
+        final String message;
+        final CompletableFuture<Void> written = new CompletableFuture<>();
+        
+        PendingRecord(byte type, String sessionId, String message) {
+            this.type = type;
+            this.sessionId = sessionId;
+            this.message = message;
+        }
+        
+        static PendingRecord syncMarker() {
+            return new PendingRecord((byte) 0, null, null);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,446 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class ShardClient implements Closeable {
+    // Router side of a sharded knowledge base. Keys are partitioned by hash
+    // across ShardServer processes; lookups of one key go to its owner, and
+    // matching is scatter-gather: the request goes out to every shard before
+    // any reply is read, so the shards search in parallel and a lookup
+    // costs about one round trip plus the slowest shard.
+    //
+    // Each shard holds only part of the keys, so its own BM25 statistics
+    // would make its scores incomparable with the others'. With several
+    // shards a match therefore takes two rounds: the first sums every
+    // shard's key count and the document frequencies of the keywords, and
+    // the second sends those with the message, so that every shard ranks
+    // with the idf of the whole collection.
+    //
+    // Each calling thread has its own connection to each shard, so requests
+    // never queue behind another thread's. A shard that fails is left out
+    // until a retry interval has passed, and answers are merged from the
+    // shards that replied, as with partial search results elsewhere.
+    //
+    // Wire format: one request byte and its arguments, then one reply; ints
+    // big-endian, strings as a length and UTF-8 bytes (see ShardServer).
+    static final byte GET = 'G';
+    static final byte MATCH = 'M';
+    static final byte TRAIN = 'T';
+    static final byte VOCABULARY = 'V';
+    static final byte SIZE = 'S';
+    static final byte FREQUENCIES = 'F';
+    static final byte REVISION = 'R';
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+    
+    // Match stages in the order a single knowledge base tries them
+    static final int NO_MATCH = 0;
+    static final int RANKED = 1;
+    static final int RELATED = 2;
+    static final int CONTAINED = 3;
+    static final int CONTAINING = 4;
+    
+    private InetSocketAddress[] shards;
+    private int timeoutMillis;
+    private long retryMillis;
+    private AtomicLongArray downUntil;
+    private ThreadLocal<Connection[]> connections;
+    private Set<Connection> openConnections = ConcurrentHashMap.newKeySet();
+    private Thread watcher;
+    private volatile boolean closed;
+    
+    public static class Candidate {
+        // A shard's best match: its stage, and within the stage a rank
+        // (BM25 score, keyword position or key length) to merge on
+        private final int stage;
+        private final String key;
+        private final String response;
+        private final double rank;
+        
+        Candidate(int stage, String key, String response, double rank) {
+            this.stage = stage;
+            this.key = key;
+            this.response = response;
+            this.rank = rank;
+        }
+        
+        public int getStage() {
+            return stage;
+        }
+        
+        public String getKey() {
+            return key;
+        }
+        
+        public String getResponse() {
+            return response;
+        }
+        
+        boolean betterThan(Candidate other) {
+            // Earlier stages win; then a higher score, an earlier keyword or
+            // a longer key; then the lower key, so the merge is deterministic
+            if (other == null || stage != other.stage) {
+                return other == null || stage < other.stage;
+            }
+            if (rank != other.rank) {
+                return stage == RELATED ? rank < other.rank : rank > other.rank;
+            }
+            return key.compareTo(other.key) < 0;
+        }
+    }
+    
+    private class Connection {
+        private Socket socket;
+        private DataInputStream in;
+        private DataOutputStream out;
+        
+        Connection(InetSocketAddress address) throws IOException {
+            socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(timeoutMillis);
+                socket.connect(address, timeoutMillis);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+        
+        void close() {
+            openConnections.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already broken
+            }
+        }
+    }
+    
+    public ShardClient(List<InetSocketAddress> shards, int timeoutMillis, long retryMillis) {
+        this.shards = shards.toArray(new InetSocketAddress[0]);
+        this.timeoutMillis = timeoutMillis;
+        this.retryMillis = retryMillis;
+        this.downUntil = new AtomicLongArray(this.shards.length);
+        this.connections = ThreadLocal.withInitial(() -> new Connection[this.shards.length]);
+    }
+    
+    public static List<InetSocketAddress> parseAddresses(String list) {
+        // "host:port,host:port,..."; the order defines which shard owns which keys
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String part : list.split(",")) {
+            String address = part.trim();
+            int colon = address.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Expected host:port, got '" + address + "'");
+            }
+            addresses.add(new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))));
+        }
+        return addresses;
+    }
+    
+    public static int shardOf(String key, int shardCount) {
+        // String.hashCode is fixed by the language spec, so every process agrees
+        return (key.hashCode() & Integer.MAX_VALUE) % shardCount;
+    }
+    
+    public int getShardCount() {
+        return shards.length;
+    }
+    
+    public String get(String key) throws IOException {
+        // The response stored under exactly this key, from its owner
+        int shard = shardOf(key, shards.length);
+        Connection connection = send(shard, out -> {
+            out.writeByte(GET);
+            writeString(out, key);
+        });
+        try {
+            checkStatus(connection.in);
+            return connection.in.readBoolean() ? readString(connection.in) : null;
+        } catch (IOException e) {
+            throw failed(shard, e);
+        }
+    }
+    
+    public Candidate match(String input, List<String> keywords) {
+        // Scatter to every shard, then gather; shards that fail are skipped
+        int[] frequencies = new int[keywords.size()];
+        boolean[] answered = new boolean[shards.length];
+        Arrays.fill(answered, true);
+        int keyCount = shards.length > 1 && !keywords.isEmpty() ? collectionFrequencies(keywords, frequencies, answered) : 0;
+        // The second round goes only to the shards the statistics came from:
+        // a shard left out of them would rank with an idf that omits its own
+        // keys, and its scores would not compare with the others'
+        Candidate best = null;
+        for (Candidate candidate : scatter(answered, out -> {
+            out.writeByte(MATCH);
+            writeString(out, input);
+            out.writeInt(keywords.size());
+            for (String keyword : keywords) {
+                writeString(out, keyword);
+            }
+            out.writeInt(keyCount);
+            if (keyCount > 0) {
+                for (int frequency : frequencies) {
+                    out.writeInt(frequency);
+                }
+            }
+        }, in -> {
+            int stage = in.readByte();
+            return stage == NO_MATCH ? null : new Candidate(stage, readString(in), readString(in), in.readDouble());
+        })) {
+            if (candidate.betterThan(best)) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+    
+    private int collectionFrequencies(List<String> keywords, int[] frequencies, boolean[] answered) {
+        // The first round: fills in how many keys across the shards contain
+        // each keyword, and returns how many ranked keys they hold together
+        int keyCount = 0;
+        for (int[] counts : scatter(answered, out -> {
+            out.writeByte(FREQUENCIES);
+            out.writeInt(keywords.size());
+            for (String keyword : keywords) {
+                writeString(out, keyword);
+            }
+        }, in -> {
+            int[] counts = new int[keywords.size() + 1];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = in.readInt();
+            }
+            return counts;
+        })) {
+            keyCount += counts[0];
+            for (int i = 0; i < frequencies.length; i++) {
+                frequencies[i] += counts[i + 1];
+            }
+        }
+        return keyCount;
+    }
+    
+    public long[] revisions() {
+        // Each shard's revision, which its every train and reload changes;
+        // -1 for a shard that did not answer
+        long[] revisions = new long[shards.length];
+        Arrays.fill(revisions, -1);
+        for (int shard = 0; shard < shards.length; shard++) {
+            Connection connection;
+            try {
+                connection = send(shard, out -> out.writeByte(REVISION));
+            } catch (IOException e) {
+                continue;
+            }
+            try {
+                checkStatus(connection.in);
+                revisions[shard] = connection.in.readLong();
+            } catch (IOException e) {
+                failed(shard, e);
+            }
+        }
+        return revisions;
+    }
+    
+    public synchronized void watch(long periodMillis, Runnable onChange) {
+        // Polls the shards' revisions and runs onChange whenever one has
+        // moved since the last poll, whether another router trained the
+        // shard, it reloaded its files or it restarted. A shard that stops
+        // or starts answering counts as a change too.
+        if (watcher != null) {
+            throw new IllegalStateException("Already watching the shards");
+        }
+        watcher = new Thread(() -> {
+            long[] seen = revisions();
+            while (!closed) {
+                try {
+                    Thread.sleep(periodMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long[] current = revisions();
+                if (!Arrays.equals(current, seen)) {
+                    seen = current;
+                    onChange.run();
+                }
+            }
+        }, "shard-revision-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+    
+    public void train(String key, String response) throws IOException {
+        // Written by the owning shard, which journals it like any trained pair
+        int shard = shardOf(key, shards.length);
+        Connection connection = send(shard, out -> {
+            out.writeByte(TRAIN);
+            writeString(out, key);
+            writeString(out, response);
+        });
+        try {
+            checkStatus(connection.in);
+        } catch (IOException e) {
+            throw failed(shard, e);
+        }
+    }
+    
+    public Map<String, Integer> vocabulary() throws IOException {
+        // Every shard's spelling vocabulary, with key counts summed
+        Map<String, Integer> merged = new HashMap<>();
+        for (int shard = 0; shard < shards.length; shard++) {
+            Connection connection = send(shard, out -> out.writeByte(VOCABULARY));
+            try {
+                checkStatus(connection.in);
+                int count = connection.in.readInt();
+                for (int i = 0; i < count; i++) {
+                    merged.merge(readString(connection.in), connection.in.readInt(), Integer::sum);
+                }
+            } catch (IOException e) {
+                throw failed(shard, e);
+            }
+        }
+        return merged;
+    }
+    
+    public int size() throws IOException {
+        // Entries across all shards; built-in answers are counted once per shard
+        int total = 0;
+        for (int shard = 0; shard < shards.length; shard++) {
+            Connection connection = send(shard, out -> out.writeByte(SIZE));
+            try {
+                checkStatus(connection.in);
+                total += connection.in.readInt();
+            } catch (IOException e) {
+                throw failed(shard, e);
+            }
+        }
+        return total;
+    }
+    
+    @Override
+    public void close() {
+        closed = true;
+        Thread watching;
+        synchronized (this) {
+            watching = watcher;
+        }
+        if (watching != null) {
+            watching.interrupt();
+        }
+        for (Connection connection : openConnections) {
+            connection.close();
+        }
+    }
+    
+    private interface Request {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+    
+    private interface Reply<T> {
+        // Reads what follows the OK; null leaves the shard out of the result
+        T readFrom(DataInputStream in) throws IOException;
+    }
+    
+    private <T> List<T> scatter(boolean[] answered, Request request, Reply<T> reply) {
+        // Sends the request to every shard marked in answered before reading
+        // any reply; shards that fail are reported, left out and unmarked
+        Connection[] pending = new Connection[shards.length];
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (!answered[shard]) {
+                continue;
+            }
+            answered[shard] = false;
+            try {
+                pending[shard] = send(shard, request);
+            } catch (IOException e) {
+                // Reported by send(); answer from the others
+            }
+        }
+        
+        List<T> replies = new ArrayList<>(shards.length);
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (pending[shard] == null) {
+                continue;
+            }
+            try {
+                checkStatus(pending[shard].in);
+                T value = reply.readFrom(pending[shard].in);
+                answered[shard] = true;
+                if (value != null) {
+                    replies.add(value);
+                }
+            } catch (IOException e) {
+                failed(shard, e);
+            }
+        }
+        return replies;
+    }
+    
+    private Connection send(int shard, Request request) throws IOException {
+        if (closed) {
+            throw new IOException("Shard client is closed");
+        }
+        Connection[] mine = connections.get();
+        Connection connection = mine[shard];
+        try {
+            if (connection == null) {
+                if (System.currentTimeMillis() < downUntil.get(shard)) {
+                    throw new IOException("Shard " + shards[shard] + " is unavailable");
+                }
+                connection = new Connection(shards[shard]);
+                openConnections.add(connection);
+                mine[shard] = connection;
+            }
+            request.writeTo(connection.out);
+            connection.out.flush();
+            return connection;
+        } catch (IOException e) {
+            throw failed(shard, e);
+        }
+    }
+    
+    private IOException failed(int shard, IOException e) {
+        // Drop the connection, since a reply may be half read, and hold off
+        // reconnecting; only the first failure of an outage is reported
+        Connection[] mine = connections.get();
+        if (mine[shard] != null) {
+            mine[shard].close();
+            mine[shard] = null;
+        }
+        long now = System.currentTimeMillis();
+        long until = downUntil.get(shard);
+        if (until < now && downUntil.compareAndSet(shard, until, now + retryMillis) && until < now - retryMillis) {
+            System.err.println("Shard " + shards[shard] + " failed: " + e.getMessage());
+        }
+        return e;
+    }
+    
+    private static void checkStatus(DataInputStream in) throws IOException {
+        if (in.readByte() != OK) {
+            throw new IOException("Shard error: " + readString(in));
+        }
+    }
+    
+    static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > 64 << 20) {
+            throw new IOException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
\ No newline at end of file
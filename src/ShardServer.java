@@ -0,0 +1,310 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ShardServer implements Closeable {
+    // One shard of a sharded knowledge base: an ordinary Chatbot over its own
+    // data directory, holding the keys that hash to it, answering a router's
+    // ShardClient over TCP. Loading, the training journal and hot reload all
+    // work as they do for a single bot.
+    //
+    //   java -cp out ShardServer split <corpus> <shards> <directory>
+    //   java -cp out ShardServer <data directory> <port>
+    //
+    // The first partitions a corpus into <directory>/shard-N/training_data.kb,
+    // one per shard; the second serves one of them. Routers connect one
+    // socket per thread, so a thread per connection is enough here.
+    //
+    // Requests (see ShardClient for the encoding):
+    //   G key                  -> found flag, response
+    //   F keywords             -> ranked key count, then the document frequency of each keyword
+    //   M input, keywords, N, frequencies
+    //                          -> stage, key, response, rank of this shard's best match; BM25
+    //                             idf from the collection's N keys and keyword frequencies, or
+    //                             from this shard's own when N is 0
+    //   T key, response        -> acknowledged once trained
+    //   V                      -> spelling vocabulary: count, then (word, key count) pairs
+    //   S                      -> entry count
+    //   R                      -> revision, changed by every train and reload
+    // Every reply starts with OK, or ERROR and a message.
+    private Chatbot chatbot;
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+    private Set<Socket> clients = Collections.synchronizedSet(new HashSet<>());
+    private AtomicInteger connectionCount = new AtomicInteger();
+    private volatile boolean running;
+    
+    // Starts from the clock, so a restarted shard does not repeat a
+    // revision a router saw before
+    private AtomicLong revision = new AtomicLong(System.currentTimeMillis());
+    private KnowledgeBase revisedKnowledgeBase;
+    
+    public ShardServer(Chatbot chatbot, InetSocketAddress address) throws IOException {
+        this.chatbot = chatbot;
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(address, 128);
+    }
+    
+    public void start() {
+        running = true;
+        acceptThread = new Thread(this::acceptLoop, "shard-server-acceptor");
+        acceptThread.start();
+    }
+    
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+    
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                clients.add(socket);
+                Thread thread = new Thread(() -> serve(socket), "shard-connection-" + connectionCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Shard server: " + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    private void serve(Socket socket) {
+        try (Socket client = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream()));
+            while (running) {
+                int request = in.read();
+                if (request < 0) {
+                    break;
+                }
+                try {
+                    handle((byte) request, in, out);
+                } catch (RuntimeException e) {
+                    // The request was read in full before anything failed
+                    out.writeByte(ShardClient.ERROR);
+                    ShardClient.writeString(out, String.valueOf(e));
+                }
+                out.flush();
+            }
+        } catch (SocketException | EOFException e) {
+            // The router went away
+        } catch (IOException e) {
+            System.err.println("Shard connection: " + e.getMessage());
+        } finally {
+            clients.remove(socket);
+        }
+    }
+    
+    private void handle(byte request, DataInputStream in, DataOutputStream out) throws IOException {
+        KnowledgeBase knowledgeBase = chatbot.getKnowledgeBase();
+        switch (request) {
+            case ShardClient.GET: {
+                String response = knowledgeBase.get(ShardClient.readString(in));
+                out.writeByte(ShardClient.OK);
+                out.writeBoolean(response != null);
+                if (response != null) {
+                    ShardClient.writeString(out, response);
+                }
+                break;
+            }
+            case ShardClient.FREQUENCIES: {
+                List<String> keywords = readKeywords(in);
+                out.writeByte(ShardClient.OK);
+                out.writeInt(knowledgeBase.rankedKeyCount());
+                for (String keyword : keywords) {
+                    out.writeInt(knowledgeBase.documentFrequency(keyword));
+                }
+                break;
+            }
+            case ShardClient.MATCH: {
+                String input = ShardClient.readString(in);
+                List<String> keywords = readKeywords(in);
+                int collectionKeyCount = in.readInt();
+                Map<String, Integer> frequencies = null;
+                if (collectionKeyCount > 0) {
+                    frequencies = new HashMap<>();
+                    for (String keyword : keywords) {
+                        frequencies.put(keyword, in.readInt());
+                    }
+                }
+                writeBestMatch(knowledgeBase, input, keywords, collectionKeyCount, frequencies, out);
+                break;
+            }
+            case ShardClient.TRAIN: {
+                String key = ShardClient.readString(in);
+                String response = ShardClient.readString(in);
+                chatbot.trainBot(key, response);
+                revision.incrementAndGet();
+                out.writeByte(ShardClient.OK);
+                break;
+            }
+            case ShardClient.REVISION:
+                out.writeByte(ShardClient.OK);
+                out.writeLong(revision());
+                break;
+            case ShardClient.VOCABULARY: {
+                Map<String, Integer> vocabulary = knowledgeBase.getVocabulary();
+                out.writeByte(ShardClient.OK);
+                out.writeInt(vocabulary.size());
+                for (Map.Entry<String, Integer> entry : vocabulary.entrySet()) {
+                    ShardClient.writeString(out, entry.getKey());
+                    out.writeInt(entry.getValue());
+                }
+                break;
+            }
+            case ShardClient.SIZE:
+                out.writeByte(ShardClient.OK);
+                out.writeInt(knowledgeBase.size());
+                break;
+            default:
+                throw new IOException("Unknown shard request " + request);
+        }
+    }
+    
+    private synchronized long revision() {
+        // A reload swaps in a new knowledge base, which counts as a change;
+        // synchronized so that two connections seeing the swap bump it once
+        KnowledgeBase current = chatbot.getKnowledgeBase();
+        if (current != revisedKnowledgeBase) {
+            revisedKnowledgeBase = current;
+            revision.incrementAndGet();
+        }
+        return revision.get();
+    }
+    
+    private static List<String> readKeywords(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> keywords = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keywords.add(ShardClient.readString(in));
+        }
+        return keywords;
+    }
+    
+    private static void writeBestMatch(KnowledgeBase knowledgeBase, String input, List<String> keywords,
+                                       int collectionKeyCount, Map<String, Integer> frequencies,
+                                       DataOutputStream out) throws IOException {
+        // The same cascade as Chatbot.findMatchingKey, stopping at the first
+        // stage with a match; the router keeps the earliest stage any shard
+        // reached. Keywords arrive already spelling-corrected.
+        int stage = ShardClient.NO_MATCH;
+        String key = null;
+        double rank = 0;
+        RankedIndex.Match ranked = frequencies == null
+            ? knowledgeBase.findBestRankedMatch(keywords)
+            : knowledgeBase.findBestRankedMatch(keywords, collectionKeyCount, frequencies);
+        if (ranked != null) {
+            stage = ShardClient.RANKED;
+            key = ranked.getKey();
+            rank = ranked.getScore();
+        }
+        for (int i = 0; key == null && i < keywords.size(); i++) {
+            key = knowledgeBase.findKeyRelatedTo(keywords.get(i));
+            stage = ShardClient.RELATED;
+            rank = i;
+        }
+        if (key == null) {
+            key = knowledgeBase.findLongestKeyContainedIn(input);
+            stage = ShardClient.CONTAINED;
+            rank = key == null ? 0 : key.length();
+        }
+        if (key == null) {
+            key = knowledgeBase.findKeyContainingPhrase(input);
+            stage = ShardClient.CONTAINING;
+        }
+        String response = key == null ? null : knowledgeBase.get(key);
+        
+        out.writeByte(ShardClient.OK);
+        if (response == null) {
+            out.writeByte(ShardClient.NO_MATCH);
+        } else {
+            out.writeByte(stage);
+            ShardClient.writeString(out, key);
+            ShardClient.writeString(out, response);
+            out.writeDouble(rank);
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        synchronized (clients) {
+            for (Socket client : clients) {
+                client.close();
+            }
+        }
+        if (acceptThread != null) {
+            try {
+                acceptThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    public static Map<Integer, Integer> split(Path corpus, int shardCount, Path directory) throws IOException {
+        // Partitions a corpus in any TrainingImporter format into one
+        // snapshot per shard, keyed the way the router routes
+        int threads = Integer.getInteger("chatbot.import.threads", Runtime.getRuntime().availableProcessors());
+        TrainingImporter.Result result = new TrainingImporter(threads).read(corpus);
+        List<Map<String, String>> partitions = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            partitions.add(new LinkedHashMap<>());
+        }
+        for (Map.Entry<String, String> entry : result.getEntries().entrySet()) {
+            partitions.get(ShardClient.shardOf(entry.getKey(), shardCount)).put(entry.getKey(), entry.getValue());
+        }
+        Map<Integer, Integer> sizes = new LinkedHashMap<>();
+        for (int i = 0; i < shardCount; i++) {
+            Path shardDirectory = directory.resolve("shard-" + i);
+            Files.createDirectories(shardDirectory);
+            KnowledgeBaseFile.write(shardDirectory.resolve("training_data.kb"), partitions.get(i));
+            sizes.put(i, partitions.get(i).size());
+        }
+        return sizes;
+    }
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length == 4 && args[0].equals("split")) {
+            Map<Integer, Integer> sizes = split(Paths.get(args[1]), Integer.parseInt(args[2]), Paths.get(args[3]));
+            for (Map.Entry<Integer, Integer> size : sizes.entrySet()) {
+                System.out.println("shard-" + size.getKey() + ": " + size.getValue() + " entries");
+            }
+            return;
+        }
+        if (args.length != 2) {
+            System.err.println("Usage: java ShardServer split <corpus> <shards> <directory>");
+            System.err.println("       java ShardServer <data directory> <port>");
+            System.exit(2);
+        }
+        
+        Chatbot chatbot = new Chatbot(Paths.get(args[0]));
+        // Only the router needs to reach a shard, so loopback unless told otherwise
+        String host = System.getProperty("chatbot.shard.bind", "127.0.0.1");
+        ShardServer server = new ShardServer(chatbot, new InetSocketAddress(host, Integer.parseInt(args[1])));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // Exiting anyway
+            }
+            chatbot.close();
+        }, "shard-server-shutdown"));
+        chatbot.awaitLoaded();
+        server.start();
+        System.out.println("Shard " + args[0] + " serving " + chatbot.getKnowledgeBase().size() +
+                           " entries on port " + server.getPort());
+    }
+}
\ No newline at end of file
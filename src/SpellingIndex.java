@@ -0,0 +1,353 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+public class SpellingIndex {
+    // Spelling correction over the vocabulary of the response keys, after
+    // SymSpell: every word is indexed under each string obtained by deleting
+    // up to two characters from its first seven, and a misspelled word is
+    // looked up under its own deletes. Two words within edit distance two of
+    // each other share at least one such delete, so only the few words
+    // filed under the same deletes are compared in full. Lookup cost depends
+    // on the length of the word, not on the size of the vocabulary.
+    //
+    // Deletes are keyed by their hash; a collision only adds a candidate,
+    // which the full comparison then rejects. Like the other indexes,
+    // writers are serialized and readers never lock.
+    private static final int MAX_DISTANCE = 2;
+    private static final int PREFIX_LENGTH = 7;
+    private static final int MIN_WORD_LENGTH = 3;
+    private static final int MIN_CORRECTED_LENGTH = 4;
+    
+    private Map<String, Integer> wordIds;
+    private volatile String[] words;
+    private volatile int[] keyCounts;
+    private int wordCount;
+    private Map<Integer, int[]> deletes;
+    private StopWords stopWords;
+    private Tokenizer tokenizer;
+    private ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+    
+    public SpellingIndex(StopWords stopWords) {
+        wordIds = new ConcurrentHashMap<>();
+        words = new String[16];
+        keyCounts = new int[16];
+        deletes = new ConcurrentHashMap<>();
+        this.stopWords = stopWords;
+        tokenizer = new Tokenizer(stopWords);
+    }
+    
+    public synchronized void add(String key) {
+        addKey(key);
+    }
+    
+    public synchronized void addAll(Iterable<String> keys) {
+        for (String key : keys) {
+            addKey(key);
+        }
+    }
+    
+    public synchronized void addAll(List<String> keys, ForkJoinPool pool) {
+        // Bulk loads in parallel: chunks of keys count their words, the
+        // counts are merged in first-use order so new words get the ids a
+        // sequential pass would give them, and the deletes of the new words
+        // are generated per chunk and filed one delete per task
+        Map<String, Integer> counts = ChunkedBuild.mapReduce(pool, keys.size(), 2048, (from, to) -> {
+            Map<String, Integer> chunkCounts = new LinkedHashMap<>();
+            Tokenizer chunkTokenizer = new Tokenizer(stopWords);
+            for (int i = from; i < to; i++) {
+                chunkTokenizer.tokenize(keys.get(i));
+                for (int j = 0; j < chunkTokenizer.keywordCount(); j++) {
+                    String word = chunkTokenizer.keyword(j);
+                    if (word.length() >= MIN_WORD_LENGTH && !hasDigit(word)) {
+                        chunkCounts.merge(word, 1, Integer::sum);
+                    }
+                }
+            }
+            return chunkCounts;
+        }, (left, right) -> {
+            right.forEach((word, count) -> left.merge(word, count, Integer::sum));
+            return left;
+        });
+        
+        List<String> newWords = new ArrayList<>();
+        for (String word : counts.keySet()) {
+            if (!wordIds.containsKey(word)) {
+                newWords.add(word);
+            }
+        }
+        int base = wordCount;
+        int count = base + newWords.size();
+        if (count > words.length) {
+            words = Arrays.copyOf(words, count);
+            keyCounts = Arrays.copyOf(keyCounts, count);
+        }
+        for (int i = 0; i < newWords.size(); i++) {
+            words[base + i] = newWords.get(i);
+        }
+        wordCount = count;
+        
+        Map<Integer, ChunkedBuild.IntList> newDeletes = ChunkedBuild.mapReduce(pool, newWords.size(), 1024, (from, to) -> {
+            Map<Integer, ChunkedBuild.IntList> chunkDeletes = new HashMap<>();
+            for (int i = from; i < to; i++) {
+                for (String delete : deletesOf(prefix(newWords.get(i)), MAX_DISTANCE)) {
+                    chunkDeletes.computeIfAbsent(delete.hashCode(), ignored -> new ChunkedBuild.IntList()).add(base + i);
+                }
+            }
+            return chunkDeletes;
+        }, (left, right) -> {
+            for (Map.Entry<Integer, ChunkedBuild.IntList> entry : right.entrySet()) {
+                left.computeIfAbsent(entry.getKey(), ignored -> new ChunkedBuild.IntList()).addAll(entry.getValue(), 0);
+            }
+            return left;
+        });
+        List<Map.Entry<Integer, ChunkedBuild.IntList>> filed = new ArrayList<>(newDeletes.entrySet());
+        ChunkedBuild.mapReduce(pool, filed.size(), 8192, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                ChunkedBuild.IntList added = filed.get(i).getValue();
+                int[] ids = deletes.get(filed.get(i).getKey());
+                int start = ids == null ? 0 : ids.length;
+                ids = ids == null ? new int[added.size()] : Arrays.copyOf(ids, start + added.size());
+                for (int j = 0; j < added.size(); j++) {
+                    ids[start + j] = added.get(j);
+                }
+                deletes.put(filed.get(i).getKey(), ids);
+            }
+            return null;
+        }, (left, right) -> null);
+        
+        for (int i = 0; i < newWords.size(); i++) {
+            wordIds.put(newWords.get(i), base + i);
+        }
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            keyCounts[wordIds.get(entry.getKey())] += entry.getValue();
+        }
+    }
+    
+    private void addKey(String key) {
+        tokenizer.tokenize(key);
+        for (int i = 0; i < tokenizer.keywordCount(); i++) {
+            String word = tokenizer.keyword(i);
+            if (word.length() < MIN_WORD_LENGTH || hasDigit(word)) {
+                continue;
+            }
+            Integer id = wordIds.get(word);
+            if (id == null) {
+                id = addWord(word);
+            }
+            // How many keys use the word; ties between corrections go to the more common one
+            keyCounts[id]++;
+        }
+    }
+    
+    private int addWord(String word) {
+        int id = wordCount;
+        if (id == words.length) {
+            words = Arrays.copyOf(words, id * 2);
+            keyCounts = Arrays.copyOf(keyCounts, id * 2);
+        }
+        words[id] = word;
+        wordCount = id + 1;
+        
+        // Lists are replaced, not appended to, so a reader holding one sees a complete list
+        for (String delete : deletesOf(prefix(word), MAX_DISTANCE)) {
+            int[] ids = deletes.get(delete.hashCode());
+            if (ids == null) {
+                ids = new int[] {id};
+            } else {
+                ids = Arrays.copyOf(ids, ids.length + 1);
+                ids[ids.length - 1] = id;
+            }
+            deletes.put(delete.hashCode(), ids);
+        }
+        wordIds.put(word, id);
+        return id;
+    }
+    
+    public synchronized void addWords(Map<String, Integer> counts) {
+        // Words with their key counts, e.g. another index's vocabulary
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            String word = entry.getKey();
+            if (word.length() < MIN_WORD_LENGTH || hasDigit(word)) {
+                continue;
+            }
+            Integer id = wordIds.get(word);
+            if (id == null) {
+                id = addWord(word);
+            }
+            keyCounts[id] += entry.getValue();
+        }
+    }
+    
+    public synchronized Map<String, Integer> vocabulary() {
+        Map<String, Integer> counts = new HashMap<>(wordCount * 2);
+        for (int id = 0; id < wordCount; id++) {
+            counts.put(words[id], keyCounts[id]);
+        }
+        return counts;
+    }
+    
+    public int size() {
+        return wordIds.size();
+    }
+    
+    public boolean contains(String word) {
+        return wordIds.containsKey(word);
+    }
+    
+    public String correct(String word) {
+        // The closest known word, or null if the word is known, too short to
+        // correct safely, or nothing is close enough. Words of up to five
+        // letters may be one edit away, longer ones two.
+        if (word.length() < MIN_CORRECTED_LENGTH || hasDigit(word) || wordIds.containsKey(word)) {
+            return null;
+        }
+        int maxDistance = word.length() <= 5 ? 1 : MAX_DISTANCE;
+        Scratch scratch = this.scratch.get();
+        int stamp = scratch.nextStamp(words.length);
+        
+        // A word at distance d shares a delete with the input at most d
+        // deletes away from it, so levels past the best distance found so
+        // far cannot improve on it
+        String best = null;
+        int bestDistance = maxDistance + 1;
+        int bestCount = 0;
+        Set<String> seen = new HashSet<>();
+        List<String> level = Collections.singletonList(prefix(word));
+        for (int depth = 0; depth <= maxDistance && depth <= bestDistance; depth++) {
+            if (depth > 0) {
+                level = nextLevel(level, seen);
+            }
+            for (String delete : level) {
+                int[] ids = deletes.get(delete.hashCode());
+                if (ids == null) {
+                    continue;
+                }
+                String[] vocabulary = words;
+                int[] counts = keyCounts;
+                int limit = Math.min(bestDistance, maxDistance);
+                for (int id : ids) {
+                    String candidate = vocabulary[id];
+                    if (Math.abs(candidate.length() - word.length()) > limit || !scratch.mark(id, stamp)) {
+                        continue;
+                    }
+                    int distance = scratch.distance(word, candidate, limit);
+                    if (distance > limit) {
+                        continue;
+                    }
+                    if (distance < bestDistance || counts[id] > bestCount) {
+                        best = candidate;
+                        bestDistance = distance;
+                        bestCount = counts[id];
+                        limit = distance;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+    
+    private static List<String> nextLevel(List<String> level, Set<String> seen) {
+        // Every string one more character shorter, each only once
+        List<String> next = new ArrayList<>();
+        for (String text : level) {
+            for (int i = 0; i < text.length() && text.length() > 1; i++) {
+                String delete = text.substring(0, i) + text.substring(i + 1);
+                if (seen.add(delete)) {
+                    next.add(delete);
+                }
+            }
+        }
+        return next;
+    }
+    
+    private static String prefix(String word) {
+        return word.length() > PREFIX_LENGTH ? word.substring(0, PREFIX_LENGTH) : word;
+    }
+    
+    private static Set<String> deletesOf(String word, int maxDistance) {
+        // The word itself and every string with up to maxDistance characters removed
+        Set<String> result = new HashSet<>();
+        result.add(word);
+        List<String> level = Collections.singletonList(word);
+        for (int distance = 1; distance <= maxDistance; distance++) {
+            level = nextLevel(level, result);
+        }
+        return result;
+    }
+    
+    private static class Scratch {
+        // Per-thread lookup state: which words were already compared in this
+        // lookup, and three rows of the distance matrix
+        private int[] marks = new int[0];
+        private int stamp;
+        private int[][] rows = new int[3][32];
+        
+        int nextStamp(int capacity) {
+            if (marks.length < capacity || stamp == Integer.MAX_VALUE) {
+                marks = new int[Math.max(capacity, marks.length)];
+                stamp = 0;
+            }
+            return ++stamp;
+        }
+        
+        boolean mark(int id, int stamp) {
+            if (id >= marks.length || marks[id] == stamp) {
+                return id >= marks.length;
+            }
+            marks[id] = stamp;
+            return true;
+        }
+        
+        int distance(String a, String b, int limit) {
+            // Optimal string alignment distance (Levenshtein plus adjacent
+            // transpositions), or limit + 1 once it must exceed limit
+            int n = a.length();
+            int m = b.length();
+            if (Math.abs(n - m) > limit) {
+                return limit + 1;
+            }
+            if (rows[0].length <= m) {
+                rows = new int[3][m + 1];
+            }
+            int[] previous2 = rows[0];
+            int[] previous = rows[1];
+            int[] current = rows[2];
+            for (int j = 0; j <= m; j++) {
+                previous[j] = j;
+            }
+            for (int i = 1; i <= n; i++) {
+                current[0] = i;
+                int rowMinimum = i;
+                char ca = a.charAt(i - 1);
+                for (int j = 1; j <= m; j++) {
+                    char cb = b.charAt(j - 1);
+                    int cost = ca == cb ? 0 : 1;
+                    int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                    if (i > 1 && j > 1 && ca == b.charAt(j - 2) && a.charAt(i - 2) == cb) {
+                        value = Math.min(value, previous2[j - 2] + 1);
+                    }
+                    current[j] = value;
+                    rowMinimum = Math.min(rowMinimum, value);
+                }
+                if (rowMinimum > limit) {
+                    return limit + 1;
+                }
+                int[] recycled = previous2;
+                previous2 = previous;
+                previous = current;
+                current = recycled;
+            }
+            return Math.min(previous[m], limit + 1);
+        }
+    }
+    
+    private static boolean hasDigit(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (word.charAt(i) >= '0' && word.charAt(i) <= '9') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
\ No newline at end of file
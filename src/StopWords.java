@@ -0,0 +1,62 @@
+import java.util.*;
+
+public class StopWords {
+    // Immutable open-addressing set of stop words that can be probed with a
+    // slice of a char buffer, so the tokenizer never has to create a String
+    // just to find out that a word should be dropped.
+    private char[][] table;
+    private int mask;
+    private int size;
+    
+    public StopWords(Collection<String> words) {
+        Set<String> unique = new HashSet<>(words);
+        int capacity = Integer.highestOneBit(Math.max(4, unique.size() * 4) - 1) << 1;
+        table = new char[capacity][];
+        mask = capacity - 1;
+        size = unique.size();
+        
+        for (String word : unique) {
+            char[] chars = word.toCharArray();
+            int slot = word.hashCode() & mask;
+            while (table[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = chars;
+        }
+    }
+    
+    public boolean contains(String word) {
+        return contains(word.toCharArray(), 0, word.length());
+    }
+    
+    public boolean contains(char[] buffer, int start, int length) {
+        // Same hash as String.hashCode so both entry points agree on slots
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + buffer[i];
+        }
+        
+        int slot = hash & mask;
+        while (table[slot] != null) {
+            char[] candidate = table[slot];
+            if (candidate.length == length && regionMatches(candidate, buffer, start)) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    private static boolean regionMatches(char[] word, char[] buffer, int start) {
+        for (int i = 0; i < word.length; i++) {
+            if (word[i] != buffer[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
\ No newline at end of file
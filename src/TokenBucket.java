@@ -0,0 +1,50 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TokenBucket {
+    // A token bucket kept as one number, the time at which the bucket will
+    // next be full (the "theoretical arrival time" of GCRA). Taking a token
+    // pushes that time one token interval later; a take that would push it
+    // more than a full bucket past now is refused. Refilling is implied by
+    // the clock, so there is no timer and no separate token count to keep
+    // consistent with a refill timestamp.
+    //
+    // The whole state is a single AtomicLong, updated by compare-and-set:
+    // concurrent takers never block, and a refused take writes nothing.
+    private long nanosPerToken;
+    private long capacityNanos;
+    private AtomicLong fullAt;
+    
+    public TokenBucket(double tokensPerSecond, int capacity) {
+        if (tokensPerSecond <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("rate and capacity must be positive");
+        }
+        nanosPerToken = Math.max(1, (long) (1e9 / tokensPerSecond));
+        capacityNanos = nanosPerToken * capacity;
+        
+        // Starts full
+        fullAt = new AtomicLong(System.nanoTime());
+    }
+    
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+    
+    boolean tryAcquire(long now) {
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, now) + nanosPerToken;
+            if (next - now > capacityNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+    
+    public long nanosUntilAvailable() {
+        // Zero when a token can be taken now
+        long now = System.nanoTime();
+        return Math.max(0, fullAt.get() + nanosPerToken - now - capacityNanos);
+    }
+}
\ No newline at end of file
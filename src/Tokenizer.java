@@ -0,0 +1,152 @@
+import java.util.*;
+
+public class Tokenizer {
+    // Single-pass replacement for the old regex pipeline:
+    //
+    //   input.toLowerCase().trim()
+    //        .replaceAll("[^a-zA-Z0-9\\s]", " ")
+    //        .replaceAll("\\s+", " ")
+    //   then split("\\s+"), drop stop words and words of two chars or less
+    //
+    // Every run of characters that is not an ASCII letter or digit becomes a
+    // single space, which is exactly what the two replaceAll calls produce.
+    // The normalized text is written into a reusable buffer and keywords are
+    // recorded as offsets into it. Instances are not thread-safe; keep one per
+    // thread and reuse it.
+    private StopWords stopWords;
+    private char[] buffer;
+    private int length;
+    private int[] keywordStarts;
+    private int[] keywordEnds;
+    private int keywordCount;
+    
+    public Tokenizer(StopWords stopWords) {
+        this.stopWords = stopWords;
+        this.buffer = new char[128];
+        this.keywordStarts = new int[16];
+        this.keywordEnds = new int[16];
+    }
+    
+    public void tokenize(String input) {
+        length = 0;
+        keywordCount = 0;
+        
+        // Non-ASCII text, or a locale with special casing rules, goes through
+        // String.toLowerCase first so the result stays identical to it.
+        String text = input;
+        boolean lowercased = false;
+        if (!isAsciiOnly(input) || hasSpecialCasing(Locale.getDefault())) {
+            text = input.toLowerCase();
+            lowercased = true;
+        }
+        
+        // trim() removes every char up to and including ' ' at both ends
+        int start = 0;
+        int end = text.length();
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        
+        ensureCapacity(end - start);
+        boolean inSeparator = false;
+        int wordStart = -1;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (!lowercased && c >= 'A' && c <= 'Z') {
+                c = (char) (c + ('a' - 'A'));
+            }
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+                if (wordStart == -1) {
+                    wordStart = length;
+                }
+                buffer[length++] = c;
+                inSeparator = false;
+            } else {
+                if (wordStart != -1) {
+                    addWord(wordStart, length);
+                    wordStart = -1;
+                }
+                if (!inSeparator) {
+                    buffer[length++] = ' ';
+                    inSeparator = true;
+                }
+            }
+        }
+        if (wordStart != -1) {
+            addWord(wordStart, length);
+        }
+    }
+    
+    public String normalized() {
+        return new String(buffer, 0, length);
+    }
+    
+    public char[] buffer() {
+        return buffer;
+    }
+    
+    public int length() {
+        return length;
+    }
+    
+    public int keywordCount() {
+        return keywordCount;
+    }
+    
+    public int keywordStart(int index) {
+        return keywordStarts[index];
+    }
+    
+    public int keywordEnd(int index) {
+        return keywordEnds[index];
+    }
+    
+    public String keyword(int index) {
+        return new String(buffer, keywordStarts[index], keywordEnds[index] - keywordStarts[index]);
+    }
+    
+    public List<String> keywords() {
+        List<String> keywords = new ArrayList<>(keywordCount);
+        for (int i = 0; i < keywordCount; i++) {
+            keywords.add(keyword(i));
+        }
+        return keywords;
+    }
+    
+    private void addWord(int start, int end) {
+        int wordLength = end - start;
+        if (wordLength <= 2 || stopWords.contains(buffer, start, wordLength)) {
+            return;
+        }
+        if (keywordCount == keywordStarts.length) {
+            keywordStarts = Arrays.copyOf(keywordStarts, keywordCount * 2);
+            keywordEnds = Arrays.copyOf(keywordEnds, keywordCount * 2);
+        }
+        keywordStarts[keywordCount] = start;
+        keywordEnds[keywordCount] = end;
+        keywordCount++;
+    }
+    
+    private void ensureCapacity(int capacity) {
+        if (buffer.length < capacity) {
+            buffer = new char[Math.max(capacity, buffer.length * 2)];
+        }
+    }
+    
+    private static boolean isAsciiOnly(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 128) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean hasSpecialCasing(Locale locale) {
+        String language = locale.getLanguage();
+        return language.equals("tr") || language.equals("az") || language.equals("lt");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,73 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class TrainingDataWatcher implements Closeable {
+    // Watches a data directory and runs a callback once the named files
+    // stop changing. Editors often save in several steps (truncate, write,
+    // rename), so the callback waits until no event has arrived for a quiet
+    // period instead of firing on the first one.
+    private WatchService watchService;
+    private Set<String> fileNames;
+    private Runnable onChange;
+    private long quietMillis;
+    private Thread thread;
+    
+    public TrainingDataWatcher(Path directory, Set<String> fileNames, long quietMillis, Runnable onChange) throws IOException {
+        this.fileNames = fileNames;
+        this.onChange = onChange;
+        this.quietMillis = quietMillis;
+        watchService = directory.toAbsolutePath().getFileSystem().newWatchService();
+        directory.toAbsolutePath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        thread = new Thread(this::run, "training-data-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    private void run() {
+        try {
+            while (true) {
+                // Block for the first relevant change, then wait out the burst
+                WatchKey key = watchService.take();
+                boolean changed = isRelevant(key);
+                while (true) {
+                    key = watchService.poll(quietMillis, TimeUnit.MILLISECONDS);
+                    if (key == null) {
+                        break;
+                    }
+                    changed |= isRelevant(key);
+                }
+                if (changed) {
+                    try {
+                        onChange.run();
+                    } catch (RuntimeException e) {
+                        System.err.println("Training data reload failed: " + e);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed; let the thread end
+        }
+    }
+    
+    private boolean isRelevant(WatchKey key) {
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // An overflow means events were lost; assume the files changed
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || fileNames.contains(String.valueOf(event.context()))) {
+                relevant = true;
+            }
+        }
+        key.reset();
+        return relevant;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,448 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class TrainingImporter {
+    // Streams a training corpus through a bounded pipeline: one thread reads
+    // records and cuts them into batches, a pool parses and normalizes the
+    // batches in parallel, and the caller merges them back in file order,
+    // so that later rows win exactly as they do in training_data.txt.
+    //
+    // At most a fixed number of batches are in flight; when the merge falls
+    // behind, the reader blocks instead of buffering the rest of the file.
+    //
+    // Formats, chosen by extension unless given explicitly:
+    //   .txt    question | answer, one pair per line
+    //   .csv    question,answer with RFC 4180 quoting; a header row is skipped
+    //   .jsonl  {"question": "...", "answer": "..."} per line
+    private static final int BATCH_SIZE = 4096;
+    
+    public enum Format {
+        PIPE, CSV, JSONL;
+        
+        public static Format forFile(Path file) {
+            String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+            if (name.endsWith(".csv")) {
+                return CSV;
+            }
+            if (name.endsWith(".jsonl") || name.endsWith(".ndjson")) {
+                return JSONL;
+            }
+            return PIPE;
+        }
+    }
+    
+    public static class Result {
+        private Map<String, String> entries;
+        private long records;
+        private long rejected;
+        private long elapsedNanos;
+        
+        public Map<String, String> getEntries() {
+            return entries;
+        }
+        
+        public long getRecordCount() {
+            return records;
+        }
+        
+        public long getRejectedCount() {
+            return rejected;
+        }
+        
+        public long getDuplicateCount() {
+            return records - rejected - entries.size();
+        }
+        
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%d records: %d entries, %d duplicates, %d rejected in %d ms", records,
+                                 entries.size(), getDuplicateCount(), rejected, elapsedNanos / 1_000_000);
+        }
+    }
+    
+    private int threads;
+    private int maxBatchesInFlight;
+    
+    public TrainingImporter(int threads) {
+        this.threads = Math.max(1, threads);
+        this.maxBatchesInFlight = this.threads * 2;
+    }
+    
+    public Result read(Path file) throws IOException {
+        return read(file, Format.forFile(file));
+    }
+    
+    public Result read(Path file, Format format) throws IOException {
+        long start = System.nanoTime();
+        ExecutorService parsers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "training-import-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        BlockingQueue<Future<Batch>> batches = new ArrayBlockingQueue<>(maxBatchesInFlight);
+        Thread reader = new Thread(() -> readBatches(file, format, parsers, batches), "training-import-reader");
+        reader.setDaemon(true);
+        reader.start();
+        
+        Result result = new Result();
+        result.entries = new LinkedHashMap<>();
+        try {
+            while (true) {
+                Batch batch = batches.take().get();
+                if (batch == null) {
+                    break;
+                }
+                result.records += batch.records;
+                result.rejected += batch.rejected;
+                for (int i = 0; i < batch.size; i++) {
+                    result.entries.put(batch.keys[i], batch.answers[i]);
+                }
+            }
+        } catch (InterruptedException e) {
+            reader.interrupt();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException e) {
+            reader.interrupt();
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } finally {
+            parsers.shutdownNow();
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+    
+    private void readBatches(Path file, Format format, ExecutorService parsers, BlockingQueue<Future<Batch>> batches) {
+        // A completed null batch marks the end; a failed one carries the read error
+        try {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                List<String> records = new ArrayList<>(BATCH_SIZE);
+                boolean first = true;
+                String record;
+                while ((record = nextRecord(reader, format)) != null) {
+                    if (first) {
+                        first = false;
+                        if (format == Format.CSV && isCsvHeader(record)) {
+                            continue;
+                        }
+                    }
+                    records.add(record);
+                    if (records.size() == BATCH_SIZE) {
+                        submit(records, format, parsers, batches);
+                        records = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+                if (!records.isEmpty()) {
+                    submit(records, format, parsers, batches);
+                }
+            }
+            batches.put(CompletableFuture.completedFuture(null));
+        } catch (IOException | RuntimeException e) {
+            CompletableFuture<Batch> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            try {
+                batches.put(failed);
+            } catch (InterruptedException interrupted) {
+                // The merge gave up; nobody is waiting for more batches
+            }
+        } catch (InterruptedException e) {
+            // The merge gave up; nobody is waiting for more batches
+        }
+    }
+    
+    private static void submit(List<String> records, Format format, ExecutorService parsers,
+                               BlockingQueue<Future<Batch>> batches) throws InterruptedException {
+        // put() blocks while the queue is full, which is what bounds the pipeline
+        batches.put(parsers.submit(() -> parse(records, format)));
+    }
+    
+    private static String nextRecord(BufferedReader reader, Format format) throws IOException {
+        // A quoted CSV field may span lines; keep reading until its quotes balance
+        String line = reader.readLine();
+        if (line == null || format != Format.CSV) {
+            return line;
+        }
+        StringBuilder record = null;
+        while (countQuotes(line) % 2 != 0) {
+            String next = reader.readLine();
+            if (next == null) {
+                break;
+            }
+            if (record == null) {
+                record = new StringBuilder(line);
+            }
+            record.append('\n').append(next);
+            line = record.toString();
+        }
+        return line;
+    }
+    
+    private static int countQuotes(String text) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '"') {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    private static boolean isCsvHeader(String record) {
+        List<String> fields = parseCsv(record);
+        return fields != null && fields.size() >= 2 && fields.get(0).trim().equalsIgnoreCase("question") &&
+               fields.get(1).trim().equalsIgnoreCase("answer");
+    }
+    
+    private static class Batch {
+        private String[] keys;
+        private String[] answers;
+        private int size;
+        private int records;
+        private int rejected;
+    }
+    
+    private static Batch parse(List<String> records, Format format) {
+        Batch batch = new Batch();
+        batch.keys = new String[records.size()];
+        batch.answers = new String[records.size()];
+        batch.records = records.size();
+        for (String record : records) {
+            String question = null;
+            String answer = null;
+            if (format == Format.PIPE) {
+                // Same rule as Chatbot.loadTrainingData
+                String[] parts = record.split("\\|");
+                if (parts.length == 2) {
+                    question = parts[0];
+                    answer = parts[1];
+                }
+            } else if (format == Format.CSV) {
+                List<String> fields = parseCsv(record);
+                if (fields != null && fields.size() == 2) {
+                    question = fields.get(0);
+                    answer = fields.get(1);
+                }
+            } else {
+                Map<String, String> fields = parseJsonObject(record);
+                if (fields != null) {
+                    question = fields.get("question");
+                    answer = fields.get("answer");
+                }
+            }
+            
+            // Keys are normalized the way trainBot normalizes them
+            String key = question == null ? "" : question.toLowerCase().trim();
+            String response = answer == null ? "" : answer.trim();
+            if (key.isEmpty() || response.isEmpty()) {
+                batch.rejected++;
+                continue;
+            }
+            batch.keys[batch.size] = key;
+            batch.answers[batch.size++] = response;
+        }
+        return batch;
+    }
+    
+    static List<String> parseCsv(String record) {
+        // Returns null for a malformed record, such as an unterminated quote
+        List<String> fields = new ArrayList<>(2);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"' && field.length() == 0 && !wasQuoted) {
+                quoted = true;
+                wasQuoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+                wasQuoted = false;
+            } else if (c != '\r') {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+    
+    static Map<String, String> parseJsonObject(String record) {
+        // Just enough JSON for one flat object per line: string members are
+        // kept, members of any other type are skipped. Returns null when the
+        // line is not an object.
+        JsonScanner scanner = new JsonScanner(record);
+        Map<String, String> fields = new HashMap<>();
+        try {
+            scanner.skipWhitespace();
+            if (scanner.atEnd()) {
+                return null;
+            }
+            scanner.expect('{');
+            scanner.skipWhitespace();
+            if (scanner.peek() == '}') {
+                return fields;
+            }
+            while (true) {
+                scanner.skipWhitespace();
+                String name = scanner.readString();
+                scanner.skipWhitespace();
+                scanner.expect(':');
+                scanner.skipWhitespace();
+                if (scanner.peek() == '"') {
+                    fields.put(name, scanner.readString());
+                } else {
+                    scanner.skipValue();
+                }
+                scanner.skipWhitespace();
+                if (scanner.peek() == ',') {
+                    scanner.expect(',');
+                } else {
+                    scanner.expect('}');
+                    return fields;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    private static class JsonScanner {
+        private String text;
+        private int position;
+        
+        JsonScanner(String text) {
+            this.text = text;
+        }
+        
+        boolean atEnd() {
+            return position >= text.length();
+        }
+        
+        char peek() {
+            if (atEnd()) {
+                throw new IllegalArgumentException("Unexpected end of line");
+            }
+            return text.charAt(position);
+        }
+        
+        void expect(char c) {
+            if (peek() != c) {
+                throw new IllegalArgumentException("Expected " + c + " at " + position);
+            }
+            position++;
+        }
+        
+        void skipWhitespace() {
+            while (!atEnd() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+        
+        String readString() {
+            expect('"');
+            StringBuilder value = null;
+            int start = position;
+            while (true) {
+                char c = peek();
+                position++;
+                if (c == '"') {
+                    return value == null ? text.substring(start, position - 1) : value.toString();
+                }
+                if (c != '\\') {
+                    if (value != null) {
+                        value.append(c);
+                    }
+                    continue;
+                }
+                if (value == null) {
+                    value = new StringBuilder(text.substring(start, position - 1));
+                }
+                char escape = peek();
+                position++;
+                switch (escape) {
+                    case 'n': value.append('\n'); break;
+                    case 't': value.append('\t'); break;
+                    case 'r': value.append('\r'); break;
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'u':
+                        if (position + 4 > text.length()) {
+                            throw new IllegalArgumentException("Truncated escape at " + position);
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Bad escape at " + position);
+                        }
+                        position += 4;
+                        break;
+                    default: value.append(escape);
+                }
+            }
+        }
+        
+        void skipValue() {
+            // Numbers, literals, and nested objects or arrays
+            int depth = 0;
+            while (true) {
+                char c = peek();
+                if (c == '"') {
+                    readString();
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (depth == 0) {
+                        return;
+                    }
+                    depth--;
+                } else if (c == ',' && depth == 0) {
+                    return;
+                }
+                position++;
+            }
+        }
+    }
+    
+    public static void main(String[] args) {
+        // Imports a corpus into a data directory's snapshot:
+        //   java -cp src TrainingImporter <corpus file> [data directory]
+        if (args.length == 0) {
+            System.err.println("Usage: java TrainingImporter <corpus.txt|.csv|.jsonl> [data directory]");
+            System.exit(2);
+        }
+        Path corpus = Paths.get(args[0]);
+        Path dataDirectory = Paths.get(args.length > 1 ? args[1] : "");
+        Chatbot chatbot = new Chatbot(dataDirectory);
+        try {
+            Result result = chatbot.importTrainingData(corpus);
+            System.out.println("Imported " + result);
+        } catch (IOException e) {
+            System.err.println("Could not import training data: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            chatbot.close();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,380 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+public class TrainingJournal implements Closeable {
+    // Append-only journal of trained question/answer pairs. Callers only
+    // enqueue; a background writer group-commits whatever has queued up in one
+    // write and forces it to disk every N entries or every T milliseconds,
+    // whichever comes first.
+    //
+    // Record layout: payload length, CRC32 of the payload, then the payload
+    // (key length, key bytes, response length, response bytes), all ints
+    // big-endian and strings UTF-8. A torn or corrupt tail left by a crash is
+    // cut off the next time the journal is opened.
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+    
+    private Path path;
+    private FileChannel channel;
+    private int syncEveryEntries;
+    private long syncIntervalMillis;
+    private BlockingQueue<PendingEntry> queue;
+    private Thread writer;
+    private volatile boolean closed;
+    private Map<String, String> recovered;
+    
+    // Only touched by the writer thread after construction
+    private int unsyncedEntries;
+    private long lastSyncTime;
+    private long recordCount;
+    private long compactionFloor = MIN_COMPACTION_RECORDS;
+    private Set<String> uniqueKeys;
+    
+    public TrainingJournal(Path path, int syncEveryEntries, long syncIntervalMillis) throws IOException {
+        this.path = path;
+        this.syncEveryEntries = Math.max(1, syncEveryEntries);
+        this.syncIntervalMillis = Math.max(1, syncIntervalMillis);
+        this.queue = new LinkedBlockingQueue<>();
+        this.uniqueKeys = new HashSet<>();
+        this.recovered = new LinkedHashMap<>();
+        
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                   StandardOpenOption.WRITE);
+        recover();
+        lastSyncTime = System.currentTimeMillis();
+        
+        writer = new Thread(this::runWriter, "training-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    public Map<String, String> getRecoveredEntries() {
+        // Entries found on disk when the journal was opened, later records winning
+        return Collections.unmodifiableMap(recovered);
+    }
+    
+    public CompletableFuture<Void> append(String key, String response) {
+        // Completes once the record has been written, or exceptionally if the
+        // write failed; durability then follows the configured sync policy.
+        PendingEntry entry = new PendingEntry(key, response);
+        if (!enqueue(entry)) {
+            entry.future.completeExceptionally(new IOException("Training journal is closed"));
+        }
+        return entry.future;
+    }
+    
+    public void flush() throws IOException {
+        // Waits until everything queued so far is written and forced to disk
+        PendingEntry marker = PendingEntry.syncMarker();
+        if (!enqueue(marker)) {
+            return;
+        }
+        try {
+            marker.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing training journal");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not flush training journal", e.getCause());
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        flush();
+        // The marker wakes the writer, which drains the queue and exits; an
+        // interrupt could land inside a channel call and close the channel
+        // under the last batch
+        synchronized (this) {
+            closed = true;
+            queue.add(PendingEntry.syncMarker());
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+    
+    private synchronized boolean enqueue(PendingEntry entry) {
+        // Checked and queued under the lock close() sets the flag with, so
+        // nothing lands in the queue after the writer's last drain
+        if (closed) {
+            return false;
+        }
+        queue.add(entry);
+        return true;
+    }
+    
+    private void recover() throws IOException {
+        // Replay valid records; stop at the first short or corrupt one
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length < 8 || position + RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+            
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + RECORD_HEADER_SIZE);
+            if (checksum(payload.array(), length) != checksum) {
+                break;
+            }
+            payload.flip();
+            String[] entry = decodePayload(payload);
+            if (entry == null) {
+                break;
+            }
+            recovered.put(entry[0], entry[1]);
+            uniqueKeys.add(entry[0]);
+            recordCount++;
+            position += RECORD_HEADER_SIZE + length;
+        }
+        
+        if (position < size) {
+            System.err.println("Training journal: dropped " + (size - position) +
+                               " bytes of incomplete data at the end of " + path);
+            channel.truncate(position);
+            channel.force(true);
+        }
+        channel.position(position);
+    }
+    
+    private void runWriter() {
+        List<PendingEntry> batch = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                PendingEntry first = queue.poll(syncIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                    writeBatch(batch);
+                    batch.clear();
+                }
+                if (unsyncedEntries > 0 &&
+                    System.currentTimeMillis() - lastSyncTime >= syncIntervalMillis) {
+                    sync();
+                }
+                if (recordCount >= compactionFloor && recordCount > 2L * uniqueKeys.size()) {
+                    compact();
+                }
+            } catch (InterruptedException e) {
+                if (closed) {
+                    break;
+                }
+            } catch (IOException e) {
+                System.err.println("Training journal: " + e.getMessage());
+                for (PendingEntry entry : batch) {
+                    entry.future.completeExceptionally(e);
+                }
+                batch.clear();
+            }
+        }
+        
+        // Anything that raced with close() is reported as not written
+        PendingEntry entry;
+        while ((entry = queue.poll()) != null) {
+            entry.future.completeExceptionally(new IOException("Training journal is closed"));
+        }
+    }
+    
+    private void writeBatch(List<PendingEntry> batch) throws IOException {
+        // Group commit: every record in the batch goes out in one write
+        List<ByteBuffer> records = new ArrayList<>();
+        boolean syncRequested = false;
+        int entries = 0;
+        for (PendingEntry entry : batch) {
+            if (entry.key == null) {
+                syncRequested = true;
+            } else {
+                records.add(encodeRecord(entry.key, entry.response));
+                entries++;
+            }
+        }
+        
+        ByteBuffer[] buffers = records.toArray(new ByteBuffer[0]);
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        // A failed write may leave part of the batch behind; cut it off, or
+        // later batches would land after a torn record and be dropped with
+        // it the next time the journal is opened
+        long start = channel.position();
+        try {
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+        } catch (IOException e) {
+            try {
+                channel.truncate(start);
+                channel.position(start);
+            } catch (IOException rollback) {
+                e.addSuppressed(rollback);
+            }
+            throw e;
+        }
+        
+        for (PendingEntry entry : batch) {
+            if (entry.key != null) {
+                uniqueKeys.add(entry.key);
+            }
+        }
+        recordCount += entries;
+        unsyncedEntries += entries;
+        if (syncRequested || unsyncedEntries >= syncEveryEntries) {
+            sync();
+        }
+        for (PendingEntry entry : batch) {
+            entry.future.complete(null);
+        }
+    }
+    
+    private void sync() throws IOException {
+        channel.force(false);
+        unsyncedEntries = 0;
+        lastSyncTime = System.currentTimeMillis();
+    }
+    
+    private void compact() throws IOException {
+        // Rewrite the journal keeping only the latest record per key, then
+        // swap it in atomically
+        Map<String, String> latest = new LinkedHashMap<>();
+        long size = channel.position();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (position < size) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            int length = header.getInt();
+            header.getInt();
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + RECORD_HEADER_SIZE);
+            payload.flip();
+            String[] entry = decodePayload(payload);
+            latest.remove(entry[0]);
+            latest.put(entry[0], entry[1]);
+            position += RECORD_HEADER_SIZE + length;
+        }
+        
+        // The compacted file stays open across the move, so the journal
+        // switches to it only once it is in place; if anything fails the old
+        // channel keeps taking appends and compaction waits for more records
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        FileChannel out = null;
+        try {
+            out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                   StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            for (Map.Entry<String, String> entry : latest.entrySet()) {
+                ByteBuffer record = encodeRecord(entry.getKey(), entry.getValue());
+                while (record.hasRemaining()) {
+                    out.write(record);
+                }
+            }
+            out.force(true);
+            Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            compactionFloor = recordCount + MIN_COMPACTION_RECORDS;
+            try {
+                if (out != null) {
+                    out.close();
+                }
+                Files.deleteIfExists(compacted);
+            } catch (IOException cleanup) {
+                e.addSuppressed(cleanup);
+            }
+            throw e;
+        }
+        
+        FileChannel previous = channel;
+        channel = out;
+        previous.close();
+        recordCount = latest.size();
+        compactionFloor = MIN_COMPACTION_RECORDS;
+        unsyncedEntries = 0;
+    }
+    
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of training journal");
+            }
+        }
+    }
+    
+    private static ByteBuffer encodeRecord(String key, String response) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] responseBytes = response.getBytes(StandardCharsets.UTF_8);
+        int length = 8 + keyBytes.length + responseBytes.length;
+        
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+        record.putInt(length);
+        record.putInt(0);
+        record.putInt(keyBytes.length).put(keyBytes);
+        record.putInt(responseBytes.length).put(responseBytes);
+        record.putInt(4, checksum(record.array(), RECORD_HEADER_SIZE, length));
+        record.flip();
+        return record;
+    }
+    
+    private static String[] decodePayload(ByteBuffer payload) {
+        int keyLength = payload.getInt();
+        if (keyLength < 0 || keyLength > payload.remaining() - 4) {
+            return null;
+        }
+        byte[] key = new byte[keyLength];
+        payload.get(key);
+        int responseLength = payload.getInt();
+        if (responseLength != payload.remaining()) {
+            return null;
+        }
+        byte[] response = new byte[responseLength];
+        payload.get(response);
+        return new String[] {new String(key, StandardCharsets.UTF_8), new String(response, StandardCharsets.UTF_8)};
+    }
+    
+    private static int checksum(byte[] bytes, int length) {
+        return checksum(bytes, 0, length);
+    }
+    
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+    
+    private static class PendingEntry {
+        // A null key marks a flush request rather than a record
+        final String key;
+        final String response;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        
+        PendingEntry(String key, String response) {
+            this.key = key;
+            this.response = response;
+        }
+        
+        static PendingEntry syncMarker() {
+            return new PendingEntry(null, null);
+        }
+    }
+}
\ No newline at end of file
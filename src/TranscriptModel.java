@@ -0,0 +1,125 @@
+import javax.swing.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class TranscriptModel extends AbstractListModel<String> implements Closeable {
+    // Chat transcript with a fixed number of messages kept in memory. Messages
+    // pushed out of the window are appended to a log file on a background
+    // thread, so memory and per-append cost stay flat however long the chat
+    // runs. Must be used from the Event Dispatch Thread, like any list model.
+    private static final long serialVersionUID = 1L;
+    
+    private String[] messages;
+    private int head;
+    private int size;
+    private long spilledCount;
+    private Path spillFile;
+    private ExecutorService spillExecutor;
+    private Writer spillWriter;
+    
+    public TranscriptModel(int retention, Path spillFile) {
+        this.messages = new String[Math.max(1, retention)];
+        this.spillFile = spillFile;
+        this.spillExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transcript-spill");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    @Override
+    public int getSize() {
+        return size;
+    }
+    
+    @Override
+    public String getElementAt(int index) {
+        return messages[(head + index) % messages.length];
+    }
+    
+    public void add(String message) {
+        if (size == messages.length) {
+            // Spill the oldest message and drop it from the visible rows
+            spill(messages[head]);
+            messages[head] = null;
+            head = (head + 1) % messages.length;
+            size--;
+            spilledCount++;
+            fireIntervalRemoved(this, 0, 0);
+        }
+        messages[(head + size) % messages.length] = message;
+        size++;
+        fireIntervalAdded(this, size - 1, size - 1);
+    }
+    
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        int oldSize = size;
+        messages = new String[messages.length];
+        head = 0;
+        size = 0;
+        spilledCount = 0;
+        fireIntervalRemoved(this, 0, oldSize - 1);
+    }
+    
+    public int getRetention() {
+        return messages.length;
+    }
+    
+    public long getSpilledCount() {
+        return spilledCount;
+    }
+    
+    public Path getSpillFile() {
+        return spillFile;
+    }
+    
+    @Override
+    public void close() {
+        // Closes the log once the messages already spilled are written;
+        // messages pushed out after this are dropped
+        if (spillExecutor.isShutdown()) {
+            return;
+        }
+        spillExecutor.execute(() -> {
+            try {
+                if (spillWriter != null) {
+                    spillWriter.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Could not save transcript: " + e.getMessage());
+            }
+        });
+        spillExecutor.shutdown();
+        try {
+            spillExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void spill(String message) {
+        if (spillExecutor.isShutdown()) {
+            return;
+        }
+        spillExecutor.execute(() -> {
+            try {
+                if (spillWriter == null) {
+                    spillWriter = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+                spillWriter.write(message);
+                spillWriter.write("\n\n");
+                spillWriter.flush();
+            } catch (IOException e) {
+                System.err.println("Could not save transcript: " + e.getMessage());
+            }
+        });
+    }
+}
\ No newline at end of file
@@ -0,0 +1,115 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+public class VectorStore {
+    // Fixed-size float vectors by id, kept off the Java heap in direct
+    // buffers of 4096 vectors each. A million 256-dimension vectors are a
+    // gigabyte that the garbage collector never has to trace or copy, and
+    // growing the store adds a buffer instead of copying the old ones.
+    //
+    // One writer at a time; readers never lock. A vector is complete before
+    // the buffer holding it is published, and callers only hand out an id
+    // after set() returns.
+    private static final int CHUNK_VECTORS = 4096;
+    
+    private int dimensions;
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private volatile FloatBuffer[] floats = new FloatBuffer[0];
+    
+    public VectorStore(int dimensions) {
+        this.dimensions = dimensions;
+    }
+    
+    public int getDimensions() {
+        return dimensions;
+    }
+    
+    public long offHeapBytes() {
+        return (long) chunks.length * CHUNK_VECTORS * dimensions * Float.BYTES;
+    }
+    
+    public void set(int id, float[] vector) {
+        ensureCapacity(id + 1);
+        FloatBuffer chunk = floats[id / CHUNK_VECTORS];
+        int base = (id % CHUNK_VECTORS) * dimensions;
+        for (int i = 0; i < dimensions; i++) {
+            chunk.put(base + i, vector[i]);
+        }
+    }
+    
+    public void get(int id, float[] into) {
+        // A bulk copy, which is far cheaper than one get per float
+        FloatBuffer chunk = floats[id / CHUNK_VECTORS].duplicate();
+        chunk.position((id % CHUNK_VECTORS) * dimensions);
+        chunk.get(into, 0, dimensions);
+    }
+    
+    public float dot(int id, float[] vector, int[] nonzero, int count) {
+        // Against a vector whose only nonzero entries are at the count
+        // positions listed; sentence vectors use a few dozen dimensions
+        // of hundreds, so this reads a fraction of the stored one
+        FloatBuffer chunk = floats[id / CHUNK_VECTORS];
+        int base = (id % CHUNK_VECTORS) * dimensions;
+        float sum = 0;
+        for (int i = 0; i < count; i++) {
+            int dimension = nonzero[i];
+            sum += chunk.get(base + dimension) * vector[dimension];
+        }
+        return sum;
+    }
+    
+    private void ensureCapacity(int count) {
+        int needed = (count + CHUNK_VECTORS - 1) / CHUNK_VECTORS;
+        if (needed <= chunks.length) {
+            return;
+        }
+        ByteBuffer[] grownChunks = Arrays.copyOf(chunks, needed);
+        FloatBuffer[] grownFloats = Arrays.copyOf(floats, needed);
+        for (int i = chunks.length; i < needed; i++) {
+            grownChunks[i] = ByteBuffer.allocateDirect(CHUNK_VECTORS * dimensions * Float.BYTES)
+                                       .order(ByteOrder.nativeOrder());
+            grownFloats[i] = grownChunks[i].asFloatBuffer();
+        }
+        chunks = grownChunks;
+        floats = grownFloats;
+    }
+    
+    void writeTo(WritableByteChannel channel, int count) throws IOException {
+        // The first count vectors, raw in native byte order
+        long remaining = (long) count * dimensions * Float.BYTES;
+        for (ByteBuffer chunk : chunks) {
+            if (remaining == 0) {
+                break;
+            }
+            ByteBuffer bytes = chunk.duplicate();
+            bytes.clear().limit((int) Math.min(remaining, bytes.capacity()));
+            remaining -= bytes.remaining();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+    }
+    
+    void readFrom(ReadableByteChannel channel, int count) throws IOException {
+        ensureCapacity(count);
+        long remaining = (long) count * dimensions * Float.BYTES;
+        for (ByteBuffer chunk : chunks) {
+            if (remaining == 0) {
+                break;
+            }
+            ByteBuffer bytes = chunk.duplicate();
+            bytes.clear().limit((int) Math.min(remaining, bytes.capacity()));
+            remaining -= bytes.remaining();
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes) < 0) {
+                    throw new IOException("Vector data is truncated");
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
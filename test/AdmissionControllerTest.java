@@ -0,0 +1,131 @@
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AdmissionControllerTest {
+    // A token bucket allows a full burst, then one token per interval, and
+    // never saves up more than its capacity, however many threads take from
+    // it; sessions have buckets of their own while training writes share
+    // one; and admission runs at most maxConcurrent turns, queues up to
+    // maxQueued more, and sheds the rest, or any turn whose expected wait
+    // is already too long, without blocking.
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    
+    public static void run(TestRunner tests) {
+        tests.run("a bucket allows its burst, then refills one token at a time", () -> {
+            TokenBucket bucket = new TokenBucket(10, 5);
+            long now = System.nanoTime();
+            for (int i = 0; i < 5; i++) {
+                TestRunner.check(bucket.tryAcquire(now), "token " + i + " of the burst");
+            }
+            TestRunner.check(!bucket.tryAcquire(now), "refused once empty");
+            TestRunner.check(!bucket.tryAcquire(now + SECOND / 20), "refused before a token interval");
+            TestRunner.check(bucket.tryAcquire(now + SECOND / 10), "one token after an interval");
+            TestRunner.check(!bucket.tryAcquire(now + SECOND / 10), "only one token after an interval");
+            TestRunner.check(bucket.tryAcquire(now + SECOND * 3 / 10), "tokens taken late still refill");
+            
+            // An hour idle refills the bucket but does not overfill it
+            long later = now + 3600 * SECOND;
+            int taken = 0;
+            while (bucket.tryAcquire(later)) {
+                taken++;
+            }
+            TestRunner.checkEquals(5, taken, "tokens after a long idle");
+        });
+        
+        tests.run("concurrent takers never get more than the capacity", () -> {
+            TokenBucket bucket = new TokenBucket(0.001, 50);
+            long now = System.nanoTime();
+            AtomicInteger taken = new AtomicInteger();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        if (bucket.tryAcquire(now)) {
+                            taken.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            TestRunner.checkEquals(50, taken.get(), "tokens taken");
+        });
+        
+        tests.run("sessions have their own buckets, training writes share one", () -> {
+            // Rates slow enough that nothing refills while the test runs
+            AdmissionController limits = new AdmissionController(0.01, 3, 0.01, 2, 0.01, 0, 0, 0);
+            ChatSession first = new ChatSession();
+            ChatSession second = new ChatSession();
+            for (ChatSession session : Arrays.asList(first, second)) {
+                for (int i = 0; i < 3; i++) {
+                    TestRunner.check(limits.tryAcquire(session, AdmissionController.Command.MESSAGE),
+                                     "message " + i + " of " + session.getId());
+                }
+                TestRunner.check(!limits.tryAcquire(session, AdmissionController.Command.MESSAGE),
+                                 "message over the burst of " + session.getId());
+            }
+            
+            // The shared bucket holds a single write, so the second session's
+            // first training is refused though its own bucket is full
+            TestRunner.check(limits.tryAcquire(first, AdmissionController.Command.TRAINING), "first training");
+            TestRunner.check(!limits.tryAcquire(second, AdmissionController.Command.TRAINING),
+                             "training over the shared limit");
+        });
+        
+        tests.run("limits that are not configured allow everything", () -> {
+            AdmissionController limits = new AdmissionController(0, 0, 0, 0, 0, 0, 0, 0);
+            ChatSession session = new ChatSession();
+            for (int i = 0; i < 1000; i++) {
+                TestRunner.check(limits.tryAcquire(session, AdmissionController.Command.MESSAGE), "message " + i);
+                TestRunner.check(limits.tryAcquire(session, AdmissionController.Command.TRAINING), "training " + i);
+                TestRunner.check(limits.enter(), "turn " + i);
+            }
+            TestRunner.checkEquals(0, limits.getActiveCount(), "active count");
+        });
+        
+        tests.run("turns beyond the concurrency limit queue or are shed", () -> {
+            AdmissionController admission = new AdmissionController(0, 0, 0, 0, 0, 2, 1, 10_000);
+            TestRunner.check(admission.enter(), "first turn");
+            TestRunner.check(admission.enter(), "second turn");
+            TestRunner.checkEquals(2, admission.getActiveCount(), "active count");
+            
+            AtomicBoolean admitted = new AtomicBoolean();
+            Thread waiting = new Thread(() -> admitted.set(admission.enter()), "queued-turn");
+            waiting.start();
+            long deadline = System.nanoTime() + 5 * SECOND;
+            while (admission.getQueuedCount() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            TestRunner.checkEquals(1, admission.getQueuedCount(), "queued count");
+            TestRunner.check(!admission.enter(), "shed with the queue full");
+            
+            admission.exit(0);
+            waiting.join(5000);
+            TestRunner.check(admitted.get(), "queued turn admitted once a slot frees");
+            TestRunner.checkEquals(2, admission.getActiveCount(), "active count after the hand-over");
+            TestRunner.checkEquals(0, admission.getQueuedCount(), "queued count after the hand-over");
+            admission.exit(0);
+            admission.exit(0);
+            TestRunner.checkEquals(0, admission.getActiveCount(), "active count after every exit");
+        });
+        
+        tests.run("a turn whose expected wait is too long is shed at once", () -> {
+            AdmissionController admission = new AdmissionController(0, 0, 0, 0, 0, 1, 10, 1000);
+            TestRunner.check(admission.enter(), "first turn");
+            admission.exit(10 * SECOND);
+            TestRunner.check(admission.enter(), "second turn");
+            
+            // One turn ahead at ten seconds each is far over the one second limit
+            long start = System.nanoTime();
+            TestRunner.check(!admission.enter(), "shed on the expected wait");
+            TestRunner.check(System.nanoTime() - start < SECOND / 2, "shed without waiting");
+            admission.exit(0);
+        });
+    }
+}
\ No newline at end of file
@@ -0,0 +1,62 @@
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class BackgroundLoadTest {
+    // The bot answers as soon as it is constructed: built-in and previously
+    // trained answers are there before the training file has loaded, the
+    // reported progress only moves forward and ends at 1, and an answer
+    // trained while the file loads wins over the file's answer for the same
+    // question once the loaded knowledge base is swapped in.
+    public static void run(TestRunner tests) {
+        tests.run("answers while the training file loads and keeps what was trained", () -> {
+            Path directory = Files.createTempDirectory("background-load-test");
+            Chatbot first = new Chatbot(directory);
+            try {
+                first.awaitLoaded();
+                first.trainBot("journal question", "From the journal.");
+            } finally {
+                first.close();
+            }
+            
+            try (BufferedWriter out = Files.newBufferedWriter(directory.resolve("training_data.txt"),
+                                                              StandardCharsets.UTF_8)) {
+                for (int i = 0; i < 200_000; i++) {
+                    out.write("loaded question " + i + "|Loaded answer " + i + ".\n");
+                }
+            }
+            long start = System.nanoTime();
+            Chatbot chatbot = new Chatbot(directory);
+            try {
+                long constructedMillis = (System.nanoTime() - start) / 1_000_000;
+                TestRunner.check(!chatbot.isLoaded(), "loaded before the constructor returned, in " + constructedMillis + " ms");
+                KnowledgeBase early = chatbot.getKnowledgeBase();
+                TestRunner.checkEquals("Hello there! How can I assist you today?", early.get("hello"), "built-in answer");
+                TestRunner.checkEquals("From the journal.", early.get("journal question"), "journal answer");
+                chatbot.trainBot("loaded question 7", "Trained during the load.");
+                
+                double progress = 0;
+                while (!chatbot.isLoaded()) {
+                    double now = chatbot.getLoadProgress();
+                    TestRunner.check(now >= progress && now <= 1, "progress went from " + progress + " to " + now);
+                    progress = now;
+                    Thread.sleep(5);
+                }
+                chatbot.awaitLoaded();
+                TestRunner.checkEquals(1.0, chatbot.getLoadProgress(), "progress once loaded");
+                
+                KnowledgeBase loaded = chatbot.getKnowledgeBase();
+                TestRunner.checkEquals("Loaded answer 199999.", loaded.get("loaded question 199999"), "loaded answer");
+                TestRunner.checkEquals("Trained during the load.", loaded.get("loaded question 7"),
+                                       "answer trained during the load");
+                TestRunner.checkEquals("From the journal.", loaded.get("journal question"), "journal answer once loaded");
+                TestRunner.checkEquals("Hello there! How can I assist you today?", loaded.get("hello"),
+                                       "built-in answer once loaded");
+            } finally {
+                chatbot.close();
+            }
+        });
+    }
+}
\ No newline at end of file
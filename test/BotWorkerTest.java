@@ -0,0 +1,95 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BotWorkerTest {
+    // Requests run on the worker thread, never on the reply thread, and
+    // their replies come back on the reply thread in the order they were
+    // sent; cancelling drops the reply of a running request, keeps queued
+    // ones from running at all, and leaves later requests unaffected; a
+    // request that throws reports its failure instead of a reply.
+    public static void run(TestRunner tests) {
+        tests.run("replies come back on the reply thread in order", () -> {
+            ExecutorService replies = replyThread();
+            try {
+                BotWorker worker = new BotWorker("bot-worker-test", replies, () -> {});
+                List<String> received = Collections.synchronizedList(new ArrayList<>());
+                CountDownLatch done = new CountDownLatch(100);
+                replies.submit(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        int request = i;
+                        worker.submit(() -> Thread.currentThread().getName() + " " + request, reply -> {
+                            received.add(Thread.currentThread().getName() + " <- " + reply);
+                            done.countDown();
+                        }, failure -> done.countDown());
+                    }
+                }).get();
+                TestRunner.check(done.await(5, TimeUnit.SECONDS), "replies delivered");
+                for (int i = 0; i < 100; i++) {
+                    TestRunner.checkEquals("reply-thread <- bot-worker-test " + i, received.get(i), "reply " + i);
+                }
+                TestRunner.checkEquals(false, replies.submit(worker::hasPending).get(), "pending after the replies");
+            } finally {
+                replies.shutdownNow();
+            }
+        });
+        
+        tests.run("cancelling drops running and queued requests only", () -> {
+            ExecutorService replies = replyThread();
+            try {
+                BotWorker worker = new BotWorker("bot-worker-test", replies, () -> {});
+                CountDownLatch running = new CountDownLatch(1);
+                CountDownLatch release = new CountDownLatch(1);
+                AtomicInteger ran = new AtomicInteger();
+                List<String> received = Collections.synchronizedList(new ArrayList<>());
+                replies.submit(() -> {
+                    worker.submit(() -> {
+                        running.countDown();
+                        release.await();
+                        return "running";
+                    }, received::add, failure -> received.add("failed"));
+                    for (int i = 0; i < 3; i++) {
+                        worker.submit(() -> "queued " + ran.incrementAndGet(), received::add, failure -> received.add("failed"));
+                    }
+                }).get();
+                TestRunner.check(running.await(5, TimeUnit.SECONDS), "first request started");
+                replies.submit(worker::cancelPending).get();
+                TestRunner.checkEquals(false, replies.submit(worker::hasPending).get(), "pending after cancelling");
+                release.countDown();
+                
+                CountDownLatch later = new CountDownLatch(1);
+                replies.submit(() -> worker.submit(() -> "later", reply -> {
+                    received.add(reply);
+                    later.countDown();
+                }, failure -> later.countDown())).get();
+                TestRunner.check(later.await(5, TimeUnit.SECONDS), "later request answered");
+                TestRunner.checkEquals(Collections.singletonList("later"), received, "replies delivered");
+                TestRunner.checkEquals(0, ran.get(), "queued requests that ran");
+            } finally {
+                replies.shutdownNow();
+            }
+        });
+        
+        tests.run("a failing request reports its cause", () -> {
+            ExecutorService replies = replyThread();
+            try {
+                AtomicInteger pendingChanges = new AtomicInteger();
+                BotWorker worker = new BotWorker("bot-worker-test", replies, pendingChanges::incrementAndGet);
+                CompletableFuture<Throwable> failed = new CompletableFuture<>();
+                replies.submit(() -> worker.submit(() -> {
+                    throw new IllegalStateException("no knowledge base");
+                }, reply -> failed.complete(null), failed::complete)).get();
+                Throwable cause = failed.get(5, TimeUnit.SECONDS);
+                TestRunner.check(cause instanceof IllegalStateException, "cause " + cause);
+                TestRunner.checkEquals(2, replies.submit(pendingChanges::get).get(), "pending changes reported");
+            } finally {
+                replies.shutdownNow();
+            }
+        });
+    }
+    
+    private static ExecutorService replyThread() {
+        // Stands in for the Event Dispatch Thread
+        return Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "reply-thread"));
+    }
+}
\ No newline at end of file
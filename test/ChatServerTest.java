@@ -0,0 +1,127 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+public class ChatServerTest {
+    // Each line sent gets exactly one reply line, in order, even when many
+    // lines arrive in one packet; commands are answered by the server and
+    // train: reaches the shared bot; replies stay single lines; a line over
+    // the limit is refused and the connection closed; and closed
+    // connections are no longer counted.
+    public static void run(TestRunner tests) {
+        tests.run("answers lines in order and handles commands", () -> {
+            withServer((chatbot, server) -> {
+                try (Client client = new Client(server)) {
+                    TestRunner.checkEquals("Training: I've learned something new!", client.ask("train: zebra migration | A long walk."),
+                                           "train: reply");
+                    TestRunner.checkEquals("A long walk.", client.ask("zebra migration"), "trained answer");
+                    TestRunner.checkEquals("A long walk.", chatbot.getKnowledgeBase().get("zebra migration"),
+                                           "trained into the shared bot");
+                    TestRunner.checkEquals("", client.ask(""), "empty line");
+                    TestRunner.checkEquals("Context reset.", client.ask("/reset"), "reset");
+                    
+                    chatbot.trainBot("multi line question", "first line\nsecond line");
+                    TestRunner.checkEquals("first line second line", client.ask("multi line question"),
+                                           "reply kept on one line");
+                    TestRunner.checkEquals("Goodbye! Have a great day.", client.ask("/quit"), "quit");
+                    TestRunner.checkEquals(null, client.in.readLine(), "end of stream after quit");
+                }
+            });
+        });
+        
+        tests.run("pipelined lines come back in order", () -> {
+            withServer((chatbot, server) -> {
+                for (int i = 0; i < 200; i++) {
+                    chatbot.trainBot("pipelined question " + i, "Answer " + i + ".");
+                }
+                List<Client> clients = new ArrayList<>();
+                try {
+                    for (int c = 0; c < 3; c++) {
+                        Client client = new Client(server);
+                        clients.add(client);
+                        StringBuilder burst = new StringBuilder();
+                        for (int i = 0; i < 200; i++) {
+                            burst.append("pipelined question ").append(i).append(i % 2 == 0 ? "\r\n" : "\n");
+                        }
+                        client.out.write(burst.toString().getBytes(StandardCharsets.UTF_8));
+                        client.out.flush();
+                    }
+                    for (Client client : clients) {
+                        for (int i = 0; i < 200; i++) {
+                            TestRunner.checkEquals("Answer " + i + ".", client.in.readLine(), "reply " + i);
+                        }
+                    }
+                } finally {
+                    for (Client client : clients) {
+                        client.close();
+                    }
+                }
+            });
+        });
+        
+        tests.run("refuses an over-long line and forgets closed connections", () -> {
+            withServer((chatbot, server) -> {
+                try (Client client = new Client(server)) {
+                    TestRunner.checkEquals("Context reset.", client.ask("/reset"), "reply before the long line");
+                    client.out.write(new byte[20_000]);
+                    client.out.write('\n');
+                    client.out.flush();
+                    TestRunner.checkEquals("Message too long; closing connection.", client.in.readLine(), "refusal");
+                    TestRunner.checkEquals(null, client.in.readLine(), "end of stream after the refusal");
+                }
+                long deadline = System.currentTimeMillis() + 5000;
+                while (server.getConnectionCount() > 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                TestRunner.checkEquals(0, server.getConnectionCount(), "open connections");
+            });
+        });
+    }
+    
+    private interface ServerTest {
+        void run(Chatbot chatbot, ChatServer server) throws Exception;
+    }
+    
+    private static void withServer(ServerTest test) throws Exception {
+        Chatbot chatbot = new Chatbot(Files.createTempDirectory("chat-server-test"));
+        ChatServer server = null;
+        try {
+            chatbot.awaitLoaded();
+            server = new ChatServer(chatbot, new InetSocketAddress("127.0.0.1", 0), 2, 2);
+            server.start();
+            test.run(chatbot, server);
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+            chatbot.close();
+        }
+    }
+    
+    private static class Client implements Closeable {
+        private Socket socket;
+        private BufferedReader in;
+        private OutputStream out;
+        
+        Client(ChatServer server) throws IOException {
+            socket = new Socket("127.0.0.1", server.getPort());
+            socket.setSoTimeout(5000);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new BufferedOutputStream(socket.getOutputStream());
+        }
+        
+        String ask(String line) throws IOException {
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            return in.readLine();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,82 @@
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ChatSessionTest {
+    // Sessions of one bot keep their own history and context: a reset or a
+    // flood of messages in one never shows up in another, even when they
+    // are answered on different threads at once. What is trained through
+    // any session goes into the shared knowledge base, so every session
+    // answers with it.
+    public static void run(TestRunner tests) {
+        tests.run("sessions keep their own history and share what is trained", () -> {
+            Chatbot chatbot = new Chatbot(Files.createTempDirectory("chat-session-test"));
+            try {
+                chatbot.awaitLoaded();
+                ChatSession alice = chatbot.newSession();
+                ChatSession bob = chatbot.newSession();
+                chatbot.getResponse(alice, "hello there");
+                chatbot.getResponse(alice, "tell me about java");
+                chatbot.getResponse(bob, "good morning");
+                TestRunner.checkEquals(Arrays.asList("hello there", "tell me about java"), alice.getConversationHistory(),
+                                       "first session's history");
+                TestRunner.checkEquals(Collections.singletonList("good morning"), bob.getConversationHistory(),
+                                       "second session's history");
+                TestRunner.checkEquals("hello there", alice.getPreviousMessage(), "previous message");
+                
+                alice.reset();
+                TestRunner.checkEquals(0, alice.getMessageCount(), "messages after a reset");
+                TestRunner.checkEquals(1, bob.getMessageCount(), "other session after a reset");
+                
+                chatbot.processTrainingCommand(bob, "train: what is a zebra migration | A long walk.");
+                TestRunner.checkEquals("A long walk.", chatbot.getResponse(alice, "what is a zebra migration"),
+                                       "answer trained by another session");
+            } finally {
+                chatbot.close();
+            }
+        });
+        
+        tests.run("sessions answered in parallel never see each other's messages", () -> {
+            Chatbot chatbot = new Chatbot(Files.createTempDirectory("chat-session-test"));
+            try {
+                chatbot.awaitLoaded();
+                int capacity = ChatSession.getHistoryCapacity();
+                List<ChatSession> sessions = new ArrayList<>();
+                List<Thread> threads = new ArrayList<>();
+                AtomicReference<Throwable> failure = new AtomicReference<>();
+                for (int t = 0; t < 4; t++) {
+                    ChatSession session = chatbot.newSession();
+                    sessions.add(session);
+                    int user = t;
+                    Thread thread = new Thread(() -> {
+                        try {
+                            for (int i = 0; i < 500; i++) {
+                                chatbot.getResponse(session, "user " + user + " asks about java " + i);
+                                List<String> history = session.getConversationHistory();
+                                TestRunner.checkEquals("user " + user + " asks about java " + i,
+                                                       history.get(history.size() - 1), "latest message");
+                            }
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    });
+                    thread.start();
+                    threads.add(thread);
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                TestRunner.check(failure.get() == null, String.valueOf(failure.get()));
+                for (int t = 0; t < sessions.size(); t++) {
+                    List<String> expected = new ArrayList<>();
+                    for (int i = 500 - capacity; i < 500; i++) {
+                        expected.add("user " + t + " asks about java " + i);
+                    }
+                    TestRunner.checkEquals(expected, sessions.get(t).getConversationHistory(), "history of session " + t);
+                }
+            } finally {
+                chatbot.close();
+            }
+        });
+    }
+}
\ No newline at end of file
@@ -0,0 +1,157 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ChatStatisticsTest {
+    // A snapshot reports the answer paths and rejections recorded, since
+    // start and in every rolling window, along with the top keywords and
+    // cache counters; snapshots taken close together are shared; and a
+    // subscription delivers snapshots until it is closed, or until its
+    // listener throws.
+    public static void run(TestRunner tests) {
+        tests.run("windows count what was recorded", () -> {
+            ChatMetrics metrics = new ChatMetrics();
+            KeywordCounter keywords = new KeywordCounter();
+            ResponseCache cache = new ResponseCache(100, 60_000);
+            ChatStatistics statistics = new ChatStatistics(metrics, keywords, cache);
+            for (int i = 0; i < 5; i++) {
+                metrics.recordResolution(ChatMetrics.Resolution.EXACT);
+                keywords.increment("java");
+            }
+            for (int i = 0; i < 3; i++) {
+                metrics.recordResolution(ChatMetrics.Resolution.RANKED);
+                keywords.increment("python");
+            }
+            metrics.recordRejection(ChatMetrics.Rejection.MESSAGE_RATE);
+            metrics.recordRejection(ChatMetrics.Rejection.MESSAGE_RATE);
+            cache.get("never cached");
+            
+            ChatStatistics.Snapshot snapshot = statistics.snapshot();
+            TestRunner.checkEquals(8L, snapshot.getMessageCount(), "messages");
+            List<ChatStatistics.Window> windows = new ArrayList<>(snapshot.getWindows());
+            windows.add(snapshot.getTotal());
+            TestRunner.checkEquals(ChatStatistics.WINDOW_SECONDS.length + 1, windows.size(), "windows");
+            for (ChatStatistics.Window window : windows) {
+                String name = window.getSeconds() + "s window";
+                TestRunner.checkEquals(8L, window.getMessageCount(), "messages in the " + name);
+                TestRunner.checkEquals(5L, window.getResolutionCount(ChatMetrics.Resolution.EXACT),
+                                       "exact in the " + name);
+                TestRunner.checkEquals(3L, window.getResolutionCount(ChatMetrics.Resolution.RANKED),
+                                       "ranked in the " + name);
+                TestRunner.checkEquals(0L, window.getResolutionCount(ChatMetrics.Resolution.CACHE),
+                                       "cached in the " + name);
+                TestRunner.checkEquals(2L, window.getRejectionCount(ChatMetrics.Rejection.MESSAGE_RATE),
+                                       "rate rejections in the " + name);
+                TestRunner.checkEquals(0L, window.getRejectionCount(ChatMetrics.Rejection.OVERLOAD),
+                                       "overload rejections in the " + name);
+            }
+            TestRunner.checkEquals(60, snapshot.getWindows().get(0).getSeconds(), "shortest window first");
+            TestRunner.checkEquals(8.0, snapshot.getWindows().get(0).getMessagesPerMinute(), "messages per minute");
+            TestRunner.checkEquals(0, snapshot.getTotal().getSeconds(), "length of the totals");
+            
+            TestRunner.checkEquals(2L, snapshot.getUniqueKeywordCount(), "distinct keywords");
+            TestRunner.checkEquals("java", snapshot.getTopKeywords().get(0).getKey(), "top keyword");
+            TestRunner.checkEquals(5, snapshot.getTopKeywords().get(0).getValue(), "top keyword count");
+            TestRunner.checkEquals(1L, snapshot.getCacheMissCount(), "cache misses");
+            TestRunner.checkEquals(0L, snapshot.getCacheHitCount(), "cache hits");
+        });
+        
+        tests.run("snapshots close together are shared, later ones are fresh", () -> {
+            ChatMetrics metrics = new ChatMetrics();
+            ChatStatistics statistics = new ChatStatistics(metrics, new KeywordCounter(),
+                                                           new ResponseCache(100, 60_000));
+            ChatStatistics.Snapshot first = statistics.snapshot();
+            metrics.recordResolution(ChatMetrics.Resolution.EXACT);
+            ChatStatistics.Snapshot second = statistics.snapshot();
+            if (second != first) {
+                // The two calls were further apart than the sharing interval
+                TestRunner.checkEquals(1L, second.getMessageCount(), "messages in a fresh snapshot");
+            } else {
+                TestRunner.checkEquals(0L, second.getMessageCount(), "messages in a shared snapshot");
+            }
+            Thread.sleep(300);
+            TestRunner.checkEquals(1L, statistics.snapshot().getMessageCount(), "messages after the interval");
+        });
+        
+        tests.run("a subscription delivers until it is closed", () -> {
+            ChatMetrics metrics = new ChatMetrics();
+            ChatStatistics statistics = new ChatStatistics(metrics, new KeywordCounter(),
+                                                           new ResponseCache(100, 60_000));
+            BlockingQueue<ChatStatistics.Snapshot> delivered = new LinkedBlockingQueue<>();
+            ChatStatistics.Subscription subscription = statistics.subscribe(0, delivered::add);
+            try {
+                TestRunner.check(delivered.poll(5, TimeUnit.SECONDS) != null, "first snapshot delivered");
+                metrics.recordResolution(ChatMetrics.Resolution.RANKED);
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                long seen = 0;
+                while (seen == 0 && System.nanoTime() < deadline) {
+                    ChatStatistics.Snapshot snapshot = delivered.poll(100, TimeUnit.MILLISECONDS);
+                    seen = snapshot == null ? 0 : snapshot.getMessageCount();
+                }
+                TestRunner.checkEquals(1L, seen, "a later snapshot sees the new message");
+            } finally {
+                subscription.close();
+            }
+            
+            // A delivery already running when closed may still arrive
+            Thread.sleep(100);
+            delivered.clear();
+            Thread.sleep(700);
+            TestRunner.checkEquals(0, delivered.size(), "snapshots after closing");
+            statistics.close();
+        });
+        
+        tests.run("a listener that throws is unsubscribed", () -> {
+            ChatStatistics statistics = new ChatStatistics(new ChatMetrics(), new KeywordCounter(),
+                                                           new ResponseCache(100, 60_000));
+            AtomicInteger calls = new AtomicInteger();
+            PrintStream stderr = System.err;
+            ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            System.setErr(new PrintStream(errors, true));
+            try {
+                statistics.subscribe(0, snapshot -> {
+                    calls.incrementAndGet();
+                    throw new IllegalStateException("listener failed");
+                });
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (calls.get() == 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+                Thread.sleep(700);
+            } finally {
+                System.setErr(stderr);
+                statistics.close();
+            }
+            TestRunner.checkEquals(1, calls.get(), "deliveries to the failing listener");
+            TestRunner.check(errors.toString().contains("listener failed"), "failure reported");
+        });
+        
+        tests.run("the bot's statistics follow its messages", () -> {
+            Chatbot chatbot = new Chatbot(Files.createTempDirectory("chat-statistics-test"));
+            try {
+                chatbot.awaitLoaded();
+                for (int i = 0; i < 10; i++) {
+                    chatbot.getResponse("tell me about topic " + i);
+                }
+                ChatStatistics.Snapshot snapshot = chatbot.getStatistics().snapshot();
+                TestRunner.checkEquals(10L, snapshot.getMessageCount(), "messages");
+                TestRunner.checkEquals(10L, snapshot.getStageCount(ChatMetrics.Stage.GET_RESPONSE),
+                                       "get_response samples");
+                for (ChatStatistics.Window window : snapshot.getWindows()) {
+                    TestRunner.checkEquals(10L, window.getMessageCount(),
+                                           "messages in the " + window.getSeconds() + "s window");
+                }
+                TestRunner.check(snapshot.getStageP99Nanos(ChatMetrics.Stage.GET_RESPONSE) >=
+                                 snapshot.getStageP50Nanos(ChatMetrics.Stage.GET_RESPONSE), "p99 at least p50");
+                TestRunner.check(!snapshot.getTopKeywords().isEmpty(), "top keywords");
+            } finally {
+                chatbot.close();
+            }
+        });
+    }
+}
\ No newline at end of file
@@ -0,0 +1,136 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+public class ChunkedBuildTest {
+    // Building the keyword, ranked and spelling indexes in parallel chunks
+    // gives the same indexes as adding the keys one by one: same keys, same
+    // vocabulary, same ranked results and scores, same keyword matches and
+    // same corrections, whether the chunks go into an empty index or one
+    // that already holds keys.
+    private static final List<String> STOP_WORDS = Arrays.asList("the", "and", "what", "is", "how", "about");
+    private static final String[] WORDS = {
+        "java", "python", "machine", "learning", "program", "programming", "network", "server", "database",
+        "cache", "thread", "memory", "garbage", "collector", "compiler", "string", "stream", "socket",
+        "index", "search", "ranking", "spelling", "keyword", "history", "session", "journal", "shard"
+    };
+    
+    public static void run(TestRunner tests) {
+        tests.run("chunked builds match key-by-key builds", () -> {
+            Random random = new Random(31);
+            List<String> first = randomKeys(random, 5000);
+            List<String> second = randomKeys(random, 20_000);
+            ForkJoinPool pool = new ForkJoinPool(4);
+            try {
+                Indexes serial = new Indexes();
+                Indexes chunked = new Indexes();
+                for (List<String> keys : Arrays.asList(first, second)) {
+                    serial.keywords.addAll(keys);
+                    serial.ranked.addAll(keys);
+                    serial.spelling.addAll(keys);
+                    chunked.keywords.addAll(keys, pool);
+                    chunked.ranked.addAll(keys, pool);
+                    chunked.spelling.addAll(keys, pool);
+                    compare(serial, chunked, random);
+                }
+            } finally {
+                pool.shutdown();
+            }
+        });
+        
+        tests.run("keys added one by one are found before and after a background compile", () -> {
+            Random random = new Random(37);
+            KeywordIndex index = new KeywordIndex();
+            List<String> keys = new ArrayList<>(new LinkedHashSet<>(randomKeys(random, 3000)));
+            for (int i = 0; i < keys.size(); i++) {
+                index.add(keys.get(i));
+                if (i % 97 == 0) {
+                    String key = keys.get(random.nextInt(i + 1));
+                    TestRunner.check(index.findLongestKeyContainedIn("xx " + key + " yy") != null,
+                                     "a key inside the input after " + (i + 1) + " adds");
+                }
+            }
+            KeywordIndex compiled = new KeywordIndex();
+            compiled.addAll(keys);
+            for (int i = 0; i < 500; i++) {
+                String input = randomKeys(random, 1).get(0) + " " + keys.get(random.nextInt(keys.size()));
+                TestRunner.checkEquals(compiled.findLongestKeyContainedIn(input), index.findLongestKeyContainedIn(input),
+                                       "longest key in " + input);
+                String keyword = WORDS[random.nextInt(WORDS.length)];
+                TestRunner.checkEquals(compiled.findKeyRelatedTo(keyword), index.findKeyRelatedTo(keyword),
+                                       "key related to " + keyword);
+            }
+        });
+    }
+    
+    private static class Indexes {
+        private StopWords stopWords = new StopWords(STOP_WORDS);
+        private KeywordIndex keywords = new KeywordIndex();
+        private RankedIndex ranked = new RankedIndex(stopWords);
+        private SpellingIndex spelling = new SpellingIndex(stopWords);
+    }
+    
+    private static void compare(Indexes serial, Indexes chunked, Random random) {
+        TestRunner.checkEquals(serial.keywords.keys(), chunked.keywords.keys(), "keys");
+        TestRunner.checkEquals(serial.ranked.size(), chunked.ranked.size(), "ranked key count");
+        TestRunner.checkEquals(serial.spelling.vocabulary(), chunked.spelling.vocabulary(), "vocabulary");
+        for (int i = 0; i < 1000; i++) {
+            List<String> terms = new ArrayList<>();
+            int count = 1 + random.nextInt(4);
+            for (int t = 0; t < count; t++) {
+                terms.add(WORDS[random.nextInt(WORDS.length)] + (random.nextBoolean() ? "" : random.nextInt(50)));
+            }
+            TestRunner.checkEquals(describe(serial.ranked.searchScored(terms, 10)),
+                                   describe(chunked.ranked.searchScored(terms, 10)), "ranked results for " + terms);
+            
+            String input = String.join(" ", terms);
+            TestRunner.checkEquals(serial.keywords.findLongestKeyContainedIn(input),
+                                   chunked.keywords.findLongestKeyContainedIn(input), "longest key in " + input);
+            TestRunner.checkEquals(serial.keywords.findKeyOverlapping(input),
+                                   chunked.keywords.findKeyOverlapping(input), "key overlapping " + input);
+            TestRunner.checkEquals(serial.keywords.findKeyRelatedTo(terms.get(0)),
+                                   chunked.keywords.findKeyRelatedTo(terms.get(0)), "key related to " + terms.get(0));
+            
+            String typo = misspell(random, WORDS[random.nextInt(WORDS.length)]);
+            TestRunner.checkEquals(serial.spelling.correct(typo), chunked.spelling.correct(typo), "correction of " + typo);
+        }
+    }
+    
+    private static List<String> randomKeys(Random random, int count) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder key = new StringBuilder();
+            int words = 1 + random.nextInt(5);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) {
+                    key.append(random.nextInt(8) == 0 ? " the " : " ");
+                }
+                key.append(WORDS[random.nextInt(WORDS.length)]);
+                if (random.nextInt(3) == 0) {
+                    key.append(random.nextInt(50));
+                }
+            }
+            // Some keys repeat, within a batch and across batches
+            keys.add(key.toString());
+        }
+        return keys;
+    }
+    
+    private static String misspell(Random random, String word) {
+        StringBuilder typo = new StringBuilder(word);
+        int position = random.nextInt(typo.length());
+        if (random.nextBoolean()) {
+            typo.deleteCharAt(position);
+        } else {
+            typo.setCharAt(position, (char) ('a' + random.nextInt(26)));
+        }
+        return typo.toString();
+    }
+    
+    private static List<String> describe(List<RankedIndex.Match> matches) {
+        List<String> described = new ArrayList<>();
+        for (RankedIndex.Match match : matches) {
+            described.add(match.getKey() + "=" + match.getScore());
+        }
+        return described;
+    }
+}
\ No newline at end of file
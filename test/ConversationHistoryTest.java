@@ -0,0 +1,165 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConversationHistoryTest {
+    // The ring keeps the last messages in order, readers racing a writer
+    // never fail or see a message out of place, and the session log
+    // restores each session's messages across segment rolls, compaction,
+    // resets and a torn tail.
+    public static void run(TestRunner tests) {
+        tests.run("keeps the last capacity messages, oldest first", () -> {
+            ConversationHistory history = new ConversationHistory(4);
+            for (int i = 0; i < 11; i++) {
+                history.add("m" + i);
+            }
+            TestRunner.checkEquals(Arrays.asList("m7", "m8", "m9", "m10"), history.snapshot(), "window");
+            TestRunner.checkEquals("m10", history.latest(0), "newest");
+            TestRunner.checkEquals("m7", history.latest(3), "oldest");
+            TestRunner.checkEquals(null, history.latest(4), "past the window");
+            history.clear();
+            TestRunner.checkEquals(Collections.emptyList(), history.snapshot(), "after clear");
+            history.add("m11");
+            TestRunner.checkEquals(Collections.singletonList("m11"), history.snapshot(), "after clear and add");
+        });
+        
+        tests.run("a snapshot stays readable while messages are added", () -> {
+            ConversationHistory history = new ConversationHistory(3);
+            for (int i = 0; i < 3; i++) {
+                history.add("m" + i);
+            }
+            List<String> snapshot = history.snapshot();
+            for (int i = 3; i < 10; i++) {
+                history.add("m" + i);
+            }
+            TestRunner.checkEquals(Arrays.asList("m0", "m1", "m2"), snapshot, "earlier snapshot");
+        });
+        
+        tests.run("readers racing a writer see consecutive messages only", () -> {
+            ConversationHistory history = new ConversationHistory(10);
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicReference<String> failure = new AtomicReference<>();
+            List<Thread> readers = new ArrayList<>();
+            for (int r = 0; r < 2; r++) {
+                Thread reader = new Thread(() -> {
+                    while (!done.get() && failure.get() == null) {
+                        List<String> snapshot = history.snapshot();
+                        for (int i = 1; i < snapshot.size(); i++) {
+                            if (Long.parseLong(snapshot.get(i)) != Long.parseLong(snapshot.get(i - 1)) + 1) {
+                                failure.set("out of order: " + snapshot);
+                            }
+                        }
+                        String latest = history.latest(0);
+                        if (latest != null && !snapshot.isEmpty()
+                                && Long.parseLong(latest) < Long.parseLong(snapshot.get(snapshot.size() - 1))) {
+                            failure.set("newest " + latest + " older than " + snapshot);
+                        }
+                    }
+                });
+                reader.start();
+                readers.add(reader);
+            }
+            for (long i = 0; i < 2_000_000; i++) {
+                history.add(Long.toString(i));
+            }
+            done.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            TestRunner.check(failure.get() == null, String.valueOf(failure.get()));
+        });
+        
+        tests.run("session log restores sessions after compaction and a torn tail", () -> {
+            Path directory = Files.createTempDirectory("session-log-test");
+            try {
+                int keep = 5;
+                Map<String, List<String>> expected = new HashMap<>();
+                Random random = new Random(3);
+                try (SessionLog log = new SessionLog(directory, keep, 4096, 2)) {
+                    for (int i = 0; i < 20_000; i++) {
+                        String session = "session-" + random.nextInt(50);
+                        List<String> messages = expected.computeIfAbsent(session, ignored -> new ArrayList<>());
+                        if (random.nextInt(100) == 0) {
+                            log.appendReset(session);
+                            messages.clear();
+                        } else {
+                            String message = "message " + i + " for " + session;
+                            log.append(session, message);
+                            messages.add(message);
+                        }
+                    }
+                    log.flush();
+                    TestRunner.check(log.getSegmentCount() <= 4, "segments were compacted: " + log.getSegmentCount());
+                }
+                
+                // A record cut short by a crash is dropped on open
+                Path newest = newestSegment(directory);
+                Files.write(newest, new byte[] {0, 0, 0, 40, 1, 2}, java.nio.file.StandardOpenOption.APPEND);
+                
+                try (SessionLog log = new SessionLog(directory, keep, 4096, 2)) {
+                    for (Map.Entry<String, List<String>> session : expected.entrySet()) {
+                        List<String> messages = session.getValue();
+                        List<String> last = messages.subList(Math.max(0, messages.size() - keep), messages.size());
+                        TestRunner.checkEquals(last, log.getRecoveredMessages(session.getKey()), session.getKey());
+                    }
+                }
+            } finally {
+                SyntheticCorpus.deleteDirectory(directory);
+            }
+        });
+        tests.run("closing while the writer is busy leaves the segments intact", () -> {
+            PrintStream stderr = System.err;
+            ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            System.setErr(new PrintStream(errors, true));
+            try {
+                for (int round = 0; round < 10; round++) {
+                    Path directory = Files.createTempDirectory("session-log-test");
+                    try {
+                        Map<String, List<String>> expected = new HashMap<>();
+                        // No flush before close: the writer is still writing,
+                        // rolling and compacting when close() is called
+                        try (SessionLog log = new SessionLog(directory, 3, 2048, 1)) {
+                            for (int i = 0; i < 5000; i++) {
+                                String session = "session-" + (i % 20);
+                                String message = "message " + i;
+                                log.append(session, message);
+                                expected.computeIfAbsent(session, ignored -> new ArrayList<>()).add(message);
+                            }
+                        }
+                        try (java.nio.file.DirectoryStream<Path> leftovers = Files.newDirectoryStream(directory, "*.compact")) {
+                            TestRunner.check(!leftovers.iterator().hasNext(), "a compaction was abandoned");
+                        }
+                        try (SessionLog log = new SessionLog(directory, 3, 2048, 1)) {
+                            for (Map.Entry<String, List<String>> session : expected.entrySet()) {
+                                List<String> messages = session.getValue();
+                                TestRunner.checkEquals(messages.subList(messages.size() - 3, messages.size()),
+                                                       log.getRecoveredMessages(session.getKey()), session.getKey());
+                            }
+                        }
+                    } finally {
+                        SyntheticCorpus.deleteDirectory(directory);
+                    }
+                }
+            } finally {
+                System.setErr(stderr);
+            }
+            TestRunner.checkEquals("", errors.toString(), "errors reported by the session log");
+        });
+    }
+    
+    private static Path newestSegment(Path directory) throws Exception {
+        Path newest = null;
+        try (java.nio.file.DirectoryStream<Path> segments = Files.newDirectoryStream(directory, "history-*.log")) {
+            for (Path segment : segments) {
+                if (newest == null || segment.getFileName().toString().compareTo(newest.getFileName().toString()) > 0) {
+                    newest = segment;
+                }
+            }
+        }
+        return newest;
+    }
+}
\ No newline at end of file
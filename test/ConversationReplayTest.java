@@ -0,0 +1,101 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class ConversationReplayTest {
+    // Conversation files are grouped by session in order, with train: lines
+    // pooled apart; budgets parse their units, treat throughput as a floor
+    // and everything else as a ceiling, and name what they cannot check; a
+    // baseline flags only regressions beyond the tolerance; and a short run
+    // against a bot reports every turn it measured.
+    public static void run(TestRunner tests) {
+        tests.run("reads conversations grouped by session", () -> {
+            Path file = Files.createTempDirectory("conversation-replay-test").resolve("conversations.tsv");
+            Files.write(file, Arrays.asList("# session<TAB>message", "a\thello", "b\twhat is java", "",
+                                            "a\ttrain: zebra | A long walk.", "a\thow are you", "no tab at all",
+                                            "b\tbye"), StandardCharsets.UTF_8);
+            List<String> training = new ArrayList<>();
+            List<List<String>> conversations = ConversationReplay.readConversations(file, training);
+            TestRunner.checkEquals(Arrays.asList(Arrays.asList("hello", "how are you"),
+                                                 Arrays.asList("what is java", "bye"),
+                                                 Collections.singletonList("no tab at all")),
+                                   conversations, "conversations");
+            TestRunner.checkEquals(Collections.singletonList("train: zebra | A long walk."), training, "training commands");
+        });
+        
+        tests.run("checks budgets with units, floors and ceilings", () -> {
+            TestRunner.checkEquals(1500.0, ConversationReplay.parseNanos("1.5us"), "microseconds");
+            TestRunner.checkEquals(5e6, ConversationReplay.parseNanos("5ms"), "milliseconds");
+            TestRunner.checkEquals(2e9, ConversationReplay.parseNanos("2 s"), "seconds");
+            TestRunner.checkEquals(250.0, ConversationReplay.parseNanos("250"), "plain nanoseconds");
+            
+            Map<String, Double> results = new LinkedHashMap<>();
+            results.put("throughput", 900.0);
+            results.put("read.p99", 4e6);
+            results.put("train.p99", 60e6);
+            results.put("heap.maxUsedMb", 120.0);
+            TestRunner.checkEquals(Collections.<String>emptyList(),
+                                   ConversationReplay.checkBudget("read.p99=5ms, throughput=800,heap.maxUsedMb=200,", results),
+                                   "failures within budget");
+            List<String> failures = ConversationReplay.checkBudget(
+                "read.p99=3ms,train.p99=50ms,throughput=1000,heap.maxUsedMb=100,read.p42=1ms,gc.maxPauseMs", results);
+            TestRunner.checkEquals(6, failures.size(), "failures over budget: " + failures);
+            TestRunner.check(failures.get(0).startsWith("read.p99 4.00 ms over budget 3ms"), failures.get(0));
+            TestRunner.check(failures.get(2).startsWith("throughput 900.0/s below budget 1000.0/s"), failures.get(2));
+            TestRunner.checkEquals("unknown budget read.p42=1ms", failures.get(4), "budget with no result");
+            TestRunner.checkEquals("unknown budget gc.maxPauseMs", failures.get(5), "budget with no value");
+        });
+        
+        tests.run("flags only regressions beyond the tolerance", () -> {
+            Properties baseline = new Properties();
+            baseline.setProperty("throughput", "1000");
+            baseline.setProperty("read.p99", "1000000");
+            baseline.setProperty("read.max", "1000");
+            baseline.setProperty("heap.maxUsedMb", "10");
+            Map<String, Double> results = new LinkedHashMap<>();
+            results.put("throughput", 850.0);
+            results.put("read.p99", 1.15e6);
+            results.put("read.max", 1e9);
+            results.put("heap.maxUsedMb", 1000.0);
+            TestRunner.checkEquals(Collections.<String>emptyList(),
+                                   ConversationReplay.checkBaseline(baseline, results, 0.2), "within tolerance");
+            List<String> failures = ConversationReplay.checkBaseline(baseline, results, 0.1);
+            TestRunner.checkEquals(2, failures.size(), "regressions: " + failures);
+            TestRunner.check(failures.get(0).startsWith("throughput regressed"), failures.get(0));
+            TestRunner.check(failures.get(1).startsWith("read.p99 regressed"), failures.get(1));
+        });
+        
+        tests.run("a short run reports the turns it measured", () -> {
+            Chatbot chatbot = new Chatbot(Files.createTempDirectory("conversation-replay-test"));
+            PrintStream stdout = System.out;
+            try {
+                chatbot.awaitLoaded();
+                List<List<String>> conversations = Arrays.asList(Arrays.asList("hello", "what is java", "bye"),
+                                                                 Arrays.asList("how are you", "tell me a joke"));
+                ConversationReplay replay = new ConversationReplay(chatbot, conversations,
+                                                                   Collections.singletonList("train: zebra | A walk."), 0.2);
+                ByteArrayOutputStream report = new ByteArrayOutputStream();
+                // The bot prints every training command it takes
+                System.setOut(new PrintStream(new ByteArrayOutputStream(), true));
+                Map<String, Double> results = replay.run(4, 2, 0, 100, 500, new PrintStream(report, true));
+                System.setOut(stdout);
+                
+                TestRunner.check(results.get("throughput") > 0, "throughput " + results.get("throughput"));
+                for (String key : Arrays.asList("read.p50", "read.p99", "read.max", "train.p50", "train.max")) {
+                    TestRunner.check(results.containsKey(key), "result " + key + " in " + results.keySet());
+                }
+                TestRunner.check(results.get("read.p50") <= results.get("read.p99")
+                                 && results.get("read.p99") <= results.get("read.max"), "read percentiles in order");
+                String text = report.toString("UTF-8");
+                TestRunner.check(text.startsWith("Replayed 4 sessions on 2 threads"), text);
+                TestRunner.checkEquals("A walk.", chatbot.getKnowledgeBase().get("zebra"), "trained by the replay");
+            } finally {
+                System.setOut(stdout);
+                chatbot.close();
+            }
+        });
+    }
+}
\ No newline at end of file
@@ -0,0 +1,79 @@
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+public class KeywordCounterTest {
+    // The sketch may overcount but must never undercount, including when
+    // several threads increment the same keywords at once.
+    public static void run(TestRunner tests) {
+        tests.run("single thread: estimates are at least the true counts", () -> {
+            KeywordCounter counter = new KeywordCounter(64, 1 << 12, 8);
+            Map<String, Integer> truth = new HashMap<>();
+            Random random = new Random(1);
+            for (int i = 0; i < 50_000; i++) {
+                // Skewed, and many more keywords than counters per row
+                String keyword = "k" + (int) Math.pow(random.nextInt(1 << 20), 0.6);
+                counter.increment(keyword);
+                truth.merge(keyword, 1, Integer::sum);
+            }
+            checkAtLeast(counter, truth);
+        });
+        
+        tests.run("concurrent increments of the same keywords are all counted", () -> {
+            int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+            int perThread = 200_000;
+            String[] keywords = {"java", "python", "sort", "list", "map", "thread", "lock", "queue"};
+            KeywordCounter counter = new KeywordCounter(16, 1 << 12, 4);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Thread worker = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        counter.increment(keywords[i % keywords.length]);
+                    }
+                });
+                worker.start();
+                workers.add(worker);
+            }
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            
+            Map<String, Integer> truth = new HashMap<>();
+            for (String keyword : keywords) {
+                truth.put(keyword, threads * perThread / keywords.length);
+            }
+            checkAtLeast(counter, truth);
+        });
+        
+        tests.run("top keywords are the most frequent ones", () -> {
+            KeywordCounter counter = new KeywordCounter();
+            for (int i = 0; i < 1000; i++) {
+                counter.increment("rare" + i);
+            }
+            for (int i = 0; i < 300; i++) {
+                counter.increment("java");
+                if (i % 2 == 0) {
+                    counter.increment("python");
+                }
+            }
+            List<Map.Entry<String, Integer>> top = counter.topKeywords(2);
+            TestRunner.checkEquals("java", top.get(0).getKey(), "most frequent");
+            TestRunner.checkEquals("python", top.get(1).getKey(), "second most frequent");
+            TestRunner.checkEquals(300, top.get(0).getValue(), "count of java");
+        });
+    }
+    
+    private static void checkAtLeast(KeywordCounter counter, Map<String, Integer> truth) {
+        for (Map.Entry<String, Integer> entry : truth.entrySet()) {
+            int estimate = counter.estimate(entry.getKey());
+            TestRunner.check(estimate >= entry.getValue(),
+                             entry.getKey() + " estimated " + estimate + " but counted " + entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class KnowledgeBaseFileTest {
+    // The mapped snapshot finds every key, including keys whose hashes
+    // collide, refuses files that are not snapshots, and a bot started on a
+    // snapshot answers from it, with trained answers layered on top across
+    // a restart.
+    public static void run(TestRunner tests) {
+        tests.run("finds keys with colliding hashes and misses absent ones", () -> {
+            // "Aa" and "BB" share a hash, so do all their concatenations
+            Map<String, String> entries = new LinkedHashMap<>();
+            String[] halves = {"Aa", "BB"};
+            for (String a : halves) {
+                for (String b : halves) {
+                    for (String c : halves) {
+                        entries.put(a + b + c, "response " + entries.size());
+                    }
+                }
+            }
+            entries.put("naïve café", "ünïcödé 😀");
+            Path directory = Files.createTempDirectory("knowledge-base-file-test");
+            Path file = directory.resolve("colliding.kb");
+            KnowledgeBaseFile.write(file, entries);
+            try (KnowledgeBaseFile snapshot = KnowledgeBaseFile.open(file)) {
+                for (Map.Entry<String, String> entry : entries.entrySet()) {
+                    TestRunner.checkEquals(entry.getValue(), snapshot.lookup(entry.getKey()), "lookup of " + entry.getKey());
+                }
+                TestRunner.checkEquals(null, snapshot.lookup("AaAaAaAa"), "colliding key that is absent");
+                TestRunner.checkEquals(null, snapshot.lookup("naïve"), "prefix of a key");
+            }
+            
+            Path empty = directory.resolve("empty.kb");
+            KnowledgeBaseFile.write(empty, Collections.<String, String>emptyMap());
+            try (KnowledgeBaseFile snapshot = KnowledgeBaseFile.open(empty)) {
+                TestRunner.checkEquals(0, snapshot.size(), "entries in an empty snapshot");
+                TestRunner.checkEquals(null, snapshot.lookup("anything"), "lookup in an empty snapshot");
+            }
+        });
+        
+        tests.run("refuses files that are not snapshots", () -> {
+            Path directory = Files.createTempDirectory("knowledge-base-file-test");
+            Path text = directory.resolve("text.kb");
+            Files.write(text, "hello | Hi there! How can I help you today?\n".getBytes(StandardCharsets.UTF_8));
+            Path truncated = directory.resolve("truncated.kb");
+            Files.write(truncated, new byte[] {0x43, 0x41, 0x4B});
+            for (Path file : Arrays.asList(text, truncated)) {
+                try (KnowledgeBaseFile snapshot = KnowledgeBaseFile.open(file)) {
+                    TestRunner.check(false, "opened " + file.getFileName() + " with " + snapshot.size() + " entries");
+                } catch (java.io.IOException e) {
+                    // Expected
+                }
+            }
+        });
+        
+        tests.run("a bot answers from its snapshot and keeps trained answers over it", () -> {
+            Path directory = Files.createTempDirectory("knowledge-base-file-test");
+            Map<String, String> entries = new LinkedHashMap<>();
+            for (int i = 0; i < 1000; i++) {
+                entries.put("what is zebra fact " + i, "Zebra fact number " + i + ".");
+            }
+            KnowledgeBaseFile.write(directory.resolve("training_data.kb"), entries);
+            
+            Chatbot chatbot = new Chatbot(directory);
+            try {
+                chatbot.awaitLoaded();
+                TestRunner.checkEquals("Zebra fact number 7.", chatbot.getResponse("what is zebra fact 7"),
+                                       "answer from the snapshot");
+                chatbot.trainBot("what is zebra fact 7", "A retrained fact.");
+                TestRunner.checkEquals("A retrained fact.", chatbot.getResponse("what is zebra fact 7"),
+                                       "trained answer over the snapshot");
+            } finally {
+                chatbot.close();
+            }
+            
+            Chatbot restarted = new Chatbot(directory);
+            try {
+                restarted.awaitLoaded();
+                KnowledgeBase knowledgeBase = restarted.getKnowledgeBase();
+                TestRunner.checkEquals("A retrained fact.", knowledgeBase.get("what is zebra fact 7"),
+                                       "trained answer after a restart");
+                TestRunner.checkEquals("Zebra fact number 999.", knowledgeBase.get("what is zebra fact 999"),
+                                       "snapshot answer after a restart");
+            } finally {
+                restarted.close();
+            }
+        });
+    }
+}
\ No newline at end of file
@@ -0,0 +1,103 @@
+import java.nio.file.Files;
+import java.util.*;
+
+public class LatencyHistogramTest {
+    // Percentiles stay within the histogram's 1/32 bucket resolution of the
+    // exact ones at every magnitude, small values are exact, out-of-range
+    // values are clamped rather than lost, concurrent recording loses no
+    // samples, and the bot records a latency for every answered message.
+    public static void run(TestRunner tests) {
+        tests.run("percentiles are within the bucket resolution", () -> {
+            Random random = new Random(41);
+            LatencyHistogram histogram = new LatencyHistogram();
+            long[] values = new long[100_000];
+            long sum = 0;
+            for (int i = 0; i < values.length; i++) {
+                // Log-uniform from a nanosecond to about 17 minutes
+                values[i] = (long) Math.pow(2, random.nextDouble() * 40);
+                histogram.record(values[i]);
+                sum += values[i];
+            }
+            Arrays.sort(values);
+            for (double percentile : new double[] {1, 10, 50, 90, 99, 99.9, 100}) {
+                long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+                long reported = histogram.getPercentileNanos(percentile);
+                TestRunner.check(Math.abs(reported - exact) <= Math.max(1, exact / 32),
+                                 "p" + percentile + ": exact " + exact + ", reported " + reported);
+            }
+            TestRunner.checkEquals((long) values.length, histogram.getCount(), "count");
+            TestRunner.checkEquals(values[values.length - 1], histogram.getMaxNanos(), "max");
+            TestRunner.checkEquals((double) sum / values.length, histogram.getMeanNanos(), "mean");
+        });
+        
+        tests.run("small values are exact and out-of-range values are clamped", () -> {
+            LatencyHistogram histogram = new LatencyHistogram();
+            TestRunner.checkEquals(0L, histogram.getPercentileNanos(99), "empty histogram");
+            for (long value = 0; value < 32; value++) {
+                histogram.record(value);
+            }
+            TestRunner.checkEquals(15L, histogram.getPercentileNanos(50), "median of 0..31");
+            TestRunner.checkEquals(31L, histogram.getPercentileNanos(100), "max of 0..31");
+            
+            histogram.reset();
+            histogram.record(-5);
+            TestRunner.checkEquals(0L, histogram.getPercentileNanos(100), "negative value");
+            histogram.record(Long.MAX_VALUE);
+            TestRunner.checkEquals(2L, histogram.getCount(), "count with clamped values");
+            long max = histogram.getMaxNanos();
+            TestRunner.checkEquals((1L << 40) - 1, max, "clamped max");
+            TestRunner.check(histogram.getPercentileNanos(100) <= max, "percentile past the max");
+        });
+        
+        tests.run("concurrent recording loses no samples", () -> {
+            LatencyHistogram histogram = new LatencyHistogram();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int thread = t;
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 100_000; i++) {
+                        histogram.record(1000 * (thread + 1));
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            TestRunner.checkEquals(400_000L, histogram.getCount(), "count");
+            TestRunner.checkEquals(4000L, histogram.getMaxNanos(), "max");
+            TestRunner.checkEquals(2500.0, histogram.getMeanNanos(), "mean");
+        });
+        
+        tests.run("the bot records a latency for every message", () -> {
+            Chatbot chatbot = new Chatbot(Files.createTempDirectory("latency-histogram-test"));
+            try {
+                chatbot.awaitLoaded();
+                ChatMetrics metrics = chatbot.getMetrics();
+                long before = metrics.getHistogram(ChatMetrics.Stage.GET_RESPONSE).getCount();
+                long resolved = resolutions(metrics);
+                for (int i = 0; i < 20; i++) {
+                    chatbot.getResponse("tell me something about topic " + i);
+                }
+                long after = metrics.getHistogram(ChatMetrics.Stage.GET_RESPONSE).getCount();
+                TestRunner.checkEquals(before + 20, after, "get_response samples");
+                TestRunner.checkEquals(resolved + 20, resolutions(metrics), "resolutions recorded");
+                TestRunner.check(metrics.renderText().contains(
+                                     "chatbot_stage_latency_seconds_count{stage=\"get_response\"} " + after),
+                                 "sample count in the metrics text");
+            } finally {
+                chatbot.close();
+            }
+        });
+    }
+    
+    private static long resolutions(ChatMetrics metrics) {
+        long total = 0;
+        for (ChatMetrics.Resolution resolution : ChatMetrics.Resolution.values()) {
+            total += metrics.getResolutionCount(resolution);
+        }
+        return total;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,219 @@
+import java.util.*;
+
+public class RankedIndexTest {
+    // MaxScore top-k retrieval returns what exhaustive BM25 scoring returns,
+    // with common terms only rescoring keys a rarer term brought in, and a key
+    // added after a bulk load leaves messages without its terms unchanged.
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final List<String> STOP_WORDS = Arrays.asList("the", "and", "what", "is", "how");
+    
+    public static void run(TestRunner tests) {
+        tests.run("top results match brute-force BM25", () -> {
+            Random random = new Random(7);
+            List<String> keys = randomKeys(random, 3000, 400, null, 0);
+            RankedIndex index = new RankedIndex(new StopWords(STOP_WORDS));
+            index.addAll(keys);
+            BruteForce expected = new BruteForce(keys);
+            for (int i = 0; i < 2000; i++) {
+                List<String> query = randomQuery(random, 400, null, 0);
+                assertSameTop(expected, index, query, 5);
+            }
+        });
+        
+        tests.run("common terms only rescore keys found through rarer ones", () -> {
+            // "common" is in about 60% of 10k keys, past the 4096-key floor
+            Random random = new Random(11);
+            List<String> keys = randomKeys(random, 10_000, 2000, "common", 0.6);
+            RankedIndex index = new RankedIndex(new StopWords(STOP_WORDS));
+            index.addAll(keys);
+            BruteForce expected = new BruteForce(keys);
+            TestRunner.check(expected.documentFrequency("common") > 4096, "common term is common");
+            for (int i = 0; i < 500; i++) {
+                assertSameTop(expected, index, randomQuery(random, 2000, "common", 0.7), 5);
+            }
+            // With nothing but common terms, they bring in keys after all
+            assertSameTop(expected, index, Collections.singletonList("common"), 5);
+        });
+        
+        tests.run("a trained key only changes messages sharing its terms", () -> {
+            Random random = new Random(13);
+            List<String> keys = randomKeys(random, 2000, 300, null, 0);
+            RankedIndex index = new RankedIndex(new StopWords(STOP_WORDS));
+            index.addAll(keys);
+            List<List<String>> queries = new ArrayList<>();
+            List<List<RankedIndex.Match>> before = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                List<String> query = randomQuery(random, 300, null, 0);
+                queries.add(query);
+                before.add(index.searchScored(query, 5));
+            }
+            
+            index.add("w1 w2 w3 brandnew");
+            Set<String> added = new HashSet<>(Arrays.asList("w1", "w2", "w3", "brandnew"));
+            int unchanged = 0;
+            for (int i = 0; i < queries.size(); i++) {
+                if (!Collections.disjoint(queries.get(i), added)) {
+                    continue;
+                }
+                List<RankedIndex.Match> after = index.searchScored(queries.get(i), 5);
+                TestRunner.checkEquals(describe(before.get(i)), describe(after), "results for " + queries.get(i));
+                unchanged++;
+            }
+            TestRunner.check(unchanged > 100, "enough queries without the new terms: " + unchanged);
+            TestRunner.checkEquals("w1 w2 w3 brandnew", index.findBestKey(Collections.singletonList("brandnew")),
+                "new key found by its own term");
+        });
+    }
+    
+    private static void assertSameTop(BruteForce expected, RankedIndex index, List<String> query, int k) {
+        List<double[]> scored = expected.search(query);
+        List<RankedIndex.Match> actual = index.searchScored(query, k);
+        TestRunner.checkEquals(Math.min(k, scored.size()), actual.size(), "result count for " + query);
+        for (int rank = 0; rank < actual.size(); rank++) {
+            // Scores accumulate in floats, so near-ties may swap places;
+            // every rank must still hold the right score, and every key the
+            // score brute force gives it
+            RankedIndex.Match match = actual.get(rank);
+            double expectedScore = scored.get(rank)[1];
+            checkClose(expectedScore, match.getScore(), "score at rank " + rank + " for " + query);
+            checkClose(expected.score(query, match.getKey()), match.getScore(), "score of " + match.getKey());
+        }
+    }
+    
+    private static void checkClose(double expected, double actual, String what) {
+        if (Math.abs(expected - actual) > 1e-4 * Math.max(1, Math.abs(expected))) {
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+    
+    private static List<String> randomKeys(Random random, int count, int vocabulary, String common, double commonShare) {
+        // Zipf-like word choice, so document frequencies spread widely
+        Set<String> keys = new LinkedHashSet<>();
+        while (keys.size() < count) {
+            StringBuilder key = new StringBuilder();
+            int words = 1 + random.nextInt(6);
+            for (int i = 0; i < words; i++) {
+                key.append(i == 0 ? "" : " ").append(word(random, vocabulary));
+                if (random.nextInt(5) == 0) {
+                    key.append(" the");
+                }
+            }
+            if (common != null && random.nextDouble() < commonShare) {
+                key.append(' ').append(common);
+            }
+            keys.add(key.toString());
+        }
+        return new ArrayList<>(keys);
+    }
+    
+    private static List<String> randomQuery(Random random, int vocabulary, String common, double commonChance) {
+        List<String> query = new ArrayList<>();
+        int words = 1 + random.nextInt(5);
+        for (int i = 0; i < words; i++) {
+            query.add(word(random, vocabulary));
+        }
+        if (common != null && random.nextDouble() < commonChance) {
+            query.add(random.nextInt(query.size() + 1), common);
+        }
+        return query;
+    }
+    
+    private static String word(Random random, int vocabulary) {
+        double u = random.nextDouble();
+        return "w" + (int) Math.floor(Math.pow(vocabulary, u));
+    }
+    
+    private static List<String> describe(List<RankedIndex.Match> matches) {
+        List<String> described = new ArrayList<>();
+        for (RankedIndex.Match match : matches) {
+            described.add(match.getKey() + "=" + match.getScore());
+        }
+        return described;
+    }
+    
+    private static class BruteForce {
+        // Scores every key against the query with the textbook formula
+        private List<String> keys;
+        private List<Map<String, Integer>> frequencies = new ArrayList<>();
+        private List<Integer> lengths = new ArrayList<>();
+        private Map<String, Integer> documentFrequencies = new HashMap<>();
+        private int rankedCount;
+        private double averageLength;
+        private int commonLimit;
+        
+        BruteForce(List<String> keys) {
+            this.keys = keys;
+            long total = 0;
+            for (String key : keys) {
+                Map<String, Integer> counts = new HashMap<>();
+                int length = 0;
+                for (String word : key.split(" ")) {
+                    if (!STOP_WORDS.contains(word) && word.length() > 2) {
+                        counts.merge(word, 1, Integer::sum);
+                        length++;
+                    }
+                }
+                // Keys without keywords cannot be ranked and do not count
+                frequencies.add(counts);
+                lengths.add(length);
+                rankedCount += length > 0 ? 1 : 0;
+                total += length;
+                for (String term : counts.keySet()) {
+                    documentFrequencies.merge(term, 1, Integer::sum);
+                }
+            }
+            averageLength = (double) total / rankedCount;
+            commonLimit = Math.max(4096, (int) (rankedCount * 0.01));
+        }
+        
+        int documentFrequency(String term) {
+            return documentFrequencies.getOrDefault(term, 0);
+        }
+        
+        double score(List<String> query, String key) {
+            return score(new LinkedHashSet<>(query), keys.indexOf(key));
+        }
+        
+        List<double[]> search(List<String> query) {
+            // (id, score) pairs in descending score order; a key qualifies
+            // through a rare query term, or any term if all are common
+            Set<String> terms = new LinkedHashSet<>(query);
+            boolean anyRare = false;
+            for (String term : terms) {
+                int frequency = documentFrequency(term);
+                anyRare |= frequency > 0 && frequency <= commonLimit;
+            }
+            List<double[]> scored = new ArrayList<>();
+            for (int id = 0; id < keys.size(); id++) {
+                boolean qualifies = false;
+                for (String term : terms) {
+                    if (frequencies.get(id).containsKey(term)
+                            && (!anyRare || documentFrequency(term) <= commonLimit)) {
+                        qualifies = true;
+                    }
+                }
+                if (qualifies) {
+                    scored.add(new double[] {id, score(terms, id)});
+                }
+            }
+            scored.sort((a, b) -> Double.compare(b[1], a[1]));
+            return scored;
+        }
+        
+        private double score(Set<String> terms, int id) {
+            double score = 0;
+            for (String term : terms) {
+                Integer frequency = frequencies.get(id).get(term);
+                if (frequency == null) {
+                    continue;
+                }
+                int df = documentFrequency(term);
+                double idf = Math.log(1 + (rankedCount - df + 0.5) / (df + 0.5));
+                double norm = K1 * (1 - B + B * lengths.get(id) / averageLength);
+                score += idf * frequency * (K1 + 1) / (frequency + norm);
+            }
+            return score;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,227 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ResponseCacheTest {
+    // The cache counts hits and misses, drops exactly the answers a trained
+    // key can change, keeps answers computed across an invalidation out,
+    // stays within its bound while keeping popular entries, and expires old
+    // ones; admission goes to whichever of a newcomer and its victim is asked
+    // for more, with old popularity fading; concurrent use keeps the bound
+    // and the counts; and the bot reports all of it through ChatMetrics.
+    public static void run(TestRunner tests) {
+        tests.run("counts hits and misses", () -> {
+            ResponseCache cache = new ResponseCache(100, 60_000);
+            TestRunner.checkEquals(null, cache.get("hello there"), "empty cache");
+            cache.put("hello there", new String[] {"hello", "there"}, "hello", "Hi!", cache.getVersion());
+            TestRunner.checkEquals("Hi!", cache.get("hello there"), "cached answer");
+            TestRunner.checkEquals("Hi!", cache.get("hello there"), "cached answer again");
+            TestRunner.checkEquals(2L, cache.getHitCount(), "hits");
+            TestRunner.checkEquals(1L, cache.getMissCount(), "misses");
+            TestRunner.checkEquals(2.0 / 3, cache.getHitRate(), "hit rate");
+        });
+        
+        tests.run("invalidates only answers the trained key can change", () -> {
+            ResponseCache cache = new ResponseCache(100, 60_000);
+            long version = cache.getVersion();
+            cache.put("tell me about java", new String[] {"tell", "java"}, "java", "A", version);
+            cache.put("what is python", new String[] {"python"}, "python", "B", version);
+            cache.put("python snakes", new String[] {"python", "snakes"}, "snakes", "C", version);
+            cache.put("learn rust", new String[] {"learn", "rust"}, "rust", "D", version);
+            cache.put("kotlin", new String[] {"kotlin"}, "kotlin", "E", version);
+            
+            // Resolved to "python", or a keyword of the input occurs in the key
+            cache.invalidate("python programming");
+            TestRunner.checkEquals(null, cache.get("what is python"), "resolved to an overlapping key");
+            TestRunner.checkEquals(null, cache.get("python snakes"), "keyword inside the key");
+            TestRunner.checkEquals("A", cache.get("tell me about java"), "unrelated answer");
+            TestRunner.checkEquals("D", cache.get("learn rust"), "unrelated answer");
+            
+            // The input occurs in the key
+            cache.invalidate("kotlin coroutines");
+            TestRunner.checkEquals(null, cache.get("kotlin"), "input inside the key");
+            TestRunner.checkEquals(2, cache.size(), "entries left");
+        });
+        
+        tests.run("drops answers computed across an invalidation", () -> {
+            ResponseCache cache = new ResponseCache(100, 60_000);
+            long version = cache.getVersion();
+            cache.invalidate("anything");
+            cache.put("hello", new String[] {"hello"}, "hello", "stale", version);
+            TestRunner.checkEquals(null, cache.get("hello"), "stale put");
+            cache.put("hello", new String[] {"hello"}, "hello", "fresh", cache.getVersion());
+            TestRunner.checkEquals("fresh", cache.get("hello"), "fresh put");
+            version = cache.getVersion();
+            cache.clear();
+            TestRunner.checkEquals(0, cache.size(), "after clear");
+            cache.put("hello", new String[] {"hello"}, "hello", "stale", version);
+            TestRunner.checkEquals(null, cache.get("hello"), "put across a clear");
+        });
+        
+        tests.run("stays bounded and keeps popular entries through a scan", () -> {
+            ResponseCache cache = new ResponseCache(200, 60_000);
+            for (int i = 0; i < 50; i++) {
+                cache.put("popular " + i, new String[] {"popular"}, "popular", "P" + i, cache.getVersion());
+            }
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 50; i++) {
+                    cache.get("popular " + i);
+                }
+            }
+            // A one-off scan several times the cache size
+            for (int i = 0; i < 2000; i++) {
+                cache.put("scan " + i, new String[] {"scan"}, "scan", "S" + i, cache.getVersion());
+                TestRunner.check(cache.size() <= 200, "size " + cache.size() + " over the bound");
+            }
+            int kept = 0;
+            for (int i = 0; i < 50; i++) {
+                kept += cache.get("popular " + i) != null ? 1 : 0;
+            }
+            TestRunner.checkEquals(50, kept, "popular entries kept");
+            TestRunner.check(cache.getEvictionCount() >= 2000 + 50 - 200, "evictions " + cache.getEvictionCount());
+        });
+        
+        tests.run("admits a newcomer only once it is asked for more than its victim", () -> {
+            ResponseCache cache = new ResponseCache(100, 60_000);
+            fillWithResidents(cache, 100, 2);
+            
+            // One request is not enough to displace an entry asked for three times
+            cache.put("one-off", new String[] {"one"}, "one", "O", cache.getVersion());
+            cache.put("push 1", new String[] {"push"}, "push", "P", cache.getVersion());
+            TestRunner.checkEquals(null, cache.get("one-off"), "one-off newcomer");
+            
+            int residents = countResidents(cache, 100);
+            for (int i = 0; i < 8; i++) {
+                cache.put("rising", new String[] {"rising"}, "rising", "R", cache.getVersion());
+            }
+            cache.put("push 2", new String[] {"push"}, "push", "P", cache.getVersion());
+            TestRunner.checkEquals("R", cache.get("rising"), "newcomer asked for more often");
+            TestRunner.checkEquals(residents - 1, countResidents(cache, 100), "residents left");
+        });
+        
+        tests.run("old popularity fades", () -> {
+            ResponseCache cache = new ResponseCache(100, 60_000);
+            fillWithResidents(cache, 100, 8);
+            // Enough one-off requests to halve the frequency counts several times
+            for (int i = 0; i < 5000; i++) {
+                cache.put("scan " + i, new String[] {"scan"}, "scan", "S", cache.getVersion());
+            }
+            for (int i = 0; i < 4; i++) {
+                cache.put("rising", new String[] {"rising"}, "rising", "R", cache.getVersion());
+            }
+            cache.put("push", new String[] {"push"}, "push", "P", cache.getVersion());
+            TestRunner.checkEquals("R", cache.get("rising"), "newcomer over formerly popular entries");
+        });
+        
+        tests.run("invalidation reaches every segment and keeps the bound", () -> {
+            ResponseCache cache = new ResponseCache(100, 60_000);
+            // Hit twice, so most residents are promoted to the protected segment
+            fillWithResidents(cache, 100, 2);
+            cache.invalidate("resident");
+            TestRunner.checkEquals(0, cache.size(), "entries after invalidating all residents");
+            for (int i = 0; i < 300; i++) {
+                cache.put("after " + i, new String[] {"after"}, "after", "A" + i, cache.getVersion());
+                TestRunner.check(cache.size() <= 100, "size " + cache.size() + " over the bound");
+            }
+            TestRunner.checkEquals(100, cache.size(), "entries after refilling");
+        });
+        
+        tests.run("concurrent reads, writes and invalidations stay consistent", () -> {
+            ResponseCache cache = new ResponseCache(100, 60_000);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            LongAdder gets = new LongAdder();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int seed = t;
+                threads.add(new Thread(() -> {
+                    Random random = new Random(seed);
+                    try {
+                        for (int i = 0; i < 50_000; i++) {
+                            String topic = "topic" + random.nextInt(20);
+                            String input = topic + " question " + random.nextInt(25);
+                            int action = random.nextInt(100);
+                            if (action < 70) {
+                                String answer = cache.get(input);
+                                gets.increment();
+                                TestRunner.check(answer == null || answer.startsWith(input), "answer for " + input);
+                            } else if (action < 99) {
+                                cache.put(input, new String[] {topic}, topic, input + " answer", cache.getVersion());
+                            } else {
+                                cache.invalidate(topic);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            TestRunner.check(failure.get() == null, String.valueOf(failure.get()));
+            TestRunner.check(cache.size() <= 100, "size " + cache.size() + " over the bound");
+            TestRunner.checkEquals(gets.sum(), cache.getHitCount() + cache.getMissCount(), "hits and misses");
+            cache.invalidate("topic1");
+            for (int q = 0; q < 25; q++) {
+                TestRunner.checkEquals(null, cache.get("topic1 question " + q), "invalidated entry " + q);
+            }
+        });
+        
+        tests.run("expires entries after their age", () -> {
+            ResponseCache cache = new ResponseCache(100, 1);
+            cache.put("hello", new String[] {"hello"}, "hello", "Hi!", cache.getVersion());
+            Thread.sleep(5);
+            TestRunner.checkEquals(null, cache.get("hello"), "expired answer");
+            TestRunner.checkEquals(0, cache.size(), "expired entry removed");
+        });
+        
+        tests.run("the bot reports cache hits and refreshes trained answers", () -> {
+            Path directory = Files.createTempDirectory("response-cache-test");
+            Chatbot chatbot = new Chatbot(directory);
+            try {
+                chatbot.awaitLoaded();
+                chatbot.trainBot("quantum teleportation", "First answer.");
+                ChatMetrics metrics = chatbot.getMetrics();
+                String question = "explain quantum teleportation to me";
+                TestRunner.checkEquals("First answer.", chatbot.getResponse(question), "first answer");
+                long hits = metrics.getCacheHitCount();
+                long cached = metrics.getResolutionCount(ChatMetrics.Resolution.CACHE);
+                TestRunner.checkEquals("First answer.", chatbot.getResponse(question), "repeated answer");
+                TestRunner.checkEquals(hits + 1, metrics.getCacheHitCount(), "cache hits");
+                TestRunner.checkEquals(cached + 1, metrics.getResolutionCount(ChatMetrics.Resolution.CACHE),
+                    "cache resolutions");
+                TestRunner.check(metrics.renderText().contains("chatbot_cache_requests_total{result=\"hit\"} " + (hits + 1)),
+                    "hits in the metrics text");
+                
+                chatbot.trainBot("quantum teleportation", "Second answer.");
+                TestRunner.checkEquals("Second answer.", chatbot.getResponse(question), "answer after training");
+            } finally {
+                chatbot.close();
+            }
+        });
+    }
+    
+    private static void fillWithResidents(ResponseCache cache, int count, int hits) {
+        for (int i = 0; i < count; i++) {
+            cache.put("resident " + i, new String[] {"resident"}, "resident", "R" + i, cache.getVersion());
+        }
+        for (int round = 0; round < hits; round++) {
+            for (int i = 0; i < count; i++) {
+                cache.get("resident " + i);
+            }
+        }
+    }
+    
+    private static int countResidents(ResponseCache cache, int count) {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            kept += cache.get("resident " + i) != null ? 1 : 0;
+        }
+        return kept;
+    }
+}
\ No newline at end of file
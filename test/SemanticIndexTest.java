@@ -0,0 +1,142 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class SemanticIndexTest {
+    // The HNSW search finds nearly the same neighbors as comparing with every
+    // key; a saved index loads back into one that answers identically, and
+    // one built with other settings is refused; and a bot started with
+    // -Dchatbot.semantic=true answers a reworded trained question from the
+    // semantic stage, before and after a restart.
+    private static final List<String> STOP_WORDS = Arrays.asList("the", "and", "what", "is", "how", "about",
+                                                                 "do", "i", "a", "in", "me", "you");
+    private static final int K = 10;
+    
+    public static void run(TestRunner tests) {
+        tests.run("approximate search recalls what brute force finds", () -> {
+            StopWords stopWords = new StopWords(STOP_WORDS);
+            SemanticIndex index = new SemanticIndex(stopWords, 64, 16, 100, 64);
+            List<String> keys = new ArrayList<>(new SyntheticCorpus(5).entries(5000).keySet());
+            for (String key : keys) {
+                index.add(key);
+            }
+            TestRunner.checkEquals(keys.size(), index.size(), "indexed keys");
+            TestRunner.check(!index.add(keys.get(0)), "a key is only indexed once");
+            
+            List<List<String>> queries = queries(stopWords, keys, 200);
+            int relevant = 0;
+            int retrieved = 0;
+            for (List<String> query : queries) {
+                List<SemanticIndex.Neighbor> exact = index.searchExact(query, K);
+                List<SemanticIndex.Neighbor> approximate = index.search(query, K);
+                TestRunner.checkEquals(K, approximate.size(), "neighbors of " + query);
+                for (int i = 1; i < approximate.size(); i++) {
+                    TestRunner.check(approximate.get(i - 1).getSimilarity() >= approximate.get(i).getSimilarity(),
+                                     "neighbors of " + query + " most similar first");
+                }
+                Set<String> truth = new HashSet<>();
+                for (SemanticIndex.Neighbor neighbor : exact) {
+                    truth.add(neighbor.getKey());
+                }
+                relevant += truth.size();
+                for (SemanticIndex.Neighbor neighbor : approximate) {
+                    retrieved += truth.contains(neighbor.getKey()) ? 1 : 0;
+                }
+            }
+            double recall = (double) retrieved / relevant;
+            TestRunner.check(recall >= 0.9, "recall@" + K + " " + recall);
+            TestRunner.check(index.search(Collections.<String>emptyList(), K).isEmpty(), "no keywords, no neighbors");
+        });
+        
+        tests.run("a saved index loads back with the same answers", () -> {
+            StopWords stopWords = new StopWords(STOP_WORDS);
+            SemanticIndex index = new SemanticIndex(stopWords, 64, 16, 100, 64);
+            List<String> keys = new ArrayList<>(new SyntheticCorpus(9).entries(2000).keySet());
+            for (String key : keys) {
+                index.add(key);
+            }
+            TestRunner.check(index.isDirty(), "dirty after adds");
+            Path file = Files.createTempDirectory("semantic-index-test").resolve("semantic.idx");
+            index.save(file);
+            TestRunner.check(!index.isDirty(), "clean after saving");
+            
+            SemanticIndex loaded = new SemanticIndex(stopWords, 64, 16, 100, 64);
+            TestRunner.check(loaded.load(file), "loaded with the same settings");
+            TestRunner.checkEquals(index.size(), loaded.size(), "size after loading");
+            for (List<String> query : queries(stopWords, keys, 100)) {
+                TestRunner.checkEquals(describe(index.search(query, K)), describe(loaded.search(query, K)),
+                                       "neighbors of " + query);
+            }
+            TestRunner.check(!loaded.add(keys.get(0)), "loaded keys count as indexed");
+            
+            SemanticIndex other = new SemanticIndex(stopWords, 128, 16, 100, 64);
+            TestRunner.check(!other.load(file), "refused with other dimensions");
+            TestRunner.checkEquals(0, other.size(), "size after refusing");
+        });
+        
+        tests.run("the bot answers a reworded question semantically", () -> {
+            Path directory = Files.createTempDirectory("semantic-index-test");
+            String previous = System.setProperty("chatbot.semantic", "true");
+            try {
+                Chatbot chatbot = new Chatbot(directory);
+                try {
+                    chatbot.awaitLoaded();
+                    chatbot.trainBot("how do i sort a list in python", "Call sorted() on it.");
+                    checkSemanticAnswer(chatbot);
+                } finally {
+                    chatbot.close();
+                }
+                TestRunner.check(Files.exists(directory.resolve("semantic.idx")), "index saved on close");
+                
+                Chatbot restarted = new Chatbot(directory);
+                try {
+                    restarted.awaitLoaded();
+                    checkSemanticAnswer(restarted);
+                } finally {
+                    restarted.close();
+                }
+            } finally {
+                if (previous == null) {
+                    System.clearProperty("chatbot.semantic");
+                } else {
+                    System.setProperty("chatbot.semantic", previous);
+                }
+            }
+        });
+    }
+    
+    private static void checkSemanticAnswer(Chatbot chatbot) {
+        ChatMetrics metrics = chatbot.getMetrics();
+        long before = metrics.getResolutionCount(ChatMetrics.Resolution.SEMANTIC);
+        TestRunner.checkEquals("Call sorted() on it.", chatbot.getResponse("sorting lists with python"),
+                               "answer to the rewording");
+        TestRunner.checkEquals(before + 1, metrics.getResolutionCount(ChatMetrics.Resolution.SEMANTIC),
+                               "semantic resolutions");
+    }
+    
+    private static List<List<String>> queries(StopWords stopWords, List<String> keys, int count) {
+        // Keys with one word dropped and another misspelled, so the nearest
+        // neighbors are not just the key itself
+        Random random = new Random(11);
+        SyntheticCorpus corpus = new SyntheticCorpus(13);
+        Tokenizer tokenizer = new Tokenizer(stopWords);
+        List<List<String>> queries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            List<String> words = new ArrayList<>(Arrays.asList(keys.get(random.nextInt(keys.size())).split(" ")));
+            words.remove(random.nextInt(words.size()));
+            int typo = random.nextInt(words.size());
+            words.set(typo, corpus.misspell(words.get(typo)));
+            tokenizer.tokenize(String.join(" ", words));
+            queries.add(new ArrayList<>(tokenizer.keywords()));
+        }
+        return queries;
+    }
+    
+    private static List<String> describe(List<SemanticIndex.Neighbor> neighbors) {
+        List<String> described = new ArrayList<>();
+        for (SemanticIndex.Neighbor neighbor : neighbors) {
+            described.add(neighbor.getKey() + "=" + neighbor.getSimilarity());
+        }
+        return described;
+    }
+}
\ No newline at end of file
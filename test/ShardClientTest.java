@@ -0,0 +1,145 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.*;
+
+public class ShardClientTest {
+    // Keys trained through the router land on their owner and are found
+    // there; a shard that is down is left out of lookups, matches and
+    // revisions without failing the others; and a shard that misses the
+    // first round of a match is not asked in the second, where it would
+    // rank with statistics that leave out its own keys.
+    public static void run(TestRunner tests) {
+        tests.run("routes keys to their owner and survives a failed shard", () -> {
+            List<Chatbot> bots = new ArrayList<>();
+            List<ShardServer> servers = new ArrayList<>();
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            ShardClient client = null;
+            try {
+                for (int i = 0; i < 3; i++) {
+                    Chatbot bot = new Chatbot(Files.createTempDirectory("shard-client-test"));
+                    bot.awaitLoaded();
+                    bots.add(bot);
+                    ShardServer server = new ShardServer(bot, new InetSocketAddress("127.0.0.1", 0));
+                    server.start();
+                    servers.add(server);
+                    addresses.add(new InetSocketAddress("127.0.0.1", server.getPort()));
+                }
+                client = new ShardClient(addresses, 2000, 60_000);
+                List<String> keys = new ArrayList<>();
+                for (int i = 0; i < 60; i++) {
+                    String key = "zebra" + i + " migration";
+                    client.train(key, "answer " + i);
+                    keys.add(key);
+                }
+                for (String key : keys) {
+                    int owner = ShardClient.shardOf(key, 3);
+                    TestRunner.check(bots.get(owner).getKnowledgeBase().get(key) != null, key + " on shard " + owner);
+                    TestRunner.checkEquals("answer " + key.substring(5, key.indexOf(' ')), client.get(key), "lookup of " + key);
+                }
+                
+                servers.get(2).close();
+                long[] revisions = client.revisions();
+                TestRunner.checkEquals(-1L, revisions[2], "revision of the closed shard");
+                TestRunner.check(revisions[0] >= 0 && revisions[1] >= 0, "revisions of the live shards");
+                for (String key : keys) {
+                    int owner = ShardClient.shardOf(key, 3);
+                    String word = key.substring(0, key.indexOf(' '));
+                    ShardClient.Candidate match = client.match("tell me about " + word, Collections.singletonList(word));
+                    if (owner == 2) {
+                        TestRunner.check(match == null || !match.getKey().equals(key), "no match from the closed shard");
+                        try {
+                            client.get(key);
+                            TestRunner.check(false, "lookup on the closed shard succeeded");
+                        } catch (IOException e) {
+                            // Expected: the owner is down
+                        }
+                    } else {
+                        TestRunner.check(match != null, "a match for " + word);
+                        TestRunner.checkEquals(key, match.getKey(), "match for " + word);
+                        TestRunner.checkEquals(ShardClient.RANKED, match.getStage(), "stage of " + word);
+                    }
+                }
+            } finally {
+                if (client != null) {
+                    client.close();
+                }
+                for (ShardServer server : servers) {
+                    server.close();
+                }
+                for (Chatbot bot : bots) {
+                    bot.close();
+                }
+            }
+        });
+        
+        tests.run("a shard that misses the first round is left out of the second", () -> {
+            Chatbot bot = new Chatbot(Files.createTempDirectory("shard-client-test"));
+            ShardServer server = null;
+            ServerSocket flaky = new ServerSocket(0);
+            ShardClient client = null;
+            try {
+                bot.awaitLoaded();
+                bot.trainBot("zebra migration", "The real answer.");
+                server = new ShardServer(bot, new InetSocketAddress("127.0.0.1", 0));
+                server.start();
+                Thread flakyShard = new Thread(() -> serveFlaky(flaky), "flaky-shard");
+                flakyShard.setDaemon(true);
+                flakyShard.start();
+                
+                // No retry interval, so the flaky shard is reconnected at once
+                client = new ShardClient(Arrays.asList(new InetSocketAddress("127.0.0.1", server.getPort()),
+                                                       new InetSocketAddress("127.0.0.1", flaky.getLocalPort())),
+                                         2000, 0);
+                for (int i = 0; i < 5; i++) {
+                    ShardClient.Candidate match = client.match("tell me about zebra migration",
+                                                               Arrays.asList("zebra", "migration"));
+                    TestRunner.check(match != null, "a match");
+                    TestRunner.checkEquals("zebra migration", match.getKey(), "matched key");
+                }
+            } finally {
+                if (client != null) {
+                    client.close();
+                }
+                flaky.close();
+                if (server != null) {
+                    server.close();
+                }
+                bot.close();
+            }
+        });
+    }
+    
+    private static void serveFlaky(ServerSocket serverSocket) {
+        // Drops the connection on a frequencies request, and answers every
+        // match with a candidate that would outrank any real one
+        while (!serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept()) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                for (int request = in.read(); request == ShardClient.MATCH; request = in.read()) {
+                    ShardClient.readString(in);
+                    int keywords = in.readInt();
+                    for (int i = 0; i < keywords; i++) {
+                        ShardClient.readString(in);
+                    }
+                    if (in.readInt() > 0) {
+                        for (int i = 0; i < keywords; i++) {
+                            in.readInt();
+                        }
+                    }
+                    out.writeByte(ShardClient.OK);
+                    out.writeByte(ShardClient.RANKED);
+                    ShardClient.writeString(out, "a key scored without its shard's statistics");
+                    ShardClient.writeString(out, "The wrong answer.");
+                    out.writeDouble(1e9);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // Closed by the test, or the router dropped the connection
+            }
+        }
+    }
+}
\ No newline at end of file
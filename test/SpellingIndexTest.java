@@ -0,0 +1,142 @@
+import java.util.*;
+
+public class SpellingIndexTest {
+    // The deletion index finds what comparing the word against the whole
+    // vocabulary finds: a correction exactly when some word is close enough,
+    // always at the smallest distance, and among those one used by the most
+    // keys.
+    private static final String LETTERS = "etaoinshrdlucmfwypvbgk";
+    
+    public static void run(TestRunner tests) {
+        tests.run("corrections match a brute-force scan of the vocabulary", () -> {
+            Random random = new Random(17);
+            List<String> keys = new ArrayList<>();
+            List<String> vocabulary = new ArrayList<>();
+            for (int i = 0; i < 4000; i++) {
+                vocabulary.add(randomWord(random, 3 + random.nextInt(10)));
+            }
+            for (int i = 0; i < 6000; i++) {
+                StringBuilder key = new StringBuilder();
+                int words = 1 + random.nextInt(4);
+                for (int w = 0; w < words; w++) {
+                    // Skewed, so key counts differ and ties get decided by them
+                    int index = (int) (vocabulary.size() * Math.pow(random.nextDouble(), 2));
+                    key.append(w == 0 ? "" : " ").append(vocabulary.get(index));
+                }
+                keys.add(key.toString());
+            }
+            SpellingIndex index = new SpellingIndex(new StopWords(Collections.<String>emptyList()));
+            index.addAll(keys);
+            Map<String, Integer> counts = index.vocabulary();
+            
+            int corrected = 0;
+            for (int i = 0; i < 5000; i++) {
+                String query = i % 10 == 0
+                    ? randomWord(random, 4 + random.nextInt(9))
+                    : misspell(random, vocabulary.get(random.nextInt(vocabulary.size())), 1 + random.nextInt(3));
+                String expected = bruteForce(query, counts);
+                String actual = index.correct(query);
+                if (expected == null) {
+                    TestRunner.checkEquals(null, actual, "correction of " + query);
+                    continue;
+                }
+                TestRunner.check(actual != null, "no correction of " + query + ", expected " + expected);
+                TestRunner.checkEquals(distance(query, expected), distance(query, actual), "distance of " + query + " to " + actual);
+                TestRunner.checkEquals(counts.get(expected), counts.get(actual), "key count of " + actual + " for " + query);
+                corrected++;
+            }
+            TestRunner.check(corrected > 1000, "enough queries were corrected: " + corrected);
+        });
+        
+        tests.run("leaves known, short and numeric words alone", () -> {
+            SpellingIndex index = new SpellingIndex(new StopWords(Collections.<String>emptyList()));
+            index.addAll(Arrays.asList("java programming", "python basics", "web2 design"));
+            TestRunner.checkEquals(null, index.correct("java"), "known word");
+            TestRunner.checkEquals(null, index.correct("jav"), "short word");
+            TestRunner.checkEquals(null, index.correct("web3"), "word with a digit");
+            TestRunner.checkEquals("java", index.correct("jsva"), "one edit");
+            TestRunner.checkEquals(null, index.correct("jxvx"), "two edits in a short word");
+            TestRunner.checkEquals("programming", index.correct("progamming"), "deletion");
+            TestRunner.checkEquals("programming", index.correct("porgramimng"), "two transpositions");
+            TestRunner.checkEquals("basics", index.correct("bsaics"), "transposition");
+        });
+    }
+    
+    private static String bruteForce(String word, Map<String, Integer> counts) {
+        if (word.length() < 4 || counts.containsKey(word)) {
+            return null;
+        }
+        int maxDistance = word.length() <= 5 ? 1 : 2;
+        String best = null;
+        int bestDistance = maxDistance + 1;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (Math.abs(entry.getKey().length() - word.length()) > maxDistance) {
+                continue;
+            }
+            int distance = distance(word, entry.getKey());
+            if (distance < bestDistance || (distance == bestDistance && best != null && entry.getValue() > counts.get(best))) {
+                best = entry.getKey();
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+    
+    private static int distance(String a, String b) {
+        // Optimal string alignment: edits plus adjacent transpositions
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= b.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+    
+    private static String misspell(Random random, String word, int edits) {
+        StringBuilder typo = new StringBuilder(word);
+        for (int e = 0; e < edits; e++) {
+            int position = random.nextInt(typo.length() + 1);
+            switch (random.nextInt(4)) {
+                case 0:
+                    typo.insert(position, LETTERS.charAt(random.nextInt(LETTERS.length())));
+                    break;
+                case 1:
+                    if (typo.length() > 1 && position < typo.length()) {
+                        typo.deleteCharAt(position);
+                    }
+                    break;
+                case 2:
+                    if (position < typo.length()) {
+                        typo.setCharAt(position, LETTERS.charAt(random.nextInt(LETTERS.length())));
+                    }
+                    break;
+                default:
+                    if (position + 1 < typo.length()) {
+                        char c = typo.charAt(position);
+                        typo.setCharAt(position, typo.charAt(position + 1));
+                        typo.setCharAt(position + 1, c);
+                    }
+            }
+        }
+        return typo.toString();
+    }
+    
+    private static String randomWord(Random random, int length) {
+        StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            word.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+        }
+        return word.toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,87 @@
+import java.util.*;
+import java.util.function.Consumer;
+
+public class TestRunner {
+    // Minimal, dependency-free test harness next to the benchmark one: each
+    // test class adds named cases, a failed check throws, and the run lists
+    // every case and exits non-zero if any failed.
+    //
+    //   java -cp out TestRunner                        every test class
+    //   java -cp out TestRunner KeywordCounterTest     only the ones named
+    public interface Case {
+        void run() throws Exception;
+    }
+    
+    private int passed;
+    private List<String> failures = new ArrayList<>();
+    
+    public void run(String name, Case test) {
+        long start = System.nanoTime();
+        try {
+            test.run();
+            passed++;
+            System.out.printf("  pass  %-60s %6d ms%n", name, (System.nanoTime() - start) / 1_000_000);
+        } catch (Throwable e) {
+            failures.add(name);
+            System.out.printf("  FAIL  %s: %s%n", name, e);
+            if (!(e instanceof AssertionError)) {
+                e.printStackTrace(System.out);
+            }
+        }
+    }
+    
+    public static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+    
+    public static void checkEquals(Object expected, Object actual, String what) {
+        if (!Objects.equals(expected, actual)) {
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+    
+    public static void main(String[] args) {
+        Map<String, Consumer<TestRunner>> suites = new LinkedHashMap<>();
+        suites.put("KeywordCounterTest", KeywordCounterTest::run);
+        suites.put("ConversationHistoryTest", ConversationHistoryTest::run);
+        suites.put("TokenizerTest", TokenizerTest::run);
+        suites.put("RankedIndexTest", RankedIndexTest::run);
+        suites.put("ResponseCacheTest", ResponseCacheTest::run);
+        suites.put("SpellingIndexTest", SpellingIndexTest::run);
+        suites.put("TrainingImporterTest", TrainingImporterTest::run);
+        suites.put("ChunkedBuildTest", ChunkedBuildTest::run);
+        suites.put("TrainingJournalTest", TrainingJournalTest::run);
+        suites.put("ShardClientTest", ShardClientTest::run);
+        suites.put("ChatSessionTest", ChatSessionTest::run);
+        suites.put("KnowledgeBaseFileTest", KnowledgeBaseFileTest::run);
+        suites.put("BotWorkerTest", BotWorkerTest::run);
+        suites.put("TranscriptModelTest", TranscriptModelTest::run);
+        suites.put("LatencyHistogramTest", LatencyHistogramTest::run);
+        suites.put("ChatServerTest", ChatServerTest::run);
+        suites.put("TrainingDataWatcherTest", TrainingDataWatcherTest::run);
+        suites.put("BackgroundLoadTest", BackgroundLoadTest::run);
+        suites.put("ConversationReplayTest", ConversationReplayTest::run);
+        suites.put("SemanticIndexTest", SemanticIndexTest::run);
+        suites.put("AdmissionControllerTest", AdmissionControllerTest::run);
+        suites.put("ChatStatisticsTest", ChatStatisticsTest::run);
+        
+        Set<String> selected = new LinkedHashSet<>(Arrays.asList(args));
+        TestRunner runner = new TestRunner();
+        for (Map.Entry<String, Consumer<TestRunner>> suite : suites.entrySet()) {
+            if (selected.isEmpty() || selected.remove(suite.getKey())) {
+                System.out.println(suite.getKey());
+                suite.getValue().accept(runner);
+            }
+        }
+        if (!selected.isEmpty()) {
+            System.out.println("Unknown test classes: " + selected);
+            System.exit(2);
+        }
+        System.out.println(runner.passed + " passed, " + runner.failures.size() + " failed");
+        if (!runner.failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import java.util.*;
+import java.util.regex.Pattern;
+
+public class TokenizerTest {
+    // The single-pass tokenizer produces exactly what the regex pipeline it
+    // replaced produced: the same normalized text and the same keywords, for
+    // ASCII and non-ASCII input, under the default and a special-casing locale.
+    private static final Pattern NON_ALPHANUMERIC = Pattern.compile("[^a-zA-Z0-9\\s]");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final List<String> STOP_WORDS = Arrays.asList("the", "and", "what", "is", "how", "you", "are", "for");
+    
+    // Inputs are drawn from these, weighted towards plain words
+    private static final String[] FRAGMENTS = {
+        "the", "java", "What", "IS", "python", "hello", "machine", "learning", "AND", "you",
+        "a", "to", "x9", "404", "I", "Istanbul", "TITLE", "ok",
+        " ", "  ", "\t", "\n", "\r\n", "\u000B", "\f", " ", " ",
+        "!", "?", ".", ",", "'", "-", "_", "/", "(c)", "c++", "c#", "e-mail",
+        "é", "Élan", "İstanbul", "ıi", "straße", "ﬁle", "ΣΑΣ", "Ǆ", "😀", "\uD83D", "ǅx", "K"
+    };
+    
+    public static void run(TestRunner tests) {
+        tests.run("normalizes edge cases like the regex pipeline", () -> {
+            Tokenizer tokenizer = new Tokenizer(new StopWords(STOP_WORDS));
+            String[] inputs = {
+                "", " ", "   \t\n", "!!!", "Hello", "  Hello, World!  ", "What is Java?",
+                "the and is", "c++ vs c#", "a  b   c", "ab abc abcd", "x y", "naïve café",
+                "İstanbul", "STRASSE straße", "ﬁle ﬂow", "😀 java 😀", "\uD83D lone", "tab\tand\nnewline",
+                "trailing!", "!leading", "mixed123 456numbers", "UPPER lower MiXeD"
+            };
+            for (String input : inputs) {
+                assertMatches(tokenizer, input);
+            }
+        });
+        
+        tests.run("matches the regex pipeline on random input", () -> {
+            Tokenizer tokenizer = new Tokenizer(new StopWords(STOP_WORDS));
+            Random random = new Random(42);
+            for (int i = 0; i < 50_000; i++) {
+                assertMatches(tokenizer, randomInput(random));
+            }
+        });
+        
+        tests.run("matches the regex pipeline under a special-casing locale", () -> {
+            Locale previous = Locale.getDefault();
+            try {
+                for (String tag : new String[] {"tr", "az", "lt"}) {
+                    Locale.setDefault(Locale.forLanguageTag(tag));
+                    Tokenizer tokenizer = new Tokenizer(new StopWords(STOP_WORDS));
+                    Random random = new Random(tag.hashCode());
+                    for (int i = 0; i < 10_000; i++) {
+                        assertMatches(tokenizer, randomInput(random));
+                    }
+                    assertMatches(tokenizer, "TITLE IS İ I ı i");
+                }
+            } finally {
+                Locale.setDefault(previous);
+            }
+        });
+    }
+    
+    private static void assertMatches(Tokenizer tokenizer, String input) {
+        String expected = regexNormalize(input);
+        tokenizer.tokenize(input);
+        TestRunner.checkEquals(expected, tokenizer.normalized(), "normalized " + describe(input));
+        TestRunner.checkEquals(regexKeywords(expected), tokenizer.keywords(), "keywords of " + describe(input));
+    }
+    
+    private static String regexNormalize(String input) {
+        String processed = input.toLowerCase().trim();
+        processed = NON_ALPHANUMERIC.matcher(processed).replaceAll(" ");
+        return WHITESPACE.matcher(processed).replaceAll(" ");
+    }
+    
+    private static List<String> regexKeywords(String normalized) {
+        List<String> keywords = new ArrayList<>();
+        for (String word : WHITESPACE.split(normalized)) {
+            if (!STOP_WORDS.contains(word) && word.length() > 2) {
+                keywords.add(word);
+            }
+        }
+        return keywords;
+    }
+    
+    private static String randomInput(Random random) {
+        StringBuilder input = new StringBuilder();
+        int fragments = random.nextInt(12);
+        for (int i = 0; i < fragments; i++) {
+            if (random.nextInt(3) == 0) {
+                input.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            } else {
+                input.append(FRAGMENTS[random.nextInt(18)]);
+            }
+            if (random.nextBoolean()) {
+                input.append(' ');
+            }
+        }
+        return input.toString();
+    }
+    
+    private static String describe(String input) {
+        StringBuilder escaped = new StringBuilder("\"");
+        for (char c : input.toCharArray()) {
+            if (c >= 0x20 && c < 0x7f) {
+                escaped.append(c);
+            } else {
+                escaped.append(String.format("\\u%04X", (int) c));
+            }
+        }
+        return escaped.append('"').toString();
+    }
+}
\ No newline at end of file
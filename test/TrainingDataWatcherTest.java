@@ -0,0 +1,126 @@
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TrainingDataWatcherTest {
+    // A burst of writes to a watched file runs the callback once it goes
+    // quiet, and other files are ignored. An edited training file is
+    // reloaded in place: trained answers stay on top of it, a reload with
+    // nothing changed is skipped, readers racing the reload always get the
+    // old or the new answer, and with the watcher on no call is needed.
+    public static void run(TestRunner tests) {
+        tests.run("runs the callback once per burst of relevant changes", () -> {
+            Path directory = Files.createTempDirectory("training-data-watcher-test");
+            AtomicInteger changes = new AtomicInteger();
+            TrainingDataWatcher watcher = new TrainingDataWatcher(directory, Collections.singleton("watched.txt"), 200,
+                                                                  changes::incrementAndGet);
+            try {
+                for (int i = 0; i < 5; i++) {
+                    Files.write(directory.resolve("watched.txt"), ("version " + i).getBytes(StandardCharsets.UTF_8));
+                    Thread.sleep(20);
+                }
+                TestRunner.check(waitFor(() -> changes.get() > 0), "callback after the burst");
+                Thread.sleep(600);
+                TestRunner.checkEquals(1, changes.get(), "callbacks for one burst");
+                
+                Files.write(directory.resolve("other.txt"), "ignored".getBytes(StandardCharsets.UTF_8));
+                Thread.sleep(600);
+                TestRunner.checkEquals(1, changes.get(), "callbacks after an unwatched file changed");
+            } finally {
+                watcher.close();
+            }
+        });
+        
+        tests.run("reloads an edited training file and keeps trained answers", () -> {
+            Path directory = Files.createTempDirectory("training-data-watcher-test");
+            Path trainingFile = directory.resolve("training_data.txt");
+            writeTrainingFile(trainingFile, "Old answer.", 20_000);
+            System.setProperty("chatbot.reload.watch", "false");
+            Chatbot chatbot;
+            try {
+                chatbot = new Chatbot(directory);
+            } finally {
+                System.clearProperty("chatbot.reload.watch");
+            }
+            try {
+                chatbot.awaitLoaded();
+                TestRunner.checkEquals("Old answer.", chatbot.getResponse("zebra migration"), "answer before the edit");
+                chatbot.trainBot("trained question", "Trained answer.");
+                TestRunner.checkEquals(false, chatbot.reloadIfChanged(), "reload with nothing changed");
+                
+                writeTrainingFile(trainingFile, "New answer, longer than before.", 20_000);
+                AtomicBoolean reloading = new AtomicBoolean(true);
+                AtomicReference<String> unexpected = new AtomicReference<>();
+                Thread reader = new Thread(() -> {
+                    ChatSession session = chatbot.newSession();
+                    while (reloading.get()) {
+                        String answer = chatbot.getResponse(session, "zebra migration");
+                        if (!answer.equals("Old answer.") && !answer.equals("New answer, longer than before.")) {
+                            unexpected.compareAndSet(null, answer);
+                        }
+                    }
+                });
+                reader.start();
+                try {
+                    TestRunner.checkEquals(true, chatbot.reloadIfChanged(), "reload after the edit");
+                } finally {
+                    reloading.set(false);
+                    reader.join();
+                }
+                TestRunner.checkEquals(null, unexpected.get(), "answer seen during the reload");
+                TestRunner.checkEquals("New answer, longer than before.", chatbot.getResponse("zebra migration"),
+                                       "answer after the edit");
+                TestRunner.checkEquals("Trained answer.", chatbot.getResponse("trained question"),
+                                       "trained answer after the reload");
+                TestRunner.checkEquals("Filler answer 19999.", chatbot.getKnowledgeBase().get("filler question 19999"),
+                                       "last line of the file");
+            } finally {
+                chatbot.close();
+            }
+        });
+        
+        tests.run("the bot picks up an edit without being asked", () -> {
+            Path directory = Files.createTempDirectory("training-data-watcher-test");
+            Path trainingFile = directory.resolve("training_data.txt");
+            writeTrainingFile(trainingFile, "Old answer.", 10);
+            Chatbot chatbot = new Chatbot(directory);
+            try {
+                chatbot.awaitLoaded();
+                TestRunner.checkEquals("Old answer.", chatbot.getResponse("zebra migration"), "answer before the edit");
+                writeTrainingFile(trainingFile, "Watched answer.", 10);
+                TestRunner.check(waitFor(() -> "Watched answer.".equals(chatbot.getKnowledgeBase().get("zebra migration"))),
+                                 "edit picked up by the watcher");
+            } finally {
+                chatbot.close();
+            }
+        });
+    }
+    
+    private interface Condition {
+        boolean holds();
+    }
+    
+    private static boolean waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.holds()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(20);
+        }
+        return true;
+    }
+    
+    private static void writeTrainingFile(Path file, String answer, int fillerLines) throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < fillerLines; i++) {
+            lines.add("filler question " + i + "|Filler answer " + i + ".");
+        }
+        lines.add("zebra migration|" + answer);
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+}
\ No newline at end of file
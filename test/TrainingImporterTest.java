@@ -0,0 +1,192 @@
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class TrainingImporterTest {
+    // Pairs written out in every import format come back unchanged, across
+    // batch boundaries and with later rows winning; the snapshot file returns
+    // what was written to it; and an import into a bot survives a restart,
+    // overriding an answer trained before it.
+    private static final String[] WORDS = {
+        "java", "Python", "what's", "a", "\"quoted\"", "comma,separated", "back\\slash", "tab\there",
+        "naïve", "İstanbul", "日本語", "😀", "{braces}", "[brackets]", "semi;colon", "  padded  "
+    };
+    
+    public static void run(TestRunner tests) {
+        tests.run("pairs round-trip through every import format", () -> {
+            Random random = new Random(23);
+            List<String[]> pairs = randomPairs(random, 10_000, false);
+            Map<String, String> expected = expectedEntries(pairs);
+            Path directory = Files.createTempDirectory("training-import-test");
+            
+            Path csv = directory.resolve("corpus.csv");
+            try (Writer out = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+                out.write("question,answer\n");
+                for (String[] pair : pairs) {
+                    out.write(csvField(pair[0]) + "," + csvField(pair[1]) + "\n");
+                }
+            }
+            Path jsonl = directory.resolve("corpus.jsonl");
+            try (Writer out = Files.newBufferedWriter(jsonl, StandardCharsets.UTF_8)) {
+                for (String[] pair : pairs) {
+                    out.write("{\"id\": 7, \"question\": " + jsonString(pair[0]) + ", \"tags\": [\"x\", {\"y\": 1}], " +
+                              "\"answer\": " + jsonString(pair[1]) + "}\n");
+                }
+            }
+            List<String[]> pipePairs = randomPairs(random, 10_000, true);
+            Path pipe = directory.resolve("corpus.txt");
+            try (Writer out = Files.newBufferedWriter(pipe, StandardCharsets.UTF_8)) {
+                for (String[] pair : pipePairs) {
+                    out.write(pair[0] + "|" + pair[1] + "\n");
+                }
+            }
+            
+            for (int threads : new int[] {1, 3}) {
+                TrainingImporter importer = new TrainingImporter(threads);
+                checkImported(expected, pairs.size(), importer.read(csv), "CSV with " + threads + " threads");
+                checkImported(expected, pairs.size(), importer.read(jsonl), "JSONL with " + threads + " threads");
+                checkImported(expectedEntries(pipePairs), pipePairs.size(), importer.read(pipe),
+                              "pipe-delimited with " + threads + " threads");
+            }
+        });
+        
+        tests.run("rejects malformed rows and skips only a leading header", () -> {
+            Path directory = Files.createTempDirectory("training-import-test");
+            Path csv = directory.resolve("corpus.csv");
+            // An unterminated quote runs to the end of the file, so it comes last
+            Files.write(csv, Arrays.asList("question,answer", "one,1", "three,3,extra", ",empty question",
+                                           "question,answer", "two,\"multi", "line\"", "\"unterminated,2"),
+                        StandardCharsets.UTF_8);
+            TrainingImporter.Result result = new TrainingImporter(2).read(csv);
+            Map<String, String> expected = new LinkedHashMap<>();
+            expected.put("one", "1");
+            expected.put("question", "answer");
+            expected.put("two", "multi\nline");
+            TestRunner.checkEquals(expected, result.getEntries(), "CSV entries");
+            TestRunner.checkEquals(3L, result.getRejectedCount(), "rejected CSV rows");
+            
+            Path jsonl = directory.resolve("corpus.jsonl");
+            Files.write(jsonl, Arrays.asList("{\"question\": \"q\\u00e9\", \"answer\": \"a\\n\\\"b\\\"\"}", "not json",
+                                             "{\"question\": 1, \"answer\": \"x\"}", "{\"question\": \"open\""),
+                        StandardCharsets.UTF_8);
+            result = new TrainingImporter(2).read(jsonl);
+            TestRunner.checkEquals(Collections.singletonMap("qé", "a\n\"b\""), result.getEntries(), "JSONL entries");
+            TestRunner.checkEquals(3L, result.getRejectedCount(), "rejected JSONL rows");
+        });
+        
+        tests.run("snapshot files return what was written", () -> {
+            Map<String, String> entries = expectedEntries(randomPairs(new Random(29), 20_000, false));
+            entries.put("", "empty key");
+            Path file = Files.createTempDirectory("training-import-test").resolve("training_data.kb");
+            KnowledgeBaseFile.write(file, entries);
+            try (KnowledgeBaseFile snapshot = KnowledgeBaseFile.open(file)) {
+                TestRunner.checkEquals(entries.size(), snapshot.size(), "entry count");
+                Map<String, String> read = new LinkedHashMap<>();
+                for (int i = 0; i < snapshot.size(); i++) {
+                    read.put(snapshot.keyAt(i), snapshot.responseAt(i));
+                }
+                TestRunner.checkEquals(entries, read, "entries in order");
+                for (Map.Entry<String, String> entry : entries.entrySet()) {
+                    TestRunner.checkEquals(entry.getValue(), snapshot.lookup(entry.getKey()), "lookup of " + entry.getKey());
+                }
+                TestRunner.checkEquals(null, snapshot.lookup("no such key"), "missing key");
+            }
+        });
+        
+        tests.run("an import survives a restart and overrides trained answers", () -> {
+            Path directory = Files.createTempDirectory("training-import-test");
+            Path corpus = directory.resolve("corpus.csv");
+            Files.write(corpus, Arrays.asList("Imported Question,imported answer", "trained question,imported override"),
+                        StandardCharsets.UTF_8);
+            Chatbot chatbot = new Chatbot(directory);
+            try {
+                chatbot.awaitLoaded();
+                chatbot.trainBot("trained question", "trained answer");
+                chatbot.trainBot("kept question", "kept answer");
+                TrainingImporter.Result result = chatbot.importTrainingData(corpus);
+                TestRunner.checkEquals(2, result.getEntries().size(), "imported entries");
+            } finally {
+                chatbot.close();
+            }
+            
+            Chatbot restarted = new Chatbot(directory);
+            try {
+                restarted.awaitLoaded();
+                KnowledgeBase knowledgeBase = restarted.getKnowledgeBase();
+                TestRunner.checkEquals("imported answer", knowledgeBase.get("imported question"), "imported entry");
+                TestRunner.checkEquals("imported override", knowledgeBase.get("trained question"), "overridden entry");
+                TestRunner.checkEquals("kept answer", knowledgeBase.get("kept question"), "trained entry");
+            } finally {
+                restarted.close();
+            }
+        });
+    }
+    
+    private static void checkImported(Map<String, String> expected, int records, TrainingImporter.Result result,
+                                      String what) {
+        TestRunner.checkEquals(expected, result.getEntries(), what + " entries");
+        TestRunner.checkEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(result.getEntries().keySet()),
+                               what + " key order");
+        TestRunner.checkEquals((long) records, result.getRecordCount(), what + " records");
+        TestRunner.checkEquals(0L, result.getRejectedCount(), what + " rejected");
+    }
+    
+    private static List<String[]> randomPairs(Random random, int count, boolean pipeSafe) {
+        // Questions repeat, so later rows have to win; pipe-delimited pairs
+        // cannot hold a pipe or a line break
+        List<String[]> pairs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String question = randomText(random, 1 + random.nextInt(3)) + " " + random.nextInt(count / 2);
+            String answer = randomText(random, 1 + random.nextInt(6));
+            if (!pipeSafe && random.nextInt(10) == 0) {
+                answer += "\nsecond line | with a pipe";
+            }
+            pairs.add(new String[] {question, answer + " " + i});
+        }
+        return pairs;
+    }
+    
+    private static String randomText(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+    
+    private static Map<String, String> expectedEntries(List<String[]> pairs) {
+        // Normalized the way trainBot normalizes
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (String[] pair : pairs) {
+            entries.put(pair[0].toLowerCase().trim(), pair[1].trim());
+        }
+        return entries;
+    }
+    
+    private static String csvField(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0) {
+            return field;
+        }
+        return "\"" + field.replace("\"", "\"\"") + "\"";
+    }
+    
+    private static String jsonString(String text) {
+        StringBuilder json = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c == '\n') {
+                json.append("\\n");
+            } else if (c == '\t') {
+                json.append("\\t");
+            } else if (c > 0x7e) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,157 @@
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class TrainingJournalTest {
+    // Records written before a crash come back when the journal is reopened;
+    // a torn or corrupt tail is cut off without taking good records with it;
+    // compaction keeps the latest answer per key; and every append racing
+    // close() completes one way or the other instead of hanging.
+    public static void run(TestRunner tests) {
+        tests.run("reopening restores the records written", () -> {
+            Path file = Files.createTempDirectory("training-journal-test").resolve("training.journal");
+            Map<String, String> expected = writeRecords(file, 500);
+            TrainingJournal reopened = new TrainingJournal(file, 64, 5);
+            try {
+                TestRunner.checkEquals(expected, reopened.getRecoveredEntries(), "recovered entries");
+            } finally {
+                reopened.close();
+            }
+        });
+        
+        tests.run("a torn tail is cut off and the good records survive", () -> {
+            Path file = Files.createTempDirectory("training-journal-test").resolve("training.journal");
+            Map<String, String> expected = writeRecords(file, 300);
+            long goodSize = Files.size(file);
+            // The start of a record that claims 100 payload bytes but has 6
+            appendBytes(file, ByteBuffer.allocate(14).putInt(100).putInt(0).put(new byte[6]).array());
+            
+            TrainingJournal reopened = new TrainingJournal(file, 64, 5);
+            try {
+                TestRunner.checkEquals(expected, reopened.getRecoveredEntries(), "recovered entries");
+                TestRunner.checkEquals(goodSize, Files.size(file), "size after recovery");
+                reopened.append("after the tear", "kept").get(5, TimeUnit.SECONDS);
+            } finally {
+                reopened.close();
+            }
+            TrainingJournal again = new TrainingJournal(file, 64, 5);
+            try {
+                expected.put("after the tear", "kept");
+                TestRunner.checkEquals(expected, again.getRecoveredEntries(), "entries appended after recovery");
+            } finally {
+                again.close();
+            }
+        });
+        
+        tests.run("a corrupt last record is dropped, earlier ones kept", () -> {
+            Path file = Files.createTempDirectory("training-journal-test").resolve("training.journal");
+            Map<String, String> expected = writeRecords(file, 10);
+            TrainingJournal journal = new TrainingJournal(file, 64, 5);
+            long goodSize = Files.size(file);
+            journal.append("corrupted key", "corrupted answer").get(5, TimeUnit.SECONDS);
+            journal.close();
+            
+            // Flip a byte of the last record's payload, so its checksum fails
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer last = ByteBuffer.allocate(1);
+                channel.read(last, channel.size() - 1);
+                last.put(0, (byte) (last.get(0) ^ 0x55));
+                last.rewind();
+                channel.write(last, channel.size() - 1);
+            }
+            TrainingJournal reopened = new TrainingJournal(file, 64, 5);
+            try {
+                TestRunner.checkEquals(expected, reopened.getRecoveredEntries(), "recovered entries");
+                TestRunner.checkEquals(goodSize, Files.size(file), "size after recovery");
+            } finally {
+                reopened.close();
+            }
+        });
+        
+        tests.run("compaction keeps the latest answer per key", () -> {
+            Path file = Files.createTempDirectory("training-journal-test").resolve("training.journal");
+            TrainingJournal journal = new TrainingJournal(file, 64, 5);
+            Map<String, String> expected = new LinkedHashMap<>();
+            List<CompletableFuture<Void>> writes = new ArrayList<>();
+            for (int i = 0; i < 5000; i++) {
+                writes.add(journal.append("key " + (i % 20), "answer " + i));
+                expected.put("key " + (i % 20), "answer " + i);
+            }
+            for (CompletableFuture<Void> write : writes) {
+                write.get(5, TimeUnit.SECONDS);
+            }
+            journal.close();
+            TestRunner.check(Files.size(file) < 5000L * 20, "compacted, size " + Files.size(file));
+            
+            TrainingJournal reopened = new TrainingJournal(file, 64, 5);
+            try {
+                TestRunner.checkEquals(expected, reopened.getRecoveredEntries(), "recovered entries");
+            } finally {
+                reopened.close();
+            }
+        });
+        
+        tests.run("appends racing close always complete", () -> {
+            for (int round = 0; round < 20; round++) {
+                Path file = Files.createTempDirectory("training-journal-test").resolve("training.journal");
+                TrainingJournal journal = new TrainingJournal(file, 64, 5);
+                List<CompletableFuture<Void>> writes = Collections.synchronizedList(new ArrayList<>());
+                List<Thread> writers = new ArrayList<>();
+                for (int t = 0; t < 3; t++) {
+                    int writerId = t;
+                    Thread writer = new Thread(() -> {
+                        for (int i = 0; i < 2000; i++) {
+                            writes.add(journal.append("key " + writerId + " " + i, "answer"));
+                        }
+                    });
+                    writer.start();
+                    writers.add(writer);
+                }
+                journal.close();
+                for (Thread writer : writers) {
+                    writer.join();
+                }
+                
+                Set<String> written = new HashSet<>();
+                int failed = 0;
+                for (CompletableFuture<Void> write : writes) {
+                    try {
+                        write.get(5, TimeUnit.SECONDS);
+                    } catch (ExecutionException e) {
+                        failed++;
+                    }
+                }
+                TrainingJournal reopened = new TrainingJournal(file, 64, 5);
+                written.addAll(reopened.getRecoveredEntries().keySet());
+                reopened.close();
+                TestRunner.checkEquals(writes.size() - failed, written.size(), "acknowledged writes on disk");
+            }
+        });
+    }
+    
+    private static Map<String, String> writeRecords(Path file, int count) throws Exception {
+        TrainingJournal journal = new TrainingJournal(file, 64, 5);
+        Map<String, String> expected = new LinkedHashMap<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                journal.append("question " + i, "answer ü " + i);
+                expected.put("question " + i, "answer ü " + i);
+            }
+        } finally {
+            journal.close();
+        }
+        return expected;
+    }
+    
+    private static void appendBytes(Path file, byte[] bytes) throws Exception {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(bytes));
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,79 @@
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+public class TranscriptModelTest {
+    // The model shows the last retention messages, oldest first, and tells
+    // the list exactly which rows came and went; messages pushed out are in
+    // the log, in order, once the model is closed; clearing empties the rows
+    // but keeps the log; and messages pushed out after close are dropped.
+    public static void run(TestRunner tests) {
+        tests.run("keeps the last messages and spills older ones in order", () -> {
+            Path log = Files.createTempDirectory("transcript-model-test").resolve("transcript.log");
+            TranscriptModel transcript = new TranscriptModel(50, log);
+            List<String> events = new ArrayList<>();
+            transcript.addListDataListener(new ListDataListener() {
+                @Override
+                public void intervalAdded(ListDataEvent e) {
+                    events.add("+" + e.getIndex0() + "-" + e.getIndex1());
+                }
+                
+                @Override
+                public void intervalRemoved(ListDataEvent e) {
+                    events.add("-" + e.getIndex0() + "-" + e.getIndex1());
+                }
+                
+                @Override
+                public void contentsChanged(ListDataEvent e) {
+                    events.add("~" + e.getIndex0() + "-" + e.getIndex1());
+                }
+            });
+            for (int i = 0; i < 1000; i++) {
+                transcript.add("message " + i);
+            }
+            TestRunner.checkEquals(50, transcript.getSize(), "rows");
+            TestRunner.checkEquals(950L, transcript.getSpilledCount(), "spilled messages");
+            for (int row = 0; row < 50; row++) {
+                TestRunner.checkEquals("message " + (950 + row), transcript.getElementAt(row), "row " + row);
+            }
+            TestRunner.checkEquals(Arrays.asList("+0-0", "+1-1"), events.subList(0, 2), "first events");
+            TestRunner.checkEquals(Arrays.asList("-0-0", "+49-49"), events.subList(events.size() - 2, events.size()),
+                                   "events once full");
+            TestRunner.checkEquals(50 + 2 * 950, events.size(), "event count");
+            
+            transcript.close();
+            StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < 950; i++) {
+                expected.append("message ").append(i).append("\n\n");
+            }
+            TestRunner.checkEquals(expected.toString(), new String(Files.readAllBytes(log), StandardCharsets.UTF_8), "log");
+        });
+        
+        tests.run("clearing empties the rows and keeps appending to the log", () -> {
+            Path log = Files.createTempDirectory("transcript-model-test").resolve("transcript.log");
+            TranscriptModel transcript = new TranscriptModel(3, log);
+            for (int i = 0; i < 5; i++) {
+                transcript.add("first " + i);
+            }
+            transcript.clear();
+            TestRunner.checkEquals(0, transcript.getSize(), "rows after clear");
+            TestRunner.checkEquals(0L, transcript.getSpilledCount(), "spilled after clear");
+            for (int i = 0; i < 4; i++) {
+                transcript.add("second " + i);
+            }
+            TestRunner.checkEquals(Arrays.asList("second 1", "second 2", "second 3"),
+                                   Arrays.asList(transcript.getElementAt(0), transcript.getElementAt(1),
+                                                 transcript.getElementAt(2)), "rows");
+            transcript.close();
+            transcript.close();
+            
+            // Pushed out after close: dropped, not written and not thrown
+            transcript.add("after close");
+            TestRunner.checkEquals("first 0\n\nfirst 1\n\nsecond 0\n\n",
+                                   new String(Files.readAllBytes(log), StandardCharsets.UTF_8), "log");
+        });
+    }
+}
\ No newline at end of file